@@ -62,7 +62,7 @@ public class AuthCommandLine extends Thread  {
         BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
         for (;;) {
             try {
-                logger.info("\nEnter command (e.g., help, show re/cp/ta/sk/maps, clean sk, reset re/sk, issue cert [ic], backup ): ");
+                logger.info("\nEnter command (e.g., help, show re/cp/ta/sk/maps/stats, clean sk, reset re/sk, issue cert [ic], backup ): ");
                 String command = br.readLine();
                 if (command == null) {
                     break;
@@ -96,6 +96,9 @@ public class AuthCommandLine extends Thread  {
                 else if (command.equals("show maps")) {
                     logger.info("\nShow maps for UDP listener port command\n{}", server.showAllUdpPortListenerMaps());
                 }
+                else if (command.equals("show stats")) {
+                    logger.info("\nShow runtime statistics command\n{}", server.statisticsToString());
+                }
                 else if (command.equals("clean sk")) {
                     logger.info("\nClean expired session keys command\n");
                     try {
@@ -200,6 +203,7 @@ public class AuthCommandLine extends Thread  {
                 "show cp            : Show communication policies\n" +
                 "show ta            : Show trusted Auths\n" +
                 "show maps          : Show maps for UDP listener port\n" +
+                "show stats         : Show runtime statistics (e.g., entity request queue depth, rejections)\n" +
                 "clean sk           : Clean expired session keys\n" +
                 "reset sk           : Reset cached session key table (Delete all session keys)\n" +
                 "reset re           : Reset registered entities (delete all entities backed up from other Auths)\n" +
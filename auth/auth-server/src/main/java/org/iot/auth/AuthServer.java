@@ -34,8 +34,14 @@ import org.eclipse.jetty.server.SslConnectionFactory;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.iot.auth.config.AuthServerProperties;
 import org.iot.auth.config.constants.C;
+import org.iot.auth.crypto.AsymmetricCryptoExecutor;
 import org.iot.auth.crypto.AuthCrypto;
+import org.iot.auth.crypto.AuthRandom;
+import org.iot.auth.crypto.CryptoPrimitivePool;
+import org.iot.auth.crypto.DistributionDiffieHellman;
 import org.iot.auth.crypto.DistributionKey;
+import org.iot.auth.crypto.EntityKeyCache;
+import org.iot.auth.crypto.EphemeralKeyPairPool;
 import org.iot.auth.crypto.SessionKey;
 import org.iot.auth.db.*;
 import org.iot.auth.db.bean.CommunicationPolicyTable;
@@ -44,6 +50,8 @@ import org.iot.auth.message.*;
 import org.iot.auth.db.CommunicationTargetType;
 import org.iot.auth.server.*;
 import org.iot.auth.util.ExceptionToString;
+import org.iot.auth.util.HashedTimingWheel;
+import org.iot.auth.util.VirtualThreadHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -62,8 +70,14 @@ import java.io.*;
 import java.math.BigInteger;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
@@ -73,7 +87,6 @@ import java.security.cert.X509Certificate;
 import java.sql.SQLException;
 import java.util.*;
 import java.util.List;
-import java.util.Timer;
 import java.util.concurrent.*;
 import javax.bluetooth.LocalDevice;
 import javax.bluetooth.BluetoothStateException;
@@ -107,22 +120,96 @@ public class AuthServer {
 
         authID =  properties.getAuthID();
 
+        if (properties.getRandomBufferSize() > 0) {
+            AuthRandom.enableBuffer(properties.getRandomBufferSize());
+        }
         crypto = new AuthCrypto(properties.getEntityKeyStorePath(), authKeyStorePassword);
+        if (properties.getAsymmetricCryptoExecutorEnabled()) {
+            crypto.setAsymmetricCryptoExecutor(new AsymmetricCryptoExecutor(properties.getAsymmetricCryptoThreads(),
+                    AsymmetricCryptoExecutor.getProvider(properties.getAsymmetricCryptoProvider())));
+        }
+        if (properties.getEcdhKeyPairPoolEnabled()) {
+            ephemeralKeyPairPool = new EphemeralKeyPairPool(properties.getEcdhKeyPairPoolMinSize(),
+                    properties.getEcdhKeyPairPoolMaxSize());
+            ephemeralKeyPairPool.register(DistributionDiffieHellman.KEY_PAIR_ALGORITHM,
+                    DistributionDiffieHellman.KEY_SIZE);
+        }
         this.db = new AuthDB(properties.getAuthDatabaseDir());
+        db.setStoreBackend(properties.getAuthDBBackend());
+        if (properties.getAuthDBPragmaTuningEnabled()) {
+            db.enablePragmaTuning(properties.getAuthDBMmapSize(), properties.getAuthDBCacheSize());
+        }
+        if (properties.getCommunicationPolicyWildcardEnabled()) {
+            db.enableWildcardPolicyMatching();
+        }
+        if (properties.getAuthDBEagerLoadingEnabled()) {
+            db.enableEagerLoading();
+        }
         db.initialize(properties.getDatabaseKeyStorePath(), authKeyStorePassword,
                 properties.getDatabaseEncryptionKeyPath(),
                 AuthDBProtectionMethod.fromValue(properties.getAuthDBProtectionMethod()));
+        if (properties.getAuthDBCheckpointInterval() > 0) {
+            db.enablePeriodicCheckpoints(properties.getAuthDBCheckpointInterval());
+        }
+        db.initializeSessionKeyIDAllocator(properties.getAuthID(), properties.getSessionKeyIDLayout(),
+                properties.getSessionKeyIDBlockSize());
+        if (properties.getSessionKeyPoolEnabled()) {
+            db.enableSessionKeyPool(properties.getSessionKeyPoolLowWatermark(),
+                    properties.getSessionKeyPoolHighWatermark());
+        }
+        if (properties.getSessionKeyStoreEnabled()) {
+            db.enableSessionKeyStore(properties.getSessionKeyStoreDurability(),
+                    properties.getSessionKeyStoreGroupCommitInterval());
+        }
+        if (properties.getDistributionKeyWriteBehindEnabled()) {
+            db.enableDistributionKeyWriteBehind(properties.getDistributionKeyFlushInterval(),
+                    properties.getDistributionKeyFsync());
+        }
         logger.info("Finished initializing Auth DB.");
 
         entityTcpPortTimeout = properties.getEntityTcpPortTimeout();
         entityUdpPortTimeout = properties.getEntityUdpPortTimeout();
 
+        String entityRequestExecutor = properties.getEntityRequestExecutor();
+        if (properties.getVirtualThreadsEnabled()) {
+            if (VirtualThreadHelper.isSupported()) {
+                // Every entity request and every request to trusted Auths runs on a virtual thread.
+                entityRequestExecutor = EntityRequestDispatcher.EXECUTOR_TYPE_VIRTUAL;
+                trustedAuthRequestExecutor = VirtualThreadHelper.newVirtualThreadPerTaskExecutor();
+            }
+            else {
+                logger.warn("Virtual threads are enabled but not supported by this JVM, using platform threads.");
+            }
+        }
+        entityRequestDispatcher = new EntityRequestDispatcher(entityRequestExecutor,
+                properties.getEntityRequestWorkerThreads(), properties.getEntityRequestQueueCapacity());
+        if (properties.getSessionKeySweeperEnabled()) {
+            sessionKeySweeper = new SessionKeySweeper(this, entityRequestDispatcher,
+                    properties.getSessionKeySweeperInterval(), properties.getSessionKeySweeperBatchSize(),
+                    properties.getSessionKeySweeperBudget(), properties.getSessionKeySweeperVacuumEnabled());
+        }
+
         // suppress default logging by jetty
         org.eclipse.jetty.util.log.Log.setLog(new NoLogging());
 
         // Init tcp server socket
-        entityTcpPortServerSocket = new ServerSocket(properties.getEntityTcpPort());
-        entityUdpPortServerSocket = new DatagramSocket(properties.getEntityUdpPort());
+        entityTcpNioEnabled = properties.isEntityTcpNioEnabled();
+        entityTcpSelectorThreads = properties.getEntityTcpSelectorThreads();
+        if (entityTcpNioEnabled) {
+            // channel stays in blocking mode for accept(), accepted channels are handed over to selector threads
+            entityTcpPortServerSocketChannel = ServerSocketChannel.open();
+            entityTcpPortServerSocketChannel.bind(new InetSocketAddress(properties.getEntityTcpPort()));
+            entityTcpPortServerSocket = entityTcpPortServerSocketChannel.socket();
+        }
+        else {
+            entityTcpPortServerSocket = new ServerSocket(properties.getEntityTcpPort());
+        }
+        entityUdpPortServerSockets = openEntityUdpPortSockets(properties.getEntityUdpPort(),
+                properties.getEntityUdpReceiverThreads());
+        entityUdpPortServerSocket = entityUdpPortServerSockets[0];
+        entityUdpStateMap = new EntityUdpStateMap(properties.getEntityUdpStateShards());
+        expiryTimingWheel = new HashedTimingWheel("ExpiryTimingWheel", EXPIRY_TICK_DURATION, EXPIRY_TICKS_PER_WHEEL);
+        entityUdpReceiverThreads = properties.getEntityUdpReceiverThreads();
 
         serverForTrustedAuths = initServerForTrustedAuths(properties, authKeyStorePassword);
         clientForTrustedAuths = initClientForTrustedAuths(properties, authKeyStorePassword);
@@ -222,6 +309,14 @@ public class AuthServer {
         return crypto;
     }
 
+    /**
+     * Pool of ephemeral key pairs for Diffie-Hellman distribution keys.
+     * @return The pool, or null if it is not enabled.
+     */
+    public EphemeralKeyPairPool getEphemeralKeyPairPool() {
+        return ephemeralKeyPairPool;
+    }
+
     /**
      * Main method of Auth server, which is executed at the very beginning
      * @param args Command line arguments
@@ -297,11 +392,23 @@ public class AuthServer {
         EntityBluetoothListener entityBluetoothListener = new EntityBluetoothListener(this);
         entityBluetoothListener.start();
 
-        EntityTcpPortListener entityTcpPortListener = new EntityTcpPortListener(this);
-        entityTcpPortListener.start();
+        if (entityTcpNioEnabled) {
+            EntityTcpPortNioListener entityTcpPortNioListener = new EntityTcpPortNioListener(this);
+            entityTcpPortNioListener.start();
+        }
+        else {
+            EntityTcpPortListener entityTcpPortListener = new EntityTcpPortListener(this);
+            entityTcpPortListener.start();
+        }
 
-        EntityUdpPortListener entityUdpPortListener = new EntityUdpPortListener(this);
-        entityUdpPortListener.start();
+        expiryTimingWheel.start();
+        for (int i = 0; i < entityUdpReceiverThreads; i++) {
+            // receivers share the socket if SO_REUSEPORT is not available
+            DatagramSocket socket = entityUdpPortServerSockets[i % entityUdpPortServerSockets.length];
+            EntityUdpPortListener entityUdpPortListener = new EntityUdpPortListener(this, socket);
+            entityUdpPortListener.setName("EntityUdpPortListener-" + i);
+            entityUdpPortListener.start();
+        }
 
         AuthCommandLine authCommandLine = new AuthCommandLine(this);
         authCommandLine.start();
@@ -309,6 +416,10 @@ public class AuthServer {
         HeartbeatSender heartbeatSender = new HeartbeatSender(this, db.getAllTrustedAuthIDs());
         heartbeatSender.start();
 
+        if (sessionKeySweeper != null) {
+            sessionKeySweeper.start();
+        }
+
         if (backupEnabled) {
             BackupRequester backupRequester = new BackupRequester(this);
             backupRequester.start();
@@ -327,6 +438,15 @@ public class AuthServer {
      * @throws InterruptedException When an InterruptedException occurs
      */
     public void end() throws SQLException, IOException, InterruptedException {
+        // Stop the background work that runs on its own threads before closing Auth DB.
+        if (sessionKeySweeper != null) {
+            sessionKeySweeper.stop();
+        }
+        entityRequestDispatcher.shutdown();
+        expiryTimingWheel.stop();
+        if (crypto.getAsymmetricCryptoExecutor() != null) {
+            crypto.getAsymmetricCryptoExecutor().shutdown();
+        }
         db.close();
     }
 
@@ -348,7 +468,28 @@ public class AuthServer {
             throw new RuntimeException("Cannot find trusted Auth ID, " + trustedAuthID);
         }
         String uri = "https://" + trustedAuth.getHost() + ":" + trustedAuth.getPort();
-        return trustedAuthReqMessasge.sendAsHttpRequest(clientForTrustedAuths.POST(uri));
+        if (trustedAuthRequestExecutor == null || VirtualThreadHelper.isVirtual(Thread.currentThread())) {
+            return trustedAuthReqMessasge.sendAsHttpRequest(clientForTrustedAuths.POST(uri));
+        }
+        // Run the blocking request on a virtual thread, when called from a platform thread.
+        Future<ContentResponse> future = trustedAuthRequestExecutor.submit(
+                () -> trustedAuthReqMessasge.sendAsHttpRequest(clientForTrustedAuths.POST(uri)));
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // rethrow what the request would have thrown on the calling thread
+            Throwable cause = e.getCause();
+            if (cause instanceof TimeoutException) {
+                throw (TimeoutException) cause;
+            }
+            if (cause instanceof ExecutionException) {
+                throw (ExecutionException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
     }
 
     //////////////////////////////////////////////////
@@ -388,11 +529,23 @@ public class AuthServer {
     public boolean addSessionKeyOwner(long keyID, String newOwner) throws SQLException, ClassNotFoundException {
         return db.addSessionKeyOwner(keyID, newOwner);
     }
+    /**
+     * Method for exposing an AuthDB operation, addSessionKeyOwners
+     * @param sessionKeyList Session keys to be updated.
+     * @param newOwner A new owner (entity) of the session keys.
+     * @return The number of updated session keys.
+     * @throws SQLException if database error occurs.
+     * @throws ClassNotFoundException if the class cannot be located.
+     */
+    public int addSessionKeyOwners(List<SessionKey> sessionKeyList, String newOwner)
+            throws SQLException, ClassNotFoundException
+    {
+        return db.addSessionKeyOwners(sessionKeyList, newOwner);
+    }
 
     public boolean addCommunicationPolicy(CommunicationPolicyTable newCommunicationPolicyTable) {
         try {
             db.insertCommunicationPolicy(newCommunicationPolicyTable);
-            db.reloadCommunicationPolicyDB();
         } catch (Exception e) {
             e.printStackTrace();
             return false;
@@ -512,6 +665,26 @@ public class AuthServer {
         db.cleanExpiredSessionKeys();
     }
 
+    /**
+     * Method for exposing an AuthDB operation, deleteExpiredSessionKeys
+     * @param batchSize Maximum number of session keys to be deleted.
+     * @return The number of session keys deleted.
+     * @throws SQLException If an error occurs in SQL processing.
+     */
+    public int deleteExpiredSessionKeys(int batchSize) throws SQLException {
+        return db.deleteExpiredSessionKeys(batchSize);
+    }
+
+    /**
+     * Method for exposing an AuthDB operation, vacuum
+     * @param maxPages Maximum number of pages to be reclaimed.
+     * @return The number of pages reclaimed.
+     * @throws SQLException If an error occurs in SQL processing.
+     */
+    public long vacuumAuthDB(int maxPages) throws SQLException {
+        return db.vacuum(maxPages);
+    }
+
     /**
      * Method for exposing an AuthDB operation, deleteAllSessionKeys
      * @throws SQLException If an error occurs in SQL processing.
@@ -838,7 +1011,10 @@ public class AuthServer {
                             logger.info("QPS limit is exceeded in TCP, discarding the request.");
                             continue;
                         }
-                        new Thread(new EntityTcpConnectionHandler(server, entitySocket, entityTcpPortTimeout)).start();
+                        // The request is received on a thread of its own connection, as it waits for the
+                        // entity. Only the processing is dispatched, so slow clients never hold the workers.
+                        new Thread(new EntityTcpConnectionHandler(server, entityRequestDispatcher, entitySocket,
+                                entityTcpPortTimeout)).start();
                     }
                 } catch (IOException e) {
                     logger.error("IOException in Entity TCP Port Listener {}", ExceptionToString.convertExceptionToStackTrace(e));
@@ -848,22 +1024,112 @@ public class AuthServer {
         private AuthServer server;
     }
 
+
     /**
-     * Class for a thread that listens to UDP connection coming from entities
+     * Class for a thread that accepts TCP connections coming from entities, and hands them over to a small number of
+     * selector threads, EntityTcpSelector, which process the connections without a thread per connection
+     */
+    private class EntityTcpPortNioListener extends Thread {
+        public EntityTcpPortNioListener(AuthServer server) throws IOException {
+            this.server = server;
+            selectors = new EntityTcpSelector[entityTcpSelectorThreads];
+            for (int i = 0; i < selectors.length; i++) {
+                selectors[i] = new EntityTcpSelector(server, entityRequestDispatcher, entityTcpPortTimeout,
+                        "EntityTcpSelector-" + i);
+            }
+        }
+        public void run() {
+            for (EntityTcpSelector selector : selectors) {
+                selector.start();
+            }
+            int nextSelectorIndex = 0;
+            while (isRunning()) {
+                try {
+                    SocketChannel entityChannel = entityTcpPortServerSocketChannel.accept();
+                    logger.info("An entity connected from: {} ", entityChannel.socket().getRemoteSocketAddress());
+                    if (qpsCalculator != null && qpsCalculator.checkQpsLimitExceededOtherwiseIncreaseRequestCounter()) {
+                        logger.info("QPS limit is exceeded in TCP, discarding the request.");
+                        entityChannel.close();
+                        continue;
+                    }
+                    selectors[nextSelectorIndex].addChannel(entityChannel);
+                    nextSelectorIndex = (nextSelectorIndex + 1) % selectors.length;
+                } catch (IOException e) {
+                    logger.error("IOException in Entity TCP Port NIO Listener {}", ExceptionToString.convertExceptionToStackTrace(e));
+                }
+            }
+            for (EntityTcpSelector selector : selectors) {
+                selector.shutdown();
+            }
+        }
+        private AuthServer server;
+        private EntityTcpSelector[] selectors;
+    }
+
+    /**
+     * Open sockets bound to the entity UDP port. When more than one receiver is requested, each receiver gets its
+     * own socket with SO_REUSEPORT so that the kernel spreads datagrams across them by the source address;
+     * otherwise (e.g., SO_REUSEPORT is not supported), a single socket is shared by the receivers.
+     * @param port Entity UDP port.
+     * @param numReceivers The number of receiver threads.
+     * @return Opened sockets.
+     * @throws IOException If a socket cannot be opened.
+     */
+    private static DatagramSocket[] openEntityUdpPortSockets(int port, int numReceivers) throws IOException {
+        SocketOption<Boolean> reusePortOption = getReusePortOption();
+        if (numReceivers <= 1 || reusePortOption == null) {
+            if (numReceivers > 1) {
+                logger.warn("SO_REUSEPORT is not supported, {} UDP receivers share one socket.", numReceivers);
+            }
+            return new DatagramSocket[] {new DatagramSocket(port)};
+        }
+        DatagramSocket[] sockets = new DatagramSocket[numReceivers];
+        for (int i = 0; i < numReceivers; i++) {
+            DatagramChannel channel = DatagramChannel.open();
+            channel.setOption(reusePortOption, true);
+            channel.bind(new InetSocketAddress(port));
+            sockets[i] = channel.socket();
+        }
+        return sockets;
+    }
+
+    /**
+     * Get the SO_REUSEPORT socket option, which exists from Java 9 and is not supported on every platform.
+     * @return The socket option, or null if it is not available.
+     */
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> getReusePortOption() {
+        try {
+            SocketOption<Boolean> option =
+                    (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+            try (DatagramChannel channel = DatagramChannel.open()) {
+                if (!channel.supportedOptions().contains(option)) {
+                    return null;
+                }
+            }
+            return option;
+        }
+        catch (ReflectiveOperationException | IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Class for a thread that listens to UDP connection coming from entities. Several of these threads can receive
+     * from the entity UDP port at the same time, while session key requests are processed by entity request workers.
      */
     private class EntityUdpPortListener extends Thread {
-        public EntityUdpPortListener(AuthServer server) {
+        public EntityUdpPortListener(AuthServer server, DatagramSocket socket) {
             this.server = server;
-            nonceMapForUdpPortListener = new HashMap<>();
-            responseMapForUdpPortListener = new HashMap<>();
+            this.socket = socket;
         }
         public void run() {
-            Timer timer = new Timer();
+            IoTSPMessageDecoder decoder = new IoTSPMessageDecoder();
+            byte[] bufferBytes = new byte[4096];
             while (isRunning()) {
-                byte[] bufferBytes = new byte[4096];
                 DatagramPacket receivedPacket = new DatagramPacket(bufferBytes, bufferBytes.length);
                 try {
-                    entityUdpPortServerSocket.receive(receivedPacket);
+                    socket.receive(receivedPacket);
                     logger.info("Entity Address: " + receivedPacket.getAddress().toString() +
                             ", Port: " + receivedPacket.getPort() +
                             ", Length: " + receivedPacket.getLength());
@@ -877,78 +1143,143 @@ public class AuthServer {
                     byte[] receivedBytes = receivedPacket.getData();
                     MessageType type = MessageType.fromByte(receivedBytes[0]);
                     if (type == MessageType.ENTITY_HELLO) {
-                        if (responseMapForUdpPortListener.get(addressKey) != null) {
+                        if (entityUdpStateMap.getResponse(addressKey) != null) {
                             logger.error("Response for address key {} still exists", addressKey);
                             // send alert
                             continue;
                         }
-                        Buffer authNonce = nonceMapForUdpPortListener.get(addressKey);
+                        Buffer authNonce = entityUdpStateMap.getNonce(addressKey);
                         if (authNonce == null) {
-                            authNonce = AuthCrypto.getRandomBytes(AuthHelloMessage.AUTH_NONCE_SIZE);
-                            nonceMapForUdpPortListener.put(addressKey, authNonce);
-                            timer.schedule(new TimerTask() {
-                                @Override
-                                public void run() {
-                                    nonceMapForUdpPortListener.remove(addressKey);
-                                }
-                            }, entityUdpPortTimeout);
+                            Buffer newAuthNonce = AuthCrypto.getRandomBytes(AuthHelloMessage.AUTH_NONCE_SIZE);
+                            authNonce = entityUdpStateMap.putNonceIfAbsent(addressKey, newAuthNonce);
+                            if (authNonce == null) {
+                                authNonce = newAuthNonce;
+                                expiryTimingWheel.schedule(
+                                        () -> entityUdpStateMap.removeNonce(addressKey, newAuthNonce),
+                                        entityUdpPortTimeout);
+                            }
                         }
                         // send auth hello here
                         AuthHelloMessage authHello = new AuthHelloMessage(server.getAuthID(), authNonce);
                         byte[] bytes = authHello.serialize().getRawBytes();
                         DatagramPacket packetToSend = new DatagramPacket(bytes, bytes.length,
                                 receivedPacket.getAddress(), receivedPacket.getPort());
-                        entityUdpPortServerSocket.send(packetToSend);
+                        socket.send(packetToSend);
                     }
                     else if (type == MessageType.SESSION_KEY_REQ || type == MessageType.SESSION_KEY_REQ_IN_PUB_ENC) {
-                        Buffer response = responseMapForUdpPortListener.get(addressKey);
+                        Buffer response = entityUdpStateMap.getResponse(addressKey);
                         if (response != null) {
                             // send response
                             DatagramPacket packetToSend = new DatagramPacket(response.getRawBytes(), response.getRawBytes().length,
                                     receivedPacket.getAddress(), receivedPacket.getPort());
-                            entityUdpPortServerSocket.send(packetToSend);
+                            socket.send(packetToSend);
                             continue;
                         }
-                        Buffer authNonce = nonceMapForUdpPortListener.get(addressKey);
+                        Buffer authNonce = entityUdpStateMap.getNonce(addressKey);
                         if (authNonce != null) {
+                            // A datagram must carry exactly one full message, a truncated one is dropped.
+                            decoder.reset();
+                            decoder.append(receivedBytes, receivedPacket.getOffset(), receivedPacket.getLength());
+                            if (!decoder.isMessageComplete()) {
+                                logger.error("Incomplete message from address key {}, discarding it.", addressKey);
+                                continue;
+                            }
                             // handle this
                             // let it put to response map
                             // and send the response
-                            Buffer receivedBuffer = new Buffer(receivedBytes, receivedPacket.getLength());
+                            Buffer receivedBuffer = decoder.getMessageBuffer();
                             logger.info("Received data : {}", receivedBuffer.toHexString());
-                            new EntityUdpConnectionHandler(server, entityUdpPortServerSocket,
-                                    receivedPacket.getAddress(), receivedPacket.getPort(), entityUdpPortTimeout,
-                                    responseMapForUdpPortListener, receivedBuffer, authNonce).run();
+                            if (!entityUdpStateMap.markInProgress(addressKey)) {
+                                // a retransmitted request while the previous one is still being processed
+                                continue;
+                            }
+                            EntityUdpConnectionHandler handler = new EntityUdpConnectionHandler(server,
+                                    socket, receivedPacket.getAddress(), receivedPacket.getPort(),
+                                    entityUdpPortTimeout, entityUdpStateMap, expiryTimingWheel, receivedBuffer, authNonce);
+                            boolean isDispatched = entityRequestDispatcher.dispatch(() -> {
+                                try {
+                                    handler.run();
+                                } finally {
+                                    entityUdpStateMap.unmarkInProgress(addressKey);
+                                }
+                            }, EntityRequestDispatcher.getPriority(type));
+                            if (!isDispatched) {
+                                entityUdpStateMap.unmarkInProgress(addressKey);
+                                logger.info("Entity request dispatcher is full, rejecting request from {}", addressKey);
+                                byte[] bytes = new AuthAlertMessage(AuthAlertCode.SERVER_BUSY).serialize().getRawBytes();
+                                socket.send(new DatagramPacket(bytes, bytes.length,
+                                        receivedPacket.getAddress(), receivedPacket.getPort()));
+                            }
                         }
                     }
-                    /*
-                    Buffer receivedBuffer = new Buffer(receivedBytes, receivedPacket.getLength());
-                    logger.info("Received data : {}", receivedBuffer.toHexString());
-                    new Thread(new EntityUdpConnectionHandler(server,
-                            receivedPacket.getAddress(), receivedPacket.getPort(), entityUdpPortTimeout)).start();
-                    */
                 } catch (IOException e) {
                     logger.error("IOException in Entity UDP Port Listener {}", ExceptionToString.convertExceptionToStackTrace(e));
                 }
             }
         }
         private AuthServer server;
+        private DatagramSocket socket;
     }
 
     public String showAllUdpPortListenerMaps() {
+        return entityUdpStateMap.toString();
+    }
+    /**
+     * Show runtime statistics of Auth, for sizing Auth nodes.
+     * @return String with runtime statistics.
+     */
+    public String statisticsToString() {
         StringBuilder sb = new StringBuilder();
-        sb.append("Nonce Map\n");
-        nonceMapForUdpPortListener.forEach((k, v)->{
-            sb.append(k + "->" + v.toHexString() + "\n");
-        });
-        sb.append("Response Map\n");
-        responseMapForUdpPortListener.forEach((k, v)->{
-            sb.append(k + "->" + v.length() + "\n");
-        });
+        sb.append("Entity request dispatcher\n");
+        sb.append(entityRequestDispatcher.toString() + "\n");
+        sb.append("Expiry timing wheel\n");
+        sb.append(expiryTimingWheel.toString() + "\n");
+        sb.append("Auth DB store\n");
+        sb.append(db.storeStatisticsToString() + "\n");
+        if (db.isCheckpointEnabled()) {
+            sb.append("Auth DB checkpoints\n");
+            sb.append(db.checkpointStatisticsToString() + "\n");
+        }
+        sb.append("Session key ID allocator\n");
+        sb.append(db.getSessionKeyIDAllocator().toString() + "\n");
+        if (db.getSessionKeyPool() != null) {
+            sb.append("Session key pool\n");
+            sb.append(db.getSessionKeyPool().toString() + "\n");
+        }
+        if (db.getSessionKeyStore() != null) {
+            sb.append("Session key store\n");
+            sb.append(db.getSessionKeyStore().toString() + "\n");
+        }
+        if (db.getDistributionKeyWriter() != null) {
+            sb.append("Distribution key writer\n");
+            sb.append(db.getDistributionKeyWriter().toString() + "\n");
+        }
+        if (sessionKeySweeper != null) {
+            sb.append("Session key sweeper\n");
+            sb.append(sessionKeySweeper.toString() + "\n");
+        }
+        if (ephemeralKeyPairPool != null) {
+            sb.append("Ephemeral key pair pool\n");
+            sb.append(ephemeralKeyPairPool.toString() + "\n");
+        }
+        if (crypto.getAsymmetricCryptoExecutor() != null) {
+            sb.append("Asymmetric crypto executor\n");
+            sb.append(crypto.getAsymmetricCryptoExecutor().toString() + "\n");
+        }
+        sb.append("Entity key cache\n");
+        sb.append(EntityKeyCache.statisticsToString() + "\n");
+        sb.append("Crypto primitive pools\n");
+        sb.append(CryptoPrimitivePool.statisticsToString() + "\n");
+        sb.append("Randomness\n");
+        sb.append(AuthRandom.statisticsToString() + "\n");
         return sb.toString();
     }
-    private Map<String, Buffer> nonceMapForUdpPortListener;
-    private Map<String, Buffer> responseMapForUdpPortListener;
+
+    private EntityUdpStateMap entityUdpStateMap;
+    // for expiring TTL state such as UDP Auth nonces and cached UDP responses
+    private HashedTimingWheel expiryTimingWheel;
+    private static final long EXPIRY_TICK_DURATION = 100;    // milliseconds
+    private static final int EXPIRY_TICKS_PER_WHEEL = 512;
 
     public List<X509Certificate> issueBackupCertificate() throws CertIOException {
         Set<Integer> backupAuthIDSet = new HashSet<>();
@@ -1042,15 +1373,24 @@ public class AuthServer {
     private long entityUdpPortTimeout;
 
     private ServerSocket entityTcpPortServerSocket;
+    private ServerSocketChannel entityTcpPortServerSocketChannel;
+    private boolean entityTcpNioEnabled;
+    private int entityTcpSelectorThreads;
     private DatagramSocket entityUdpPortServerSocket;
+    private DatagramSocket[] entityUdpPortServerSockets;
+    private int entityUdpReceiverThreads;
 
     private boolean isRunning;
     private AuthDB db;
     private AuthCrypto crypto;
+    private EphemeralKeyPairPool ephemeralKeyPairPool = null;
 
     private Server serverForTrustedAuths;
     private Server serverForContextualCallbacks;
     private HttpClient clientForTrustedAuths;
     private boolean backupEnabled;
     private QPSCalculator qpsCalculator = null;
+    private EntityRequestDispatcher entityRequestDispatcher;
+    private ExecutorService trustedAuthRequestExecutor = null;
+    private SessionKeySweeper sessionKeySweeper = null;
 }
@@ -140,9 +140,7 @@ public class ContextualCallbackHandler extends AbstractHandler {
                 throw new RuntimeException("Exception occurred while finding cached session keys.");
             }
             try {
-                for (SessionKey sessionKey : sessionKeyList) {
-                    server.addSessionKeyOwner(sessionKey.getID(), authSessionKeyReqMessage.getRequestingEntityName());
-                }
+                server.addSessionKeyOwners(sessionKeyList, authSessionKeyReqMessage.getRequestingEntityName());
             } catch (SQLException | ClassNotFoundException e) {
                 logger.error("SQLException | ClassNotFoundException {}", ExceptionToString.convertExceptionToStackTrace(e));
                 throw new RuntimeException("Exception occurred while adding session key owner for cached session keys.");
@@ -156,6 +154,9 @@ public class ContextualCallbackHandler extends AbstractHandler {
                 logger.error("SQLException | ClassNotFoundException {}", ExceptionToString.convertExceptionToStackTrace(e));
                 throw new RuntimeException("Session key for ID " + authSessionKeyReqMessage.getSessionKeyID() + " cannot be found!");
             }
+            if (sessionKey == null) {
+                throw new RuntimeException("Session key for ID " + authSessionKeyReqMessage.getSessionKeyID() + " cannot be found!");
+            }
 
             try {
                 server.addSessionKeyOwner(authSessionKeyReqMessage.getSessionKeyID(), authSessionKeyReqMessage.getRequestingEntityName());
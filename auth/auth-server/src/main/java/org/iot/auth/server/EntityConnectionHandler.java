@@ -37,6 +37,8 @@ import java.security.spec.InvalidKeySpecException;
 import java.sql.SQLException;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
 
@@ -98,7 +100,7 @@ public abstract class EntityConnectionHandler {
             Buffer encPayload = payload.slice(0, payload.length() - RSA_KEY_SIZE);
             getLogger().debug("Encrypted data ({}): {}", encPayload.length(), encPayload.toHexString());
             Buffer signature = payload.slice(payload.length() - RSA_KEY_SIZE);
-            Buffer decPayload = server.getCrypto().authPrivateDecrypt(encPayload);
+            Buffer decPayload = joinAsymmetricCrypto(server.getCrypto().authPrivateDecryptAsync(encPayload));
 
             getLogger().debug("Decrypted data ({}): {}", decPayload.length(), decPayload.toHexString());
             SessionKeyReqMessage sessionKeyReqMessage = new SessionKeyReqMessage(type, decPayload);
@@ -110,14 +112,15 @@ public abstract class EntityConnectionHandler {
 
             // checking signature
             try {
-                if (!server.getCrypto().verifySignedData(encPayload, signature, requestingEntity.getPublicKey())) {
+                if (!joinAsymmetricCrypto(server.getCrypto().verifySignedDataAsync(encPayload, signature,
+                        requestingEntity.getName(), requestingEntity.getPublicKey()))) {
                     throw new InvalidSignatureException("Entity signature verification failed!!");
                 }
                 else {
                     getLogger().debug("Entity signature is correct!");
                 }
             }
-            catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException e) {
+            catch (IllegalArgumentException e) {
                 throw new InvalidSignatureException("Entity signature verification failed!!");
             }
 
@@ -130,9 +133,20 @@ public abstract class EntityConnectionHandler {
             DistributionKey distributionKey;    // generated or derived distribution key
             if (requestingEntity.getPublicKeyCryptoSpec().getDiffieHellman() != null) {
                 try {
-                    DistributionDiffieHellman distributionDiffieHellman = new DistributionDiffieHellman(
-                            requestingEntity.getDistCryptoSpec(), "EC", "ECDH",
-                            384, requestingEntity.getDistKeyValidityPeriod());
+                    DistributionDiffieHellman distributionDiffieHellman;
+                    if (server.getEphemeralKeyPairPool() != null) {
+                        distributionDiffieHellman = new DistributionDiffieHellman(
+                                requestingEntity.getDistCryptoSpec(), DistributionDiffieHellman.KEY_AGREEMENT_ALGORITHM,
+                                server.getEphemeralKeyPairPool().take(DistributionDiffieHellman.KEY_PAIR_ALGORITHM,
+                                        DistributionDiffieHellman.KEY_SIZE),
+                                requestingEntity.getDistKeyValidityPeriod());
+                    }
+                    else {
+                        distributionDiffieHellman = new DistributionDiffieHellman(
+                                requestingEntity.getDistCryptoSpec(), DistributionDiffieHellman.KEY_PAIR_ALGORITHM,
+                                DistributionDiffieHellman.KEY_AGREEMENT_ALGORITHM, DistributionDiffieHellman.KEY_SIZE,
+                                requestingEntity.getDistKeyValidityPeriod());
+                    }
                     distributionKeyInfoBuffer = distributionDiffieHellman.getSerializedBuffer();
                     distributionKey =
                             distributionDiffieHellman.deriveDistributionKey(sessionKeyReqMessage.getDiffieHellmanParam());
@@ -151,9 +165,14 @@ public abstract class EntityConnectionHandler {
             // update distribution key
             server.updateDistributionKey(requestingEntity.getName(), distributionKey);
 
-            Buffer encryptedDistKey = server.getCrypto().authPublicEncrypt(distributionKeyInfoBuffer,
-                    requestingEntity.getPublicKey());
-            encryptedDistKey.concat(server.getCrypto().signWithPrivateKey(encryptedDistKey));
+            // signing is submitted as soon as encryption completes, without waking up this worker in between
+            AuthCrypto crypto = server.getCrypto();
+            Buffer encryptedDistKey = joinAsymmetricCrypto(crypto.authPublicEncryptAsync(distributionKeyInfoBuffer,
+                    requestingEntity.getPublicKey()).thenCompose(encrypted ->
+                    crypto.signWithPrivateKeyAsync(encrypted).thenApply(authSignature -> {
+                        encrypted.concat(authSignature);
+                        return encrypted;
+                    })));
 
             sendSessionKeyResp(distributionKey, sessionKeyReqMessage.getEntityNonce(),
                     sessionKeyList, sessionCryptoSpec, encryptedDistKey);
@@ -214,14 +233,15 @@ public abstract class EntityConnectionHandler {
             getLogger().info("requestingEntity: " + requestingEntity.toString());
             // checking signature
             try {
-                if (!server.getCrypto().verifySignedData(decPayload, signature, requestingEntity.getPublicKey())) {
+                if (!joinAsymmetricCrypto(server.getCrypto().verifySignedDataAsync(decPayload, signature,
+                        requestingEntity.getName(), requestingEntity.getPublicKey()))) {
                     throw new InvalidSignatureException("Entity signature verification failed!!");
                 }
                 else {
                     getLogger().info("Entity signature is correct!");
                 }
             }
-            catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException e) {
+            catch (IllegalArgumentException e) {
                 throw new InvalidSignatureException("Entity signature verification failed!!");
             }
             getLogger().info("Received auth nonce: " + migrationReq.getAuthNonce().toHexString());
@@ -432,9 +452,7 @@ public abstract class EntityConnectionHandler {
                 SessionKeyPurpose sessionKeyPurpose =
                         new SessionKeyPurpose(reqPurpose.getTargetType(), (String)reqPurpose.getTarget());
                 sessionKeyList = server.getSessionKeysByPurpose(requestingEntity.getName(), sessionKeyPurpose);
-                for (SessionKey sessionKey : sessionKeyList) {
-                    server.addSessionKeyOwner(sessionKey.getID(), requestingEntity.getName());
-                }
+                server.addSessionKeyOwners(sessionKeyList, requestingEntity.getName());
                 break;
             }
             // If a session key id is specified, derive the keys from DB
@@ -458,6 +476,10 @@ public abstract class EntityConnectionHandler {
                 if (authID == server.getAuthID()) {
                     getLogger().info("This session key was generated by me");
                     sessionKey = server.getSessionKeyByID(sessionKeyID);
+                    if (sessionKey == null) {
+                        throw new InvalidSessionKeyTargetException("Session key for ID " + sessionKeyID +
+                                " cannot be found!");
+                    }
 
                     sessionKeyList = new LinkedList<>();
                     sessionKeyList.add(sessionKey);
@@ -495,8 +517,8 @@ public abstract class EntityConnectionHandler {
                             new SessionKeyPurpose(CommunicationTargetType.TARGET_GROUP, requestingEntity.getGroup());
                     // get cached keys for this group
                     sessionKeyList = server.getSessionKeysByPurpose(requestingEntity.getName(), sessionKeyPurpose);
+                    server.addSessionKeyOwners(sessionKeyList, requestingEntity.getName());
                     for (SessionKey sessionKey : sessionKeyList) {
-                        server.addSessionKeyOwner(sessionKey.getID(), requestingEntity.getName());
                         if (cryptoSpec == null) {
                             cryptoSpec = sessionKey.getCryptoSpec();
                         }
@@ -556,6 +578,25 @@ public abstract class EntityConnectionHandler {
         return new SessionKeysAndSpec(authSessionKeyRespMessage.getSessionKeyList(), sessionCryptoSpec);
     }
 
+    /**
+     * Wait for an asymmetric crypto operation of Auth to complete.
+     * @param future Future result of the operation.
+     * @return Result of the operation.
+     * @throws IllegalArgumentException If the operation failed, including crypto exceptions.
+     */
+    private static <T> T joinAsymmetricCrypto(CompletableFuture<T> future) throws IllegalArgumentException {
+        try {
+            return future.join();
+        }
+        catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalArgumentException("Problem with asymmetric crypto\n" + cause.getMessage(), cause);
+        }
+    }
+
     abstract protected Logger getLogger();
     abstract protected void writeToSocket(byte[] bytes) throws IOException;
     abstract protected void close();
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.server;
+
+import org.iot.auth.message.MessageType;
+import org.iot.auth.util.ExceptionToString;
+import org.iot.auth.util.VirtualThreadHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A dispatch stage between the entity listeners of Auth and the processing of entity requests. Requests are
+ * executed by a bounded number of workers, and requests that cannot be admitted are rejected immediately, so
+ * that the caller can send an alert instead of letting latency grow without bound.
+ * <ul>
+ *     <li>fixed: a fixed number of worker threads with a bounded queue, where waiting requests are served by
+ *     priority, so that requests using public key crypto never delay requests with distribution keys.</li>
+ *     <li>virtual: a virtual thread per request (requires a JDK with virtual threads), where the number of
+ *     pending requests is bounded by the queue capacity.</li>
+ * </ul>
+ * @author Hokeun Kim
+ */
+public class EntityRequestDispatcher {
+    public static final String EXECUTOR_TYPE_FIXED = "fixed";
+    public static final String EXECUTOR_TYPE_VIRTUAL = "virtual";
+    public static final int PRIORITY_HIGH = 0;
+    public static final int PRIORITY_LOW = 1;
+
+    /**
+     * Constructor for the dispatcher
+     * @param executorType Type of the executor, either "fixed" or "virtual".
+     * @param numThreads The number of worker threads for the fixed executor.
+     * @param queueCapacity Maximum number of requests waiting for a worker (fixed), or maximum number of
+     *                      pending requests (virtual).
+     */
+    public EntityRequestDispatcher(String executorType, int numThreads, int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        ExecutorService virtualThreadExecutor = null;
+        if (executorType.equalsIgnoreCase(EXECUTOR_TYPE_VIRTUAL)) {
+            virtualThreadExecutor = VirtualThreadHelper.newVirtualThreadPerTaskExecutor();
+            if (virtualThreadExecutor == null) {
+                logger.warn("Virtual threads are not available in this JVM, falling back to fixed executor.");
+            }
+        }
+        if (virtualThreadExecutor != null) {
+            this.executorType = EXECUTOR_TYPE_VIRTUAL;
+            this.executor = virtualThreadExecutor;
+            this.threadPoolExecutor = null;
+        }
+        else {
+            this.executorType = EXECUTOR_TYPE_FIXED;
+            // bounded by queueCapacity in dispatch(), tasks are passed to execute() as they are to be compared
+            this.threadPoolExecutor = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+                    new PriorityBlockingQueue<Runnable>(), new WorkerThreadFactory());
+            this.executor = threadPoolExecutor;
+        }
+        logger.info("Entity request dispatcher: executor {}, threads {}, queue capacity {}",
+                this.executorType, numThreads, queueCapacity);
+    }
+
+    /**
+     * Get the priority of a request, where requests using public key crypto have low priority.
+     * @param type Message type of the request.
+     * @return PRIORITY_LOW or PRIORITY_HIGH.
+     */
+    public static int getPriority(MessageType type) {
+        if (type == MessageType.SESSION_KEY_REQ_IN_PUB_ENC || type == MessageType.MIGRATION_REQ_WITH_SIGN) {
+            return PRIORITY_LOW;
+        }
+        return PRIORITY_HIGH;
+    }
+
+    /**
+     * Dispatch a request to be processed by a worker, with high priority.
+     * @param task Processing of the request.
+     * @return True if the request is admitted, false if it is rejected because the dispatcher is full.
+     */
+    public boolean dispatch(Runnable task) {
+        return dispatch(task, PRIORITY_HIGH);
+    }
+
+    /**
+     * Dispatch a request to be processed by a worker, where waiting requests with the same priority are processed
+     * in the order they are dispatched.
+     * @param task Processing of the request.
+     * @param priority PRIORITY_HIGH or PRIORITY_LOW, only used by the fixed executor.
+     * @return True if the request is admitted, false if it is rejected because the dispatcher is full.
+     */
+    public boolean dispatch(Runnable task, int priority) {
+        // A slot is reserved before the request is handed to the executor, so that listeners dispatching at the
+        // same time cannot admit more requests than the capacity together.
+        if (numPending.incrementAndGet() > queueCapacity) {
+            numPending.decrementAndGet();
+            numRejected.incrementAndGet();
+            return false;
+        }
+        try {
+            executor.execute(new PrioritizedTask(priority, sequence.getAndIncrement()) {
+                @Override
+                public void run() {
+                    if (threadPoolExecutor != null) {
+                        // Only waiting requests are bounded for the fixed executor.
+                        numPending.decrementAndGet();
+                    }
+                    try {
+                        task.run();
+                    }
+                    catch (RuntimeException e) {
+                        logger.error("Exception in entity request worker {}", ExceptionToString.convertExceptionToStackTrace(e));
+                    }
+                    finally {
+                        if (threadPoolExecutor == null) {
+                            numPending.decrementAndGet();
+                        }
+                        numCompleted.incrementAndGet();
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            numPending.decrementAndGet();
+            numRejected.incrementAndGet();
+            return false;
+        }
+        numDispatched.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Get the number of requests waiting for a worker (fixed), or the number of pending requests (virtual).
+     * @return Current queue depth.
+     */
+    public int getQueueDepth() {
+        return numPending.get();
+    }
+
+    /**
+     * Get the number of requests rejected because the dispatcher was full.
+     * @return The number of rejected requests.
+     */
+    public long getNumRejected() {
+        return numRejected.get();
+    }
+
+    public long getNumDispatched() {
+        return numDispatched.get();
+    }
+
+    public long getNumCompleted() {
+        return numCompleted.get();
+    }
+
+    public String getExecutorType() {
+        return executorType;
+    }
+
+    /**
+     * Stop accepting requests, the requests that were already admitted are still processed.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public String toString() {
+        return "Executor: " + executorType +
+                ", Queue depth: " + getQueueDepth() + "/" + queueCapacity +
+                (threadPoolExecutor != null ? ", Active workers: " + threadPoolExecutor.getActiveCount() : "") +
+                ", Dispatched: " + getNumDispatched() +
+                ", Completed: " + getNumCompleted() +
+                ", Rejected: " + getNumRejected();
+    }
+
+    private static abstract class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        private PrioritizedTask(int priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            if (priority != other.priority) {
+                return Integer.compare(priority, other.priority);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+
+        private final int priority;
+        private final long sequence;
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "EntityRequestWorker-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+        private final AtomicInteger threadIndex = new AtomicInteger(0);
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(EntityRequestDispatcher.class);
+    private final String executorType;
+    private final int queueCapacity;
+    private final ExecutorService executor;
+    private final ThreadPoolExecutor threadPoolExecutor;
+    // Requests waiting for a worker (fixed), or pending requests (virtual).
+    private final AtomicInteger numPending = new AtomicInteger(0);
+    private final AtomicLong sequence = new AtomicLong(0);
+    private final AtomicLong numDispatched = new AtomicLong(0);
+    private final AtomicLong numCompleted = new AtomicLong(0);
+    private final AtomicLong numRejected = new AtomicLong(0);
+}
@@ -18,14 +18,17 @@ package org.iot.auth.server;
 import org.iot.auth.AuthServer;
 import org.iot.auth.crypto.AuthCrypto;
 import org.iot.auth.io.Buffer;
+import org.iot.auth.message.AuthAlertCode;
 import org.iot.auth.message.AuthHelloMessage;
+import org.iot.auth.message.IoTSPMessageDecoder;
+import org.iot.auth.message.MessageType;
 import org.iot.auth.util.ExceptionToString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.util.Date;
 
 /**
@@ -36,17 +39,21 @@ public class EntityTcpConnectionHandler extends EntityConnectionHandler implemen
     /**
      * Constructor for the entity connection handler, to process a connected entity
      * @param server Auth server that this handler is for
+     * @param dispatcher Dispatcher for processing the request of this connection
      * @param entitySocket TCP socket of the connection with the entity
      * @param timeout A timeout for the connection with the entity
      */
-    public EntityTcpConnectionHandler(AuthServer server, Socket entitySocket, long timeout) {
+    public EntityTcpConnectionHandler(AuthServer server, EntityRequestDispatcher dispatcher, Socket entitySocket,
+                                      long timeout) {
         super(server);
+        this.dispatcher = dispatcher;
         this.socket = entitySocket;
         this.timeOut = timeout;
     }
 
     /**
-     * Run method from the parent class, Thread
+     * Run method from the parent class, Thread. Runs on a thread of its own connection while the request is
+     * received, only the processing of the received request is dispatched to a worker.
      */
     public void run() {
         try {
@@ -55,30 +62,41 @@ public class EntityTcpConnectionHandler extends EntityConnectionHandler implemen
 
             long waitStartedTime = new Date().getTime();
 
-            while (!socket.isClosed()) {
-                InputStream is = socket.getInputStream();
-                int availableLength = is.available();
-                if (availableLength > 0) {
-                    byte[] buf = new byte[availableLength];
-                    int length = is.read(buf);
-
-                    getLogger().debug("Received bytes ({}): {}", length, Buffer.toHexString(buf, 0, length));
-
-                    // Process session key request
-                    handleEntityReq(buf, authNonce);
-                    close();
-                    return;
+            // Block in read() instead of polling available(). The socket timeout of each read is the time left
+            // until the deadline for the whole request, so a client sending a byte at a time cannot extend it.
+            IoTSPMessageDecoder decoder = new IoTSPMessageDecoder();
+            try {
+                while (!decoder.isMessageComplete()) {
+                    long remainingTime = waitStartedTime + timeOut - new Date().getTime();
+                    if (remainingTime <= 0) {
+                        throw new SocketTimeoutException("Deadline for the request has passed.");
+                    }
+                    socket.setSoTimeout((int) Math.min(remainingTime, Integer.MAX_VALUE));
+                    if (decoder.read(socket.getInputStream()) < 0) {
+                        getLogger().info("Connection closed by entity at {}", getRemoteAddress());
+                        close();
+                        return;
+                    }
                 }
-
+            }
+            catch (SocketTimeoutException e) {
                 long currentTime = new Date().getTime();
-                long elapsedTime = currentTime - waitStartedTime;
-                if (timeOut < elapsedTime) {
-                    getLogger().info("Timed out at " + new Date(currentTime) +
-                            ", elapsed: " + elapsedTime +
-                            ", started at " +  new Date(waitStartedTime));
-                    close();
-                    return;
-                }
+                getLogger().info("Timed out at " + new Date(currentTime) +
+                        ", elapsed: " + (currentTime - waitStartedTime) +
+                        ", started at " +  new Date(waitStartedTime));
+                close();
+                return;
+            }
+            byte[] buf = decoder.getMessage();
+
+            getLogger().debug("Received bytes ({}): {}", buf.length, Buffer.toHexString(buf, 0, buf.length));
+
+            // Process session key request on a worker, a slow client only holds the thread of its own connection.
+            int priority = EntityRequestDispatcher.getPriority(MessageType.fromByte(buf[0]));
+            if (!dispatcher.dispatch(() -> processRequest(buf, authNonce), priority)) {
+                getLogger().info("Entity request dispatcher is full, rejecting request from {}", getRemoteAddress());
+                sendAuthAlert(AuthAlertCode.SERVER_BUSY);
+                close();
             }
         }
         catch (Exception e) {
@@ -87,6 +105,21 @@ public class EntityTcpConnectionHandler extends EntityConnectionHandler implemen
             close();
             return;
         }
+    }
+
+    /**
+     * Process a received request, runs on a worker of the dispatcher.
+     * @param buf Raw bytes of the received request.
+     * @param authNonce Nonce of Auth sent in the Auth hello message.
+     */
+    private void processRequest(byte[] buf, Buffer authNonce) {
+        try {
+            handleEntityReq(buf, authNonce);
+        }
+        catch (Exception e) {
+            getLogger().error("Exception occurred while handling Auth service!\n {}",
+                    ExceptionToString.convertExceptionToStackTrace(e));
+        }
         close();
     }
     /**
@@ -118,6 +151,7 @@ public class EntityTcpConnectionHandler extends EntityConnectionHandler implemen
     }
 
     private static final Logger logger = LoggerFactory.getLogger(EntityTcpConnectionHandler.class);
+    private final EntityRequestDispatcher dispatcher;
     private Socket socket;
     private long timeOut;
 }
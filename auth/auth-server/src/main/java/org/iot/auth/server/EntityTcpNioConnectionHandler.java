@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.server;
+
+import org.iot.auth.AuthServer;
+import org.iot.auth.crypto.AuthCrypto;
+import org.iot.auth.io.Buffer;
+import org.iot.auth.message.AuthAlertCode;
+import org.iot.auth.message.AuthHelloMessage;
+import org.iot.auth.message.IoTSPMessageDecoder;
+import org.iot.auth.message.MessageType;
+import org.iot.auth.util.ExceptionToString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Date;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A handler class for non-blocking TCP connections from each entity that requests Auth service. Unlike
+ * {@link EntityTcpConnectionHandler}, this handler does not own a thread. It is driven by an
+ * {@link EntityTcpSelector} as a state machine (AUTH_HELLO, then SESSION_KEY_REQ, then response and close).
+ * @author Hokeun Kim
+ */
+public class EntityTcpNioConnectionHandler extends EntityConnectionHandler {
+    /**
+     * States of a connection with an entity, in the order of the exchange.
+     */
+    enum State {
+        SENDING_AUTH_HELLO,
+        WAITING_FOR_REQUEST,
+        HANDLING_REQUEST,
+        CLOSING,
+        CLOSED
+    }
+
+    /**
+     * Constructor for the non-blocking entity connection handler
+     * @param server Auth server that this handler is for
+     * @param selector Selector thread that drives this connection
+     * @param dispatcher Dispatcher for processing the request of this connection
+     * @param channel Non-blocking socket channel of the connection with the entity
+     * @param timeout A timeout for the connection with the entity, since the last activity
+     */
+    public EntityTcpNioConnectionHandler(AuthServer server, EntityTcpSelector selector,
+                                         EntityRequestDispatcher dispatcher, SocketChannel channel, long timeout) {
+        super(server);
+        this.selector = selector;
+        this.dispatcher = dispatcher;
+        this.channel = channel;
+        this.timeOut = timeout;
+        this.remoteAddress = channel.socket().getRemoteSocketAddress();
+        this.state = State.SENDING_AUTH_HELLO;
+        this.pendingWrites = new ConcurrentLinkedQueue<>();
+        this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        this.decoder = new IoTSPMessageDecoder();
+        this.lastActivityTime = new Date().getTime();
+    }
+
+    /**
+     * Called by the selector thread once the channel is registered, starts the exchange by sending AUTH_HELLO.
+     * @param selectionKey Selection key of the registered channel
+     */
+    void start(SelectionKey selectionKey) {
+        this.selectionKey = selectionKey;
+        try {
+            authNonce = AuthCrypto.getRandomBytes(AuthHelloMessage.AUTH_NONCE_SIZE);
+            sendAuthHello(authNonce);
+            state = State.WAITING_FOR_REQUEST;
+            updateInterestOps();
+        }
+        catch (Exception e) {
+            getLogger().error("Exception occurred while sending AUTH_HELLO!\n {}",
+                    ExceptionToString.convertExceptionToStackTrace(e));
+            closeChannel();
+        }
+    }
+
+    /**
+     * Called by the selector thread when the channel is readable.
+     */
+    void onReadable() {
+        try {
+            int length = channel.read(readBuffer);
+            if (length < 0) {
+                getLogger().info("Connection closed by entity at {}", getRemoteAddress());
+                closeChannel();
+                return;
+            }
+            if (length == 0) {
+                return;
+            }
+            lastActivityTime = new Date().getTime();
+            if (state != State.WAITING_FOR_REQUEST) {
+                // Ignore anything beyond the single request of this exchange.
+                readBuffer.clear();
+                return;
+            }
+            readBuffer.flip();
+            decoder.append(readBuffer);
+            readBuffer.compact();
+            if (!decoder.isMessageComplete()) {
+                // wait for the rest of the message
+                return;
+            }
+            byte[] buf = decoder.getMessage();
+            decoder.reset();
+
+            getLogger().debug("Received bytes ({}): {}", buf.length, Buffer.toHexString(buf, 0, buf.length));
+
+            // Process session key request on a worker, the selector thread keeps serving other connections.
+            state = State.HANDLING_REQUEST;
+            int priority = EntityRequestDispatcher.getPriority(MessageType.fromByte(buf[0]));
+            if (!dispatcher.dispatch(() -> processRequest(buf), priority)) {
+                getLogger().info("Entity request dispatcher is full, rejecting request from {}", getRemoteAddress());
+                sendAuthAlert(AuthAlertCode.SERVER_BUSY);
+                close();
+            }
+        }
+        catch (Exception e) {
+            getLogger().error("Exception occurred while handling Auth service!\n {}",
+                    ExceptionToString.convertExceptionToStackTrace(e));
+            closeChannel();
+        }
+    }
+
+    /**
+     * Process a received request, runs on a worker of the dispatcher.
+     * @param buf Raw bytes of the received request.
+     */
+    private void processRequest(byte[] buf) {
+        try {
+            handleEntityReq(buf, authNonce);
+        }
+        catch (Exception e) {
+            getLogger().error("Exception occurred while handling Auth service!\n {}",
+                    ExceptionToString.convertExceptionToStackTrace(e));
+        }
+        // The time spent in the dispatcher is not idle time, the response gets a full timeout to be sent.
+        lastActivityTime = new Date().getTime();
+        close();
+    }
+
+    /**
+     * Called by the selector thread when the channel is writable, flushes pending messages.
+     */
+    void onWritable() {
+        try {
+            // only the selector thread removes from the queue
+            while (!pendingWrites.isEmpty()) {
+                ByteBuffer head = pendingWrites.peek();
+                channel.write(head);
+                if (head.hasRemaining()) {
+                    // socket send buffer is full, wait for the next writable event
+                    break;
+                }
+                pendingWrites.poll();
+            }
+            lastActivityTime = new Date().getTime();
+            updateInterestOps();
+        }
+        catch (IOException e) {
+            getLogger().error("Exception occurred while writing to socket!\n {}",
+                    ExceptionToString.convertExceptionToStackTrace(e));
+            closeChannel();
+        }
+    }
+
+    /**
+     * Update the interest set of the channel based on the current state, and close the channel if a requested
+     * close can be completed. Must be called from the selector thread.
+     */
+    void updateInterestOps() {
+        if (state == State.CLOSED || selectionKey == null || !selectionKey.isValid()) {
+            return;
+        }
+        boolean hasPendingWrites = !pendingWrites.isEmpty();
+        if (state == State.CLOSING && !hasPendingWrites) {
+            closeChannel();
+            return;
+        }
+        int ops = 0;
+        if (state == State.WAITING_FOR_REQUEST) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (hasPendingWrites) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        selectionKey.interestOps(ops);
+    }
+
+    /**
+     * Check whether this connection has been idle for longer than the timeout, and if so, close it.
+     * A connection whose request is waiting for or running on a worker is not idle, so it is not timed out.
+     * Must be called from the selector thread.
+     * @param currentTime Current time in milliseconds
+     * @return Whether the connection was timed out.
+     */
+    boolean closeIfTimedOut(long currentTime) {
+        long elapsedTime = currentTime - lastActivityTime;
+        if (state == State.CLOSED || state == State.HANDLING_REQUEST || timeOut >= elapsedTime) {
+            return false;
+        }
+        getLogger().info("Timed out at " + new Date(currentTime) +
+                ", elapsed: " + elapsedTime +
+                ", last activity at " +  new Date(lastActivityTime));
+        closeChannel();
+        return true;
+    }
+
+    /**
+     * Close TCP connection with the entity, after all pending messages are sent.
+     */
+    protected void close() {
+        if (state == State.CLOSED || state == State.CLOSING) {
+            return;
+        }
+        state = State.CLOSING;
+        selector.requestUpdate(this);
+    }
+
+    /**
+     * Close the underlying channel immediately. Must be called from the selector thread.
+     */
+    void closeChannel() {
+        if (state == State.CLOSED) {
+            return;
+        }
+        state = State.CLOSED;
+        if (selectionKey != null) {
+            selectionKey.cancel();
+        }
+        try {
+            if (channel.isOpen()) {
+                getLogger().info("Closing connection with socket at {}", getRemoteAddress());
+                channel.close();
+            }
+        }
+        catch (IOException e) {
+            getLogger().error("Exception occurred while closing socket!\n {}",
+                    ExceptionToString.convertExceptionToStackTrace(e));
+        }
+    }
+
+    protected Logger getLogger() {
+        return logger;
+    }
+
+    protected String getRemoteAddress() {
+        return String.valueOf(remoteAddress);
+    }
+
+    /**
+     * Queue bytes to be written to the entity, the selector thread writes them when the channel is writable.
+     * @param bytes Bytes to be written.
+     * @throws IOException If the connection is already closed.
+     */
+    protected void writeToSocket(byte[] bytes) throws IOException {
+        if (state == State.CLOSED) {
+            throw new IOException("Connection with " + getRemoteAddress() + " is already closed.");
+        }
+        pendingWrites.add(ByteBuffer.wrap(bytes));
+        selector.requestUpdate(this);
+    }
+
+    State getState() {
+        return state;
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(EntityTcpNioConnectionHandler.class);
+    private static final int READ_BUFFER_SIZE = 4096;
+    private final EntityTcpSelector selector;
+    private final EntityRequestDispatcher dispatcher;
+    private final SocketChannel channel;
+    private final SocketAddress remoteAddress;
+    private final long timeOut;
+    private final Queue<ByteBuffer> pendingWrites;
+    private final ByteBuffer readBuffer;
+    private final IoTSPMessageDecoder decoder;
+    private SelectionKey selectionKey;
+    private Buffer authNonce;
+    private volatile State state;
+    // updated by the worker as well as the selector thread
+    private volatile long lastActivityTime;
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.server;
+
+import org.iot.auth.AuthServer;
+import org.iot.auth.util.ExceptionToString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A thread with a java.nio selector that drives many non-blocking TCP connections from entities, each of which
+ * is handled by an {@link EntityTcpNioConnectionHandler}. Idle connections are closed by this thread when their
+ * timeout passes, instead of each connection polling its own socket.
+ * @author Hokeun Kim
+ */
+public class EntityTcpSelector extends Thread {
+    /**
+     * Constructor for the selector thread
+     * @param server Auth server that the connections are for
+     * @param dispatcher Dispatcher for processing requests received by this selector thread
+     * @param timeout A timeout for the connections with entities
+     * @param name Name of this thread
+     * @throws IOException If the selector cannot be opened.
+     */
+    public EntityTcpSelector(AuthServer server, EntityRequestDispatcher dispatcher, long timeout, String name)
+            throws IOException {
+        super(name);
+        this.server = server;
+        this.dispatcher = dispatcher;
+        this.timeOut = timeout;
+        this.selector = Selector.open();
+        this.newChannels = new ConcurrentLinkedQueue<>();
+        this.pendingUpdates = new ConcurrentLinkedQueue<>();
+        // Check timeouts often enough compared with the timeout itself, but not on every wakeup.
+        this.timeoutCheckInterval = Math.max(MIN_TIMEOUT_CHECK_INTERVAL, Math.min(timeout / 4, MAX_TIMEOUT_CHECK_INTERVAL));
+        setDaemon(true);
+    }
+
+    /**
+     * Hand over a newly accepted channel to this selector thread. Can be called from any thread.
+     * @param channel Accepted socket channel from an entity
+     */
+    public void addChannel(SocketChannel channel) {
+        newChannels.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Request the selector thread to update the interest set of the connection (e.g., after queueing bytes to be
+     * written or requesting close). Can be called from any thread.
+     * @param handler Connection handler to be updated
+     */
+    void requestUpdate(EntityTcpNioConnectionHandler handler) {
+        pendingUpdates.add(handler);
+        if (Thread.currentThread() != this) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Stop this selector thread and close all connections it drives.
+     */
+    public void shutdown() {
+        isRunning = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Get the number of connections currently driven by this selector thread.
+     * @return The number of connections.
+     */
+    public int getNumConnections() {
+        return selector.keys().size();
+    }
+
+    /**
+     * Run method from the parent class, Thread
+     */
+    public void run() {
+        long nextTimeoutCheckTime = new Date().getTime() + timeoutCheckInterval;
+        while (isRunning) {
+            try {
+                if (pendingUpdates.isEmpty() && newChannels.isEmpty()) {
+                    selector.select(timeoutCheckInterval);
+                }
+                else {
+                    selector.selectNow();
+                }
+                registerNewChannels();
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    EntityTcpNioConnectionHandler handler = (EntityTcpNioConnectionHandler) key.attachment();
+                    if (key.isValid() && key.isReadable()) {
+                        handler.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        handler.onWritable();
+                    }
+                }
+                processPendingUpdates();
+
+                long currentTime = new Date().getTime();
+                if (currentTime >= nextTimeoutCheckTime) {
+                    closeTimedOutConnections(currentTime);
+                    nextTimeoutCheckTime = currentTime + timeoutCheckInterval;
+                }
+            }
+            catch (IOException e) {
+                logger.error("IOException in Entity TCP Selector {}", ExceptionToString.convertExceptionToStackTrace(e));
+            }
+        }
+        closeAllConnections();
+    }
+
+    private void registerNewChannels() {
+        SocketChannel channel;
+        while ((channel = newChannels.poll()) != null) {
+            EntityTcpNioConnectionHandler handler = new EntityTcpNioConnectionHandler(server, this, dispatcher,
+                    channel, timeOut);
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, 0, handler);
+                handler.start(key);
+            }
+            catch (IOException e) {
+                logger.error("Failed to register channel {}", ExceptionToString.convertExceptionToStackTrace(e));
+                handler.closeChannel();
+            }
+        }
+    }
+
+    private void processPendingUpdates() {
+        EntityTcpNioConnectionHandler handler;
+        while ((handler = pendingUpdates.poll()) != null) {
+            handler.updateInterestOps();
+        }
+    }
+
+    private void closeTimedOutConnections(long currentTime) {
+        for (SelectionKey key : selector.keys()) {
+            EntityTcpNioConnectionHandler handler = (EntityTcpNioConnectionHandler) key.attachment();
+            if (handler != null) {
+                handler.closeIfTimedOut(currentTime);
+            }
+        }
+    }
+
+    private void closeAllConnections() {
+        for (SelectionKey key : selector.keys()) {
+            EntityTcpNioConnectionHandler handler = (EntityTcpNioConnectionHandler) key.attachment();
+            if (handler != null) {
+                handler.closeChannel();
+            }
+        }
+        try {
+            selector.close();
+        }
+        catch (IOException e) {
+            logger.error("Exception occurred while closing selector!\n {}",
+                    ExceptionToString.convertExceptionToStackTrace(e));
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(EntityTcpSelector.class);
+    private static final long MIN_TIMEOUT_CHECK_INTERVAL = 10;
+    private static final long MAX_TIMEOUT_CHECK_INTERVAL = 1000;
+    private final AuthServer server;
+    private final EntityRequestDispatcher dispatcher;
+    private final long timeOut;
+    private final long timeoutCheckInterval;
+    private final Selector selector;
+    private final Queue<SocketChannel> newChannels;
+    private final Queue<EntityTcpNioConnectionHandler> pendingUpdates;
+    private volatile boolean isRunning = true;
+}
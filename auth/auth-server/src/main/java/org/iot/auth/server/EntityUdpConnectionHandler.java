@@ -18,14 +18,12 @@ package org.iot.auth.server;
 import org.iot.auth.AuthServer;
 import org.iot.auth.io.Buffer;
 import org.iot.auth.util.ExceptionToString;
+import org.iot.auth.util.HashedTimingWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.*;
-import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 
 /**
  * Handler for UDP connection with registered entities
@@ -40,18 +38,21 @@ public class EntityUdpConnectionHandler extends EntityConnectionHandler {
      * @param socketAddress Remote UDP socket address of connected entity
      * @param socketPort Remote UDP socket port of connected entity
      * @param timeout A timeout for the connection with the entity
-     * @param responseMap Map data structure storing responses
+     * @param stateMap Per-address state storing responses
+     * @param expiryTimingWheel Timing wheel for expiring the stored response
      * @param sessionKeyRequest Session key request from the entity
      * @param authNonce Nonce that was generated by Auth in Auth Hello message
      */
     public EntityUdpConnectionHandler(AuthServer server, DatagramSocket entitySocket, InetAddress socketAddress,
-                                      int socketPort, long timeout, Map<String, Buffer> responseMap, Buffer sessionKeyRequest, Buffer authNonce) {
+                                      int socketPort, long timeout, EntityUdpStateMap stateMap, HashedTimingWheel expiryTimingWheel,
+                                      Buffer sessionKeyRequest, Buffer authNonce) {
         super(server);
         this.datagramSocket = entitySocket;
         this.socketAddress = socketAddress;
         this.socketPort = socketPort;
         this.timeOut = timeout;
-        this.responseMap = responseMap;
+        this.stateMap = stateMap;
+        this.expiryTimingWheel = expiryTimingWheel;
         this.sessionKeyRequest = sessionKeyRequest;
         this.authNonce = authNonce;
         this.isOpen = true;
@@ -91,13 +92,9 @@ public class EntityUdpConnectionHandler extends EntityConnectionHandler {
 
     protected void writeToSocket(byte[] bytes) throws IOException {
         String addressKey = socketAddress + ":" + socketPort;
-        responseMap.put(addressKey, new Buffer(bytes));
-        new Timer().schedule(new TimerTask() {
-            @Override
-            public void run() {
-                responseMap.remove(addressKey);
-            }
-        }, timeOut);
+        Buffer response = new Buffer(bytes);
+        stateMap.putResponse(addressKey, response);
+        expiryTimingWheel.schedule(() -> stateMap.removeResponse(addressKey, response), timeOut);
         DatagramPacket packetToSend = new DatagramPacket(bytes, bytes.length, socketAddress, socketPort);
         datagramSocket.send(packetToSend);
     }
@@ -112,7 +109,8 @@ public class EntityUdpConnectionHandler extends EntityConnectionHandler {
     private int socketPort;
     private long timeOut;
     private boolean isOpen;
-    private Map<String, Buffer> responseMap;
+    private EntityUdpStateMap stateMap;
+    private HashedTimingWheel expiryTimingWheel;
     Buffer sessionKeyRequest;
     Buffer authNonce;
 }
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.server;
+
+import org.iot.auth.io.Buffer;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-address state of entities communicating with Auth via UDP (Auth nonces, cached responses and requests in
+ * progress), keyed by "address:port". The state is sharded by a hash of the address key, each shard with its own
+ * lock, so that receiver threads and entity request workers rarely contend with each other.
+ * @author Hokeun Kim
+ */
+public class EntityUdpStateMap {
+    private static class Shard {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<String, Buffer> nonceMap = new HashMap<>();
+        private final Map<String, Buffer> responseMap = new HashMap<>();
+        private final Set<String> addressKeysInProgress = new HashSet<>();
+    }
+
+    /**
+     * Constructor for the sharded state map
+     * @param numShards The number of shards.
+     */
+    public EntityUdpStateMap(int numShards) {
+        shards = new Shard[numShards];
+        for (int i = 0; i < numShards; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    public Buffer getNonce(String addressKey) {
+        Shard shard = getShard(addressKey);
+        shard.lock.lock();
+        try {
+            return shard.nonceMap.get(addressKey);
+        }
+        finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Put an Auth nonce for the address, unless there is already one.
+     * @param addressKey Address key of the entity.
+     * @param nonce New Auth nonce.
+     * @return The existing nonce, or null if the new nonce is put.
+     */
+    public Buffer putNonceIfAbsent(String addressKey, Buffer nonce) {
+        Shard shard = getShard(addressKey);
+        shard.lock.lock();
+        try {
+            return shard.nonceMap.putIfAbsent(addressKey, nonce);
+        }
+        finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the Auth nonce for the address, only if it is still the given nonce.
+     * @param addressKey Address key of the entity.
+     * @param nonce Auth nonce to be removed.
+     */
+    public void removeNonce(String addressKey, Buffer nonce) {
+        Shard shard = getShard(addressKey);
+        shard.lock.lock();
+        try {
+            shard.nonceMap.remove(addressKey, nonce);
+        }
+        finally {
+            shard.lock.unlock();
+        }
+    }
+
+    public Buffer getResponse(String addressKey) {
+        Shard shard = getShard(addressKey);
+        shard.lock.lock();
+        try {
+            return shard.responseMap.get(addressKey);
+        }
+        finally {
+            shard.lock.unlock();
+        }
+    }
+
+    public void putResponse(String addressKey, Buffer response) {
+        Shard shard = getShard(addressKey);
+        shard.lock.lock();
+        try {
+            shard.responseMap.put(addressKey, response);
+        }
+        finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the cached response for the address, only if it is still the given response.
+     * @param addressKey Address key of the entity.
+     * @param response Cached response to be removed.
+     */
+    public void removeResponse(String addressKey, Buffer response) {
+        Shard shard = getShard(addressKey);
+        shard.lock.lock();
+        try {
+            shard.responseMap.remove(addressKey, response);
+        }
+        finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Mark that a request from the address is being processed.
+     * @param addressKey Address key of the entity.
+     * @return False if a request from the address is already being processed.
+     */
+    public boolean markInProgress(String addressKey) {
+        Shard shard = getShard(addressKey);
+        shard.lock.lock();
+        try {
+            return shard.addressKeysInProgress.add(addressKey);
+        }
+        finally {
+            shard.lock.unlock();
+        }
+    }
+
+    public void unmarkInProgress(String addressKey) {
+        Shard shard = getShard(addressKey);
+        shard.lock.lock();
+        try {
+            shard.addressKeysInProgress.remove(addressKey);
+        }
+        finally {
+            shard.lock.unlock();
+        }
+    }
+
+    public String toString() {
+        StringBuilder nonces = new StringBuilder();
+        StringBuilder responses = new StringBuilder();
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                shard.nonceMap.forEach((k, v)->{
+                    nonces.append(k + "->" + v.toHexString() + "\n");
+                });
+                shard.responseMap.forEach((k, v)->{
+                    responses.append(k + "->" + v.length() + "\n");
+                });
+            }
+            finally {
+                shard.lock.unlock();
+            }
+        }
+        return "Nonce Map\n" + nonces.toString() + "Response Map\n" + responses.toString();
+    }
+
+    private Shard getShard(String addressKey) {
+        int hash = addressKey.hashCode();
+        // spread higher bits, as address keys of the same subnet share most of their characters
+        hash ^= (hash >>> 16);
+        return shards[Math.floorMod(hash, shards.length)];
+    }
+
+    private final Shard[] shards;
+}
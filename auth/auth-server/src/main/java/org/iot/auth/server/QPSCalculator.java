@@ -4,6 +4,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Calendar;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class QPSCalculator {
     public QPSCalculator(float qpsLimit, int qpsBucketSizeInSec) {
@@ -18,7 +19,17 @@ public class QPSCalculator {
      * the QPS limit is exceeded. QPS is calculated over a minute.
      * @return Boolean value to indicate if the QPS limit is exceeded.
      */
-    public synchronized boolean checkQpsLimitExceededOtherwiseIncreaseRequestCounter() {
+    public boolean checkQpsLimitExceededOtherwiseIncreaseRequestCounter() {
+        // ReentrantLock instead of synchronized, not to pin carrier threads when called from virtual threads
+        lock.lock();
+        try {
+            return checkQpsLimitExceededOtherwiseIncreaseRequestCounterInternal();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+    private boolean checkQpsLimitExceededOtherwiseIncreaseRequestCounterInternal() {
         long currentTimeInSec = Calendar.getInstance().getTimeInMillis() / 1000;
         int secondIndex = (int) (currentTimeInSec % qpsBucketSizeInSec);
         logger.info("current second index:  " + secondIndex + " time in sec: " + currentTimeInSec);
@@ -52,6 +63,7 @@ public class QPSCalculator {
         lastTimeInSec = currentTimeInSec;
         return isQpsExceeded;
     }
+    private final ReentrantLock lock = new ReentrantLock();
     private float maxTotalQps = 0f;
     private float maxAcceptedQps = 0f;
     private final float qpsLimit;
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.server;
+
+import org.iot.auth.AuthServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class for periodically deleting expired session keys from Auth DB in the background. Each run deletes
+ * expired session keys in small batches, each in its own short transaction, so that request threads waiting
+ * for Auth DB are blocked for at most one batch at a time. A run stops when its time budget is used up,
+ * and the rest of the expired session keys are left to the next run. When Auth is idle, free pages are
+ * reclaimed by an incremental vacuum.
+ * @author Hokeun Kim
+ */
+public class SessionKeySweeper {
+    public SessionKeySweeper(AuthServer server, EntityRequestDispatcher entityRequestDispatcher,
+                             long sweepInterval, int batchSize, long timeBudget, boolean vacuumEnabled) {
+        this.server = server;
+        this.entityRequestDispatcher = entityRequestDispatcher;
+        this.sweepInterval = sweepInterval;
+        this.batchSize = batchSize;
+        this.timeBudget = timeBudget;
+        this.vacuumEnabled = vacuumEnabled;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SessionKeySweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        logger.info("Scheduling a task of sweeping expired session keys every {} ms, in batches of {} " +
+                "within {} ms.", sweepInterval, batchSize, timeBudget);
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                sweep();
+            }
+            catch (RuntimeException e) {
+                logger.error("Failed to sweep expired session keys. {}", e.getMessage());
+            }
+        }, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Deletes expired session keys batch by batch, until there are no more expired session keys or
+     * the time budget for this run is used up.
+     * @return The number of expired session keys deleted in this run.
+     */
+    public int sweep() {
+        long startTime = System.nanoTime();
+        long deadline = startTime + TimeUnit.MILLISECONDS.toNanos(timeBudget);
+        int numSwept = 0;
+        int numBatches = 0;
+        try {
+            while (true) {
+                long batchStartTime = System.nanoTime();
+                int numDeleted = server.deleteExpiredSessionKeys(batchSize);
+                long batchEndTime = System.nanoTime();
+                maxBatchNanos = Math.max(maxBatchNanos, batchEndTime - batchStartTime);
+                numSwept += numDeleted;
+                numBatches++;
+                if (numDeleted < batchSize || batchEndTime >= deadline) {
+                    break;
+                }
+                // Give request threads waiting for Auth DB a chance between batches.
+                Thread.sleep(PAUSE_BETWEEN_BATCHES);
+            }
+            if (vacuumEnabled && isIdle()) {
+                long numPages = server.vacuumAuthDB(VACUUM_PAGES_PER_RUN);
+                if (numPages > 0) {
+                    numVacuumedPages += numPages;
+                    numVacuums++;
+                }
+            }
+        }
+        catch (SQLException e) {
+            logger.error("Failed to sweep expired session keys. {}", e.getMessage());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        numRuns++;
+        lastSwept = numSwept;
+        lastRunMillis = elapsedMillis;
+        totalSwept += numSwept;
+        if (numSwept > 0) {
+            logger.info("Swept {} expired session keys in {} ms ({} batches).", numSwept, elapsedMillis, numBatches);
+        }
+        return numSwept;
+    }
+
+    /**
+     * Auth is regarded idle when no entity request has been dispatched since the previous check.
+     */
+    private boolean isIdle() {
+        long numDispatched = entityRequestDispatcher.getNumDispatched();
+        boolean isIdle = numDispatched == lastNumDispatched && entityRequestDispatcher.getQueueDepth() == 0;
+        lastNumDispatched = numDispatched;
+        return isIdle;
+    }
+
+    public String toString() {
+        return "Runs: " + numRuns + ", Total swept: " + totalSwept + ", Last swept: " + lastSwept +
+                ", Last run: " + lastRunMillis + " ms, Max batch: " +
+                TimeUnit.NANOSECONDS.toMicros(maxBatchNanos) / 1000.0 + " ms" +
+                ", Vacuums: " + numVacuums + ", Vacuumed pages: " + numVacuumedPages;
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionKeySweeper.class);
+    private static final long PAUSE_BETWEEN_BATCHES = 1;
+    private static final int VACUUM_PAGES_PER_RUN = 1000;
+
+    private final AuthServer server;
+    private final EntityRequestDispatcher entityRequestDispatcher;
+    private final ScheduledExecutorService scheduler;
+    private final long sweepInterval;
+    private final int batchSize;
+    private final long timeBudget;
+    private final boolean vacuumEnabled;
+
+    // Only written by the sweeper thread, read for statistics.
+    private volatile long numRuns = 0;
+    private volatile long totalSwept = 0;
+    private volatile int lastSwept = 0;
+    private volatile long lastRunMillis = 0;
+    private volatile long maxBatchNanos = 0;
+    private volatile long numVacuums = 0;
+    private volatile long numVacuumedPages = 0;
+    private long lastNumDispatched = -1;
+}
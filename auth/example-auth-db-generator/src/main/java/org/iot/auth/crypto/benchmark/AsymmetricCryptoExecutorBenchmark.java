@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.crypto.benchmark;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.iot.auth.crypto.AsymmetricCryptoExecutor;
+import org.iot.auth.crypto.AuthCrypto;
+import org.iot.auth.crypto.CryptoPrimitivePool;
+import org.iot.auth.crypto.SymmetricKey;
+import org.iot.auth.crypto.SymmetricKeyCryptoSpec;
+import org.iot.auth.io.Buffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A program to measure a storm of public key handshakes (as after a mass reboot of devices) arriving at once at
+ * entity request workers, while session key requests encrypted with distribution keys keep arriving at a steady
+ * rate. Each handshake decrypts and verifies the request, and encrypts and signs the distribution key, as in
+ * SESSION_KEY_REQ_IN_PUB_ENC. Compares performing the RSA operations on request workers that serve requests in
+ * arrival order, as Auth originally did, with request workers that serve session key requests with distribution
+ * keys first, as the EntityRequestDispatcher does, and with also submitting the RSA operations to the
+ * AsymmetricCryptoExecutor. Reports the latency of both kinds of requests and the per operation latency measured
+ * by the executor.
+ * @author Hokeun Kim
+ */
+public class AsymmetricCryptoExecutorBenchmark {
+    public static void main(String[] args) throws Exception {
+        // parsing command line arguments
+        Options options = new Options();
+
+        Option option = new Option("n", "num_handshakes", true, "number of handshakes in the storm (default: 500).");
+        options.addOption(option);
+        option = new Option("w", "num_workers", true, "number of entity request workers (default: 64).");
+        options.addOption(option);
+        option = new Option("t", "num_threads", true,
+                "number of asymmetric crypto workers, 0 for one per core (default: 0).");
+        options.addOption(option);
+        option = new Option("r", "symmetric_rate", true,
+                "session key requests with distribution keys per second (default: 500).");
+        options.addOption(option);
+        option = new Option("p", "provider", true, "security provider for the executor (default: default lookup).");
+        options.addOption(option);
+
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+        CommandLine cmd;
+
+        try {
+            cmd = parser.parse(options, args);
+        } catch (org.apache.commons.cli.ParseException e) {
+            System.out.println(e.getMessage());
+            formatter.printHelp("utility-name", options);
+
+            System.exit(1);
+            return;
+        }
+        int numHandshakes = Integer.parseInt(cmd.getOptionValue("num_handshakes", "500"));
+        int numWorkers = Integer.parseInt(cmd.getOptionValue("num_workers", "64"));
+        int numThreads = Integer.parseInt(cmd.getOptionValue("num_threads", "0"));
+        int symmetricRate = Integer.parseInt(cmd.getOptionValue("symmetric_rate", "500"));
+        String providerName = cmd.getOptionValue("provider", "");
+
+        logger.info("Handshakes: {}, request workers: {}, asymmetric crypto workers: {}, symmetric requests/s: {}",
+                numHandshakes, numWorkers, numThreads, symmetricRate);
+
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        KeyPair authKeyPair = keyPairGenerator.generateKeyPair();
+        KeyPair entityKeyPair = keyPairGenerator.generateKeyPair();
+        // request of an entity, encrypted with Auth's public key and signed with the entity's private key
+        Buffer encryptedRequest = performCipher(CryptoPrimitivePool.CIPHERS, Cipher.ENCRYPT_MODE,
+                authKeyPair.getPublic(), AuthCrypto.getRandomBytes(REQUEST_SIZE));
+        Buffer requestSignature = sign(CryptoPrimitivePool.SIGNATURES, entityKeyPair.getPrivate(), encryptedRequest);
+        SymmetricKey distributionKey = new SymmetricKey(
+                SymmetricKeyCryptoSpec.fromSpecString("AES-128-CBC:SHA256"), Long.MAX_VALUE);
+        Buffer symmetricRequest = distributionKey.encryptAuthenticate(AuthCrypto.getRandomBytes(REQUEST_SIZE));
+
+        System.out.println(String.format("%-20s %12s %14s %14s %14s %14s", "mode", "handshake/s",
+                "hs p50 (ms)", "hs p99 (ms)", "sym p50 (ms)", "sym p99 (ms)"));
+        String[] modes = {MODE_INLINE_FIFO, MODE_INLINE_PRIORITY, MODE_EXECUTOR_PRIORITY};
+        // the first round warms up the JIT compiler
+        for (int round = 0; round < 2; round++) {
+            for (String mode : modes) {
+                boolean useExecutor = mode.equals(MODE_EXECUTOR_PRIORITY);
+                AsymmetricCryptoExecutor executor = useExecutor ? new AsymmetricCryptoExecutor(numThreads,
+                        AsymmetricCryptoExecutor.getProvider(providerName)) : null;
+                Handshake handshake = () -> {
+                    Buffer decrypted = call(executor, AsymmetricCryptoExecutor.Operation.PRIVATE_DECRYPT,
+                            (ciphers, signatures) -> performCipher(ciphers, Cipher.DECRYPT_MODE,
+                                    authKeyPair.getPrivate(), encryptedRequest));
+                    boolean verified = call(executor, AsymmetricCryptoExecutor.Operation.VERIFY,
+                            (ciphers, signatures) -> verify(signatures, entityKeyPair.getPublic(), encryptedRequest,
+                                    requestSignature));
+                    if (decrypted.length() != REQUEST_SIZE || !verified) {
+                        throw new RuntimeException("Handshake request is not valid.");
+                    }
+                    Buffer encrypted = call(executor, AsymmetricCryptoExecutor.Operation.PUBLIC_ENCRYPT,
+                            (ciphers, signatures) -> performCipher(ciphers, Cipher.ENCRYPT_MODE,
+                                    entityKeyPair.getPublic(), decrypted));
+                    call(executor, AsymmetricCryptoExecutor.Operation.SIGN,
+                            (ciphers, signatures) -> sign(signatures, authKeyPair.getPrivate(), encrypted));
+                };
+                Result result = runStorm(handshake, distributionKey, symmetricRequest, numHandshakes, numWorkers,
+                        symmetricRate, !mode.equals(MODE_INLINE_FIFO));
+                if (round > 0) {
+                    System.out.println(String.format("%-20s %12.1f %14.1f %14.1f %14.2f %14.2f",
+                            mode, result.handshakesPerSecond,
+                            percentile(result.handshakeLatencies, 50), percentile(result.handshakeLatencies, 99),
+                            percentile(result.symmetricLatencies, 50), percentile(result.symmetricLatencies, 99)));
+                    if (executor != null) {
+                        logger.info("Asymmetric crypto executor\n{}", executor.toString());
+                    }
+                }
+                if (executor != null) {
+                    executor.shutdown();
+                }
+            }
+        }
+    }
+
+    private interface Handshake {
+        void run() throws Exception;
+    }
+
+    private interface AsymmetricOperation<T> {
+        T run(CryptoPrimitivePool<Cipher> ciphers, CryptoPrimitivePool<Signature> signatures) throws Exception;
+    }
+
+    private static class Request implements Runnable, Comparable<Request> {
+        private Request(Runnable task, int priority, long sequence) {
+            this.task = task;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(Request other) {
+            if (priority != other.priority) {
+                return Integer.compare(priority, other.priority);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+
+        private final Runnable task;
+        private final int priority;
+        private final long sequence;
+    }
+
+    private static class Result {
+        private double handshakesPerSecond;
+        private final List<Long> handshakeLatencies = Collections.synchronizedList(new ArrayList<>());
+        private final List<Long> symmetricLatencies = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    /**
+     * Performs an asymmetric operation on the calling request worker if there is no executor, or waits for the
+     * executor to perform it.
+     */
+    private static <T> T call(AsymmetricCryptoExecutor executor, AsymmetricCryptoExecutor.Operation operation,
+                              AsymmetricOperation<T> asymmetricOperation) throws Exception {
+        if (executor == null) {
+            return asymmetricOperation.run(CryptoPrimitivePool.CIPHERS, CryptoPrimitivePool.SIGNATURES);
+        }
+        return executor.submit(operation, () ->
+                asymmetricOperation.run(executor.getCiphers(), executor.getSignatures())).get();
+    }
+
+    /**
+     * Dispatches all handshakes of the storm at once to the request workers, and session key requests with
+     * distribution keys at the given rate until the storm is over, where the waiting session key requests with
+     * distribution keys are served first if usePriority is true.
+     */
+    private static Result runStorm(Handshake handshake, SymmetricKey distributionKey, Buffer symmetricRequest,
+                                   int numHandshakes, int numWorkers, int symmetricRate, boolean usePriority)
+            throws Exception {
+        Result result = new Result();
+        BlockingQueue<Runnable> queue = usePriority ? new PriorityBlockingQueue<>() : new LinkedBlockingQueue<>();
+        ThreadPoolExecutor requestWorkers = new ThreadPoolExecutor(numWorkers, numWorkers, 0L, TimeUnit.MILLISECONDS,
+                queue);
+        long sequence = 0;
+        CountDownLatch stormOver = new CountDownLatch(numHandshakes);
+        long start = System.nanoTime();
+        for (int i = 0; i < numHandshakes; i++) {
+            long dispatchTime = System.nanoTime();
+            requestWorkers.execute(new Request(() -> {
+                try {
+                    handshake.run();
+                    result.handshakeLatencies.add(System.nanoTime() - dispatchTime);
+                }
+                catch (Exception e) {
+                    logger.error("Handshake failed: {}", e.getMessage());
+                }
+                stormOver.countDown();
+            }, PRIORITY_LOW, sequence++));
+        }
+        long interval = TimeUnit.SECONDS.toNanos(1) / symmetricRate;
+        while (!stormOver.await(interval, TimeUnit.NANOSECONDS)) {
+            long dispatchTime = System.nanoTime();
+            requestWorkers.execute(new Request(() -> {
+                try {
+                    distributionKey.decryptVerify(symmetricRequest);
+                    result.symmetricLatencies.add(System.nanoTime() - dispatchTime);
+                }
+                catch (Exception e) {
+                    logger.error("Session key request failed: {}", e.getMessage());
+                }
+            }, PRIORITY_HIGH, sequence++));
+        }
+        result.handshakesPerSecond = numHandshakes / ((System.nanoTime() - start) / 1e9);
+        requestWorkers.shutdown();
+        requestWorkers.awaitTermination(1, TimeUnit.MINUTES);
+        return result;
+    }
+
+    /**
+     * Percentile of the given latencies in milliseconds.
+     */
+    private static double percentile(List<Long> latencies, int percent) {
+        if (latencies.isEmpty()) {
+            return 0;
+        }
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        int index = Math.min(sorted.size() - 1, (int) Math.ceil(sorted.size() * percent / 100.0) - 1);
+        return sorted.get(Math.max(0, index)) / 1e6;
+    }
+
+    private static Buffer performCipher(CryptoPrimitivePool<Cipher> ciphers, int operationMode, Key key, Buffer input)
+            throws Exception {
+        Cipher cipher = ciphers.borrow(CIPHER_ALGORITHM);
+        try {
+            cipher.init(operationMode, key);
+            return new Buffer(cipher.doFinal(input.getRawBytes()));
+        }
+        finally {
+            ciphers.release(CIPHER_ALGORITHM, cipher);
+        }
+    }
+
+    private static Buffer sign(CryptoPrimitivePool<Signature> signatures, PrivateKey privateKey, Buffer input)
+            throws Exception {
+        Signature signer = signatures.borrow(SIGN_ALGORITHM);
+        try {
+            signer.initSign(privateKey);
+            signer.update(input.getRawBytes());
+            return new Buffer(signer.sign());
+        }
+        finally {
+            signatures.release(SIGN_ALGORITHM, signer);
+        }
+    }
+
+    private static boolean verify(CryptoPrimitivePool<Signature> signatures, PublicKey publicKey, Buffer data,
+                                  Buffer signature) throws Exception {
+        Signature verifier = signatures.borrow(SIGN_ALGORITHM);
+        try {
+            verifier.initVerify(publicKey);
+            verifier.update(data.getRawBytes());
+            return verifier.verify(signature.getRawBytes());
+        }
+        finally {
+            signatures.release(SIGN_ALGORITHM, verifier);
+        }
+    }
+
+    private static final String MODE_INLINE_FIFO = "inline, fifo";
+    private static final String MODE_INLINE_PRIORITY = "inline, priority";
+    private static final String MODE_EXECUTOR_PRIORITY = "executor, priority";
+    private static final int PRIORITY_HIGH = 0;
+    private static final int PRIORITY_LOW = 1;
+    private static final String CIPHER_ALGORITHM = "RSA/ECB/PKCS1PADDING";
+    private static final String SIGN_ALGORITHM = "SHA256withRSA";
+    private static final int REQUEST_SIZE = 100;
+    private static final Logger logger = LoggerFactory.getLogger(AsymmetricCryptoExecutorBenchmark.class);
+}
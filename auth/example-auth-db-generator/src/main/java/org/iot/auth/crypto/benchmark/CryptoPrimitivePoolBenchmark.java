@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.crypto.benchmark;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.iot.auth.crypto.CryptoPrimitivePool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A program to measure the savings of the crypto primitive pool (CryptoPrimitivePool) over looking up a provider
+ * and instantiating a primitive with getInstance() on every operation, as the crypto calls of Auth used to do.
+ * Each operation processes a small message, like the ones Auth handles, so that the fixed cost of the primitive
+ * instantiation is not hidden behind the cost of processing bulk data.
+ * @author Hokeun Kim
+ */
+public class CryptoPrimitivePoolBenchmark {
+    public static void main(String[] args) throws Exception {
+        // parsing command line arguments
+        Options options = new Options();
+
+        Option option = new Option("t", "num_threads", true, "comma-separated numbers of threads (default: 1,4).");
+        options.addOption(option);
+        option = new Option("i", "num_iterations", true,
+                "number of operations per thread for symmetric crypto (default: 200000).");
+        options.addOption(option);
+        option = new Option("s", "message_size", true, "size of the message in bytes (default: 64).");
+        options.addOption(option);
+
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+        CommandLine cmd;
+
+        try {
+            cmd = parser.parse(options, args);
+        } catch (org.apache.commons.cli.ParseException e) {
+            System.out.println(e.getMessage());
+            formatter.printHelp("utility-name", options);
+
+            System.exit(1);
+            return;
+        }
+        String[] numThreadsList = cmd.getOptionValue("num_threads", "1,4").split(",");
+        int numIterations = Integer.parseInt(cmd.getOptionValue("num_iterations", "200000"));
+        int messageSize = Integer.parseInt(cmd.getOptionValue("message_size", "64"));
+
+        logger.info("Numbers of threads: {}, iterations: {}, message size: {}",
+                String.join(",", numThreadsList), numIterations, messageSize);
+
+        SecureRandom random = new SecureRandom();
+        byte[] message = new byte[messageSize];
+        random.nextBytes(message);
+        byte[] keyVal = new byte[16];
+        random.nextBytes(keyVal);
+        SecretKeySpec cipherKey = new SecretKeySpec(keyVal, "AES");
+        SecretKeySpec macKey = new SecretKeySpec(keyVal, MAC_ALGORITHM);
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        byte[] publicKeyVal = keyPair.getPublic().getEncoded();
+        Signature signer = Signature.getInstance(SIGNATURE_ALGORITHM);
+        signer.initSign(keyPair.getPrivate());
+        signer.update(message);
+        byte[] signature = signer.sign();
+
+        List<Operation> operationList = new ArrayList<>();
+        operationList.add(new Operation(CIPHER_ALGORITHM, numIterations) {
+            @Override
+            void run(boolean pooled) throws Exception {
+                Cipher cipher = pooled ? CryptoPrimitivePool.CIPHERS.borrow(CIPHER_ALGORITHM)
+                        : Cipher.getInstance(CIPHER_ALGORITHM);
+                try {
+                    cipher.init(Cipher.ENCRYPT_MODE, cipherKey);
+                    cipher.doFinal(message);
+                }
+                finally {
+                    if (pooled) {
+                        CryptoPrimitivePool.CIPHERS.release(CIPHER_ALGORITHM, cipher);
+                    }
+                }
+            }
+        });
+        operationList.add(new Operation(MAC_ALGORITHM, numIterations) {
+            @Override
+            void run(boolean pooled) throws Exception {
+                Mac mac = pooled ? CryptoPrimitivePool.MACS.borrow(MAC_ALGORITHM) : Mac.getInstance(MAC_ALGORITHM);
+                try {
+                    mac.init(macKey);
+                    mac.doFinal(message);
+                }
+                finally {
+                    if (pooled) {
+                        CryptoPrimitivePool.MACS.release(MAC_ALGORITHM, mac);
+                    }
+                }
+            }
+        });
+        // Public key operations are much slower, so they are run fewer times.
+        operationList.add(new Operation(SIGNATURE_ALGORITHM + " verify", numIterations / 20) {
+            @Override
+            void run(boolean pooled) throws Exception {
+                Signature verifier = pooled ? CryptoPrimitivePool.SIGNATURES.borrow(SIGNATURE_ALGORITHM)
+                        : Signature.getInstance(SIGNATURE_ALGORITHM);
+                try {
+                    verifier.initVerify(keyPair.getPublic());
+                    verifier.update(message);
+                    if (!verifier.verify(signature)) {
+                        throw new RuntimeException("Signature verification failed!");
+                    }
+                }
+                finally {
+                    if (pooled) {
+                        CryptoPrimitivePool.SIGNATURES.release(SIGNATURE_ALGORITHM, verifier);
+                    }
+                }
+            }
+        });
+        operationList.add(new Operation("RSA KeyFactory", numIterations / 4) {
+            @Override
+            void run(boolean pooled) throws Exception {
+                KeyFactory keyFactory = pooled ? CryptoPrimitivePool.KEY_FACTORIES.borrow("RSA")
+                        : KeyFactory.getInstance("RSA");
+                try {
+                    keyFactory.generatePublic(new X509EncodedKeySpec(publicKeyVal));
+                }
+                finally {
+                    if (pooled) {
+                        CryptoPrimitivePool.KEY_FACTORIES.release("RSA", keyFactory);
+                    }
+                }
+            }
+        });
+
+        System.out.println(String.format("%-24s %8s %20s %20s %10s", "operation", "threads",
+                "getInstance (ns/op)", "pooled (ns/op)", "savings"));
+        for (String strNumThreads : numThreadsList) {
+            int numThreads = Integer.parseInt(strNumThreads.trim());
+            for (Operation operation : operationList) {
+                // Warms up the JIT compiler, and fills the pool.
+                runOperation(operation, numThreads, false);
+                runOperation(operation, numThreads, true);
+                double getInstanceNanos = runOperation(operation, numThreads, false);
+                double pooledNanos = runOperation(operation, numThreads, true);
+                System.out.println(String.format("%-24s %8d %20.1f %20.1f %9.1f%%", operation.name, numThreads,
+                        getInstanceNanos, pooledNanos, 100.0 * (getInstanceNanos - pooledNanos) / getInstanceNanos));
+            }
+        }
+        logger.info("Crypto primitive pools\n{}", CryptoPrimitivePool.statisticsToString());
+    }
+
+    private static abstract class Operation {
+        Operation(String name, int numIterations) {
+            this.name = name;
+            this.numIterations = numIterations;
+        }
+        abstract void run(boolean pooled) throws Exception;
+        private final String name;
+        private final int numIterations;
+    }
+
+    /**
+     * Runs the operation on the given number of threads at the same time.
+     * @return Average time per operation of a thread, in nanoseconds.
+     */
+    private static double runOperation(Operation operation, int numThreads, boolean pooled) throws Exception {
+        CountDownLatch startLatch = new CountDownLatch(1);
+        List<Thread> threadList = new ArrayList<>();
+        long[] elapsedNanos = new long[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            final int threadIndex = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    startLatch.await();
+                    long start = System.nanoTime();
+                    for (int j = 0; j < operation.numIterations; j++) {
+                        operation.run(pooled);
+                    }
+                    elapsedNanos[threadIndex] = System.nanoTime() - start;
+                }
+                catch (Exception e) {
+                    throw new RuntimeException("Exception in " + operation.name + ": " + e.getMessage());
+                }
+            });
+            thread.start();
+            threadList.add(thread);
+        }
+        startLatch.countDown();
+        long totalNanos = 0;
+        for (int i = 0; i < numThreads; i++) {
+            threadList.get(i).join();
+            totalNanos += elapsedNanos[i];
+        }
+        return (double) totalNanos / numThreads / operation.numIterations;
+    }
+
+    private static final String CIPHER_ALGORITHM = "AES/CBC/PKCS5Padding";
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+    private static final Logger logger = LoggerFactory.getLogger(CryptoPrimitivePoolBenchmark.class);
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.crypto.benchmark;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.ECPointUtil;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.jce.spec.ECNamedCurveParameterSpec;
+import org.bouncycastle.jce.spec.ECNamedCurveSpec;
+import org.iot.auth.crypto.DistributionDiffieHellman;
+import org.iot.auth.crypto.EphemeralKeyPairPool;
+import org.iot.auth.crypto.SymmetricKeyCryptoSpec;
+import org.iot.auth.io.Buffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.KeyAgreement;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.spec.ECPublicKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A program to measure the time Auth spends on the request path of a Diffie-Hellman distribution key handshake,
+ * from generating (or taking) Auth's ephemeral key pair to deriving the distribution key from the entity's public
+ * parameter. Handshakes arrive at a fixed rate, so that the background thread of the ephemeral key pair pool has
+ * the time between handshakes to refill the pool, as it would with real entities.
+ * @author Hokeun Kim
+ */
+public class DiffieHellmanHandshakeBenchmark {
+    public static void main(String[] args) throws Exception {
+        // parsing command line arguments
+        Options options = new Options();
+
+        Option option = new Option("r", "handshake_rate", true, "handshakes per second (default: 100).");
+        options.addOption(option);
+        option = new Option("d", "duration", true, "duration of each measurement in seconds (default: 5).");
+        options.addOption(option);
+
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+        CommandLine cmd;
+
+        try {
+            cmd = parser.parse(options, args);
+        } catch (org.apache.commons.cli.ParseException e) {
+            System.out.println(e.getMessage());
+            formatter.printHelp("utility-name", options);
+
+            System.exit(1);
+            return;
+        }
+        int handshakeRate = Integer.parseInt(cmd.getOptionValue("handshake_rate", "100"));
+        int duration = Integer.parseInt(cmd.getOptionValue("duration", "5"));
+
+        logger.info("Handshake rate: {}/s, duration: {} s", handshakeRate, duration);
+
+        SymmetricKeyCryptoSpec distCryptoSpec = SymmetricKeyCryptoSpec.fromSpecString(DIST_CRYPTO_SPEC);
+        // public parameters of entities, generated in advance
+        List<Buffer> entityParamList = new ArrayList<>();
+        for (int i = 0; i < NUM_ENTITY_PARAMS; i++) {
+            KeyPair entityKeyPair = DistributionDiffieHellman.generateKeyPair(
+                    DistributionDiffieHellman.KEY_PAIR_ALGORITHM, DistributionDiffieHellman.KEY_SIZE);
+            entityParamList.add(new Buffer(SubjectPublicKeyInfo.getInstance(
+                    entityKeyPair.getPublic().getEncoded()).getPublicKeyData().getOctets()));
+        }
+        EphemeralKeyPairPool ephemeralKeyPairPool = new EphemeralKeyPairPool(4, 256);
+
+        List<Handshake> handshakeList = new ArrayList<>();
+        handshakeList.add(new Handshake("legacy") {
+            @Override
+            void run(Buffer entityParam) throws Exception {
+                // DistributionDiffieHellman before caching the curve, the provider and the key factory
+                KeyPairGenerator kpg = KeyPairGenerator.getInstance(DistributionDiffieHellman.KEY_PAIR_ALGORITHM);
+                kpg.initialize(DistributionDiffieHellman.KEY_SIZE);
+                KeyPair keyPair = kpg.generateKeyPair();
+                new DistributionDiffieHellman(distCryptoSpec, DistributionDiffieHellman.KEY_AGREEMENT_ALGORITHM,
+                        keyPair, DIST_KEY_VALIDITY_PERIOD).getSerializedBuffer();
+                ECNamedCurveParameterSpec spec = ECNamedCurveTable.getParameterSpec("secp384r1");
+                KeyFactory keyFactory = KeyFactory.getInstance("ECDH", new BouncyCastleProvider());
+                ECNamedCurveSpec params = new ECNamedCurveSpec("secp384r1", spec.getCurve(), spec.getG(),
+                        spec.getN());
+                PublicKey entityPublicKey = keyFactory.generatePublic(new ECPublicKeySpec(
+                        ECPointUtil.decodePoint(params.getCurve(), entityParam.getRawBytes()), params));
+                KeyAgreement keyAgreement = KeyAgreement.getInstance(DistributionDiffieHellman.KEY_AGREEMENT_ALGORITHM);
+                keyAgreement.init(keyPair.getPrivate());
+                keyAgreement.doPhase(entityPublicKey, true);
+                keyAgreement.generateSecret();
+            }
+        });
+        handshakeList.add(new Handshake("cached curve/factory") {
+            @Override
+            void run(Buffer entityParam) throws Exception {
+                DistributionDiffieHellman distributionDiffieHellman = new DistributionDiffieHellman(distCryptoSpec,
+                        DistributionDiffieHellman.KEY_PAIR_ALGORITHM, DistributionDiffieHellman.KEY_AGREEMENT_ALGORITHM,
+                        DistributionDiffieHellman.KEY_SIZE, DIST_KEY_VALIDITY_PERIOD);
+                distributionDiffieHellman.getSerializedBuffer();
+                distributionDiffieHellman.deriveDistributionKey(entityParam);
+            }
+        });
+        handshakeList.add(new Handshake("key pair pool") {
+            @Override
+            void run(Buffer entityParam) throws Exception {
+                DistributionDiffieHellman distributionDiffieHellman = new DistributionDiffieHellman(distCryptoSpec,
+                        DistributionDiffieHellman.KEY_AGREEMENT_ALGORITHM,
+                        ephemeralKeyPairPool.take(DistributionDiffieHellman.KEY_PAIR_ALGORITHM,
+                                DistributionDiffieHellman.KEY_SIZE),
+                        DIST_KEY_VALIDITY_PERIOD);
+                distributionDiffieHellman.getSerializedBuffer();
+                distributionDiffieHellman.deriveDistributionKey(entityParam);
+            }
+        });
+
+        System.out.println(String.format("%-22s %10s %14s %14s %14s", "handshake", "handshakes", "mean (us)",
+                "p50 (us)", "p99 (us)"));
+        for (Handshake handshake : handshakeList) {
+            // Warms up the JIT compiler, and lets the pool adapt to the handshake rate.
+            runHandshakes(handshake, entityParamList, handshakeRate, Math.max(1, duration / 2));
+            long[] latencies = runHandshakes(handshake, entityParamList, handshakeRate, duration);
+            Arrays.sort(latencies);
+            double sum = 0;
+            for (long latency : latencies) {
+                sum += latency;
+            }
+            System.out.println(String.format("%-22s %10d %14.1f %14.1f %14.1f", handshake.name, latencies.length,
+                    sum / latencies.length / 1e3, latencies[latencies.length / 2] / 1e3,
+                    latencies[(int) (latencies.length * 0.99)] / 1e3));
+        }
+        logger.info("Ephemeral key pair pool\n{}", ephemeralKeyPairPool.toString());
+        System.out.println("Pool target size at " + handshakeRate + " handshakes per second: " +
+                ephemeralKeyPairPool.getTargetSize(DistributionDiffieHellman.KEY_PAIR_ALGORITHM,
+                        DistributionDiffieHellman.KEY_SIZE));
+        ephemeralKeyPairPool.shutdown();
+    }
+
+    private static abstract class Handshake {
+        Handshake(String name) {
+            this.name = name;
+        }
+        abstract void run(Buffer entityParam) throws Exception;
+        private final String name;
+    }
+
+    /**
+     * Runs handshakes at the given rate for the given duration.
+     * @return Latencies of handshakes in nanoseconds.
+     */
+    private static long[] runHandshakes(Handshake handshake, List<Buffer> entityParamList, int handshakeRate,
+                                        int duration) throws Exception {
+        int numHandshakes = handshakeRate * duration;
+        long[] latencies = new long[numHandshakes];
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / handshakeRate;
+        long start = System.nanoTime();
+        for (int i = 0; i < numHandshakes; i++) {
+            long waitNanos = start + i * intervalNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+            long handshakeStart = System.nanoTime();
+            handshake.run(entityParamList.get(i % entityParamList.size()));
+            latencies[i] = System.nanoTime() - handshakeStart;
+        }
+        return latencies;
+    }
+
+    private static final String DIST_CRYPTO_SPEC = "AES-128-CBC:SHA256";
+    private static final long DIST_KEY_VALIDITY_PERIOD = TimeUnit.HOURS.toMillis(1);
+    private static final int NUM_ENTITY_PARAMS = 64;
+    private static final Logger logger = LoggerFactory.getLogger(DiffieHellmanHandshakeBenchmark.class);
+}
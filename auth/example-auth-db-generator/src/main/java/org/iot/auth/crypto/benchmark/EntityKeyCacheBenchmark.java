@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.crypto.benchmark;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.iot.auth.crypto.AuthCrypto;
+import org.iot.auth.crypto.CryptoPrimitivePool;
+import org.iot.auth.crypto.EntityKeyCache;
+import org.iot.auth.io.Buffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A program to measure the cost of checking signatures of registered entities in public key handshakes, as after
+ * a mass reboot of devices, where every entity sends several handshakes in a row. Compares creating a verifier for
+ * every handshake, as Auth originally did, borrowing a verifier from the CryptoPrimitivePool and initializing it with
+ * the entity's public key, and using the entity's cached verifier from the EntityKeyCache. Also compares decoding
+ * public keys of entities with a new KeyFactory, as Auth originally did for every backed up entity, with getting
+ * them from the EntityKeyCache.
+ * @author Hokeun Kim
+ */
+public class EntityKeyCacheBenchmark {
+    public static void main(String[] args) throws Exception {
+        // parsing command line arguments
+        Options options = new Options();
+
+        Option option = new Option("n", "num_entities", true, "number of registered entities (default: 100).");
+        options.addOption(option);
+        option = new Option("s", "handshakes_per_entity", true, "handshakes per entity (default: 20).");
+        options.addOption(option);
+
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+        CommandLine cmd;
+
+        try {
+            cmd = parser.parse(options, args);
+        } catch (org.apache.commons.cli.ParseException e) {
+            System.out.println(e.getMessage());
+            formatter.printHelp("utility-name", options);
+
+            System.exit(1);
+            return;
+        }
+        int numEntities = Integer.parseInt(cmd.getOptionValue("num_entities", "100"));
+        int handshakesPerEntity = Integer.parseInt(cmd.getOptionValue("handshakes_per_entity", "20"));
+
+        logger.info("Number of entities: {}, handshakes per entity: {}", numEntities, handshakesPerEntity);
+
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        List<Entity> entityList = new ArrayList<>();
+        for (int i = 0; i < numEntities; i++) {
+            KeyPair keyPair = keyPairGenerator.generateKeyPair();
+            Buffer data = AuthCrypto.getRandomBytes(DATA_SIZE);
+            Signature signer = Signature.getInstance(SIGN_ALGORITHM);
+            signer.initSign(keyPair.getPrivate());
+            signer.update(data.getRawBytes());
+            entityList.add(new Entity("net1.entity" + i, keyPair.getPublic().getEncoded(), data,
+                    new Buffer(signer.sign())));
+        }
+        logger.info("Generated key pairs of {} entities.", numEntities);
+
+        List<Verification> verificationList = new ArrayList<>();
+        verificationList.add(new Verification("new verifier") {
+            @Override
+            boolean run(Entity entity, PublicKey publicKey) throws Exception {
+                Signature verifier = Signature.getInstance(SIGN_ALGORITHM);
+                verifier.initVerify(publicKey);
+                verifier.update(entity.data.getRawBytes());
+                return verifier.verify(entity.signature.getRawBytes());
+            }
+        });
+        verificationList.add(new Verification("pooled verifier") {
+            @Override
+            boolean run(Entity entity, PublicKey publicKey) throws Exception {
+                Signature verifier = CryptoPrimitivePool.SIGNATURES.borrow(SIGN_ALGORITHM);
+                try {
+                    verifier.initVerify(publicKey);
+                    verifier.update(entity.data.getRawBytes());
+                    return verifier.verify(entity.signature.getRawBytes());
+                }
+                finally {
+                    CryptoPrimitivePool.SIGNATURES.release(SIGN_ALGORITHM, verifier);
+                }
+            }
+        });
+        verificationList.add(new Verification("cached verifier") {
+            @Override
+            boolean run(Entity entity, PublicKey publicKey) throws Exception {
+                return EntityKeyCache.verify(entity.name, publicKey, SIGN_ALGORITHM, entity.data, entity.signature);
+            }
+        });
+
+        System.out.println(String.format("%-24s %12s %16s", "operation", "operations", "mean (us/op)"));
+        for (Verification verification : verificationList) {
+            // Warms up the JIT compiler.
+            runVerifications(verification, entityList, 2);
+            EntityKeyCache.invalidateAll();
+            double nanos = runVerifications(verification, entityList, handshakesPerEntity);
+            System.out.println(String.format("%-24s %12d %16.1f", verification.name,
+                    numEntities * handshakesPerEntity, nanos / 1e3));
+        }
+
+        for (boolean cached : new boolean[] {false, true}) {
+            // Warms up the JIT compiler, and fills the cache.
+            decodePublicKeys(entityList, cached);
+            long start = System.nanoTime();
+            for (int i = 0; i < handshakesPerEntity; i++) {
+                decodePublicKeys(entityList, cached);
+            }
+            double nanos = (double) (System.nanoTime() - start) / numEntities / handshakesPerEntity;
+            System.out.println(String.format("%-24s %12d %16.1f", cached ? "cached public key" : "new KeyFactory",
+                    numEntities * handshakesPerEntity, nanos / 1e3));
+        }
+        logger.info("Entity key cache\n{}", EntityKeyCache.statisticsToString());
+    }
+
+    private static class Entity {
+        Entity(String name, byte[] publicKeyVal, Buffer data, Buffer signature) {
+            this.name = name;
+            this.publicKeyVal = publicKeyVal;
+            this.data = data;
+            this.signature = signature;
+        }
+        private final String name;
+        private final byte[] publicKeyVal;
+        private final Buffer data;
+        private final Buffer signature;
+    }
+
+    private static abstract class Verification {
+        Verification(String name) {
+            this.name = name;
+        }
+        abstract boolean run(Entity entity, PublicKey publicKey) throws Exception;
+        private final String name;
+    }
+
+    /**
+     * Runs the given number of handshakes for each entity, where the public key of each entity is decoded once,
+     * as registered entities keep their decoded public keys.
+     * @return Average time per verification in nanoseconds.
+     */
+    private static double runVerifications(Verification verification, List<Entity> entityList,
+                                           int handshakesPerEntity) throws Exception {
+        List<PublicKey> publicKeyList = new ArrayList<>();
+        for (Entity entity : entityList) {
+            publicKeyList.add(EntityKeyCache.getPublicKey(entity.name, entity.publicKeyVal));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < handshakesPerEntity; i++) {
+            for (int j = 0; j < entityList.size(); j++) {
+                if (!verification.run(entityList.get(j), publicKeyList.get(j))) {
+                    throw new RuntimeException("Signature verification failed for " + entityList.get(j).name);
+                }
+            }
+        }
+        return (double) (System.nanoTime() - start) / entityList.size() / handshakesPerEntity;
+    }
+
+    private static void decodePublicKeys(List<Entity> entityList, boolean cached) throws Exception {
+        for (Entity entity : entityList) {
+            if (cached) {
+                EntityKeyCache.getPublicKey(entity.name, entity.publicKeyVal);
+            }
+            else {
+                KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(entity.publicKeyVal));
+            }
+        }
+    }
+
+    private static final String SIGN_ALGORITHM = "SHA256withRSA";
+    private static final int DATA_SIZE = 100;
+    private static final Logger logger = LoggerFactory.getLogger(EntityKeyCacheBenchmark.class);
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.crypto.benchmark;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.iot.auth.crypto.AuthRandom;
+import org.iot.auth.crypto.SymmetricKey;
+import org.iot.auth.crypto.SymmetricKeyCryptoSpec;
+import org.iot.auth.message.AuthHelloMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.KeyGenerator;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A program to measure how many Auth nonces and session key values are generated per second with the randomness
+ * service (AuthRandom), with and without its ring buffer, compared with constructing and seeding a new SecureRandom
+ * for every nonce, and a new KeyGenerator for every key, as Auth used to do.
+ * @author Hokeun Kim
+ */
+public class RandomnessBenchmark {
+    public static void main(String[] args) throws Exception {
+        // parsing command line arguments
+        Options options = new Options();
+
+        Option option = new Option("t", "num_threads", true, "comma-separated numbers of threads (default: 1,4).");
+        options.addOption(option);
+        option = new Option("d", "duration", true, "duration of each measurement in milliseconds (default: 2000).");
+        options.addOption(option);
+        option = new Option("b", "random_buffer_size", true,
+                "size of the ring buffer of random bytes in bytes (default: 65536).");
+        options.addOption(option);
+
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+        CommandLine cmd;
+
+        try {
+            cmd = parser.parse(options, args);
+        } catch (org.apache.commons.cli.ParseException e) {
+            System.out.println(e.getMessage());
+            formatter.printHelp("utility-name", options);
+
+            System.exit(1);
+            return;
+        }
+        String[] numThreadsList = cmd.getOptionValue("num_threads", "1,4").split(",");
+        long duration = Long.parseLong(cmd.getOptionValue("duration", "2000"));
+        int randomBufferSize = Integer.parseInt(cmd.getOptionValue("random_buffer_size", "65536"));
+
+        logger.info("Numbers of threads: {}, duration: {} ms, random buffer size: {}",
+                String.join(",", numThreadsList), duration, randomBufferSize);
+
+        SymmetricKeyCryptoSpec cryptoSpec = SymmetricKeyCryptoSpec.fromSpecString(SESSION_CRYPTO_SPEC);
+        List<Operation> operationList = new ArrayList<>();
+        operationList.add(new Operation("nonce", "new SecureRandom") {
+            @Override
+            void run() {
+                // AuthCrypto.getRandomBytes() before the randomness service
+                SecureRandom random = new SecureRandom();
+                byte seed[] = random.generateSeed(AuthHelloMessage.AUTH_NONCE_SIZE);
+                byte[] randomBytes = new byte[AuthHelloMessage.AUTH_NONCE_SIZE];
+                random.setSeed(seed);
+                random.nextBytes(randomBytes);
+            }
+        });
+        operationList.add(new Operation("nonce", "AuthRandom") {
+            @Override
+            void run() {
+                AuthRandom.getRandomBytes(AuthHelloMessage.AUTH_NONCE_SIZE);
+            }
+        });
+        operationList.add(new Operation("session key", "new KeyGenerator") {
+            @Override
+            void run() throws Exception {
+                // SymmetricKey.generateSerializedKeyVal() before the randomness service
+                KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+                keyGenerator.init(8 * cryptoSpec.getCipherKeySize());
+                byte[] cipherKeyVal = keyGenerator.generateKey().getEncoded();
+                keyGenerator = KeyGenerator.getInstance(cryptoSpec.getMacAlgorithm());
+                keyGenerator.init(8 * cryptoSpec.getMacKeySize());
+                byte[] macKeyVal = keyGenerator.generateKey().getEncoded();
+            }
+        });
+        operationList.add(new Operation("session key", "AuthRandom") {
+            @Override
+            void run() {
+                SymmetricKey.generateSerializedKeyVal(cryptoSpec);
+            }
+        });
+
+        List<String> resultList = new ArrayList<>();
+        for (boolean bufferEnabled : new boolean[] {false, true}) {
+            if (bufferEnabled) {
+                AuthRandom.enableBuffer(randomBufferSize);
+            }
+            for (String strNumThreads : numThreadsList) {
+                int numThreads = Integer.parseInt(strNumThreads.trim());
+                for (Operation operation : operationList) {
+                    if (bufferEnabled && !operation.source.equals("AuthRandom")) {
+                        continue;
+                    }
+                    // Warms up the JIT compiler, and seeds DRBG instances.
+                    runOperation(operation, numThreads, duration / 4);
+                    double opsPerSecond = runOperation(operation, numThreads, duration);
+                    resultList.add(String.format("%-12s %-18s %8s %8d %16.0f", operation.name, operation.source,
+                            bufferEnabled ? "yes" : "no", numThreads, opsPerSecond));
+                }
+            }
+        }
+        AuthRandom.disableBuffer();
+
+        System.out.println(String.format("%-12s %-18s %8s %8s %16s", "operation", "source", "buffer", "threads",
+                "ops/sec"));
+        for (String result : resultList) {
+            System.out.println(result);
+        }
+        logger.info("Randomness\n{}", AuthRandom.statisticsToString());
+    }
+
+    private static abstract class Operation {
+        Operation(String name, String source) {
+            this.name = name;
+            this.source = source;
+        }
+        abstract void run() throws Exception;
+        private final String name;
+        private final String source;
+    }
+
+    /**
+     * Runs the operation on the given number of threads at the same time, for the given duration.
+     * @return Number of operations per second of all threads.
+     */
+    private static double runOperation(Operation operation, int numThreads, long duration) throws Exception {
+        CountDownLatch startLatch = new CountDownLatch(1);
+        LongAdder numOperations = new LongAdder();
+        List<Thread> threadList = new ArrayList<>();
+        long[] deadline = new long[1];
+        for (int i = 0; i < numThreads; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    startLatch.await();
+                    while (System.nanoTime() < deadline[0]) {
+                        operation.run();
+                        numOperations.increment();
+                    }
+                }
+                catch (Exception e) {
+                    throw new RuntimeException("Exception in " + operation.name + ": " + e.getMessage());
+                }
+            });
+            thread.start();
+            threadList.add(thread);
+        }
+        long start = System.nanoTime();
+        deadline[0] = start + duration * 1000000L;
+        startLatch.countDown();
+        for (Thread thread : threadList) {
+            thread.join();
+        }
+        return numOperations.sum() * 1e9 / (System.nanoTime() - start);
+    }
+
+    private static final String SESSION_CRYPTO_SPEC = "AES-128-CBC:SHA256";
+    private static final Logger logger = LoggerFactory.getLogger(RandomnessBenchmark.class);
+}
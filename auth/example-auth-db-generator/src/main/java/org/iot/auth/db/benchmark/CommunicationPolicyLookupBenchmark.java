@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db.benchmark;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.iot.auth.db.CommunicationPolicy;
+import org.iot.auth.db.CommunicationPolicyIndex;
+import org.iot.auth.db.CommunicationTargetType;
+import org.iot.auth.db.bean.CommunicationPolicyTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A program to measure the lookup of communication policies, which happens for every session key request.
+ * Lookups by a linear scan of the policies (as AuthDB used to) are compared with lookups in
+ * CommunicationPolicyIndex, for exact targets and for targets matched by wildcard policies.
+ * @author Hokeun Kim
+ */
+public class CommunicationPolicyLookupBenchmark {
+    public static void main(String[] args) throws Exception {
+        // parsing command line arguments
+        Options options = new Options();
+
+        Option option = new Option("n", "num_policies", true, "number of communication policies (default: 100000).");
+        options.addOption(option);
+        option = new Option("w", "num_wildcard_policies", true,
+                "number of wildcard communication policies among them (default: 1000).");
+        options.addOption(option);
+        option = new Option("l", "num_lookups", true, "number of lookups in the index (default: 1000000).");
+        options.addOption(option);
+
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+        CommandLine cmd;
+
+        try {
+            cmd = parser.parse(options, args);
+        } catch (org.apache.commons.cli.ParseException e) {
+            System.out.println(e.getMessage());
+            formatter.printHelp("utility-name", options);
+
+            System.exit(1);
+            return;
+        }
+        int numPolicies = Integer.parseInt(cmd.getOptionValue("num_policies", "100000"));
+        int numWildcardPolicies = Integer.parseInt(cmd.getOptionValue("num_wildcard_policies", "1000"));
+        int numLookups = Integer.parseInt(cmd.getOptionValue("num_lookups", "1000000"));
+
+        logger.info("Number of policies: {}, wildcard policies: {}, lookups: {}",
+                numPolicies, numWildcardPolicies, numLookups);
+
+        List<CommunicationPolicy> communicationPolicyList = new ArrayList<>(numPolicies);
+        for (int i = 0; i < numPolicies - numWildcardPolicies; i++) {
+            communicationPolicyList.add(createPolicy(getGroup(i), getTopic(i)));
+        }
+        for (int i = 0; i < numWildcardPolicies; i++) {
+            communicationPolicyList.add(createPolicy(getGroup(i), getWildcardPrefix(i) + CommunicationPolicyIndex.WILDCARD));
+        }
+
+        long start = System.nanoTime();
+        CommunicationPolicyIndex index = new CommunicationPolicyIndex(communicationPolicyList, true);
+        double buildMillis = (System.nanoTime() - start) / 1e6;
+
+        start = System.nanoTime();
+        for (int i = 0; i < NUM_INSERTS; i++) {
+            index = index.withCommunicationPolicy(createPolicy("Inserted", "Ptopic/inserted" + i));
+        }
+        double insertMillis = (System.nanoTime() - start) / 1e6 / NUM_INSERTS;
+
+        Random random = new Random(0);
+        int numLinearLookups = Math.min(numLookups, NUM_LINEAR_LOOKUPS);
+        int numFound = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < numLinearLookups; i++) {
+            int id = random.nextInt(numPolicies - numWildcardPolicies);
+            if (linearLookup(communicationPolicyList, getGroup(id), getTopic(id)) != null) {
+                numFound++;
+            }
+        }
+        double linearOpsPerSec = opsPerSec(numLinearLookups, start);
+        checkFound(numFound, numLinearLookups);
+
+        numFound = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < numLookups; i++) {
+            int id = random.nextInt(numPolicies - numWildcardPolicies);
+            if (index.lookup(getGroup(id), CommunicationTargetType.PUBLISH_TOPIC, getTopic(id)) != null) {
+                numFound++;
+            }
+        }
+        double exactOpsPerSec = opsPerSec(numLookups, start);
+        checkFound(numFound, numLookups);
+
+        double wildcardOpsPerSec = 0;
+        if (numWildcardPolicies > 0) {
+            numFound = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < numLookups; i++) {
+                int id = random.nextInt(numWildcardPolicies);
+                if (index.lookup(getGroup(id), CommunicationTargetType.PUBLISH_TOPIC,
+                        getWildcardPrefix(id) + "sensors/" + i) != null) {
+                    numFound++;
+                }
+            }
+            wildcardOpsPerSec = opsPerSec(numLookups, start);
+            checkFound(numFound, numLookups);
+        }
+
+        System.out.println(String.format("%-36s %14.1f", "index build (ms)", buildMillis));
+        System.out.println(String.format("%-36s %14.3f", "insert into index (ms)", insertMillis));
+        System.out.println(String.format("%-36s %14.1f", "linear scan lookups/sec", linearOpsPerSec));
+        System.out.println(String.format("%-36s %14.1f", "index exact lookups/sec", exactOpsPerSec));
+        System.out.println(String.format("%-36s %14.1f", "index wildcard lookups/sec", wildcardOpsPerSec));
+    }
+
+    private static CommunicationPolicy createPolicy(String reqGroup, String target) {
+        CommunicationPolicyTable communicationPolicyTable = new CommunicationPolicyTable();
+        communicationPolicyTable.setReqGroup(reqGroup);
+        communicationPolicyTable.setTargetTypeVal("PubTopic");
+        communicationPolicyTable.setTargetType(CommunicationTargetType.PUBLISH_TOPIC);
+        communicationPolicyTable.setTarget(target);
+        communicationPolicyTable.setMaxNumSessionKeyOwners(64);
+        communicationPolicyTable.setSessionCryptoSpec("AES-128-CBC:SHA256");
+        communicationPolicyTable.setAbsValidityStr("1*day");
+        communicationPolicyTable.setRelValidityStr("2*hour");
+        return new CommunicationPolicy(communicationPolicyTable);
+    }
+
+    private static CommunicationPolicy linearLookup(List<CommunicationPolicy> communicationPolicyList,
+                                                    String reqGroup, String target)
+    {
+        for (CommunicationPolicy communicationPolicy : communicationPolicyList) {
+            if (communicationPolicy.getReqGroup().equals(reqGroup) &&
+                    communicationPolicy.getTargetType() == CommunicationTargetType.PUBLISH_TOPIC &&
+                    communicationPolicy.getTarget().equals(target)) {
+                return communicationPolicy;
+            }
+        }
+        return null;
+    }
+
+    private static String getGroup(int id) {
+        return "Clients" + (id % NUM_GROUPS);
+    }
+
+    private static String getTopic(int id) {
+        return "Ptopic/" + id;
+    }
+
+    private static String getWildcardPrefix(int id) {
+        return "Ptopic/wildcard" + id + "/";
+    }
+
+    private static void checkFound(int numFound, int numLookups) {
+        if (numFound != numLookups) {
+            throw new RuntimeException("Only " + numFound + " of " + numLookups + " lookups found a policy.");
+        }
+    }
+
+    private static double opsPerSec(int numOps, long startNanos) {
+        return numOps * 1e9 / (System.nanoTime() - startNanos);
+    }
+
+    private static final int NUM_GROUPS = 100;
+    private static final int NUM_INSERTS = 10;
+    private static final int NUM_LINEAR_LOOKUPS = 2000;
+    private static final Logger logger = LoggerFactory.getLogger(CommunicationPolicyLookupBenchmark.class);
+}
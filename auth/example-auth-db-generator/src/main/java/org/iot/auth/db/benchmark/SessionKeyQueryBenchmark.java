@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db.benchmark;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.iot.auth.crypto.AuthCrypto;
+import org.iot.auth.crypto.SymmetricKey;
+import org.iot.auth.db.AuthDBProtectionMethod;
+import org.iot.auth.db.bean.CachedSessionKeyTable;
+import org.iot.auth.db.dao.SQLiteConnector;
+import org.iot.auth.util.DateHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A program to measure throughput of the session key queries of Auth DB, which are on the hot path of
+ * session key requests. The same workload runs against a baseline that builds SQL strings and prepares a
+ * statement on every call in auto-commit mode (as SQLiteConnector used to), against SQLiteConnector with
+ * its prepared statement registry and batched writes, and against SQLiteConnector with PRAGMA tuning.
+ * @author Hokeun Kim
+ */
+public class SessionKeyQueryBenchmark {
+    public static void main(String[] args) throws Exception {
+        // parsing command line arguments
+        Options options = new Options();
+
+        Option option = new Option("n", "num_keys", true, "number of session keys to be inserted (default: 5000).");
+        options.addOption(option);
+        option = new Option("k", "keys_per_request", true, "number of session keys per request (default: 10).");
+        options.addOption(option);
+        option = new Option("o", "output_dir", true, "directory for temporary databases (default: current).");
+        options.addOption(option);
+
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+        CommandLine cmd;
+
+        try {
+            cmd = parser.parse(options, args);
+        } catch (org.apache.commons.cli.ParseException e) {
+            System.out.println(e.getMessage());
+            formatter.printHelp("utility-name", options);
+
+            System.exit(1);
+            return;
+        }
+        int numKeys = Integer.parseInt(cmd.getOptionValue("num_keys", "5000"));
+        int keysPerRequest = Integer.parseInt(cmd.getOptionValue("keys_per_request", "10"));
+        String outputDir = cmd.getOptionValue("output_dir", ".");
+
+        logger.info("Number of session keys: {}, keys per request: {}", numKeys, keysPerRequest);
+
+        List<Result> resultList = new ArrayList<>();
+        resultList.add(runBaseline(outputDir + "/benchmark_baseline.db", numKeys));
+        resultList.add(runConnector(outputDir + "/benchmark_registry.db", numKeys, keysPerRequest, false));
+        resultList.add(runConnector(outputDir + "/benchmark_registry_pragma.db", numKeys, keysPerRequest, true));
+
+        System.out.println(String.format("%-28s %14s %14s %14s %14s", "ops/sec",
+                "insert", "select by ID", "select purpose", "append owner"));
+        for (Result result : resultList) {
+            System.out.println(String.format("%-28s %14.1f %14.1f %14.1f %14.1f", result.name,
+                    result.insertOpsPerSec, result.selectByIDOpsPerSec, result.selectByPurposeOpsPerSec,
+                    result.appendOwnerOpsPerSec));
+        }
+    }
+
+    private static class Result {
+        Result(String name) {
+            this.name = name;
+        }
+        private final String name;
+        private double insertOpsPerSec;
+        private double selectByIDOpsPerSec;
+        private double selectByPurposeOpsPerSec;
+        private double appendOwnerOpsPerSec;
+    }
+
+    private static SQLiteConnector createDatabase(String dbPath, boolean pragmaTuningEnabled) throws Exception {
+        deleteDatabaseFiles(dbPath);
+        SQLiteConnector sqLiteConnector = new SQLiteConnector(dbPath, AuthDBProtectionMethod.DEBUG);
+        if (pragmaTuningEnabled) {
+            sqLiteConnector.enablePragmaTuning(256L * 1024 * 1024, -16 * 1024);
+        }
+        sqLiteConnector.initialize(new SymmetricKey(SQLiteConnector.AUTH_DB_CRYPTO_SPEC,
+                new Date().getTime() + DateHelper.parseTimePeriod(SQLiteConnector.AUTH_DB_KEY_ABSOLUTE_VALIDITY)));
+        sqLiteConnector.createTablesIfNotExists();
+        return sqLiteConnector;
+    }
+
+    private static void deleteDatabaseFiles(String dbPath) {
+        new File(dbPath).delete();
+        new File(dbPath + "-wal").delete();
+        new File(dbPath + "-shm").delete();
+    }
+
+    private static CachedSessionKeyTable createCachedSessionKey(long id) {
+        CachedSessionKeyTable cachedSessionKey = new CachedSessionKeyTable();
+        cachedSessionKey.setID(id);
+        cachedSessionKey.setOwner("net1.client");
+        cachedSessionKey.setMaxNumOwners(100);
+        cachedSessionKey.setPurpose(getPurpose(id));
+        cachedSessionKey.setAbsValidity(new Date().getTime() + 3600 * 1000);
+        cachedSessionKey.setRelValidity(1800 * 1000);
+        cachedSessionKey.setSessionCryptoSpec("AES-128-CBC:SHA256");
+        cachedSessionKey.setKeyVal(AuthCrypto.getRandomBytes(34).getRawBytes());
+        return cachedSessionKey;
+    }
+
+    private static String getPurpose(long id) {
+        return "Group:Servers" + (id % NUM_PURPOSES);
+    }
+
+    private static double opsPerSec(int numOps, long startNanos) {
+        return numOps * 1e9 / (System.nanoTime() - startNanos);
+    }
+
+    private static Result runBaseline(String dbPath, int numKeys) throws Exception {
+        Result result = new Result("string SQL, auto-commit");
+        createDatabase(dbPath, false).close();
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < numKeys; i++) {
+            CachedSessionKeyTable cachedSessionKey = createCachedSessionKey(i);
+            String sql = "INSERT INTO " + CachedSessionKeyTable.T_CACHED_SESSION_KEY + "(";
+            sql += CachedSessionKeyTable.c.ID.name() + "," + CachedSessionKeyTable.c.Owners.name() + ",";
+            sql += CachedSessionKeyTable.c.MaxNumOwners.name() + "," + CachedSessionKeyTable.c.Purpose.name() + ",";
+            sql += CachedSessionKeyTable.c.ExpirationTime.name() + "," + CachedSessionKeyTable.c.RelValidity.name() + ",";
+            sql += CachedSessionKeyTable.c.CryptoSpec.name() + "," + CachedSessionKeyTable.c.KeyVal.name() + ")";
+            sql += " VALUES(?,?,?,?,?,?,?,?)";
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            int index = 1;
+            preparedStatement.setLong(index++, cachedSessionKey.getID());
+            preparedStatement.setString(index++, cachedSessionKey.getOwner());
+            preparedStatement.setInt(index++, cachedSessionKey.getMaxNumOwners());
+            preparedStatement.setString(index++, cachedSessionKey.getPurpose());
+            preparedStatement.setLong(index++, cachedSessionKey.getAbsValidity());
+            preparedStatement.setLong(index++, cachedSessionKey.getRelValidity());
+            preparedStatement.setString(index++, cachedSessionKey.getSessionCryptoSpec());
+            preparedStatement.setBytes(index++, cachedSessionKey.getKeyVal());
+            preparedStatement.execute();
+            preparedStatement.close();
+        }
+        result.insertOpsPerSec = opsPerSec(numKeys, start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < numKeys; i++) {
+            String sql = "SELECT * FROM " + CachedSessionKeyTable.T_CACHED_SESSION_KEY;
+            sql += " WHERE " + CachedSessionKeyTable.c.ID.name() + " = " + i;
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                CachedSessionKeyTable.createRecord(resultSet);
+            }
+            preparedStatement.close();
+        }
+        result.selectByIDOpsPerSec = opsPerSec(numKeys, start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < NUM_PURPOSE_QUERIES; i++) {
+            String sql = "SELECT * FROM " + CachedSessionKeyTable.T_CACHED_SESSION_KEY;
+            sql += " WHERE " + CachedSessionKeyTable.c.Purpose.name() + " = '" + getPurpose(i) + "'";
+            sql += " AND " + CachedSessionKeyTable.c.Owners.name() + " NOT LIKE '%net1.server%'";
+            sql += " AND " + CachedSessionKeyTable.c.ExpirationTime.name() + " > " + new Date().getTime();
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                CachedSessionKeyTable.createRecord(resultSet);
+            }
+            preparedStatement.close();
+        }
+        result.selectByPurposeOpsPerSec = opsPerSec(NUM_PURPOSE_QUERIES, start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < numKeys; i++) {
+            String sql = "UPDATE " + CachedSessionKeyTable.T_CACHED_SESSION_KEY;
+            sql += " SET " + CachedSessionKeyTable.c.Owners.name() + " = ";
+            sql += CachedSessionKeyTable.c.Owners.name() + "|| ',' || 'net1.server'";
+            sql += " WHERE " + CachedSessionKeyTable.c.ID.name() + " = " + i;
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.execute();
+            preparedStatement.close();
+        }
+        result.appendOwnerOpsPerSec = opsPerSec(numKeys, start);
+
+        connection.close();
+        deleteDatabaseFiles(dbPath);
+        return result;
+    }
+
+    private static Result runConnector(String dbPath, int numKeys, int keysPerRequest, boolean pragmaTuningEnabled)
+            throws Exception
+    {
+        Result result = new Result(pragmaTuningEnabled ? "registry, batch, PRAGMA" : "registry, batch");
+        SQLiteConnector sqLiteConnector = createDatabase(dbPath, pragmaTuningEnabled);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < numKeys; i += keysPerRequest) {
+            List<CachedSessionKeyTable> cachedSessionKeyList = new ArrayList<>(keysPerRequest);
+            for (int j = i; j < Math.min(i + keysPerRequest, numKeys); j++) {
+                cachedSessionKeyList.add(createCachedSessionKey(j));
+            }
+            sqLiteConnector.insertCachedSessionKeys(cachedSessionKeyList);
+        }
+        result.insertOpsPerSec = opsPerSec(numKeys, start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < numKeys; i++) {
+            sqLiteConnector.selectCachedSessionKeyByID(i);
+        }
+        result.selectByIDOpsPerSec = opsPerSec(numKeys, start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < NUM_PURPOSE_QUERIES; i++) {
+            sqLiteConnector.selectCachedSessionKeysByPurpose("net1.server", getPurpose(i));
+        }
+        result.selectByPurposeOpsPerSec = opsPerSec(NUM_PURPOSE_QUERIES, start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < numKeys; i += keysPerRequest) {
+            List<Long> keyIDList = new ArrayList<>(keysPerRequest);
+            for (long j = i; j < Math.min(i + keysPerRequest, numKeys); j++) {
+                keyIDList.add(j);
+            }
+            sqLiteConnector.appendSessionKeyOwners(keyIDList, "net1.server");
+        }
+        result.appendOwnerOpsPerSec = opsPerSec(numKeys, start);
+
+        logger.info("Prepared statements: {}", sqLiteConnector.statementRegistryToString());
+        sqLiteConnector.close();
+        deleteDatabaseFiles(dbPath);
+        return result;
+    }
+
+    private static final int NUM_PURPOSES = 100;
+    private static final int NUM_PURPOSE_QUERIES = 1000;
+    private static final Logger logger = LoggerFactory.getLogger(SessionKeyQueryBenchmark.class);
+}
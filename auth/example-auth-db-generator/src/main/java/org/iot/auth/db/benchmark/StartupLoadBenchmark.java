@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db.benchmark;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.iot.auth.crypto.SymmetricKey;
+import org.iot.auth.crypto.SymmetricKeyCryptoSpec;
+import org.iot.auth.db.AuthDB;
+import org.iot.auth.db.AuthDBProtectionMethod;
+import org.iot.auth.db.RegisteredEntity;
+import org.iot.auth.db.bean.MetaDataTable;
+import org.iot.auth.db.bean.RegisteredEntityTable;
+import org.iot.auth.db.dao.AuthStore;
+import org.iot.auth.db.dao.SQLiteConnector;
+import org.iot.auth.util.DateHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A program to measure startup time of Auth DB with many registered entities. For each given number of registered
+ * entities, an Auth DB is generated the same way as GenerateExampleAuthDB does, where half of the registered entities
+ * have public keys and the others have permanent distribution keys. Then Auth DB is loaded with lazy loading, where
+ * public keys and distribution keys are decoded on the first use of each registered entity, and with eager loading,
+ * where they are decoded at startup in parallel on the fork/join pool.
+ * @author Hokeun Kim
+ */
+public class StartupLoadBenchmark {
+    public static void main(String[] args) throws Exception {
+        // parsing command line arguments
+        Options options = new Options();
+
+        Option option = new Option("n", "num_entities", true,
+                "comma-separated numbers of registered entities (default: 100000,1000000).");
+        options.addOption(option);
+        option = new Option("b", "auth_db_backend", true, "storage backend of Auth DB, sqlite or log (default: sqlite).");
+        options.addOption(option);
+        option = new Option("d", "auth_db_protection_method", true, "protection method for Auth DB (default: 1).");
+        options.addOption(option);
+        option = new Option("o", "output_dir", true, "directory for temporary databases (default: current).");
+        options.addOption(option);
+
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+        CommandLine cmd;
+
+        try {
+            cmd = parser.parse(options, args);
+        } catch (org.apache.commons.cli.ParseException e) {
+            System.out.println(e.getMessage());
+            formatter.printHelp("utility-name", options);
+
+            System.exit(1);
+            return;
+        }
+        String[] numEntitiesList = cmd.getOptionValue("num_entities", "100000,1000000").split(",");
+        String backend = cmd.getOptionValue("auth_db_backend", AuthStore.BACKEND_SQLITE);
+        AuthDBProtectionMethod authDBProtectionMethod = AuthDBProtectionMethod.fromValue(
+                Integer.parseInt(cmd.getOptionValue("auth_db_protection_method", "1")));
+        String outputDir = cmd.getOptionValue("output_dir", ".");
+
+        logger.info("Numbers of registered entities: {}, backend: {}, protection method: {}",
+                String.join(",", numEntitiesList), backend, authDBProtectionMethod.name());
+
+        SymmetricKey databaseKey = new SymmetricKey(SQLiteConnector.AUTH_DB_CRYPTO_SPEC,
+                new Date().getTime() + DateHelper.parseTimePeriod(SQLiteConnector.AUTH_DB_KEY_ABSOLUTE_VALIDITY));
+        List<Result> resultList = new ArrayList<>();
+        for (String strNumEntities : numEntitiesList) {
+            int numEntities = Integer.parseInt(strNumEntities.trim());
+            String authDatabaseDir = outputDir + "/benchmark_startup_" + numEntities;
+            long start = System.nanoTime();
+            generateAuthDatabase(authDatabaseDir, numEntities, authDBProtectionMethod, databaseKey);
+            logger.info("Generated {} registered entities in {} ms.", numEntities, (System.nanoTime() - start) / 1e6);
+
+            // Warms up the JIT compiler, and imports auth.db into the log for the log-structured backend.
+            runStartup(authDatabaseDir, numEntities, backend, authDBProtectionMethod, databaseKey, false);
+            resultList.add(runStartup(authDatabaseDir, numEntities, backend, authDBProtectionMethod, databaseKey,
+                    false));
+            resultList.add(runStartup(authDatabaseDir, numEntities, backend, authDBProtectionMethod, databaseKey,
+                    true));
+            deleteDatabaseFiles(authDatabaseDir);
+        }
+
+        System.out.println(String.format("%-12s %-8s %16s %16s %16s %12s", "entities", "loading",
+                "startup (ms)", "first use (ms)", "total (ms)", "heap (MB)"));
+        for (Result result : resultList) {
+            System.out.println(String.format("%-12d %-8s %16.1f %16.1f %16.1f %12.1f", result.numEntities,
+                    result.eagerLoading ? "eager" : "lazy", result.startupMillis, result.firstUseMillis,
+                    result.startupMillis + result.firstUseMillis, result.heapMegabytes));
+        }
+    }
+
+    private static class Result {
+        Result(int numEntities, boolean eagerLoading) {
+            this.numEntities = numEntities;
+            this.eagerLoading = eagerLoading;
+        }
+        private final int numEntities;
+        private final boolean eagerLoading;
+        private double startupMillis;
+        private double firstUseMillis;
+        private double heapMegabytes;
+    }
+
+    private static void generateAuthDatabase(String authDatabaseDir, int numEntities,
+                                             AuthDBProtectionMethod authDBProtectionMethod, SymmetricKey databaseKey)
+            throws Exception
+    {
+        deleteDatabaseFiles(authDatabaseDir);
+        new File(authDatabaseDir).mkdirs();
+        SQLiteConnector sqLiteConnector = new SQLiteConnector(authDatabaseDir + "/" + AUTH_DB_FILE_NAME,
+                authDBProtectionMethod);
+        // Without a sync on every insertion, so that a million registered entities are generated in minutes.
+        sqLiteConnector.enablePragmaTuning(256L * 1024 * 1024, -16 * 1024);
+        sqLiteConnector.initialize(databaseKey);
+        sqLiteConnector.createTablesIfNotExists();
+
+        MetaDataTable metaData = new MetaDataTable();
+        metaData.setKey(MetaDataTable.key.SessionKeyCount.name());
+        metaData.setValue(Long.toString(0));
+        sqLiteConnector.insertRecords(metaData);
+        metaData = new MetaDataTable();
+        metaData.setKey(MetaDataTable.key.SessionKeyIDLimit.name());
+        metaData.setValue(Long.toString(0));
+        sqLiteConnector.insertRecords(metaData);
+
+        // One key pair for all registered entities, the public key is still decoded for each of them.
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        PublicKey publicKey = keyPairGenerator.generateKeyPair().getPublic();
+        SymmetricKeyCryptoSpec distCryptoSpec = SymmetricKeyCryptoSpec.fromSpecString(DIST_CRYPTO_SPEC);
+        long distKeyExpirationTime = new Date().getTime() + DateHelper.parseTimePeriod(DIST_KEY_VALIDITY_PERIOD);
+
+        for (int i = 0; i < numEntities; i++) {
+            RegisteredEntityTable registeredEntity = new RegisteredEntityTable()
+                    .setName("net1.entity" + i)
+                    .setGroup("Clients" + (i % NUM_GROUPS))
+                    .setDistProtocol("TCP")
+                    .setMaxSessionKeysPerRequest(5)
+                    .setDistKeyValidityPeriod(DIST_KEY_VALIDITY_PERIOD)
+                    .setDistCryptoSpec(DIST_CRYPTO_SPEC)
+                    .setActive(true);
+            if (i % 2 == 0) {
+                registeredEntity.setUsePermanentDistKey(true)
+                        .setDistKeyVal(SymmetricKey.generateSerializedKeyVal(distCryptoSpec).getRawBytes())
+                        .setDistKeyExpirationTime(distKeyExpirationTime);
+            }
+            else {
+                registeredEntity.setUsePermanentDistKey(false)
+                        .setPublicKeyCryptoSpec("RSA-SHA256")
+                        .setPublicKey(publicKey);
+            }
+            sqLiteConnector.insertRecords(registeredEntity);
+        }
+        sqLiteConnector.close();
+    }
+
+    private static Result runStartup(String authDatabaseDir, int numEntities, String backend,
+                                     AuthDBProtectionMethod authDBProtectionMethod, SymmetricKey databaseKey,
+                                     boolean eagerLoading) throws Exception
+    {
+        Result result = new Result(numEntities, eagerLoading);
+        System.gc();
+        long start = System.nanoTime();
+        AuthDB db = new AuthDB(authDatabaseDir);
+        db.setStoreBackend(backend);
+        if (eagerLoading) {
+            db.enableEagerLoading();
+        }
+        db.initialize(databaseKey, TRUST_STORE_PASSWORD, authDBProtectionMethod);
+        result.startupMillis = (System.nanoTime() - start) / 1e6;
+
+        // The work deferred by lazy loading, which is spread over the first requests of registered entities.
+        start = System.nanoTime();
+        int numLoaded = 0;
+        for (RegisteredEntity registeredEntity : db.getRegistry().getRegisteredEntities()) {
+            registeredEntity.materializeCryptoObjects();
+            numLoaded++;
+        }
+        result.firstUseMillis = (System.nanoTime() - start) / 1e6;
+        if (numLoaded != numEntities) {
+            throw new RuntimeException("Only " + numLoaded + " of " + numEntities + " registered entities loaded.");
+        }
+
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        result.heapMegabytes = (runtime.totalMemory() - runtime.freeMemory()) / (1024.0 * 1024);
+        db.close();
+        return result;
+    }
+
+    private static void deleteDatabaseFiles(String authDatabaseDir) {
+        for (String fileName : new String[] {AUTH_DB_FILE_NAME, AUTH_DB_FILE_NAME + "-wal",
+                AUTH_DB_FILE_NAME + "-shm", AUTH_DB_FILE_NAME + ".log"}) {
+            new File(authDatabaseDir + "/" + fileName).delete();
+        }
+        new File(authDatabaseDir).delete();
+    }
+
+    private static final String AUTH_DB_FILE_NAME = "auth.db";
+    private static final String DIST_CRYPTO_SPEC = "AES-128-CBC:SHA256";
+    private static final String DIST_KEY_VALIDITY_PERIOD = "365*day";
+    private static final String TRUST_STORE_PASSWORD = "benchmark";
+    private static final int NUM_GROUPS = 100;
+    private static final Logger logger = LoggerFactory.getLogger(StartupLoadBenchmark.class);
+}
@@ -126,6 +126,11 @@ public class GenerateExampleAuthDB {
         metaData.setValue(Long.toString(0));
         sqLiteConnector.insertRecords(metaData);
 
+        metaData = new MetaDataTable();
+        metaData.setKey(MetaDataTable.key.SessionKeyIDLimit.name());
+        metaData.setValue(Long.toString(0));
+        sqLiteConnector.insertRecords(metaData);
+
         PublicKey databasePublicKey = AuthCrypto.loadPublicKeyFromFile(databasePublicKeyPath);
         Buffer encryptedDatabaseKey = AuthCrypto.publicEncrypt(databaseKey.getSerializedKeyVal(), databasePublicKey,
                 SQLiteConnector.AUTH_DB_PUBLIC_CIPHER);
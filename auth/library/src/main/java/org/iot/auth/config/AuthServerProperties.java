@@ -28,6 +28,31 @@ import java.util.Properties;
  */
 public class AuthServerProperties {
     private static final Logger logger = LoggerFactory.getLogger(AuthServerProperties.class);
+    public static final String ENTITY_TCP_IO_MODE_BLOCKING = "blocking";
+    public static final String ENTITY_TCP_IO_MODE_NIO = "nio";
+    private static final int DEFAULT_ENTITY_TCP_SELECTOR_THREADS = 2;
+    private static final int DEFAULT_ENTITY_UDP_RECEIVER_THREADS = 1;
+    private static final int DEFAULT_ENTITY_UDP_STATE_SHARDS = 16;
+    private static final String DEFAULT_ENTITY_REQUEST_EXECUTOR = "fixed";
+    private static final int DEFAULT_ENTITY_REQUEST_WORKER_THREADS = 64;
+    private static final int DEFAULT_ENTITY_REQUEST_QUEUE_CAPACITY = 1024;
+    private static final int DEFAULT_SESSION_KEY_POOL_LOW_WATERMARK = 64;
+    private static final int DEFAULT_SESSION_KEY_POOL_HIGH_WATERMARK = 256;
+    private static final int DEFAULT_ECDH_KEY_PAIR_POOL_MIN_SIZE = 4;
+    private static final int DEFAULT_ECDH_KEY_PAIR_POOL_MAX_SIZE = 256;
+    private static final String DEFAULT_SESSION_KEY_ID_LAYOUT = "legacy";
+    private static final long DEFAULT_SESSION_KEY_ID_BLOCK_SIZE = 10000;
+    private static final String DEFAULT_SESSION_KEY_STORE_DURABILITY = "group";
+    private static final long DEFAULT_SESSION_KEY_STORE_GROUP_COMMIT_INTERVAL = 50;     // milliseconds
+    private static final String DEFAULT_AUTH_DB_BACKEND = "sqlite";
+    private static final long DEFAULT_AUTH_DB_MMAP_SIZE = 256L * 1024 * 1024;
+    private static final long DEFAULT_AUTH_DB_CACHE_SIZE = -16 * 1024;     // negative value is in KiB
+    private static final long DEFAULT_AUTH_DB_CHECKPOINT_INTERVAL = 60000;     // milliseconds
+    private static final long DEFAULT_DISTRIBUTION_KEY_FLUSH_INTERVAL = 100;     // milliseconds
+    private static final String DEFAULT_DISTRIBUTION_KEY_FSYNC = "default";
+    private static final long DEFAULT_SESSION_KEY_SWEEPER_INTERVAL = 60000;     // milliseconds
+    private static final int DEFAULT_SESSION_KEY_SWEEPER_BATCH_SIZE = 500;
+    private static final long DEFAULT_SESSION_KEY_SWEEPER_BUDGET = 200;     // milliseconds
     private String _propertyFilePath;
 
     enum key {
@@ -37,9 +62,18 @@ public class AuthServerProperties {
 
         entity_tcp_port,
         entity_tcp_port_timeout,
+        entity_tcp_io_mode,
+        entity_tcp_selector_threads,
 
         entity_udp_port,
         entity_udp_port_timeout,
+        entity_udp_receiver_threads,
+        entity_udp_state_shards,
+
+        entity_request_executor,
+        entity_request_worker_threads,
+        entity_request_queue_capacity,
+        virtual_threads_enabled,
 
         trusted_auth_port,
         trusted_auth_port_idle_timeout,
@@ -57,8 +91,39 @@ public class AuthServerProperties {
 
         auth_database_dir,
         auth_db_protection_method,
+        auth_db_backend,
+        auth_db_eager_loading_enabled,
+        auth_db_pragma_tuning_enabled,
+        auth_db_mmap_size,
+        auth_db_cache_size,
+        auth_db_checkpoint_interval,
         backup_enabled,
 
+        session_key_pool_enabled,
+        session_key_pool_low_watermark,
+        session_key_pool_high_watermark,
+        ecdh_key_pair_pool_enabled,
+        ecdh_key_pair_pool_min_size,
+        ecdh_key_pair_pool_max_size,
+        session_key_id_layout,
+        session_key_id_block_size,
+        session_key_store_enabled,
+        session_key_store_durability,
+        session_key_store_group_commit_interval,
+        distribution_key_write_behind_enabled,
+        distribution_key_flush_interval,
+        distribution_key_fsync,
+        session_key_sweeper_enabled,
+        session_key_sweeper_interval,
+        session_key_sweeper_batch_size,
+        session_key_sweeper_budget,
+        session_key_sweeper_vacuum_enabled,
+        communication_policy_wildcard_enabled,
+        random_buffer_size,
+        asymmetric_crypto_executor_enabled,
+        asymmetric_crypto_threads,
+        asymmetric_crypto_provider,
+
         qps_throttling_enabled,
         qps_limit,
         qps_calculation_bucket_size_in_sec
@@ -72,9 +137,18 @@ public class AuthServerProperties {
 
     private int entityTcpPort;
     private long entityTcpPortTimeout;
+    private String entityTcpIoMode;
+    private int entityTcpSelectorThreads;
 
     private int entityUdpPort;
     private long entityUdpPortTimeout;
+    private int entityUdpReceiverThreads;
+    private int entityUdpStateShards;
+
+    private String entityRequestExecutor;
+    private int entityRequestWorkerThreads;
+    private int entityRequestQueueCapacity;
+    private boolean virtualThreadsEnabled;
 
     private int trustedAuthPort;
     private long trustedAuthPortIdleTimeout;
@@ -92,8 +166,39 @@ public class AuthServerProperties {
 
     private String authDatabaseDir;
     private int authDBProtectionMethod;
+    private String authDBBackend;
+    private boolean authDBEagerLoadingEnabled;
+    private boolean authDBPragmaTuningEnabled;
+    private long authDBMmapSize;
+    private long authDBCacheSize;
+    private long authDBCheckpointInterval;
     private boolean backupEnabled;
 
+    private boolean sessionKeyPoolEnabled;
+    private int sessionKeyPoolLowWatermark;
+    private int sessionKeyPoolHighWatermark;
+    private boolean ecdhKeyPairPoolEnabled;
+    private int ecdhKeyPairPoolMinSize;
+    private int ecdhKeyPairPoolMaxSize;
+    private String sessionKeyIDLayout;
+    private long sessionKeyIDBlockSize;
+    private boolean sessionKeyStoreEnabled;
+    private String sessionKeyStoreDurability;
+    private long sessionKeyStoreGroupCommitInterval;
+    private boolean distributionKeyWriteBehindEnabled;
+    private long distributionKeyFlushInterval;
+    private String distributionKeyFsync;
+    private boolean sessionKeySweeperEnabled;
+    private long sessionKeySweeperInterval;
+    private int sessionKeySweeperBatchSize;
+    private long sessionKeySweeperBudget;
+    private boolean sessionKeySweeperVacuumEnabled;
+    private boolean communicationPolicyWildcardEnabled;
+    private int randomBufferSize;
+    private boolean asymmetricCryptoExecutorEnabled;
+    private int asymmetricCryptoThreads;
+    private String asymmetricCryptoProvider;
+
     private boolean qpsThrottlingEnabled;
     private float qpsLimit;
     private int qpsCalculationBucketSizeInSec;
@@ -125,6 +230,14 @@ public class AuthServerProperties {
             entityTcpPortTimeout = Long.parseLong(prop.getProperty(key.entity_tcp_port_timeout.toString()));
             logger.info("key:value = {}:{}", key.entity_tcp_port_timeout.toString(), entityTcpPortTimeout);
 
+            // optional, thread-per-connection blocking IO is used unless "nio" is given
+            entityTcpIoMode = prop.getProperty(key.entity_tcp_io_mode.toString(), ENTITY_TCP_IO_MODE_BLOCKING).trim();
+            logger.info("key:value = {}:{}", key.entity_tcp_io_mode.toString(), entityTcpIoMode);
+
+            entityTcpSelectorThreads = Integer.parseInt(prop.getProperty(key.entity_tcp_selector_threads.toString(),
+                    Integer.toString(DEFAULT_ENTITY_TCP_SELECTOR_THREADS)));
+            logger.info("key:value = {}:{}", key.entity_tcp_selector_threads.toString(), entityTcpSelectorThreads);
+
 
             entityUdpPort = Integer.parseInt(prop.getProperty(key.entity_udp_port.toString()));
             logger.info("key:value = {}:{}", key.entity_udp_port.toString(), entityUdpPort);
@@ -132,6 +245,33 @@ public class AuthServerProperties {
             entityUdpPortTimeout = Long.parseLong(prop.getProperty(key.entity_udp_port_timeout.toString()));
             logger.info("key:value = {}:{}", key.entity_udp_port_timeout.toString(), entityUdpPortTimeout);
 
+            // optional, more than one receiver binds multiple sockets to the UDP port with SO_REUSEPORT if supported
+            entityUdpReceiverThreads = Integer.parseInt(prop.getProperty(key.entity_udp_receiver_threads.toString(),
+                    Integer.toString(DEFAULT_ENTITY_UDP_RECEIVER_THREADS)));
+            logger.info("key:value = {}:{}", key.entity_udp_receiver_threads.toString(), entityUdpReceiverThreads);
+
+            entityUdpStateShards = Integer.parseInt(prop.getProperty(key.entity_udp_state_shards.toString(),
+                    Integer.toString(DEFAULT_ENTITY_UDP_STATE_SHARDS)));
+            logger.info("key:value = {}:{}", key.entity_udp_state_shards.toString(), entityUdpStateShards);
+
+
+            // optional, entity requests are processed by a bounded number of workers
+            entityRequestExecutor = prop.getProperty(key.entity_request_executor.toString(),
+                    DEFAULT_ENTITY_REQUEST_EXECUTOR).trim();
+            logger.info("key:value = {}:{}", key.entity_request_executor.toString(), entityRequestExecutor);
+
+            entityRequestWorkerThreads = Integer.parseInt(prop.getProperty(key.entity_request_worker_threads.toString(),
+                    Integer.toString(DEFAULT_ENTITY_REQUEST_WORKER_THREADS)));
+            logger.info("key:value = {}:{}", key.entity_request_worker_threads.toString(), entityRequestWorkerThreads);
+
+            entityRequestQueueCapacity = Integer.parseInt(prop.getProperty(key.entity_request_queue_capacity.toString(),
+                    Integer.toString(DEFAULT_ENTITY_REQUEST_QUEUE_CAPACITY)));
+            logger.info("key:value = {}:{}", key.entity_request_queue_capacity.toString(), entityRequestQueueCapacity);
+
+            // optional, requires a JDK with virtual threads
+            virtualThreadsEnabled = Boolean.parseBoolean(prop.getProperty(key.virtual_threads_enabled.toString(), "false"));
+            logger.info("key:value = {}:{}", key.virtual_threads_enabled.toString(), virtualThreadsEnabled);
+
 
             trustedAuthPort = Integer.parseInt(prop.getProperty(key.trusted_auth_port.toString()));
             logger.info("key:value = {}:{}", key.trusted_auth_port.toString(), trustedAuthPort);
@@ -176,9 +316,151 @@ public class AuthServerProperties {
             authDBProtectionMethod = Integer.parseInt(prop.getProperty(key.auth_db_protection_method.toString()));
             logger.info("key:value = {}:{}", key.auth_db_protection_method.toString(), authDBProtectionMethod);
 
+            // optional, sqlite or log (in-memory index with an append-only log)
+            authDBBackend = prop.getProperty(key.auth_db_backend.toString(), DEFAULT_AUTH_DB_BACKEND).trim();
+            logger.info("key:value = {}:{}", key.auth_db_backend.toString(), authDBBackend);
+
+            // optional, decodes public keys and distribution keys of all registered entities at startup in parallel,
+            // instead of on first use of each registered entity
+            authDBEagerLoadingEnabled = Boolean.parseBoolean(
+                    prop.getProperty(key.auth_db_eager_loading_enabled.toString(), "false"));
+            logger.info("key:value = {}:{}", key.auth_db_eager_loading_enabled.toString(), authDBEagerLoadingEnabled);
+
+            // optional, WAL journal with synchronous=NORMAL, mmap and a larger page cache
+            authDBPragmaTuningEnabled = Boolean.parseBoolean(
+                    prop.getProperty(key.auth_db_pragma_tuning_enabled.toString(), "false"));
+            logger.info("key:value = {}:{}", key.auth_db_pragma_tuning_enabled.toString(), authDBPragmaTuningEnabled);
+
+            authDBMmapSize = Long.parseLong(prop.getProperty(key.auth_db_mmap_size.toString(),
+                    Long.toString(DEFAULT_AUTH_DB_MMAP_SIZE)));
+            logger.info("key:value = {}:{}", key.auth_db_mmap_size.toString(), authDBMmapSize);
+
+            authDBCacheSize = Long.parseLong(prop.getProperty(key.auth_db_cache_size.toString(),
+                    Long.toString(DEFAULT_AUTH_DB_CACHE_SIZE)));
+            logger.info("key:value = {}:{}", key.auth_db_cache_size.toString(), authDBCacheSize);
+
+            // only for ENCRYPT_ENTIRE_DB, writes changed chunks of in-memory Auth DB periodically, 0 disables
+            authDBCheckpointInterval = Long.parseLong(prop.getProperty(key.auth_db_checkpoint_interval.toString(),
+                    Long.toString(DEFAULT_AUTH_DB_CHECKPOINT_INTERVAL)));
+            logger.info("key:value = {}:{}", key.auth_db_checkpoint_interval.toString(), authDBCheckpointInterval);
+
             backupEnabled = Boolean.parseBoolean(prop.getProperty(key.backup_enabled.toString()));
             logger.info("key:value = {}:{}", key.backup_enabled.toString(), backupEnabled);
 
+            // optional, pre-generates session keys for communication policies
+            sessionKeyPoolEnabled = Boolean.parseBoolean(prop.getProperty(key.session_key_pool_enabled.toString(), "false"));
+            logger.info("key:value = {}:{}", key.session_key_pool_enabled.toString(), sessionKeyPoolEnabled);
+
+            sessionKeyPoolLowWatermark = Integer.parseInt(prop.getProperty(key.session_key_pool_low_watermark.toString(),
+                    Integer.toString(DEFAULT_SESSION_KEY_POOL_LOW_WATERMARK)));
+            logger.info("key:value = {}:{}", key.session_key_pool_low_watermark.toString(), sessionKeyPoolLowWatermark);
+
+            sessionKeyPoolHighWatermark = Integer.parseInt(prop.getProperty(key.session_key_pool_high_watermark.toString(),
+                    Integer.toString(DEFAULT_SESSION_KEY_POOL_HIGH_WATERMARK)));
+            logger.info("key:value = {}:{}", key.session_key_pool_high_watermark.toString(), sessionKeyPoolHighWatermark);
+
+            // optional, pre-generated ephemeral key pairs for Diffie-Hellman distribution keys, where the pool size
+            // adapts to the handshake rate between the min and max sizes
+            ecdhKeyPairPoolEnabled = Boolean.parseBoolean(
+                    prop.getProperty(key.ecdh_key_pair_pool_enabled.toString(), "false"));
+            logger.info("key:value = {}:{}", key.ecdh_key_pair_pool_enabled.toString(), ecdhKeyPairPoolEnabled);
+
+            ecdhKeyPairPoolMinSize = Integer.parseInt(prop.getProperty(key.ecdh_key_pair_pool_min_size.toString(),
+                    Integer.toString(DEFAULT_ECDH_KEY_PAIR_POOL_MIN_SIZE)));
+            logger.info("key:value = {}:{}", key.ecdh_key_pair_pool_min_size.toString(), ecdhKeyPairPoolMinSize);
+
+            ecdhKeyPairPoolMaxSize = Integer.parseInt(prop.getProperty(key.ecdh_key_pair_pool_max_size.toString(),
+                    Integer.toString(DEFAULT_ECDH_KEY_PAIR_POOL_MAX_SIZE)));
+            logger.info("key:value = {}:{}", key.ecdh_key_pair_pool_max_size.toString(), ecdhKeyPairPoolMaxSize);
+
+            // "legacy" (default) or "packed", opt in to packed only after all trusted Auths can decode packed session key IDs
+            sessionKeyIDLayout = prop.getProperty(key.session_key_id_layout.toString(),
+                    DEFAULT_SESSION_KEY_ID_LAYOUT).trim();
+            logger.info("key:value = {}:{}", key.session_key_id_layout.toString(), sessionKeyIDLayout);
+
+            sessionKeyIDBlockSize = Long.parseLong(prop.getProperty(key.session_key_id_block_size.toString(),
+                    Long.toString(DEFAULT_SESSION_KEY_ID_BLOCK_SIZE)));
+            logger.info("key:value = {}:{}", key.session_key_id_block_size.toString(), sessionKeyIDBlockSize);
+
+            // optional, serves session keys from memory and journals them to Auth DB in the background
+            sessionKeyStoreEnabled = Boolean.parseBoolean(prop.getProperty(key.session_key_store_enabled.toString(), "false"));
+            logger.info("key:value = {}:{}", key.session_key_store_enabled.toString(), sessionKeyStoreEnabled);
+
+            // "sync" (wait for commit) or "group" (default, commit every group commit interval)
+            sessionKeyStoreDurability = prop.getProperty(key.session_key_store_durability.toString(),
+                    DEFAULT_SESSION_KEY_STORE_DURABILITY).trim();
+            logger.info("key:value = {}:{}", key.session_key_store_durability.toString(), sessionKeyStoreDurability);
+
+            sessionKeyStoreGroupCommitInterval = Long.parseLong(prop.getProperty(
+                    key.session_key_store_group_commit_interval.toString(),
+                    Long.toString(DEFAULT_SESSION_KEY_STORE_GROUP_COMMIT_INTERVAL)));
+            logger.info("key:value = {}:{}", key.session_key_store_group_commit_interval.toString(),
+                    sessionKeyStoreGroupCommitInterval);
+
+            // optional, writes updated distribution keys to Auth DB in the background
+            distributionKeyWriteBehindEnabled = Boolean.parseBoolean(prop.getProperty(
+                    key.distribution_key_write_behind_enabled.toString(), "false"));
+            logger.info("key:value = {}:{}", key.distribution_key_write_behind_enabled.toString(),
+                    distributionKeyWriteBehindEnabled);
+
+            distributionKeyFlushInterval = Long.parseLong(prop.getProperty(
+                    key.distribution_key_flush_interval.toString(),
+                    Long.toString(DEFAULT_DISTRIBUTION_KEY_FLUSH_INTERVAL)));
+            logger.info("key:value = {}:{}", key.distribution_key_flush_interval.toString(),
+                    distributionKeyFlushInterval);
+
+            // "default" (as the connection), "flush" (fsync every flush) or "none" (left to the OS)
+            distributionKeyFsync = prop.getProperty(key.distribution_key_fsync.toString(),
+                    DEFAULT_DISTRIBUTION_KEY_FSYNC).trim();
+            logger.info("key:value = {}:{}", key.distribution_key_fsync.toString(), distributionKeyFsync);
+
+            // deletes expired session keys from Auth DB in the background, default is true
+            sessionKeySweeperEnabled = Boolean.parseBoolean(prop.getProperty(key.session_key_sweeper_enabled.toString(), "true"));
+            logger.info("key:value = {}:{}", key.session_key_sweeper_enabled.toString(), sessionKeySweeperEnabled);
+
+            sessionKeySweeperInterval = Long.parseLong(prop.getProperty(key.session_key_sweeper_interval.toString(),
+                    Long.toString(DEFAULT_SESSION_KEY_SWEEPER_INTERVAL)));
+            logger.info("key:value = {}:{}", key.session_key_sweeper_interval.toString(), sessionKeySweeperInterval);
+
+            // maximum number of session keys deleted in a single transaction
+            sessionKeySweeperBatchSize = Integer.parseInt(prop.getProperty(key.session_key_sweeper_batch_size.toString(),
+                    Integer.toString(DEFAULT_SESSION_KEY_SWEEPER_BATCH_SIZE)));
+            logger.info("key:value = {}:{}", key.session_key_sweeper_batch_size.toString(), sessionKeySweeperBatchSize);
+
+            // time budget in milliseconds per sweep, the rest is left to the next sweep
+            sessionKeySweeperBudget = Long.parseLong(prop.getProperty(key.session_key_sweeper_budget.toString(),
+                    Long.toString(DEFAULT_SESSION_KEY_SWEEPER_BUDGET)));
+            logger.info("key:value = {}:{}", key.session_key_sweeper_budget.toString(), sessionKeySweeperBudget);
+
+            // reclaims free pages of Auth DB when there is no entity request, default is true
+            sessionKeySweeperVacuumEnabled = Boolean.parseBoolean(prop.getProperty(
+                    key.session_key_sweeper_vacuum_enabled.toString(), "true"));
+            logger.info("key:value = {}:{}", key.session_key_sweeper_vacuum_enabled.toString(),
+                    sessionKeySweeperVacuumEnabled);
+
+            // optional, communication policies with a target ending with * apply to all targets with the prefix
+            communicationPolicyWildcardEnabled = Boolean.parseBoolean(prop.getProperty(
+                    key.communication_policy_wildcard_enabled.toString(), "false"));
+            logger.info("key:value = {}:{}", key.communication_policy_wildcard_enabled.toString(),
+                    communicationPolicyWildcardEnabled);
+
+            // optional, size in bytes of the ring buffer of random bytes refilled in background, 0 disables
+            randomBufferSize = Integer.parseInt(prop.getProperty(key.random_buffer_size.toString(), "0"));
+            logger.info("key:value = {}:{}", key.random_buffer_size.toString(), randomBufferSize);
+
+            // optional, executes RSA operations of handshakes by dedicated workers (0 threads is one per core), with
+            // ciphers and signatures of the given security provider (empty is the default provider lookup)
+            asymmetricCryptoExecutorEnabled = Boolean.parseBoolean(
+                    prop.getProperty(key.asymmetric_crypto_executor_enabled.toString(), "false"));
+            logger.info("key:value = {}:{}", key.asymmetric_crypto_executor_enabled.toString(),
+                    asymmetricCryptoExecutorEnabled);
+
+            asymmetricCryptoThreads = Integer.parseInt(prop.getProperty(key.asymmetric_crypto_threads.toString(), "0"));
+            logger.info("key:value = {}:{}", key.asymmetric_crypto_threads.toString(), asymmetricCryptoThreads);
+
+            asymmetricCryptoProvider = prop.getProperty(key.asymmetric_crypto_provider.toString(), "").trim();
+            logger.info("key:value = {}:{}", key.asymmetric_crypto_provider.toString(), asymmetricCryptoProvider);
+
             qpsThrottlingEnabled = Boolean.parseBoolean(prop.getProperty(key.qps_throttling_enabled.toString()));
             logger.info("key:value = {}:{}", key.qps_throttling_enabled.toString(), qpsThrottlingEnabled);
 
@@ -207,6 +489,15 @@ public class AuthServerProperties {
     public long getEntityTcpPortTimeout() {
         return entityTcpPortTimeout;
     }
+    public String getEntityTcpIoMode() {
+        return entityTcpIoMode;
+    }
+    public boolean isEntityTcpNioEnabled() {
+        return entityTcpIoMode.equalsIgnoreCase(ENTITY_TCP_IO_MODE_NIO);
+    }
+    public int getEntityTcpSelectorThreads() {
+        return entityTcpSelectorThreads;
+    }
 
     public int getEntityUdpPort() {
         return entityUdpPort;
@@ -214,6 +505,25 @@ public class AuthServerProperties {
     public long getEntityUdpPortTimeout() {
         return entityUdpPortTimeout;
     }
+    public int getEntityUdpReceiverThreads() {
+        return entityUdpReceiverThreads;
+    }
+    public int getEntityUdpStateShards() {
+        return entityUdpStateShards;
+    }
+
+    public String getEntityRequestExecutor() {
+        return entityRequestExecutor;
+    }
+    public int getEntityRequestWorkerThreads() {
+        return entityRequestWorkerThreads;
+    }
+    public int getEntityRequestQueueCapacity() {
+        return entityRequestQueueCapacity;
+    }
+    public boolean getVirtualThreadsEnabled() {
+        return virtualThreadsEnabled;
+    }
 
     public int getTrustedAuthPort() {
         return trustedAuthPort;
@@ -250,10 +560,101 @@ public class AuthServerProperties {
         return authDatabaseDir;
     }
     public int getAuthDBProtectionMethod() { return authDBProtectionMethod; }
+    public String getAuthDBBackend() {
+        return authDBBackend;
+    }
+    public boolean getAuthDBEagerLoadingEnabled() {
+        return authDBEagerLoadingEnabled;
+    }
+    public boolean getAuthDBPragmaTuningEnabled() {
+        return authDBPragmaTuningEnabled;
+    }
+    public long getAuthDBMmapSize() {
+        return authDBMmapSize;
+    }
+    public long getAuthDBCacheSize() {
+        return authDBCacheSize;
+    }
+    public long getAuthDBCheckpointInterval() {
+        return authDBCheckpointInterval;
+    }
     public boolean getBackupEnabled() {
         return backupEnabled;
     }
 
+    public boolean getSessionKeyPoolEnabled() {
+        return sessionKeyPoolEnabled;
+    }
+    public int getSessionKeyPoolLowWatermark() {
+        return sessionKeyPoolLowWatermark;
+    }
+    public int getSessionKeyPoolHighWatermark() {
+        return sessionKeyPoolHighWatermark;
+    }
+    public boolean getEcdhKeyPairPoolEnabled() {
+        return ecdhKeyPairPoolEnabled;
+    }
+    public int getEcdhKeyPairPoolMinSize() {
+        return ecdhKeyPairPoolMinSize;
+    }
+    public int getEcdhKeyPairPoolMaxSize() {
+        return ecdhKeyPairPoolMaxSize;
+    }
+    public String getSessionKeyIDLayout() {
+        return sessionKeyIDLayout;
+    }
+    public long getSessionKeyIDBlockSize() {
+        return sessionKeyIDBlockSize;
+    }
+    public boolean getSessionKeyStoreEnabled() {
+        return sessionKeyStoreEnabled;
+    }
+    public String getSessionKeyStoreDurability() {
+        return sessionKeyStoreDurability;
+    }
+    public long getSessionKeyStoreGroupCommitInterval() {
+        return sessionKeyStoreGroupCommitInterval;
+    }
+    public boolean getDistributionKeyWriteBehindEnabled() {
+        return distributionKeyWriteBehindEnabled;
+    }
+    public long getDistributionKeyFlushInterval() {
+        return distributionKeyFlushInterval;
+    }
+    public String getDistributionKeyFsync() {
+        return distributionKeyFsync;
+    }
+    public boolean getSessionKeySweeperEnabled() {
+        return sessionKeySweeperEnabled;
+    }
+    public long getSessionKeySweeperInterval() {
+        return sessionKeySweeperInterval;
+    }
+    public int getSessionKeySweeperBatchSize() {
+        return sessionKeySweeperBatchSize;
+    }
+    public long getSessionKeySweeperBudget() {
+        return sessionKeySweeperBudget;
+    }
+    public boolean getSessionKeySweeperVacuumEnabled() {
+        return sessionKeySweeperVacuumEnabled;
+    }
+    public boolean getCommunicationPolicyWildcardEnabled() {
+        return communicationPolicyWildcardEnabled;
+    }
+    public int getRandomBufferSize() {
+        return randomBufferSize;
+    }
+    public boolean getAsymmetricCryptoExecutorEnabled() {
+        return asymmetricCryptoExecutorEnabled;
+    }
+    public int getAsymmetricCryptoThreads() {
+        return asymmetricCryptoThreads;
+    }
+    public String getAsymmetricCryptoProvider() {
+        return asymmetricCryptoProvider;
+    }
+
     public boolean getQpsThrottlingEnabled() {
         return qpsThrottlingEnabled;
     }
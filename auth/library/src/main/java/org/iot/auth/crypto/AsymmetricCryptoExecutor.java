@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.crypto;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import java.security.Provider;
+import java.security.Security;
+import java.security.Signature;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A dedicated executor for asymmetric (RSA) crypto operations of Auth, so that a storm of public key handshakes
+ * occupies at most a fixed number of workers (one per core by default), instead of every entity request worker.
+ * Requests that do not use public key crypto, such as session key requests encrypted with distribution keys,
+ * never wait for these workers.
+ * <p>
+ * Operations are queued by priority, and in submission order within the same priority. Operations of later steps
+ * of a handshake have higher priority (signing the response first, decrypting a new request last), so that under
+ * overload, handshakes already in progress complete instead of all of the handshakes slowing down together.
+ * <p>
+ * Ciphers and signatures are created by the given security provider, or by the default provider lookup if no
+ * provider is given. Queue wait and execution time are measured per operation.
+ * @author Hokeun Kim
+ */
+public class AsymmetricCryptoExecutor {
+    /**
+     * Asymmetric crypto operations, in the order of the steps of a public key handshake, where the operations of
+     * later steps are executed first.
+     */
+    public enum Operation {
+        PRIVATE_DECRYPT,
+        VERIFY,
+        PUBLIC_ENCRYPT,
+        SIGN
+    }
+
+    /**
+     * Constructor for the asymmetric crypto executor.
+     * @param numThreads The number of workers, or 0 for the number of available processors.
+     * @param provider Security provider for ciphers and signatures, or null for the default provider lookup.
+     */
+    public AsymmetricCryptoExecutor(int numThreads, Provider provider) {
+        if (numThreads < 0) {
+            throw new IllegalArgumentException("Invalid number of threads for asymmetric crypto executor: " +
+                    numThreads);
+        }
+        if (numThreads == 0) {
+            numThreads = Runtime.getRuntime().availableProcessors();
+        }
+        this.numThreads = numThreads;
+        this.provider = provider;
+        if (provider == null) {
+            this.ciphers = CryptoPrimitivePool.CIPHERS;
+            this.signatures = CryptoPrimitivePool.SIGNATURES;
+        }
+        else {
+            this.ciphers = new CryptoPrimitivePool<>(provider.getName() + " Cipher",
+                    algorithm -> Cipher.getInstance(algorithm, provider));
+            this.signatures = new CryptoPrimitivePool<>(provider.getName() + " Signature",
+                    algorithm -> Signature.getInstance(algorithm, provider));
+        }
+        // Jobs are passed to execute() as they are, so that the priority queue can compare them.
+        this.threadPoolExecutor = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), runnable -> {
+                    Thread thread = new Thread(runnable, "AsymmetricCryptoWorker-" + threadIndex.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        for (Operation operation : Operation.values()) {
+            metrics[operation.ordinal()] = new OperationMetrics();
+        }
+        logger.info("Asymmetric crypto executor: threads {}, provider {}", numThreads,
+                provider == null ? "default" : provider.getName());
+    }
+
+    /**
+     * Finds a security provider by its name, where the Bouncy Castle provider (BC) is available even if it is not
+     * installed.
+     * @param providerName Name of the provider, or an empty string for the default provider lookup.
+     * @return The provider, or null for the default provider lookup.
+     * @throws IllegalArgumentException If no provider is found with the name.
+     */
+    public static Provider getProvider(String providerName) {
+        if (providerName == null || providerName.isEmpty()) {
+            return null;
+        }
+        Provider provider = Security.getProvider(providerName);
+        if (provider == null && providerName.equals(BouncyCastleProvider.PROVIDER_NAME)) {
+            provider = new BouncyCastleProvider();
+        }
+        if (provider == null) {
+            throw new IllegalArgumentException("Security provider not found: " + providerName);
+        }
+        return provider;
+    }
+
+    /**
+     * Submits an operation to be executed by a worker.
+     * @param operation Kind of the operation, which decides its priority.
+     * @param task The operation.
+     * @return Future result of the operation, completed exceptionally if the operation throws an exception or the
+     * executor is shut down.
+     */
+    public <T> CompletableFuture<T> submit(Operation operation, Callable<T> task) {
+        Job<T> job = new Job<>(operation, task, sequence.getAndIncrement());
+        try {
+            threadPoolExecutor.execute(job);
+        }
+        catch (RejectedExecutionException e) {
+            job.future.completeExceptionally(e);
+        }
+        return job.future;
+    }
+
+    /**
+     * Pool of ciphers created by the provider of this executor.
+     * @return The cipher pool.
+     */
+    public CryptoPrimitivePool<Cipher> getCiphers() {
+        return ciphers;
+    }
+
+    /**
+     * Pool of signatures created by the provider of this executor.
+     * @return The signature pool.
+     */
+    public CryptoPrimitivePool<Signature> getSignatures() {
+        return signatures;
+    }
+
+    /**
+     * Get the security provider of this executor.
+     * @return The provider, or null for the default provider lookup.
+     */
+    public Provider getProvider() {
+        return provider;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public int getQueueDepth() {
+        return threadPoolExecutor.getQueue().size();
+    }
+
+    public long getNumCompleted(Operation operation) {
+        return metrics[operation.ordinal()].numCompleted.sum();
+    }
+
+    public long getNumFailed(Operation operation) {
+        return metrics[operation.ordinal()].numFailed.sum();
+    }
+
+    /**
+     * Stop accepting operations, the operations that were already submitted are still executed.
+     */
+    public void shutdown() {
+        threadPoolExecutor.shutdown();
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Threads: " + numThreads +
+                ", Provider: " + (provider == null ? "default" : provider.getName()) +
+                ", Queue depth: " + getQueueDepth() +
+                ", Active workers: " + threadPoolExecutor.getActiveCount());
+        for (Operation operation : Operation.values()) {
+            sb.append("\n" + operation + " " + metrics[operation.ordinal()]);
+        }
+        if (provider != null) {
+            sb.append("\n" + ciphers + "\n" + signatures);
+        }
+        return sb.toString();
+    }
+
+    private class Job<T> implements Runnable, Comparable<Job<?>> {
+        private Job(Operation operation, Callable<T> task, long sequence) {
+            this.operation = operation;
+            this.task = task;
+            this.sequence = sequence;
+            this.submitTime = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            long startTime = System.nanoTime();
+            try {
+                T result = task.call();
+                metrics[operation.ordinal()].record(startTime - submitTime, System.nanoTime() - startTime, true);
+                future.complete(result);
+            }
+            catch (Throwable e) {
+                metrics[operation.ordinal()].record(startTime - submitTime, System.nanoTime() - startTime, false);
+                future.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public int compareTo(Job<?> other) {
+            if (operation != other.operation) {
+                return Integer.compare(other.operation.ordinal(), operation.ordinal());
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+
+        private final Operation operation;
+        private final Callable<T> task;
+        private final long sequence;
+        private final long submitTime;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+    }
+
+    private static class OperationMetrics {
+        private void record(long waitTime, long executionTime, boolean isCompleted) {
+            if (isCompleted) {
+                numCompleted.increment();
+            }
+            else {
+                numFailed.increment();
+            }
+            totalWaitTime.add(waitTime);
+            totalExecutionTime.add(executionTime);
+            maxWaitTime.accumulateAndGet(waitTime, Math::max);
+            maxExecutionTime.accumulateAndGet(executionTime, Math::max);
+        }
+
+        public String toString() {
+            long count = Math.max(1, numCompleted.sum() + numFailed.sum());
+            return "completed: " + numCompleted.sum() + ", failed: " + numFailed.sum() +
+                    ", avg wait: " + totalWaitTime.sum() / count / 1000 + " us" +
+                    ", max wait: " + maxWaitTime.get() / 1000 + " us" +
+                    ", avg execution: " + totalExecutionTime.sum() / count / 1000 + " us" +
+                    ", max execution: " + maxExecutionTime.get() / 1000 + " us";
+        }
+
+        private final LongAdder numCompleted = new LongAdder();
+        private final LongAdder numFailed = new LongAdder();
+        private final LongAdder totalWaitTime = new LongAdder();
+        private final LongAdder totalExecutionTime = new LongAdder();
+        private final AtomicLong maxWaitTime = new AtomicLong(0);
+        private final AtomicLong maxExecutionTime = new AtomicLong(0);
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(AsymmetricCryptoExecutor.class);
+    private final int numThreads;
+    private final Provider provider;
+    private final CryptoPrimitivePool<Cipher> ciphers;
+    private final CryptoPrimitivePool<Signature> signatures;
+    private final ThreadPoolExecutor threadPoolExecutor;
+    private final OperationMetrics[] metrics = new OperationMetrics[Operation.values().length];
+    private final AtomicInteger threadIndex = new AtomicInteger(0);
+    private final AtomicLong sequence = new AtomicLong(0);
+}
@@ -49,6 +49,8 @@ import java.security.spec.X509EncodedKeySpec;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 import javax.crypto.*;
 import javax.crypto.spec.IvParameterSpec;
@@ -111,24 +113,37 @@ public class AuthCrypto {
     public boolean verifySignedData(Buffer data, Buffer signature, PublicKey publicKey)
             throws NoSuchAlgorithmException, InvalidKeyException, SignatureException
     {
-        Signature verifier;
-        verifier = Signature.getInstance(authSignAlgorithm);
-        verifier.initVerify(publicKey);
-        verifier.update(data.getRawBytes());
-        return verifier.verify(signature.getRawBytes());
+        Signature verifier = CryptoPrimitivePool.SIGNATURES.borrow(authSignAlgorithm);
+        try {
+            verifier.initVerify(publicKey);
+            verifier.update(data.getRawBytes());
+            return verifier.verify(signature.getRawBytes());
+        }
+        finally {
+            CryptoPrimitivePool.SIGNATURES.release(authSignAlgorithm, verifier);
+        }
+    }
+
+    /**
+     * Check if a signature of a registered entity is valid, using the cached verifier of the entity if there is one.
+     * @param data Data used to generate signature.
+     * @param signature A digital signature to be verified.
+     * @param entityName Name of the registered entity which signed the data.
+     * @param publicKey Public key of the registered entity.
+     * @return Whether the signature is verified.
+     * @throws NoSuchAlgorithmException If the algorithm specified in the key store is invalid.
+     * @throws InvalidKeyException If the key is not valid.
+     * @throws SignatureException If the signature is not valid.
+     */
+    public boolean verifySignedData(Buffer data, Buffer signature, String entityName, PublicKey publicKey)
+            throws NoSuchAlgorithmException, InvalidKeyException, SignatureException
+    {
+        return EntityKeyCache.verify(entityName, publicKey, authSignAlgorithm, data, signature);
     }
 
     public Buffer signWithPrivateKey(Buffer input)
             throws IllegalArgumentException {
-        try {
-            Signature signer = Signature.getInstance(authSignAlgorithm);
-            signer.initSign(authPrivateKeyForEntities); // cf) initVerify
-            signer.update(input.getRawBytes());
-            return new Buffer(signer.sign());
-        }
-        catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException e) {
-            throw new IllegalArgumentException("Problem signing with private key\n" + e.getMessage());
-        }
+        return signWithPrivateKey(input, CryptoPrimitivePool.SIGNATURES);
     }
 
     public Buffer authPrivateDecrypt(Buffer input)
@@ -151,6 +166,97 @@ public class AuthCrypto {
         return performAsymmetricCrypto(Cipher.ENCRYPT_MODE, input, publicKey, publicCipherAlgorithm);
     }
 
+    /**
+     * Executes asymmetric crypto operations of Auth by the given executor, instead of by the calling threads.
+     * @param asymmetricCryptoExecutor The executor, or null to execute the operations by the calling threads.
+     */
+    public void setAsymmetricCryptoExecutor(AsymmetricCryptoExecutor asymmetricCryptoExecutor) {
+        this.asymmetricCryptoExecutor = asymmetricCryptoExecutor;
+    }
+
+    public AsymmetricCryptoExecutor getAsymmetricCryptoExecutor() {
+        return asymmetricCryptoExecutor;
+    }
+
+    /**
+     * Decrypt with Auth's private key asynchronously, by the asymmetric crypto executor if there is one.
+     * @param input Data encrypted with Auth's public key.
+     * @return Future decrypted data, completed exceptionally with IllegalArgumentException if decryption fails.
+     */
+    public CompletableFuture<Buffer> authPrivateDecryptAsync(Buffer input) {
+        AsymmetricCryptoExecutor executor = asymmetricCryptoExecutor;
+        if (executor == null) {
+            return completedOrFailed(() -> authPrivateDecrypt(input));
+        }
+        return executor.submit(AsymmetricCryptoExecutor.Operation.PRIVATE_DECRYPT, () ->
+                performAsymmetricCrypto(Cipher.DECRYPT_MODE, input, authPrivateKeyForEntities,
+                        authPublicCipherAlgorithm, executor.getCiphers()));
+    }
+
+    /**
+     * Encrypt with an entity's public key asynchronously, by the asymmetric crypto executor if there is one.
+     * @param input Data to be encrypted.
+     * @param publicKey Public key of the entity.
+     * @return Future encrypted data, completed exceptionally with IllegalArgumentException if encryption fails.
+     */
+    public CompletableFuture<Buffer> authPublicEncryptAsync(Buffer input, PublicKey publicKey) {
+        AsymmetricCryptoExecutor executor = asymmetricCryptoExecutor;
+        if (executor == null) {
+            return completedOrFailed(() -> authPublicEncrypt(input, publicKey));
+        }
+        return executor.submit(AsymmetricCryptoExecutor.Operation.PUBLIC_ENCRYPT, () ->
+                performAsymmetricCrypto(Cipher.ENCRYPT_MODE, input, publicKey, authPublicCipherAlgorithm,
+                        executor.getCiphers()));
+    }
+
+    /**
+     * Sign with Auth's private key asynchronously, by the asymmetric crypto executor if there is one.
+     * @param input Data to be signed.
+     * @return Future signature, completed exceptionally with IllegalArgumentException if signing fails.
+     */
+    public CompletableFuture<Buffer> signWithPrivateKeyAsync(Buffer input) {
+        AsymmetricCryptoExecutor executor = asymmetricCryptoExecutor;
+        if (executor == null) {
+            return completedOrFailed(() -> signWithPrivateKey(input));
+        }
+        return executor.submit(AsymmetricCryptoExecutor.Operation.SIGN, () ->
+                signWithPrivateKey(input, executor.getSignatures()));
+    }
+
+    /**
+     * Check if a signature of a registered entity is valid asynchronously, by the asymmetric crypto executor if
+     * there is one. The cached verifier of the entity is used, unless the executor has its own provider.
+     * @param data Data used to generate signature.
+     * @param signature A digital signature to be verified.
+     * @param entityName Name of the registered entity which signed the data.
+     * @param publicKey Public key of the registered entity.
+     * @return Future result of whether the signature is verified, completed exceptionally with
+     * GeneralSecurityException if verification fails.
+     */
+    public CompletableFuture<Boolean> verifySignedDataAsync(Buffer data, Buffer signature, String entityName,
+                                                            PublicKey publicKey)
+    {
+        AsymmetricCryptoExecutor executor = asymmetricCryptoExecutor;
+        if (executor == null) {
+            return completedOrFailed(() -> verifySignedData(data, signature, entityName, publicKey));
+        }
+        if (executor.getProvider() == null) {
+            return executor.submit(AsymmetricCryptoExecutor.Operation.VERIFY, () ->
+                    verifySignedData(data, signature, entityName, publicKey));
+        }
+        return executor.submit(AsymmetricCryptoExecutor.Operation.VERIFY, () -> {
+            Signature verifier = executor.getSignatures().borrow(authSignAlgorithm);
+            try {
+                verifier.initVerify(publicKey);
+                verifier.update(data.getRawBytes());
+                return verifier.verify(signature.getRawBytes());
+            }
+            finally {
+                executor.getSignatures().release(authSignAlgorithm, verifier);
+            }
+        });
+    }
+
     /**
      * Load a key store from the specified file path, using the given password.
      * @param filePath Path of the key store file.
@@ -208,11 +314,16 @@ public class AuthCrypto {
 
     public static PublicKey loadPublicKeyFromBytes(byte[] bytes)  {
         X509EncodedKeySpec spec = new X509EncodedKeySpec(bytes);
+        KeyFactory kf = null;
         try {
-            KeyFactory kf = KeyFactory.getInstance("RSA");
+            kf = CryptoPrimitivePool.KEY_FACTORIES.borrow("RSA");
             return kf.generatePublic(spec);
         } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
             throw new IllegalArgumentException("Problem loading public key from bytes" + "\n" + e.getMessage());
+        } finally {
+            if (kf != null) {
+                CryptoPrimitivePool.KEY_FACTORIES.release("RSA", kf);
+            }
         }
     }
 
@@ -247,12 +358,7 @@ public class AuthCrypto {
         return null;
     }
     public static Buffer getRandomBytes(int size) {
-        SecureRandom random = new SecureRandom();
-        byte seed[] = random.generateSeed(size);
-        byte[] randomBytes = new byte[size];
-        random.setSeed(seed);
-        random.nextBytes(randomBytes);
-        return new Buffer(randomBytes);
+        return AuthRandom.getRandomBytes(size);
     }
 
     public X509Certificate issueCertificate(X509Certificate certificate,
@@ -402,12 +508,16 @@ public class AuthCrypto {
         } catch (IOException e) {
             e.printStackTrace();
         }
-        KeyFactory keyFactory;
+        KeyFactory keyFactory = null;
         try {
-            keyFactory = KeyFactory.getInstance("RSA");
+            keyFactory = CryptoPrimitivePool.KEY_FACTORIES.borrow("RSA");
             return keyFactory.generatePrivate(keySpec);
         } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
             throw new IllegalArgumentException("Problem loading private key " + filePath + "\n" + e.getMessage());
+        } finally {
+            if (keyFactory != null) {
+                CryptoPrimitivePool.KEY_FACTORIES.release("RSA", keyFactory);
+            }
         }
     }
 
@@ -425,29 +535,73 @@ public class AuthCrypto {
         return bytes;
     }
 
+    private Buffer signWithPrivateKey(Buffer input, CryptoPrimitivePool<Signature> signatures)
+            throws IllegalArgumentException {
+        Signature signer;
+        try {
+            signer = signatures.borrow(authSignAlgorithm);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Problem signing with private key\n" + e.getMessage());
+        }
+        try {
+            signer.initSign(authPrivateKeyForEntities); // cf) initVerify
+            signer.update(input.getRawBytes());
+            return new Buffer(signer.sign());
+        }
+        catch (InvalidKeyException | SignatureException e) {
+            throw new IllegalArgumentException("Problem signing with private key\n" + e.getMessage());
+        }
+        finally {
+            signatures.release(authSignAlgorithm, signer);
+        }
+    }
+
+    private static <T> CompletableFuture<T> completedOrFailed(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            future.complete(task.call());
+        }
+        catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
     private static Buffer performAsymmetricCrypto(int operationMode, Buffer input, Key key, String cipherAlgorithm)
             throws IllegalArgumentException {
+        return performAsymmetricCrypto(operationMode, input, key, cipherAlgorithm, CryptoPrimitivePool.CIPHERS);
+    }
+
+    private static Buffer performAsymmetricCrypto(int operationMode, Buffer input, Key key, String cipherAlgorithm,
+                                                  CryptoPrimitivePool<Cipher> ciphers)
+            throws IllegalArgumentException {
         Cipher cipher;
         try {
-            cipher = Cipher.getInstance(cipherAlgorithm);
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            cipher = ciphers.borrow(cipherAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
             throw new IllegalArgumentException("Problem getting instance " + input + "\n" + e.getMessage());
         }
 
         try {
-            cipher.init(operationMode, key);
-        } catch (InvalidKeyException e) {
-            throw new IllegalArgumentException("Problem with key " + input + "\n" + e.getMessage());
-        }
+            try {
+                cipher.init(operationMode, key);
+            } catch (InvalidKeyException e) {
+                throw new IllegalArgumentException("Problem with key " + input + "\n" + e.getMessage());
+            }
 
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
 
-        try {
-            byteArrayOutputStream.write(cipher.doFinal(input.getRawBytes()));
-        } catch (IllegalBlockSizeException | BadPaddingException | IOException e) {
-            throw new IllegalArgumentException("Problem processing crypto " + input + "\n" + e.getMessage());
+            try {
+                byteArrayOutputStream.write(cipher.doFinal(input.getRawBytes()));
+            } catch (IllegalBlockSizeException | BadPaddingException | IOException e) {
+                throw new IllegalArgumentException("Problem processing crypto " + input + "\n" + e.getMessage());
+            }
+            return new Buffer(byteArrayOutputStream.toByteArray());
+        }
+        finally {
+            ciphers.release(cipherAlgorithm, cipher);
         }
-        return new Buffer(byteArrayOutputStream.toByteArray());
     }
 
     /**
@@ -503,4 +657,5 @@ public class AuthCrypto {
     private PrivateKey authPrivateKeyForEntities;
     private String authSignAlgorithm;
     private String authPublicCipherAlgorithm;
+    private volatile AsymmetricCryptoExecutor asymmetricCryptoExecutor = null;
 }
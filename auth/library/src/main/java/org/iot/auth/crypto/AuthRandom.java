@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.crypto;
+
+import org.iot.auth.io.Buffer;
+import org.iot.auth.util.ExceptionToString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A central source of random bytes for Auth nonces, session keys and distribution keys, so that callers do not
+ * construct and seed a new SecureRandom for every nonce or key.
+ * <p>
+ * Random bytes are generated by DRBG instances, each seeded once from a strong source when it is first used. DRBG
+ * instances are kept in stripes chosen by the caller's thread ID instead of thread-local variables, because with
+ * virtual threads every request runs on a new thread and would seed a new DRBG. A DRBG instance is safe to use from
+ * more than one thread, so threads sharing a stripe only contend on it.
+ * <p>
+ * Optionally, small requests are served from a ring buffer of random bytes, which is refilled by a background
+ * thread whenever it drops below half of its size, so that generating random bytes is taken off the request path.
+ * Bytes taken from the ring buffer are cleared, and never given out twice.
+ * @author Hokeun Kim
+ */
+public class AuthRandom {
+    private static final Logger logger = LoggerFactory.getLogger(AuthRandom.class);
+
+    /**
+     * Fills the given array with random bytes, from the ring buffer if it is enabled and has enough bytes,
+     * or from the DRBG of the caller's stripe otherwise.
+     * @param bytes Array to be filled.
+     */
+    public static void nextBytes(byte[] bytes) {
+        RandomBuffer buffer = randomBuffer;
+        if (buffer != null && buffer.take(bytes)) {
+            numBufferedBytes.add(bytes.length);
+            return;
+        }
+        getSecureRandom().nextBytes(bytes);
+        numGeneratedBytes.add(bytes.length);
+    }
+
+    /**
+     * Gets random bytes of the given size, for nonces and key values.
+     * @param size Number of random bytes.
+     * @return Buffer with the random bytes.
+     */
+    public static Buffer getRandomBytes(int size) {
+        byte[] randomBytes = new byte[size];
+        nextBytes(randomBytes);
+        return new Buffer(randomBytes);
+    }
+
+    /**
+     * Gets the DRBG instance of the caller's stripe, for JCA APIs that take a SecureRandom, such as Cipher.init()
+     * and KeyPairGenerator.initialize(). It may be shared with other threads, and must not be reseeded.
+     * @return Seeded SecureRandom instance.
+     */
+    public static SecureRandom getSecureRandom() {
+        int index = stripeIndex();
+        SecureRandom random = stripes.get(index);
+        if (random == null) {
+            random = newSeededRandom();
+            if (stripes.compareAndSet(index, null, random)) {
+                numSeeded.increment();
+            }
+            else {
+                random = stripes.get(index);
+            }
+        }
+        return random;
+    }
+
+    /**
+     * Starts serving small requests from a ring buffer of the given size, refilled by a background thread.
+     * If a ring buffer is already enabled, it is replaced.
+     * @param bufferSize Size of the ring buffer in bytes.
+     */
+    public static synchronized void enableBuffer(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Invalid size of random buffer: " + bufferSize);
+        }
+        disableBuffer();
+        randomBuffer = new RandomBuffer(bufferSize);
+        logger.info("Random buffer of {} bytes enabled.", bufferSize);
+    }
+
+    /**
+     * Stops the background refill thread, and discards the bytes in the ring buffer.
+     */
+    public static synchronized void disableBuffer() {
+        if (randomBuffer != null) {
+            randomBuffer.shutdown();
+            randomBuffer = null;
+        }
+    }
+
+    /**
+     * Statistics of the random bytes given out.
+     * @return String with statistics of the randomness service.
+     */
+    public static String statisticsToString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("DRBG algorithm: " + DRBG_ALGORITHM + ", seeded instances: " + numSeeded.sum() + " of " + NUM_STRIPES);
+        sb.append(", bytes from DRBG: " + numGeneratedBytes.sum());
+        RandomBuffer buffer = randomBuffer;
+        if (buffer != null) {
+            sb.append("\n  " + buffer.toString() + ", bytes from buffer: " + numBufferedBytes.sum());
+        }
+        return sb.toString();
+    }
+
+    private static SecureRandom newSeededRandom() {
+        SecureRandom random;
+        try {
+            random = SecureRandom.getInstance(DRBG_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e) {
+            // DRBG is not available before Java 9.
+            random = new SecureRandom();
+        }
+        random.setSeed(getSeedSource().generateSeed(SEED_SIZE));
+        return random;
+    }
+
+    private static synchronized SecureRandom getSeedSource() {
+        if (seedSource == null) {
+            try {
+                seedSource = SecureRandom.getInstanceStrong();
+            }
+            catch (NoSuchAlgorithmException e) {
+                logger.error("Strong SecureRandom is not available, using default: {}",
+                        ExceptionToString.convertExceptionToStackTrace(e));
+                seedSource = new SecureRandom();
+            }
+        }
+        return seedSource;
+    }
+
+    private static int stripeIndex() {
+        long threadID = Thread.currentThread().getId();
+        return (int) (threadID ^ (threadID >>> 32)) & STRIPE_MASK;
+    }
+
+    private static int numStripes() {
+        int minStripes = Math.max(4, Runtime.getRuntime().availableProcessors());
+        return Integer.highestOneBit(minStripes - 1) << 1;
+    }
+
+    /**
+     * A ring buffer of random bytes, refilled by a background thread.
+     */
+    private static class RandomBuffer {
+        RandomBuffer(int bufferSize) {
+            this.ring = new byte[bufferSize];
+            this.maxRequestSize = Math.max(1, bufferSize / 8);
+            this.refiller = new Thread(this::refillLoop, "RandomBufferRefiller");
+            this.refiller.setDaemon(true);
+            this.refiller.start();
+        }
+
+        /**
+         * Takes random bytes from the ring buffer.
+         * @return Whether the array is filled, false if the request is large or the ring buffer has too few bytes.
+         */
+        boolean take(byte[] bytes) {
+            if (bytes.length > maxRequestSize) {
+                return false;
+            }
+            lock.lock();
+            try {
+                if (available < bytes.length) {
+                    numMisses++;
+                    needsRefill.signal();
+                    return false;
+                }
+                int firstLength = Math.min(bytes.length, ring.length - readIndex);
+                System.arraycopy(ring, readIndex, bytes, 0, firstLength);
+                Arrays.fill(ring, readIndex, readIndex + firstLength, (byte) 0);
+                int secondLength = bytes.length - firstLength;
+                if (secondLength > 0) {
+                    System.arraycopy(ring, 0, bytes, firstLength, secondLength);
+                    Arrays.fill(ring, 0, secondLength, (byte) 0);
+                }
+                readIndex = (readIndex + bytes.length) % ring.length;
+                available -= bytes.length;
+                if (available < ring.length / 2) {
+                    needsRefill.signal();
+                }
+                return true;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        void shutdown() {
+            refiller.interrupt();
+            lock.lock();
+            try {
+                Arrays.fill(ring, (byte) 0);
+                available = 0;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        public String toString() {
+            lock.lock();
+            try {
+                return "buffer size: " + ring.length + ", available: " + available + ", refills: " + numRefills +
+                        ", misses: " + numMisses;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        private void refillLoop() {
+            SecureRandom random = newSeededRandom();
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    int freeSpace;
+                    lock.lock();
+                    try {
+                        while (available >= ring.length / 2) {
+                            needsRefill.await();
+                        }
+                        freeSpace = ring.length - available;
+                    }
+                    finally {
+                        lock.unlock();
+                    }
+                    // Generates outside the lock; free space only grows while callers take bytes.
+                    byte[] chunk = new byte[freeSpace];
+                    random.nextBytes(chunk);
+                    lock.lock();
+                    try {
+                        int writeIndex = (readIndex + available) % ring.length;
+                        int firstLength = Math.min(freeSpace, ring.length - writeIndex);
+                        System.arraycopy(chunk, 0, ring, writeIndex, firstLength);
+                        System.arraycopy(chunk, firstLength, ring, 0, freeSpace - firstLength);
+                        available += freeSpace;
+                        numRefills++;
+                    }
+                    finally {
+                        lock.unlock();
+                    }
+                    Arrays.fill(chunk, (byte) 0);
+                }
+            }
+            catch (InterruptedException e) {
+                // Buffer is disabled.
+            }
+        }
+
+        private final byte[] ring;
+        private final int maxRequestSize;
+        private final Thread refiller;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition needsRefill = lock.newCondition();
+        // guarded by lock
+        private int readIndex = 0;
+        private int available = 0;
+        private long numRefills = 0;
+        private long numMisses = 0;
+    }
+
+    private static final String DRBG_ALGORITHM = "DRBG";
+    private static final int SEED_SIZE = 32;
+    // a power of two, at least the number of processors
+    private static final int NUM_STRIPES = numStripes();
+    private static final int STRIPE_MASK = NUM_STRIPES - 1;
+    private static final AtomicReferenceArray<SecureRandom> stripes = new AtomicReferenceArray<>(NUM_STRIPES);
+    private static SecureRandom seedSource = null;
+    private static volatile RandomBuffer randomBuffer = null;
+    private static final LongAdder numSeeded = new LongAdder();
+    private static final LongAdder numGeneratedBytes = new LongAdder();
+    private static final LongAdder numBufferedBytes = new LongAdder();
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of JCA crypto primitives (Cipher, Mac, Signature, KeyFactory and KeyAgreement) keyed by algorithm, so
+ * that crypto operations do not look up providers and instantiate primitives on every call, while no primitive is
+ * used by two threads at once.
+ * <p>
+ * Idle primitives of each algorithm are kept in stripes, and a thread borrows from and releases to the stripe
+ * chosen by its thread ID, probing a few neighboring stripes. A new primitive is created only when no idle
+ * primitive is found, and a released primitive is dropped when the stripes are full. Stripes are used instead of
+ * thread-local primitives, because with virtual threads every request runs on a new thread.
+ * <p>
+ * A borrowed primitive keeps the state of its previous use, so it must be initialized (init(), initSign() or
+ * initVerify()) before use, and released after use, even if the operation fails.
+ * @author Hokeun Kim
+ */
+public class CryptoPrimitivePool<T> {
+    public static final CryptoPrimitivePool<Cipher> CIPHERS = new CryptoPrimitivePool<>("Cipher", Cipher::getInstance);
+    public static final CryptoPrimitivePool<Mac> MACS = new CryptoPrimitivePool<>("Mac", Mac::getInstance);
+    public static final CryptoPrimitivePool<Signature> SIGNATURES =
+            new CryptoPrimitivePool<>("Signature", Signature::getInstance);
+    public static final CryptoPrimitivePool<KeyFactory> KEY_FACTORIES =
+            new CryptoPrimitivePool<>("KeyFactory", KeyFactory::getInstance);
+    public static final CryptoPrimitivePool<KeyAgreement> KEY_AGREEMENTS =
+            new CryptoPrimitivePool<>("KeyAgreement", KeyAgreement::getInstance);
+
+    /**
+     * Creates a primitive for the given algorithm, through the provider lookup.
+     */
+    public interface Factory<T> {
+        T create(String algorithm) throws GeneralSecurityException;
+    }
+
+    /**
+     * Constructor for a pool of one kind of primitives.
+     * @param name Name of the kind of primitives, for statistics.
+     * @param factory Factory that creates a new primitive for an algorithm.
+     */
+    public CryptoPrimitivePool(String name, Factory<T> factory) {
+        this.name = name;
+        this.factory = factory;
+    }
+
+    /**
+     * Borrows an idle primitive of the given algorithm, or creates one if there is none.
+     * @param algorithm Algorithm (or transformation) of the primitive.
+     * @return The primitive, which must be initialized before use and released after use.
+     * @throws NoSuchAlgorithmException If the algorithm or the padding of the transformation is not supported.
+     */
+    public T borrow(String algorithm) throws NoSuchAlgorithmException {
+        numBorrowed.increment();
+        AtomicReferenceArray<T> stripes = stripesOf(algorithm);
+        int start = stripeIndex();
+        for (int i = 0; i < NUM_PROBES; i++) {
+            T primitive = stripes.getAndSet((start + i) & STRIPE_MASK, null);
+            if (primitive != null) {
+                return primitive;
+            }
+        }
+        numCreated.increment();
+        try {
+            return factory.create(algorithm);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw e;
+        }
+        catch (GeneralSecurityException e) {
+            // for example, NoSuchPaddingException of a cipher transformation
+            throw new NoSuchAlgorithmException("Cannot create " + name + " for " + algorithm, e);
+        }
+    }
+
+    /**
+     * Returns a borrowed primitive to the pool, after which the caller must not use it.
+     * @param algorithm Algorithm the primitive was borrowed for.
+     * @param primitive The borrowed primitive.
+     */
+    public void release(String algorithm, T primitive) {
+        AtomicReferenceArray<T> stripes = stripesOf(algorithm);
+        int start = stripeIndex();
+        for (int i = 0; i < NUM_PROBES; i++) {
+            if (stripes.compareAndSet((start + i) & STRIPE_MASK, null, primitive)) {
+                return;
+            }
+        }
+        numDropped.increment();
+    }
+
+    public String toString() {
+        return name + " borrowed: " + numBorrowed.sum() + ", created: " + numCreated.sum() +
+                ", dropped: " + numDropped.sum() + ", algorithms: " + stripeMap.keySet();
+    }
+
+    /**
+     * Statistics of all pools of crypto primitives.
+     * @return String with statistics of the pools.
+     */
+    public static String statisticsToString() {
+        return CIPHERS + "\n" + MACS + "\n" + SIGNATURES + "\n" + KEY_FACTORIES + "\n" + KEY_AGREEMENTS;
+    }
+
+    private AtomicReferenceArray<T> stripesOf(String algorithm) {
+        AtomicReferenceArray<T> stripes = stripeMap.get(algorithm);
+        if (stripes == null) {
+            stripes = stripeMap.computeIfAbsent(algorithm, key -> new AtomicReferenceArray<>(NUM_STRIPES));
+        }
+        return stripes;
+    }
+
+    private static int stripeIndex() {
+        long threadID = Thread.currentThread().getId();
+        return (int) (threadID ^ (threadID >>> 32)) & STRIPE_MASK;
+    }
+
+    private static int numStripes() {
+        int minStripes = Math.max(16, 2 * Runtime.getRuntime().availableProcessors());
+        return Integer.highestOneBit(minStripes - 1) << 1;
+    }
+
+    private final String name;
+    private final Factory<T> factory;
+    private final Map<String, AtomicReferenceArray<T>> stripeMap = new ConcurrentHashMap<>();
+    private final LongAdder numBorrowed = new LongAdder();
+    private final LongAdder numCreated = new LongAdder();
+    private final LongAdder numDropped = new LongAdder();
+
+    // a power of two, at least twice the number of processors
+    private static final int NUM_STRIPES = numStripes();
+    private static final int STRIPE_MASK = NUM_STRIPES - 1;
+    private static final int NUM_PROBES = 4;
+}
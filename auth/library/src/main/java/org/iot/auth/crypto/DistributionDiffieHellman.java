@@ -38,6 +38,11 @@ import java.util.Date;
  * @author Hokeun Kim
  */
 public class DistributionDiffieHellman {
+    // ephemeral key pairs used for distribution keys of entities with Diffie-Hellman public key crypto specs
+    public static final String KEY_PAIR_ALGORITHM = "EC";
+    public static final String KEY_AGREEMENT_ALGORITHM = "ECDH";
+    public static final int KEY_SIZE = 384;     // secp384r1
+
     /**
      * Constructs an object for distribution key exchange
      * @param distributionCryptoSpec Crypto spec for distribution key to be derived.
@@ -54,14 +59,39 @@ public class DistributionDiffieHellman {
     public DistributionDiffieHellman(SymmetricKeyCryptoSpec distributionCryptoSpec, String keyFactoryAlgorithm,
                                      String keyAgreementAlgorithm, int keySize, long relativeValidityPeriod)
             throws NoSuchAlgorithmException, InvalidKeySpecException, InvalidKeyException {
+        this(distributionCryptoSpec, keyAgreementAlgorithm, generateKeyPair(keyFactoryAlgorithm, keySize),
+                relativeValidityPeriod);
+    }
+
+    /**
+     * Constructs an object for distribution key exchange with a pre-generated ephemeral key pair.
+     * @param distributionCryptoSpec Crypto spec for distribution key to be derived.
+     * @param keyAgreementAlgorithm Algorithm to be used for constructor of KeyAgreement,
+     *                              Allowed algorithms: DiffieHellman, ECDH, ECMQV
+     * @param keyPair Ephemeral key pair, which must not be used for any other key exchange.
+     * @param relativeValidityPeriod The relative validity period for the distribution key to be derived.
+     */
+    public DistributionDiffieHellman(SymmetricKeyCryptoSpec distributionCryptoSpec, String keyAgreementAlgorithm,
+                                     KeyPair keyPair, long relativeValidityPeriod) {
         this.distributionCryptoSpec = distributionCryptoSpec;
         this.keyAgreementAlgorithm = keyAgreementAlgorithm;
-        KeyPairGenerator kpg = KeyPairGenerator.getInstance(keyFactoryAlgorithm);
-        kpg.initialize(keySize);
-        this.keyPair = kpg.generateKeyPair();
+        this.keyPair = keyPair;
         this.expirationTime = new Date(new Date().getTime() + relativeValidityPeriod);
     }
 
+    /**
+     * Generates an ephemeral key pair in the caller's thread.
+     * @param keyFactoryAlgorithm Algorithm of KeyPairGenerator, for example, EC.
+     * @param keySize The key size in number of bits.
+     * @return Generated key pair.
+     * @throws NoSuchAlgorithmException When the algorithm is not supported.
+     */
+    public static KeyPair generateKeyPair(String keyFactoryAlgorithm, int keySize) throws NoSuchAlgorithmException {
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance(keyFactoryAlgorithm);
+        kpg.initialize(keySize, AuthRandom.getSecureRandom());
+        return kpg.generateKeyPair();
+    }
+
     public Buffer getSerializedBuffer() throws InvalidKeyException, IOException {
         Buffer buf = new Buffer(DistributionKey.DIST_KEY_EXPIRATION_TIME_SIZE);
         int curIndex = 0;
@@ -89,24 +119,31 @@ public class DistributionDiffieHellman {
     }
 
     private PublicKey getPublicKeyFromBytes(byte[] pubKey) throws NoSuchAlgorithmException, InvalidKeySpecException {
-        ECNamedCurveParameterSpec spec = ECNamedCurveTable.getParameterSpec("secp384r1");
-        KeyFactory keyFactory = KeyFactory.getInstance("ECDH", new BouncyCastleProvider());
-
-        ECNamedCurveSpec params = new ECNamedCurveSpec("secp384r1", spec.getCurve(), spec.getG(), spec.getN());
-        ECPoint point =  ECPointUtil.decodePoint(params.getCurve(), pubKey);
-        ECPublicKeySpec pubKeySpec = new ECPublicKeySpec(point, params);
-        ECPublicKey ecPublicKey = (ECPublicKey) keyFactory.generatePublic(pubKeySpec);
-        return ecPublicKey;
+        ECPoint point =  ECPointUtil.decodePoint(CURVE_PARAMS.getCurve(), pubKey);
+        ECPublicKeySpec pubKeySpec = new ECPublicKeySpec(point, CURVE_PARAMS);
+        KeyFactory keyFactory = EC_KEY_FACTORIES.borrow(EC_KEY_FACTORY_ALGORITHM);
+        try {
+            ECPublicKey ecPublicKey = (ECPublicKey) keyFactory.generatePublic(pubKeySpec);
+            return ecPublicKey;
+        }
+        finally {
+            EC_KEY_FACTORIES.release(EC_KEY_FACTORY_ALGORITHM, keyFactory);
+        }
     }
 
     public DistributionKey deriveDistributionKey(Buffer entityPublicParameterBuffer)
             throws NoSuchAlgorithmException, InvalidKeySpecException, InvalidKeyException {
         PublicKey entityPublicParameter = getPublicKeyFromBytes(entityPublicParameterBuffer.getRawBytes());
-        KeyAgreement keyAgreement = KeyAgreement.getInstance(keyAgreementAlgorithm);
-
-        keyAgreement.init(keyPair.getPrivate());
-        keyAgreement.doPhase(entityPublicParameter, true);
-        Buffer sharedSecret = new Buffer(keyAgreement.generateSecret());
+        KeyAgreement keyAgreement = CryptoPrimitivePool.KEY_AGREEMENTS.borrow(keyAgreementAlgorithm);
+        Buffer sharedSecret;
+        try {
+            keyAgreement.init(keyPair.getPrivate());
+            keyAgreement.doPhase(entityPublicParameter, true);
+            sharedSecret = new Buffer(keyAgreement.generateSecret());
+        }
+        finally {
+            CryptoPrimitivePool.KEY_AGREEMENTS.release(keyAgreementAlgorithm, keyAgreement);
+        }
         Buffer cipherKeyVal = sharedSecret.slice(0, distributionCryptoSpec.getCipherKeySize());
         Buffer macKeyVal = sharedSecret.slice(distributionCryptoSpec.getCipherKeySize(),
                 distributionCryptoSpec.getCipherKeySize() + distributionCryptoSpec.getMacKeySize());
@@ -122,4 +159,17 @@ public class DistributionDiffieHellman {
     private KeyPair keyPair;
     private String keyAgreementAlgorithm;
     private SymmetricKeyCryptoSpec distributionCryptoSpec;
+
+    private static final String CURVE_NAME = "secp384r1";
+    private static final String EC_KEY_FACTORY_ALGORITHM = "ECDH";
+    // curve parameters and the provider are immutable, so they are shared by all key exchanges
+    private static final ECNamedCurveSpec CURVE_PARAMS = newCurveParams();
+    private static final Provider BOUNCY_CASTLE_PROVIDER = new BouncyCastleProvider();
+    private static final CryptoPrimitivePool<KeyFactory> EC_KEY_FACTORIES = new CryptoPrimitivePool<>(
+            "BouncyCastle KeyFactory", algorithm -> KeyFactory.getInstance(algorithm, BOUNCY_CASTLE_PROVIDER));
+
+    private static ECNamedCurveSpec newCurveParams() {
+        ECNamedCurveParameterSpec spec = ECNamedCurveTable.getParameterSpec(CURVE_NAME);
+        return new ECNamedCurveSpec(CURVE_NAME, spec.getCurve(), spec.getG(), spec.getN());
+    }
 }
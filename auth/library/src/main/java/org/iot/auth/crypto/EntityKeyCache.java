@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.crypto;
+
+import org.iot.auth.io.Buffer;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of decoded public keys and ready-to-use signature verifiers of registered entities, keyed by entity name,
+ * so that public key handshakes of the same entity do not decode its public key or initialize a verifier again.
+ * <p>
+ * A cached public key is used only if the encoded public key given by the caller is the same as the cached one,
+ * and a cached verifier only if it was initialized with the public key given by the caller, so changed public keys
+ * are never used from the cache. Still, the cache is invalidated whenever registered entities are reloaded, to drop
+ * entries of entities that no longer exist.
+ * <p>
+ * Each entity keeps one idle verifier, as a verifier returns to its initialized state after verify(). Concurrent
+ * verifications for the same entity borrow verifiers from the CryptoPrimitivePool instead.
+ * @author Hokeun Kim
+ */
+public class EntityKeyCache {
+    /**
+     * Gets the decoded public key of the given entity, decoding it only if it is not cached.
+     * @param entityName Name of the registered entity.
+     * @param publicKeyVal Encoded (X.509) public key of the entity.
+     * @return Decoded public key.
+     */
+    public static PublicKey getPublicKey(String entityName, byte[] publicKeyVal) {
+        Entry entry = entryMap.get(entityName);
+        if (entry != null && (entry.publicKeyVal == publicKeyVal || Arrays.equals(entry.publicKeyVal, publicKeyVal))) {
+            numPublicKeyHits.increment();
+            return entry.publicKey;
+        }
+        numPublicKeyMisses.increment();
+        PublicKey publicKey = AuthCrypto.loadPublicKeyFromBytes(publicKeyVal);
+        entryMap.put(entityName, new Entry(publicKeyVal, publicKey));
+        return publicKey;
+    }
+
+    /**
+     * Check if a signature of the given entity is valid, with the entity's cached verifier if there is one.
+     * @param entityName Name of the registered entity.
+     * @param publicKey Public key of the entity.
+     * @param signAlgorithm Signature algorithm.
+     * @param data Data used to generate signature.
+     * @param signature A digital signature to be verified.
+     * @return Whether the signature is verified.
+     * @throws NoSuchAlgorithmException If the signature algorithm is invalid.
+     * @throws InvalidKeyException If the key is not valid.
+     * @throws SignatureException If the signature is not valid.
+     */
+    public static boolean verify(String entityName, PublicKey publicKey, String signAlgorithm, Buffer data,
+                                 Buffer signature)
+            throws NoSuchAlgorithmException, InvalidKeyException, SignatureException
+    {
+        Entry entry = entryMap.get(entityName);
+        if (entry != null && entry.publicKey != publicKey) {
+            // cached for another public key of the entity
+            entry = null;
+        }
+        Signature verifier = null;
+        if (entry != null) {
+            verifier = entry.idleVerifier.getAndSet(null);
+            if (verifier != null && !verifier.getAlgorithm().equals(signAlgorithm)) {
+                CryptoPrimitivePool.SIGNATURES.release(verifier.getAlgorithm(), verifier);
+                verifier = null;
+            }
+        }
+        if (verifier != null) {
+            numVerifierHits.increment();
+        }
+        else {
+            numVerifierMisses.increment();
+            verifier = CryptoPrimitivePool.SIGNATURES.borrow(signAlgorithm);
+            try {
+                verifier.initVerify(publicKey);
+            }
+            catch (InvalidKeyException e) {
+                CryptoPrimitivePool.SIGNATURES.release(signAlgorithm, verifier);
+                throw e;
+            }
+        }
+        boolean verified;
+        try {
+            verifier.update(data.getRawBytes());
+            verified = verifier.verify(signature.getRawBytes());
+        }
+        catch (SignatureException | RuntimeException e) {
+            // The verifier may be left in the middle of an update, so it is not kept for the entity.
+            CryptoPrimitivePool.SIGNATURES.release(signAlgorithm, verifier);
+            throw e;
+        }
+        if (entry == null || !entry.idleVerifier.compareAndSet(null, verifier)) {
+            CryptoPrimitivePool.SIGNATURES.release(signAlgorithm, verifier);
+        }
+        return verified;
+    }
+
+    /**
+     * Removes the cached public key and verifier of the given entity.
+     * @param entityName Name of the registered entity.
+     */
+    public static void invalidate(String entityName) {
+        entryMap.remove(entityName);
+    }
+
+    /**
+     * Removes all cached public keys and verifiers, when registered entities are reloaded.
+     */
+    public static void invalidateAll() {
+        entryMap.clear();
+        numInvalidations.increment();
+    }
+
+    public static long getNumPublicKeyHits() {
+        return numPublicKeyHits.sum();
+    }
+    public static long getNumPublicKeyMisses() {
+        return numPublicKeyMisses.sum();
+    }
+    public static long getNumVerifierHits() {
+        return numVerifierHits.sum();
+    }
+    public static long getNumVerifierMisses() {
+        return numVerifierMisses.sum();
+    }
+
+    /**
+     * Statistics of the cache.
+     * @return String with statistics of the cache.
+     */
+    public static String statisticsToString() {
+        return "entities: " + entryMap.size() + ", public key hits: " + numPublicKeyHits.sum() +
+                ", public key misses: " + numPublicKeyMisses.sum() + ", verifier hits: " + numVerifierHits.sum() +
+                ", verifier misses: " + numVerifierMisses.sum() + ", invalidations: " + numInvalidations.sum();
+    }
+
+    private static class Entry {
+        Entry(byte[] publicKeyVal, PublicKey publicKey) {
+            this.publicKeyVal = publicKeyVal;
+            this.publicKey = publicKey;
+        }
+        private final byte[] publicKeyVal;
+        private final PublicKey publicKey;
+        private final AtomicReference<Signature> idleVerifier = new AtomicReference<>(null);
+    }
+
+    private static final Map<String, Entry> entryMap = new ConcurrentHashMap<>();
+    private static final LongAdder numPublicKeyHits = new LongAdder();
+    private static final LongAdder numPublicKeyMisses = new LongAdder();
+    private static final LongAdder numVerifierHits = new LongAdder();
+    private static final LongAdder numVerifierMisses = new LongAdder();
+    private static final LongAdder numInvalidations = new LongAdder();
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.crypto;
+
+import org.iot.auth.util.ExceptionToString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of pre-generated ephemeral key pairs for Diffie-Hellman distribution key exchanges, one per key pair
+ * algorithm and key size, so that handshakes only need to perform the key agreement on the request path.
+ * Each key pair is taken from the pool at most once, so it is still ephemeral.
+ * <p>
+ * The pool size adapts to the observed handshake rate. Every adaptation interval, the target size is set to the
+ * number of handshakes expected within the refill horizon, bounded by the given minimum and maximum sizes, and the
+ * pool is refilled by a background thread whenever it drops below half of its target size.
+ * @author Hokeun Kim
+ */
+public class EphemeralKeyPairPool {
+    private static final Logger logger = LoggerFactory.getLogger(EphemeralKeyPairPool.class);
+
+    /**
+     * Constructor for the ephemeral key pair pool.
+     * @param minSize Minimum target number of key pairs per algorithm and key size.
+     * @param maxSize Maximum target number of key pairs per algorithm and key size.
+     */
+    public EphemeralKeyPairPool(int minSize, int maxSize) {
+        if (minSize <= 0 || maxSize < minSize) {
+            throw new IllegalArgumentException("Invalid sizes for ephemeral key pair pool, min: " + minSize +
+                    ", max: " + maxSize);
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.specPoolMap = new ConcurrentHashMap<>();
+        this.refillExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "EphemeralKeyPairPoolRefiller");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Registers an algorithm and key size to be pooled, and starts filling its pool in the background.
+     * Registering one that is already registered has no effect.
+     * @param algorithm Key pair algorithm, for example, EC.
+     * @param keySize Key size in bits.
+     */
+    public void register(String algorithm, int keySize) {
+        SpecPool specPool = getSpecPool(algorithm, keySize);
+        requestRefillIfNeeded(specPool);
+    }
+
+    /**
+     * Takes a key pair from the pool of the given algorithm and key size. If the pool is empty, a key pair is
+     * generated in the caller's thread.
+     * @param algorithm Key pair algorithm, for example, EC.
+     * @param keySize Key size in bits.
+     * @return A key pair that is not given to any other caller.
+     * @throws NoSuchAlgorithmException If the algorithm is not supported.
+     */
+    public KeyPair take(String algorithm, int keySize) throws NoSuchAlgorithmException {
+        SpecPool specPool = getSpecPool(algorithm, keySize);
+        specPool.numTaken.incrementAndGet();
+        KeyPair keyPair = specPool.keyPairQueue.poll();
+        if (keyPair != null) {
+            specPool.size.decrementAndGet();
+            numHits.incrementAndGet();
+        }
+        else {
+            keyPair = DistributionDiffieHellman.generateKeyPair(algorithm, keySize);
+            numMisses.incrementAndGet();
+        }
+        adaptTargetSizeIfDue(specPool);
+        requestRefillIfNeeded(specPool);
+        return keyPair;
+    }
+
+    /**
+     * Stops the background refill thread. Remaining key pairs are discarded.
+     */
+    public void shutdown() {
+        refillExecutor.shutdownNow();
+        for (SpecPool specPool : specPoolMap.values()) {
+            while (specPool.keyPairQueue.poll() != null) {
+                specPool.size.decrementAndGet();
+            }
+        }
+        specPoolMap.clear();
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("min size: " + minSize + ", max size: " + maxSize);
+        sb.append(", hits: " + numHits.get() + ", misses: " + numMisses.get());
+        sb.append(", generated in background: " + numGenerated.get());
+        for (Map.Entry<String, SpecPool> entry : specPoolMap.entrySet()) {
+            SpecPool specPool = entry.getValue();
+            sb.append("\n  " + entry.getKey() + ": " + specPool.size.get() + ", target: " + specPool.targetSize +
+                    ", handshakes per second: " + String.format("%.1f", specPool.handshakeRate));
+        }
+        return sb.toString();
+    }
+
+    public int getTargetSize(String algorithm, int keySize) {
+        return getSpecPool(algorithm, keySize).targetSize;
+    }
+
+    private SpecPool getSpecPool(String algorithm, int keySize) {
+        return specPoolMap.computeIfAbsent(algorithm + "-" + keySize,
+                specString -> new SpecPool(algorithm, keySize, minSize));
+    }
+
+    /**
+     * Updates the smoothed handshake rate and the target size, at most once per adaptation interval.
+     */
+    private void adaptTargetSizeIfDue(SpecPool specPool) {
+        long now = System.nanoTime();
+        long lastAdaptation = specPool.lastAdaptationNanos.get();
+        long elapsed = now - lastAdaptation;
+        if (elapsed < ADAPTATION_INTERVAL_NANOS || !specPool.lastAdaptationNanos.compareAndSet(lastAdaptation, now)) {
+            return;
+        }
+        double rate = specPool.numTaken.getAndSet(0) * 1e9 / elapsed;
+        specPool.handshakeRate = RATE_SMOOTHING * rate + (1 - RATE_SMOOTHING) * specPool.handshakeRate;
+        int targetSize = (int) Math.ceil(specPool.handshakeRate * REFILL_HORIZON_SECONDS);
+        specPool.targetSize = Math.max(minSize, Math.min(maxSize, targetSize));
+    }
+
+    private void requestRefillIfNeeded(SpecPool specPool) {
+        if (specPool.size.get() >= (specPool.targetSize + 1) / 2 || !specPool.isRefilling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refillExecutor.execute(() -> refill(specPool));
+        }
+        catch (RejectedExecutionException e) {
+            // Pool is shut down, key pairs will be generated in callers' threads.
+            specPool.isRefilling.set(false);
+        }
+    }
+
+    private void refill(SpecPool specPool) {
+        try {
+            if (specPool.keyPairGenerator == null) {
+                // only used by the refill thread
+                specPool.keyPairGenerator = KeyPairGenerator.getInstance(specPool.algorithm);
+                specPool.keyPairGenerator.initialize(specPool.keySize, AuthRandom.getSecureRandom());
+            }
+            while (specPool.size.get() < specPool.targetSize && !Thread.currentThread().isInterrupted()) {
+                specPool.keyPairQueue.add(specPool.keyPairGenerator.generateKeyPair());
+                specPool.size.incrementAndGet();
+                numGenerated.incrementAndGet();
+            }
+        }
+        catch (NoSuchAlgorithmException | RuntimeException e) {
+            logger.error("Failed to refill ephemeral key pair pool for {}-{}: {}", specPool.algorithm,
+                    specPool.keySize, ExceptionToString.convertExceptionToStackTrace(e));
+        }
+        finally {
+            specPool.isRefilling.set(false);
+        }
+    }
+
+    private static class SpecPool {
+        SpecPool(String algorithm, int keySize, int initialTargetSize) {
+            this.algorithm = algorithm;
+            this.keySize = keySize;
+            this.targetSize = initialTargetSize;
+        }
+        private final String algorithm;
+        private final int keySize;
+        private final ConcurrentLinkedQueue<KeyPair> keyPairQueue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger(0);
+        private final AtomicBoolean isRefilling = new AtomicBoolean(false);
+        private final AtomicLong numTaken = new AtomicLong(0);
+        private final AtomicLong lastAdaptationNanos = new AtomicLong(System.nanoTime());
+        private volatile double handshakeRate = 0;
+        private volatile int targetSize;
+        private KeyPairGenerator keyPairGenerator = null;
+    }
+
+    private final int minSize;
+    private final int maxSize;
+    private final Map<String, SpecPool> specPoolMap;
+    private final ExecutorService refillExecutor;
+    private final AtomicLong numHits = new AtomicLong(0);
+    private final AtomicLong numMisses = new AtomicLong(0);
+    private final AtomicLong numGenerated = new AtomicLong(0);
+
+    private static final long ADAPTATION_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // the pool holds key pairs for the handshakes expected within this many seconds
+    private static final double REFILL_HORIZON_SECONDS = 2.0;
+    // weight of the latest interval in the smoothed handshake rate
+    private static final double RATE_SMOOTHING = 0.5;
+}
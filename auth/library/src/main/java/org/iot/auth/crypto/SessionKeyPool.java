@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.crypto;
+
+import org.iot.auth.io.Buffer;
+import org.iot.auth.util.ExceptionToString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of pre-generated session key values, one per symmetric crypto spec used by communication policies.
+ * Key values are generated by a background thread whenever a pool drops below its low watermark, until it
+ * reaches its high watermark, so that session key requests only need to pop already generated key values.
+ * Key values in the pool are not bound to any expiration time; the expiration time is set when a key is issued.
+ * @author Hokeun Kim
+ */
+public class SessionKeyPool {
+    private static final Logger logger = LoggerFactory.getLogger(SessionKeyPool.class);
+
+    /**
+     * Constructor for the session key pool.
+     * @param lowWatermark Number of key values per crypto spec below which the pool is refilled.
+     * @param highWatermark Number of key values per crypto spec up to which the pool is refilled.
+     */
+    public SessionKeyPool(int lowWatermark, int highWatermark) {
+        if (lowWatermark < 0 || highWatermark <= 0 || lowWatermark > highWatermark) {
+            throw new IllegalArgumentException("Invalid watermarks for session key pool, low: " + lowWatermark +
+                    ", high: " + highWatermark);
+        }
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        this.specPoolMap = new ConcurrentHashMap<>();
+        this.refillExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SessionKeyPoolRefiller");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Registers a crypto spec to be pooled, and starts filling its pool in the background.
+     * Registering a crypto spec that is already registered has no effect.
+     * @param cryptoSpec Crypto spec of session keys, specified by a communication policy.
+     * @throws IllegalArgumentException If keys of the crypto spec cannot be generated.
+     */
+    public void register(SymmetricKeyCryptoSpec cryptoSpec) {
+        // Fails here rather than in the background thread filling the pool.
+        cryptoSpec.checkKeyGeneration();
+        SpecPool specPool = getSpecPool(cryptoSpec);
+        requestRefillIfNeeded(specPool);
+    }
+
+    /**
+     * Takes the given number of key values from the pool of the given crypto spec. If the pool does not have
+     * enough key values, the missing ones are generated in the caller's thread.
+     * @param cryptoSpec Crypto spec of the session keys to be issued.
+     * @param numKeys Number of key values to be taken.
+     * @return A list of serialized key values.
+     */
+    public List<Buffer> take(SymmetricKeyCryptoSpec cryptoSpec, int numKeys) {
+        SpecPool specPool = getSpecPool(cryptoSpec);
+        List<Buffer> keyValList = new ArrayList<>(numKeys);
+        for (int i = 0; i < numKeys; i++) {
+            Buffer keyVal = specPool.keyValQueue.poll();
+            if (keyVal != null) {
+                specPool.size.decrementAndGet();
+                numHits.incrementAndGet();
+            }
+            else {
+                keyVal = SymmetricKey.generateSerializedKeyVal(cryptoSpec);
+                numMisses.incrementAndGet();
+            }
+            keyValList.add(keyVal);
+        }
+        requestRefillIfNeeded(specPool);
+        return keyValList;
+    }
+
+    /**
+     * Removes all pooled key values, for example, when communication policies are reloaded.
+     */
+    public void clear() {
+        for (SpecPool specPool : specPoolMap.values()) {
+            while (specPool.keyValQueue.poll() != null) {
+                specPool.size.decrementAndGet();
+            }
+        }
+        specPoolMap.clear();
+    }
+
+    /**
+     * Stops the background refill thread. Remaining key values are discarded.
+     */
+    public void shutdown() {
+        refillExecutor.shutdownNow();
+        clear();
+    }
+
+    public int getNumPooledKeys() {
+        int numPooledKeys = 0;
+        for (SpecPool specPool : specPoolMap.values()) {
+            numPooledKeys += specPool.size.get();
+        }
+        return numPooledKeys;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("low watermark: " + lowWatermark + ", high watermark: " + highWatermark);
+        sb.append(", hits: " + numHits.get() + ", misses: " + numMisses.get());
+        sb.append(", generated in background: " + numGenerated.get());
+        for (Map.Entry<String, SpecPool> entry : specPoolMap.entrySet()) {
+            sb.append("\n  " + entry.getKey() + ": " + entry.getValue().size.get());
+        }
+        return sb.toString();
+    }
+
+    private SpecPool getSpecPool(SymmetricKeyCryptoSpec cryptoSpec) {
+        return specPoolMap.computeIfAbsent(cryptoSpec.toSpecString(), specString -> new SpecPool(cryptoSpec));
+    }
+
+    private void requestRefillIfNeeded(SpecPool specPool) {
+        if (specPool.size.get() >= lowWatermark || !specPool.isRefilling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refillExecutor.execute(() -> refill(specPool));
+        }
+        catch (RejectedExecutionException e) {
+            // Pool is shut down, keys will be generated in callers' threads.
+            specPool.isRefilling.set(false);
+        }
+    }
+
+    private void refill(SpecPool specPool) {
+        try {
+            while (specPool.size.get() < highWatermark && !Thread.currentThread().isInterrupted()) {
+                specPool.keyValQueue.add(SymmetricKey.generateSerializedKeyVal(specPool.cryptoSpec));
+                specPool.size.incrementAndGet();
+                numGenerated.incrementAndGet();
+            }
+        }
+        catch (RuntimeException e) {
+            logger.error("Failed to refill session key pool for {}: {}", specPool.cryptoSpec.toSpecString(),
+                    ExceptionToString.convertExceptionToStackTrace(e));
+        }
+        finally {
+            specPool.isRefilling.set(false);
+        }
+    }
+
+    private static class SpecPool {
+        SpecPool(SymmetricKeyCryptoSpec cryptoSpec) {
+            this.cryptoSpec = cryptoSpec;
+        }
+        private final SymmetricKeyCryptoSpec cryptoSpec;
+        private final ConcurrentLinkedQueue<Buffer> keyValQueue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger(0);
+        private final AtomicBoolean isRefilling = new AtomicBoolean(false);
+    }
+
+    private final int lowWatermark;
+    private final int highWatermark;
+    private final Map<String, SpecPool> specPoolMap;
+    private final ExecutorService refillExecutor;
+    private final AtomicLong numHits = new AtomicLong(0);
+    private final AtomicLong numMisses = new AtomicLong(0);
+    private final AtomicLong numGenerated = new AtomicLong(0);
+}
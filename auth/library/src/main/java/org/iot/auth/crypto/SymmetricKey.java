@@ -28,9 +28,15 @@ import javax.crypto.*;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Date;
 
@@ -45,10 +51,12 @@ public class SymmetricKey {
     private Buffer macKeyVal = null;
     private Date expirationTime;
     private SymmetricKeyCryptoSpec cryptoSpec;
-    private Cipher cipher = null;
-    private Mac mac = null;
+    // Cipher and Mac objects are borrowed from CryptoPrimitivePool for each operation, so that a key can be used
+    // by concurrent threads.
     private SecretKey cipherKey = null;
+    private SecretKey macKey = null;
     protected static final Logger logger = LoggerFactory.getLogger(SymmetricKey.class);
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
     /**
      * Constructor with given key value
      * @param cryptoSpec Given cryptography specification for the symmetric key.
@@ -82,6 +90,13 @@ public class SymmetricKey {
         if (curIndex != serializedKeyVal.length()) {
             throw new RuntimeException("Wrong key size!");
         }
+        if (cipherKeyVal != null) {
+            this.cipherKey = new SecretKeySpec(cipherKeyVal.getRawBytes(),
+                    cryptoSpec.getCipherAlgorithm().split("/")[0]);
+        }
+        if (macKeyVal != null) {
+            this.macKey = new SecretKeySpec(macKeyVal.getRawBytes(), cryptoSpec.getMacAlgorithm());
+        }
     }
 
     /**
@@ -90,8 +105,19 @@ public class SymmetricKey {
      * @param expirationTime Expiration time of the symmetric key.
      */
     public SymmetricKey(SymmetricKeyCryptoSpec cryptoSpec, long expirationTime) {
-        this(cryptoSpec, expirationTime,
-                getSerializedKeyVal(generateCipherKeyValue(cryptoSpec), generateMacKeyValue(cryptoSpec)));
+        this(cryptoSpec, expirationTime, generateSerializedKeyVal(cryptoSpec));
+    }
+
+    /**
+     * Generates a new serialized key value (encryption and MAC keys) for the given crypto spec,
+     * without binding it to an expiration time.
+     * @param cryptoSpec Given cryptography specification for the symmetric key.
+     * @return Serialized key value which can be used for constructing a symmetric key.
+     * @throws IllegalArgumentException If keys of the crypto spec cannot be generated.
+     */
+    public static Buffer generateSerializedKeyVal(SymmetricKeyCryptoSpec cryptoSpec) {
+        cryptoSpec.checkKeyGeneration();
+        return getSerializedKeyVal(generateCipherKeyValue(cryptoSpec), generateMacKeyValue(cryptoSpec));
     }
 
     public boolean isMacOnly() {
@@ -138,83 +164,88 @@ public class SymmetricKey {
         return macKeyVal;
     }
 
+    // AES and HMAC keys are uniformly random bytes, as generated by their KeyGenerators.
     private static Buffer generateCipherKeyValue(SymmetricKeyCryptoSpec cryptoSpec) {
-        String[] cipherAlgoTokens = cryptoSpec.getCipherAlgorithm().split("/");
-        KeyGenerator keyGenerator;
-        try {
-            // TODO: support more cryptos
-            keyGenerator = KeyGenerator.getInstance(cipherAlgoTokens[0]);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Failed to generate a cipher key! \n" + e.getMessage());
-        }
-        keyGenerator.init(8 * cryptoSpec.getCipherKeySize());
-        SecretKey key = keyGenerator.generateKey();
-        return new Buffer(key.getEncoded());
+        return AuthRandom.getRandomBytes(cryptoSpec.getCipherKeySize());
     }
 
     private static Buffer generateMacKeyValue(SymmetricKeyCryptoSpec cryptoSpec) {
-        KeyGenerator keyGenerator;
-        try {
-            keyGenerator = KeyGenerator.getInstance(cryptoSpec.getMacAlgorithm());
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Failed to generate a MAC key! \n" + e.getMessage());
-        }
-        keyGenerator.init(8 * cryptoSpec.getMacKeySize());
-        SecretKey key = keyGenerator.generateKey();
-        return new Buffer(key.getEncoded());
+        return AuthRandom.getRandomBytes(cryptoSpec.getMacKeySize());
     }
 
-    private void initializeMac() {
+    /**
+     * Borrows a Mac object from the pool, initialized with the MAC key.
+     */
+    private Mac borrowMac() {
+        Mac mac;
         try {
-            mac = Mac.getInstance(cryptoSpec.getMacAlgorithm());
+            mac = CryptoPrimitivePool.MACS.borrow(cryptoSpec.getMacAlgorithm());
         } catch (NoSuchAlgorithmException e) {
             logger.error("Exception {}", ExceptionToString.convertExceptionToStackTrace(e));
             throw new RuntimeException("Exception occurred while initializing MAC object!");
         }
-        SecretKey macKey = new SecretKeySpec(macKeyVal.getRawBytes(), mac.getAlgorithm());
         try {
             mac.init(macKey);
         } catch (InvalidKeyException e) {
+            releaseMac(mac);
             logger.error("Exception {}", ExceptionToString.convertExceptionToStackTrace(e));
             throw new RuntimeException("Exception occurred while initializing MAC object!");
         }
+        return mac;
+    }
+
+    private void releaseMac(Mac mac) {
+        CryptoPrimitivePool.MACS.release(cryptoSpec.getMacAlgorithm(), mac);
     }
 
-    private void initializeCipherMac() {
+    /**
+     * Borrows a Cipher object from the pool, which is initialized by the caller for encryption or decryption.
+     */
+    private Cipher borrowCipher() {
         try {
-            cipher = Cipher.getInstance(cryptoSpec.getCipherAlgorithm());
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            return CryptoPrimitivePool.CIPHERS.borrow(cryptoSpec.getCipherAlgorithm());
+        } catch (NoSuchAlgorithmException e) {
             logger.error("Exception {}", ExceptionToString.convertExceptionToStackTrace(e));
             throw new RuntimeException("Exception occurred while initializing cipher!");
         }
-        String[] cipherAlgoTokens = cipher.getAlgorithm().split("/");
-        cipherKey = new SecretKeySpec(cipherKeyVal.getRawBytes(), cipherAlgoTokens[0]);
-        initializeMac();
+    }
+
+    private void releaseCipher(Cipher cipher) {
+        CryptoPrimitivePool.CIPHERS.release(cryptoSpec.getCipherAlgorithm(), cipher);
     }
 
     public Buffer authenticateAttachMac(Buffer input) throws UseOfExpiredKeyException {
         if (isExpired()) {
             throw new UseOfExpiredKeyException("Trying to use an expired key!");
         }
-        if (mac == null) {
-            initializeMac();
+        Mac mac = borrowMac();
+        try {
+            Buffer buffer = new Buffer(input);
+            Buffer tag = new Buffer(mac.doFinal(input.getRawBytes()));
+            buffer.concat(tag);
+            return buffer;
+        }
+        finally {
+            releaseMac(mac);
         }
-        Buffer buffer = new Buffer(input);
-        Buffer tag = new Buffer(mac.doFinal(input.getRawBytes()));
-        buffer.concat(tag);
-        return buffer;
     }
 
     public Buffer verifyMacExtractData(Buffer input) throws UseOfExpiredKeyException, InvalidMacException {
         if (isExpired()) {
             throw new UseOfExpiredKeyException("Trying to use an expired key!");
         }
-        if (mac == null) {
-            initializeMac();
+        Mac mac = borrowMac();
+        Buffer data;
+        Buffer receivedTag;
+        Buffer computedTag;
+        try {
+            data = input.slice(0, input.length() - mac.getMacLength());
+            receivedTag = input.slice(input.length() - mac.getMacLength());
+            computedTag = new Buffer(mac.doFinal(data.getRawBytes()));
+        }
+        finally {
+            releaseMac(mac);
         }
-        Buffer data = input.slice(0, input.length() - mac.getMacLength());
-        Buffer receivedTag = input.slice(input.length() - mac.getMacLength());
-        Buffer computedTag = new Buffer(mac.doFinal(data.getRawBytes()));
         if (!receivedTag.equals(computedTag)) {
             throw new InvalidMacException("MAC of session key request is NOT correct!");
         }
@@ -228,11 +259,11 @@ public class SymmetricKey {
         if (isExpired()) {
             throw new UseOfExpiredKeyException("Trying to use an expired key!");
         }
-        if (cipher == null || mac == null) {
-            initializeCipherMac();
-        }
+        Cipher cipher = borrowCipher();
+        Mac mac = null;
         try {
-            cipher.init(Cipher.ENCRYPT_MODE, cipherKey);
+            mac = borrowMac();
+            cipher.init(Cipher.ENCRYPT_MODE, cipherKey, AuthRandom.getSecureRandom());
 
             ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
             // write initialization vector first
@@ -252,6 +283,12 @@ public class SymmetricKey {
             logger.error("Exception {}", ExceptionToString.convertExceptionToStackTrace(e));
             throw new RuntimeException("Exception occurred while performing encryptAuthenticate!");
         }
+        finally {
+            releaseCipher(cipher);
+            if (mac != null) {
+                releaseMac(mac);
+            }
+        }
     }
 
     public Buffer decryptVerify(Buffer input) throws InvalidMacException, MessageIntegrityException,
@@ -262,44 +299,205 @@ public class SymmetricKey {
         if (isExpired()) {
             throw new UseOfExpiredKeyException("Trying to use an expired key!");
         }
-        if (cipher == null || mac == null) {
-            initializeCipherMac();
+        Buffer encrypted;
+        Buffer receivedTag;
+        Buffer computedTag;
+        Mac mac = borrowMac();
+        try {
+            encrypted = input.slice(0, input.length() - mac.getMacLength());
+            receivedTag = input.slice(input.length() - mac.getMacLength());
+            computedTag = new Buffer(mac.doFinal(encrypted.getRawBytes()));
+        }
+        finally {
+            releaseMac(mac);
         }
-        Buffer encrypted = input.slice(0, input.length() - mac.getMacLength());
-        Buffer receivedTag = input.slice(input.length() - mac.getMacLength());
-        Buffer computedTag = new Buffer(mac.doFinal(encrypted.getRawBytes()));
         if (!receivedTag.equals(computedTag)) {
             throw new InvalidMacException("MAC of session key request is NOT correct!");
         }
 
-        int blockSize = cipher.getBlockSize();
-        byte[] initVector = encrypted.slice(0, blockSize).getRawBytes();
-        IvParameterSpec ivSpec = new IvParameterSpec(initVector);
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        Cipher cipher = borrowCipher();
         try {
-            cipher.init(Cipher.DECRYPT_MODE, cipherKey, ivSpec);
-        } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
-            logger.error("InvalidKeyException | InvalidAlgorithmParameterException {}",
-                    ExceptionToString.convertExceptionToStackTrace(e));
-            throw new RuntimeException("Exception occurred while performing decryptVerify!");
+            int blockSize = cipher.getBlockSize();
+            byte[] initVector = encrypted.slice(0, blockSize).getRawBytes();
+            IvParameterSpec ivSpec = new IvParameterSpec(initVector);
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, cipherKey, ivSpec);
+            } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+                logger.error("InvalidKeyException | InvalidAlgorithmParameterException {}",
+                        ExceptionToString.convertExceptionToStackTrace(e));
+                throw new RuntimeException("Exception occurred while performing decryptVerify!");
+            }
+
+            int ivSize = 0;
+            if (cipher.getIV() != null) {
+                ivSize = cipher.getIV().length;
+            }
+
+            try {
+                byteArrayOutputStream.write(cipher.doFinal(encrypted.getRawBytes(), ivSize, encrypted.length() - ivSize));
+            } catch (IOException e) {
+                logger.error("IOException {}", ExceptionToString.convertExceptionToStackTrace(e));
+                throw new RuntimeException("Exception occurred while performing decryptVerify!");
+            } catch (IllegalBlockSizeException | BadPaddingException e) {
+                logger.error("IllegalBlockSizeException | BadPaddingException {}",
+                        ExceptionToString.convertExceptionToStackTrace(e));
+                throw new MessageIntegrityException("Integrity error occurred during decryptVerify!");
+            }
+        }
+        finally {
+            releaseCipher(cipher);
         }
+        return new Buffer(byteArrayOutputStream.toByteArray());
+    }
 
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        int ivSize = 0;
-        if (cipher.getIV() != null) {
-            ivSize = cipher.getIV().length;
+    /**
+     * Streaming version of encryptAuthenticate(Buffer), for inputs too large to be kept in memory. The output has
+     * the same format: initialization vector, ciphertext and MAC of the initialization vector and the ciphertext.
+     * @param input Stream of plaintext, read until its end.
+     * @param output Stream where the initialization vector, ciphertext and MAC are written.
+     * @throws UseOfExpiredKeyException When the key is expired.
+     * @throws InvalidSymmetricKeyOperationException When the key is MAC only.
+     * @throws IOException When an error occurs in IO.
+     */
+    public void encryptAuthenticate(InputStream input, OutputStream output)
+            throws UseOfExpiredKeyException, InvalidSymmetricKeyOperationException, IOException
+    {
+        if (isMacOnly()) {
+            throw new InvalidSymmetricKeyOperationException("Encryption is invalid for MAC only session key!");
+        }
+        if (isExpired()) {
+            throw new UseOfExpiredKeyException("Trying to use an expired key!");
+        }
+        Cipher cipher = borrowCipher();
+        Mac mac = null;
+        try {
+            mac = borrowMac();
+            cipher.init(Cipher.ENCRYPT_MODE, cipherKey, AuthRandom.getSecureRandom());
+            // write initialization vector first
+            byte[] initVector = cipher.getIV();
+            if (initVector != null) {
+                output.write(initVector);
+                mac.update(initVector);
+            }
+            byte[] inputBuffer = new byte[STREAM_BUFFER_SIZE];
+            byte[] outputBuffer = new byte[cipher.getOutputSize(STREAM_BUFFER_SIZE)];
+            int numRead;
+            while ((numRead = input.read(inputBuffer)) >= 0) {
+                int numEncrypted = cipher.update(inputBuffer, 0, numRead, outputBuffer);
+                output.write(outputBuffer, 0, numEncrypted);
+                mac.update(outputBuffer, 0, numEncrypted);
+            }
+            int numEncrypted = cipher.doFinal(outputBuffer, 0);
+            output.write(outputBuffer, 0, numEncrypted);
+            mac.update(outputBuffer, 0, numEncrypted);
+            output.write(mac.doFinal());
+        }
+        catch (InvalidKeyException | ShortBufferException | BadPaddingException | IllegalBlockSizeException e) {
+            logger.error("Exception {}", ExceptionToString.convertExceptionToStackTrace(e));
+            throw new RuntimeException("Exception occurred while performing encryptAuthenticate!");
         }
+        finally {
+            releaseCipher(cipher);
+            if (mac != null) {
+                releaseMac(mac);
+            }
+        }
+    }
 
+    /**
+     * Streaming version of decryptVerify(Buffer), for inputs too large to be kept in memory. The MAC is verified
+     * over the whole input first, and only then the input is decrypted, so no unauthenticated plaintext is written.
+     * @param input Channel of the input written by encryptAuthenticate, read from its beginning to its end.
+     * @param output Stream where the plaintext is written.
+     * @throws InvalidMacException When the MAC is not correct.
+     * @throws MessageIntegrityException When the padding is not correct.
+     * @throws UseOfExpiredKeyException When the key is expired.
+     * @throws InvalidSymmetricKeyOperationException When the key is MAC only.
+     * @throws IOException When an error occurs in IO.
+     */
+    public void decryptVerify(FileChannel input, OutputStream output) throws InvalidMacException,
+            MessageIntegrityException, UseOfExpiredKeyException, InvalidSymmetricKeyOperationException, IOException
+    {
+        if (isMacOnly()) {
+            throw new InvalidSymmetricKeyOperationException("Decryption is invalid for MAC only session key!");
+        }
+        if (isExpired()) {
+            throw new UseOfExpiredKeyException("Trying to use an expired key!");
+        }
+        Cipher cipher = borrowCipher();
+        Mac mac = null;
         try {
-            byteArrayOutputStream.write(cipher.doFinal(encrypted.getRawBytes(), ivSize, encrypted.length() - ivSize));
-        } catch (IOException e) {
-            logger.error("IOException {}", ExceptionToString.convertExceptionToStackTrace(e));
-            throw new RuntimeException("Exception occurred while performing decryptVerify!");
-        } catch (IllegalBlockSizeException | BadPaddingException e) {
-            logger.error("IllegalBlockSizeException | BadPaddingException {}",
-                    ExceptionToString.convertExceptionToStackTrace(e));
-            throw new MessageIntegrityException("Integrity error occurred during decryptVerify!");
+            mac = borrowMac();
+            long encryptedLength = input.size() - mac.getMacLength();
+            int blockSize = cipher.getBlockSize();
+            if (encryptedLength < blockSize) {
+                throw new MessageIntegrityException("Input is too short for decryptVerify!");
+            }
+            ByteBuffer inputBuffer = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+            for (long position = 0; position < encryptedLength; position += inputBuffer.limit()) {
+                readFully(input, inputBuffer, position, (int) Math.min(STREAM_BUFFER_SIZE, encryptedLength - position));
+                mac.update(inputBuffer);
+            }
+            ByteBuffer receivedTag = ByteBuffer.allocate(mac.getMacLength());
+            readFully(input, receivedTag, encryptedLength, receivedTag.capacity());
+            if (!MessageDigest.isEqual(receivedTag.array(), mac.doFinal())) {
+                throw new InvalidMacException("MAC of session key request is NOT correct!");
+            }
+
+            ByteBuffer initVector = ByteBuffer.allocate(blockSize);
+            readFully(input, initVector, 0, blockSize);
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, cipherKey, new IvParameterSpec(initVector.array()));
+            } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+                logger.error("InvalidKeyException | InvalidAlgorithmParameterException {}",
+                        ExceptionToString.convertExceptionToStackTrace(e));
+                throw new RuntimeException("Exception occurred while performing decryptVerify!");
+            }
+            int ivSize = 0;
+            if (cipher.getIV() != null) {
+                ivSize = cipher.getIV().length;
+            }
+            byte[] outputBuffer = new byte[cipher.getOutputSize(STREAM_BUFFER_SIZE)];
+            try {
+                for (long position = ivSize; position < encryptedLength; position += inputBuffer.limit()) {
+                    readFully(input, inputBuffer, position, (int) Math.min(STREAM_BUFFER_SIZE, encryptedLength - position));
+                    int numDecrypted = cipher.update(inputBuffer.array(), 0, inputBuffer.limit(), outputBuffer);
+                    output.write(outputBuffer, 0, numDecrypted);
+                }
+                int numDecrypted = cipher.doFinal(outputBuffer, 0);
+                output.write(outputBuffer, 0, numDecrypted);
+            } catch (ShortBufferException e) {
+                logger.error("ShortBufferException {}", ExceptionToString.convertExceptionToStackTrace(e));
+                throw new RuntimeException("Exception occurred while performing decryptVerify!");
+            } catch (IllegalBlockSizeException | BadPaddingException e) {
+                logger.error("IllegalBlockSizeException | BadPaddingException {}",
+                        ExceptionToString.convertExceptionToStackTrace(e));
+                throw new MessageIntegrityException("Integrity error occurred during decryptVerify!");
+            }
         }
-        return new Buffer(byteArrayOutputStream.toByteArray());
+        finally {
+            releaseCipher(cipher);
+            if (mac != null) {
+                releaseMac(mac);
+            }
+        }
+    }
+
+    /**
+     * Reads the given number of bytes at the given position of the channel into the buffer, ready to be read.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position, int length)
+            throws IOException
+    {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of input at " + (position + buffer.position()));
+            }
+        }
+        buffer.flip();
     }
 
     public SymmetricKeyCryptoSpec getCryptoSpec() {
@@ -17,6 +17,10 @@ package org.iot.auth.crypto;
 
 import org.json.simple.JSONObject;
 
+import javax.crypto.KeyGenerator;
+import java.security.InvalidParameterException;
+import java.security.NoSuchAlgorithmException;
+
 /**
  * A class for symmetric key cryptography specifications
  * @author Hokeun Kim
@@ -82,6 +86,23 @@ public class SymmetricKeyCryptoSpec extends CryptoSpec {
         return macKeySize;
     }
 
+    /**
+     * Checks that the algorithms and key sizes of this spec are supported by their KeyGenerators. Key values are
+     * generated as random bytes, so an unsupported spec would only fail later when the key is used. The check is done
+     * once for each spec.
+     * @throws IllegalArgumentException If keys of this spec cannot be generated.
+     */
+    public void checkKeyGeneration() {
+        if (keyGenerationChecked) {
+            return;
+        }
+        if (!cipherAlgorithm.equals("")) {
+            checkKeyGeneration(cipherAlgorithm.split("/")[0], cipherKeySize);
+        }
+        checkKeyGeneration(macAlgorithm, macKeySize);
+        keyGenerationChecked = true;
+    }
+
     @SuppressWarnings("unchecked")
     public JSONObject toJSONObject() {
         JSONObject object = new JSONObject();
@@ -98,6 +119,17 @@ public class SymmetricKeyCryptoSpec extends CryptoSpec {
     private int cipherKeySize;
     private String macAlgorithm;
     private int macKeySize;
+    private volatile boolean keyGenerationChecked = false;
+
+    private static void checkKeyGeneration(String algorithm, int keySize) {
+        try {
+            KeyGenerator.getInstance(algorithm).init(8 * keySize);
+        }
+        catch (NoSuchAlgorithmException | InvalidParameterException e) {
+            throw new IllegalArgumentException("Failed to generate a key of " + algorithm + ", keySize: " + keySize +
+                    "\n" + e.getMessage());
+        }
+    }
 
     private static String toJavaScriptSpecString(String cryptoAlgo, int keySize) {
         if (cryptoAlgo.equals("")) {
@@ -19,12 +19,15 @@ import org.iot.auth.crypto.*;
 import org.iot.auth.config.AuthServerProperties;
 import org.iot.auth.config.constants.C;
 import org.iot.auth.db.bean.*;
+import org.iot.auth.db.dao.AuthStore;
+import org.iot.auth.db.dao.LogStructuredStore;
 import org.iot.auth.db.dao.SQLiteConnector;
 import org.iot.auth.io.Buffer;
 import org.iot.auth.util.ExceptionToString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.security.*;
 import java.security.cert.CertificateEncodingException;
@@ -32,6 +35,10 @@ import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A main class for Auth database, which include tables for registered entities, communication policies, trusted Auths,
@@ -42,14 +49,11 @@ public class AuthDB {
     private AuthServerProperties prop = C.PROPERTIES;
     private static final Logger logger = LoggerFactory.getLogger(AuthDB.class);
     private static final String AUTH_DB_FILE_NAME = "auth.db";
+    private static final String AUTH_DB_LOG_FILE_NAME = "auth.db.log";
 
     public AuthDB(String authDatabaseDir)
     {
         this.authDatabaseDir = authDatabaseDir;
-
-        this.registeredEntityMap = new HashMap<>();
-        this.communicationPolicyList = new ArrayList<>();
-        this.trustedAuthMap = new HashMap<>();
     }
 
     /**
@@ -71,17 +75,282 @@ public class AuthDB {
             throws IOException, CertificateException, NoSuchAlgorithmException, KeyStoreException, SQLException,
             ClassNotFoundException, UnrecoverableEntryException
     {
-        sqLiteConnector = new SQLiteConnector(this.authDatabaseDir + "/" + AUTH_DB_FILE_NAME, authDBProtectionMethod);
-        sqLiteConnector.initialize(databaseKeystorePath, authKeyStorePassword, databaseEncryptionKeyPath);
-        //sqLiteConnector.DEBUG = true;
+        SymmetricKey databaseKey =
+                SQLiteConnector.loadDatabaseKey(databaseKeystorePath, authKeyStorePassword, databaseEncryptionKeyPath);
+        initialize(databaseKey, authKeyStorePassword, authDBProtectionMethod);
+    }
+
+    /**
+     * Initializes Auth DB with the database key already loaded, and loads registered entities, communication
+     * policies and trusted Auths from the database.
+     * @param databaseKey Symmetric key for protecting Auth DB
+     * @param authKeyStorePassword Password for the trust store for storing certificates of trusted Auths
+     * @param authDBProtectionMethod Type of protection method for Auth DB
+     * @throws IOException When an error occurs in IO
+     * @throws CertificateException When an error occurs while processing the certificate
+     * @throws NoSuchAlgorithmException When there is no specified algorithm for the trust store
+     * @throws KeyStoreException When an error occurs while accessing the trust store
+     * @throws SQLException When an error occurs in database
+     * @throws ClassNotFoundException When a specified class is not found
+     */
+    public void initialize(SymmetricKey databaseKey, String authKeyStorePassword,
+                           AuthDBProtectionMethod authDBProtectionMethod)
+            throws IOException, CertificateException, NoSuchAlgorithmException, KeyStoreException, SQLException,
+            ClassNotFoundException
+    {
+        String sqLitePath = this.authDatabaseDir + "/" + AUTH_DB_FILE_NAME;
+        if (storeBackend.equals(AuthStore.BACKEND_LOG)) {
+            String logPath = this.authDatabaseDir + "/" + AUTH_DB_LOG_FILE_NAME;
+            boolean importNeeded = !new File(logPath).exists() && new File(sqLitePath).exists();
+            authStore = new LogStructuredStore(logPath, authDBProtectionMethod);
+            authStore.initialize(databaseKey);
+            if (importNeeded) {
+                try {
+                    importFromSQLite(sqLitePath, authDBProtectionMethod, databaseKey);
+                }
+                catch (Exception e) {
+                    // Removes the partially imported log, so that the import is retried on the next start.
+                    authStore.close();
+                    new File(logPath).delete();
+                    throw e;
+                }
+            }
+        }
+        else if (storeBackend.equals(AuthStore.BACKEND_SQLITE)) {
+            SQLiteConnector sqLiteConnector = new SQLiteConnector(sqLitePath, authDBProtectionMethod);
+            if (pragmaTuningEnabled) {
+                sqLiteConnector.enablePragmaTuning(pragmaMmapSize, pragmaCacheSize);
+            }
+            sqLiteConnector.initialize(databaseKey);
+            //sqLiteConnector.DEBUG = true;
+            authStore = sqLiteConnector;
+        }
+        else {
+            throw new IllegalArgumentException("Unknown Auth DB backend: " + storeBackend);
+        }
+        authStore.upgradeSchemaIfNeeded();
         loadRegEntityDB();
         loadCommPolicyDB();
         loadTrustedAuthDB(authKeyStorePassword);
     }
 
+    /**
+     * Selects the storage backend of Auth DB, {@link AuthStore#BACKEND_SQLITE} (default) or
+     * {@link AuthStore#BACKEND_LOG}. Must be called before initialize().
+     * @param storeBackend Name of the storage backend.
+     */
+    public void setStoreBackend(String storeBackend) {
+        this.storeBackend = storeBackend;
+    }
+
+    /**
+     * Copies all records of the SQLite Auth DB into the newly created log of the log-structured backend,
+     * so that an Auth DB generated as SQLite can be served by the log-structured backend.
+     */
+    private void importFromSQLite(String sqLitePath, AuthDBProtectionMethod authDBProtectionMethod,
+                                  SymmetricKey databaseKey)
+            throws SQLException, IOException, ClassNotFoundException, CertificateEncodingException
+    {
+        logger.info("Importing Auth DB from {} into the log-structured backend.", sqLitePath);
+        SQLiteConnector sqLiteConnector = new SQLiteConnector(sqLitePath, authDBProtectionMethod);
+        sqLiteConnector.initialize(databaseKey);
+        sqLiteConnector.upgradeSchemaIfNeeded();
+        for (RegisteredEntityTable regEntity: sqLiteConnector.selectAllRegEntities(authDatabaseDir)) {
+            authStore.insertRecords(regEntity);
+        }
+        for (CommunicationPolicyTable policy: sqLiteConnector.selectAllPolicies()) {
+            authStore.insertRecords(policy);
+        }
+        for (TrustedAuthTable trustedAuth: sqLiteConnector.selectAllTrustedAuth()) {
+            authStore.insertRecords(trustedAuth);
+        }
+        authStore.insertCachedSessionKeys(sqLiteConnector.selectAllCachedSessionKey());
+        for (MetaDataTable.key key: MetaDataTable.key.values()) {
+            String value = sqLiteConnector.selectMetaDataValue(key.name());
+            if (value != null) {
+                MetaDataTable metaData = new MetaDataTable();
+                metaData.setKey(key.name());
+                metaData.setValue(value);
+                authStore.insertRecords(metaData);
+            }
+        }
+        sqLiteConnector.close();
+        authStore.checkpoint();
+    }
+
+    /**
+     * Enables matching of communication policies whose target ends with the wildcard by prefix of the target.
+     * Must be called before initialize().
+     */
+    public void enableWildcardPolicyMatching() {
+        wildcardPolicyMatchingEnabled = true;
+    }
+
+    /**
+     * Enables decoding public keys and building distribution keys of all registered entities while loading them,
+     * in parallel on the common fork/join pool. Otherwise, they are decoded on the first use of each registered
+     * entity, so that startup time does not grow with the cost of crypto objects. Must be called before initialize().
+     */
+    public void enableEagerLoading() {
+        eagerLoadingEnabled = true;
+    }
+
+    /**
+     * Enables PRAGMA tuning (WAL journal, synchronous=NORMAL, mmap_size and cache_size) of the database
+     * connection. Must be called before initialize().
+     * @param mmapSize Maximum number of bytes of the database file to be memory mapped.
+     * @param cacheSize Page cache size, in pages if positive, or in KiB if negative.
+     */
+    public void enablePragmaTuning(long mmapSize, long cacheSize) {
+        this.pragmaTuningEnabled = true;
+        this.pragmaMmapSize = mmapSize;
+        this.pragmaCacheSize = cacheSize;
+    }
+
+    public String storeStatisticsToString() {
+        return storeBackend + ", " + authStore.statisticsToString();
+    }
+
+    /**
+     * Enables periodic checkpoints of the Auth DB kept in memory, which write only the chunks changed since the
+     * last checkpoint, so that a crash loses at most one interval of changes. Only applies to ENCRYPT_ENTIRE_DB
+     * protection, where changes are otherwise persisted only when Auth DB is closed, and to the log-structured
+     * backend, where checkpoints sync the log to the disk.
+     * @param checkpointInterval Interval between checkpoints in milliseconds.
+     */
+    public void enablePeriodicCheckpoints(long checkpointInterval) {
+        if (!authStore.isPeriodicCheckpointNeeded()) {
+            logger.info("Periodic checkpoints are not needed, Auth DB is not kept in memory.");
+            return;
+        }
+        checkpointExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "AuthDBCheckpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                authStore.checkpoint();
+            }
+            catch (SQLException | IOException | RuntimeException e) {
+                logger.error("Auth DB checkpoint failed: {}", ExceptionToString.convertExceptionToStackTrace(e));
+            }
+        }, checkpointInterval, checkpointInterval, TimeUnit.MILLISECONDS);
+        logger.info("Periodic checkpoints of Auth DB enabled every {} ms.", checkpointInterval);
+    }
+
+    public boolean isCheckpointEnabled() {
+        return checkpointExecutor != null;
+    }
+
+    public String checkpointStatisticsToString() {
+        return authStore.checkpointStatisticsToString();
+    }
+
     public void close() throws SQLException, IOException, InterruptedException {
         logger.info("Closing Auth DB...");
-        sqLiteConnector.close();
+        if (checkpointExecutor != null) {
+            checkpointExecutor.shutdown();
+            checkpointExecutor.awaitTermination(CHECKPOINT_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+        if (sessionKeyStore != null) {
+            sessionKeyStore.close();
+        }
+        if (distributionKeyWriter != null) {
+            distributionKeyWriter.close();
+        }
+        if (sessionKeyPool != null) {
+            sessionKeyPool.shutdown();
+        }
+        if (sessionKeyIDAllocator != null) {
+            sessionKeyIDAllocator.close();
+        }
+        authStore.close();
+    }
+
+    /**
+     * Enables the pool of pre-generated session key values, for crypto specs of all loaded communication
+     * policies. Crypto specs of communication policies loaded later are registered when they are loaded.
+     * @param lowWatermark Number of pooled key values per crypto spec below which the pool is refilled.
+     * @param highWatermark Number of pooled key values per crypto spec up to which the pool is refilled.
+     */
+    public void enableSessionKeyPool(int lowWatermark, int highWatermark) {
+        sessionKeyPool = new SessionKeyPool(lowWatermark, highWatermark);
+        List<CommunicationPolicy> communicationPolicyList = registry.getCommunicationPolicies();
+        for (CommunicationPolicy communicationPolicy : communicationPolicyList) {
+            sessionKeyPool.register(communicationPolicy.getSessionCryptoSpec());
+        }
+        logger.info("Session key pool enabled for {} crypto spec(s).", communicationPolicyList.size());
+    }
+
+    public SessionKeyPool getSessionKeyPool() {
+        return sessionKeyPool;
+    }
+
+    /**
+     * Enables the in-memory session key store as the primary read path of session keys, rebuilt from the
+     * session keys in the database. Changes of session keys are journaled to the database in the background.
+     * @param durabilityMode Durability mode of the journal, either sync or group.
+     * @param groupCommitInterval Interval in milliseconds between commits of the journal, in group mode.
+     * @throws SQLException When an error occurs in database
+     * @throws ClassNotFoundException When a specified class is not found
+     */
+    public void enableSessionKeyStore(String durabilityMode, long groupCommitInterval)
+            throws SQLException, ClassNotFoundException
+    {
+        SessionKeyStore newSessionKeyStore = new SessionKeyStore(durabilityMode, groupCommitInterval, authStore);
+        newSessionKeyStore.load();
+        sessionKeyStore = newSessionKeyStore;
+    }
+
+    public SessionKeyStore getSessionKeyStore() {
+        return sessionKeyStore;
+    }
+
+    /**
+     * Enables writing updated distribution keys to the database in the background. Updated distribution keys
+     * take effect in memory immediately, and are written every flush interval.
+     * @param flushInterval Interval in milliseconds between flushes of updated distribution keys.
+     * @param fsyncPolicy Fsync policy of flushes, either default, flush or none.
+     */
+    public void enableDistributionKeyWriteBehind(long flushInterval, String fsyncPolicy) {
+        distributionKeyWriter = new DistributionKeyWriter(flushInterval, fsyncPolicy, authStore);
+    }
+
+    public DistributionKeyWriter getDistributionKeyWriter() {
+        return distributionKeyWriter;
+    }
+
+    /**
+     * Writes distribution keys not written yet, before registered entities are read from or written to the
+     * database as a whole.
+     */
+    private void flushDistributionKeys() throws SQLException {
+        if (distributionKeyWriter != null) {
+            distributionKeyWriter.flush();
+        }
+    }
+
+    /**
+     * Sets up the allocator of session key IDs. If this is not called, the legacy layout with the default block
+     * size is used.
+     * @param authID ID of this Auth.
+     * @param layout Layout of session key IDs, packed or legacy.
+     * @param blockSize Number of session key indices reserved from the database at once, at most 100 in the legacy
+     *                  layout.
+     */
+    public void initializeSessionKeyIDAllocator(int authID, String layout, long blockSize) {
+        sessionKeyIDAllocatorLock.lock();
+        try {
+            sessionKeyIDAllocator = new SessionKeyIDAllocator(authID, layout, blockSize, authStore);
+        }
+        finally {
+            sessionKeyIDAllocatorLock.unlock();
+        }
+    }
+
+    public SessionKeyIDAllocator getSessionKeyIDAllocator() {
+        return sessionKeyIDAllocator;
     }
 
     /**
@@ -90,7 +359,7 @@ public class AuthDB {
      * @return The registered entity, if found, null, otherwise.
      */
     public RegisteredEntity getRegisteredEntity(String entityName) {
-        return registeredEntityMap.get(entityName);
+        return registry.getRegisteredEntity(entityName);
     }
 
     /**
@@ -98,12 +367,13 @@ public class AuthDB {
      * @return A list of registered entities.
      */
     public List<RegisteredEntity> getAllRegisteredEntitiies() {
-        return new ArrayList<>(registeredEntityMap.values());
+        return new ArrayList<>(registry.getRegisteredEntities());
     }
 
     private void insertOrReplaceRegisteredEntitiesHelper(boolean updateIfExists, List<RegisteredEntity> registeredEntities)
             throws IOException, SQLException, ClassNotFoundException
     {
+        flushDistributionKeys();
         LinkedList<RegisteredEntityTable> tableElements = new LinkedList<>();
         for (RegisteredEntity registeredEntity: registeredEntities) {
             Buffer serializedDistributionKeyValue = null;
@@ -120,10 +390,10 @@ public class AuthDB {
 
             tableElements.push(tableElement);
             if (updateIfExists) {
-                sqLiteConnector.insertRecordsOrUpdateIfExists(tableElement);
+                authStore.insertRecordsOrUpdateIfExists(tableElement);
             }
             else {
-                sqLiteConnector.insertRecords(tableElement);
+                authStore.insertRecords(tableElement);
             }
         }
     }
@@ -140,14 +410,7 @@ public class AuthDB {
 
 
     public CommunicationPolicy getCommunicationPolicy(String reqGroup, CommunicationTargetType targetType, String target) {
-        for (CommunicationPolicy communicationPolicy : communicationPolicyList) {
-            if (communicationPolicy.getReqGroup().equals(reqGroup) &&
-                    communicationPolicy.getTargetType() == targetType &&
-                    communicationPolicy.getTarget().equals(target)) {
-                return communicationPolicy;
-            }
-        }
-        return null;
+        return registry.getCommunicationPolicy(reqGroup, targetType, target);
     }
 
     /**
@@ -160,11 +423,14 @@ public class AuthDB {
     public void updateDistributionKey(String entityName, DistributionKey distributionKey)
             throws SQLException, ClassNotFoundException
     {
-        RegisteredEntity registeredEntity = getRegisteredEntity(entityName);
-        registeredEntity.setDistributionKey(distributionKey);
-        registeredEntityMap.put(registeredEntity.getName(), registeredEntity);
+        // Updated in place, the registered entity is shared by the current and later snapshots.
+        getRegisteredEntity(entityName).setDistributionKey(distributionKey);
 
-        sqLiteConnector.updateRegEntityDistKey(entityName, distributionKey.getRawExpirationTime(),
+        if (distributionKeyWriter != null) {
+            distributionKeyWriter.put(entityName, distributionKey);
+            return;
+        }
+        authStore.updateRegEntityDistKey(entityName, distributionKey.getRawExpirationTime(),
                 distributionKey.getSerializedKeyVal());
     }
 
@@ -188,42 +454,79 @@ public class AuthDB {
     {
         List<SessionKey> sessionKeyList = new LinkedList<>();
 
-        String value = sqLiteConnector.selectMetaDataValue(MetaDataTable.key.SessionKeyCount.name());
-        long sessionKeyCount = Long.parseLong(value);
+        long firstSessionKeyID = getOrCreateSessionKeyIDAllocator(authID).allocate(numKeys);
+        SymmetricKeyCryptoSpec sessionCryptoSpec = communicationPolicy.getSessionCryptoSpec();
+        List<Buffer> keyValList = null;
+        if (sessionKeyPool != null) {
+            keyValList = sessionKeyPool.take(sessionCryptoSpec, numKeys);
+        }
 
         //String purpose = communicationPolicy.getTargetType().name() + ":" + communicationPolicy.getTarget();
-        for (long i = 0; i < numKeys; i++) {
-            long curSessionKeyIndex = sessionKeyCount + i;
-            // TODO: work on authID encoding
-            long sessionKeyID = encodeSessionKeyID(authID, curSessionKeyIndex);
-            SessionKey sessionKey = new SessionKey(sessionKeyID, owner.split(SessionKey.SESSION_KEY_OWNER_NAME_DELIM),
-                    communicationPolicy.getMaxNumSessionKeyOwners(), sessionKeyPurpose.toString(),
-                    new Date().getTime() + communicationPolicy.getAbsValidity(), communicationPolicy.getRelValidity(),
-                    communicationPolicy.getSessionCryptoSpec());
+        long expirationTime = new Date().getTime() + communicationPolicy.getAbsValidity();
+        for (int i = 0; i < numKeys; i++) {
+            long sessionKeyID = firstSessionKeyID + i;
+            SessionKey sessionKey;
+            if (keyValList != null) {
+                sessionKey = new SessionKey(sessionKeyID, owner.split(SessionKey.SESSION_KEY_OWNER_NAME_DELIM),
+                        communicationPolicy.getMaxNumSessionKeyOwners(), sessionKeyPurpose.toString(),
+                        expirationTime, communicationPolicy.getRelValidity(), sessionCryptoSpec, keyValList.get(i));
+            }
+            else {
+                sessionKey = new SessionKey(sessionKeyID, owner.split(SessionKey.SESSION_KEY_OWNER_NAME_DELIM),
+                        communicationPolicy.getMaxNumSessionKeyOwners(), sessionKeyPurpose.toString(),
+                        expirationTime, communicationPolicy.getRelValidity(), sessionCryptoSpec);
+            }
             sessionKeyList.add(sessionKey);
         }
-        sessionKeyCount += numKeys;
-
-        sqLiteConnector.updateMetaData(MetaDataTable.key.SessionKeyCount.name(), Long.toString(sessionKeyCount));
 
+        if (sessionKeyStore != null) {
+            sessionKeyStore.put(sessionKeyList);
+            return sessionKeyList;
+        }
+        List<CachedSessionKeyTable> cachedSessionKeyList = new ArrayList<>(sessionKeyList.size());
         for (SessionKey sessionKey: sessionKeyList) {
-            CachedSessionKeyTable cachedSessionKey = CachedSessionKeyTable.fromSessionKey(sessionKey);
-            sqLiteConnector.insertRecords(cachedSessionKey);
+            cachedSessionKeyList.add(CachedSessionKeyTable.fromSessionKey(sessionKey));
         }
+        authStore.insertCachedSessionKeys(cachedSessionKeyList);
 
         return sessionKeyList;
     }
 
+    private SessionKeyIDAllocator getOrCreateSessionKeyIDAllocator(int authID) {
+        SessionKeyIDAllocator allocator = sessionKeyIDAllocator;
+        if (allocator != null) {
+            return allocator;
+        }
+        sessionKeyIDAllocatorLock.lock();
+        try {
+            if (sessionKeyIDAllocator == null) {
+                sessionKeyIDAllocator = new SessionKeyIDAllocator(authID, SessionKeyIDAllocator.LAYOUT_LEGACY,
+                        SessionKeyIDAllocator.DEFAULT_BLOCK_SIZE, authStore);
+            }
+            return sessionKeyIDAllocator;
+        }
+        finally {
+            sessionKeyIDAllocatorLock.unlock();
+        }
+    }
+
     public SessionKey getSessionKeyByID(long keyID) throws SQLException, ClassNotFoundException {
         logger.debug("keyID: {}", keyID);
-        CachedSessionKeyTable cachedSessionKey = sqLiteConnector.selectCachedSessionKeyByID(keyID);
-        return cachedSessionKey.toSessionKey();
+        if (sessionKeyStore != null) {
+            return sessionKeyStore.get(keyID);
+        }
+        CachedSessionKeyTable cachedSessionKey = authStore.selectCachedSessionKeyByID(keyID);
+        // As with the session key store, a missing key is null, for the caller to report.
+        return cachedSessionKey == null ? null : cachedSessionKey.toSessionKey();
     }
 
     public List<SessionKey> getSessionKeysByPurpose(String requestingEntityName, SessionKeyPurpose sessionKeyPurpose)
             throws SQLException, ClassNotFoundException {
+        if (sessionKeyStore != null) {
+            return sessionKeyStore.getByPurpose(requestingEntityName, sessionKeyPurpose.toString());
+        }
         List<CachedSessionKeyTable> cachedSessionKeyTableList =
-                sqLiteConnector.selectCachedSessionKeysByPurpose(requestingEntityName, sessionKeyPurpose.toString());
+                authStore.selectCachedSessionKeysByPurpose(requestingEntityName, sessionKeyPurpose.toString());
         List<SessionKey> result = new ArrayList<>(cachedSessionKeyTableList.size());
         for (CachedSessionKeyTable cachedSessionKey: cachedSessionKeyTableList) {
             result.add(cachedSessionKey.toSessionKey());
@@ -232,15 +535,69 @@ public class AuthDB {
     }
 
     public boolean addSessionKeyOwner(long keyID, String newOwner) throws SQLException, ClassNotFoundException {
-        return sqLiteConnector.appendSessionKeyOwner(keyID, newOwner);
+        if (sessionKeyStore != null) {
+            sessionKeyStore.addOwner(Collections.singletonList(keyID), newOwner);
+            // Same as PreparedStatement.execute() for an update
+            return false;
+        }
+        return authStore.appendSessionKeyOwner(keyID, newOwner);
+    }
+
+    /**
+     * Adds a new owner to multiple session keys, in a single transaction.
+     * @param sessionKeyList Session keys to be updated.
+     * @param newOwner A new owner (entity) of the session keys.
+     * @return The number of updated session keys.
+     * @throws SQLException When an error occurs in database
+     * @throws ClassNotFoundException When a specified class is not found
+     */
+    public int addSessionKeyOwners(List<SessionKey> sessionKeyList, String newOwner)
+            throws SQLException, ClassNotFoundException
+    {
+        List<Long> keyIDList = new ArrayList<>(sessionKeyList.size());
+        for (SessionKey sessionKey: sessionKeyList) {
+            keyIDList.add(sessionKey.getID());
+        }
+        if (sessionKeyStore != null) {
+            return sessionKeyStore.addOwner(keyIDList, newOwner);
+        }
+        return authStore.appendSessionKeyOwners(keyIDList, newOwner);
     }
 
     public void cleanExpiredSessionKeys() throws SQLException, ClassNotFoundException {
-        sqLiteConnector.deleteExpiredCahcedSessionKeys();
+        if (sessionKeyStore != null) {
+            sessionKeyStore.removeExpired(new Date().getTime());
+            sessionKeyStore.flush();
+        }
+        authStore.deleteExpiredCahcedSessionKeys();
+    }
+
+    /**
+     * Deletes a bounded batch of expired session keys from the database.
+     * @param batchSize Maximum number of session keys to be deleted.
+     * @return The number of session keys deleted.
+     * @throws SQLException When an error occurs in database
+     */
+    public int deleteExpiredSessionKeys(int batchSize) throws SQLException {
+        return authStore.deleteExpiredCachedSessionKeys(new Date().getTime(), batchSize);
+    }
+
+    /**
+     * Reclaims free space of the database, see {@link AuthStore#vacuum(int)}.
+     * @param maxPages Maximum number of pages to be reclaimed.
+     * @return The number of pages reclaimed.
+     * @throws SQLException When an error occurs in database
+     */
+    public long vacuum(int maxPages) throws SQLException {
+        return authStore.vacuum(maxPages);
     }
 
     public void deleteAllSessionKeys() throws SQLException, ClassNotFoundException {
-        sqLiteConnector.deleteAllCachedSessionKeys();
+        if (sessionKeyStore != null) {
+            sessionKeyStore.clear();
+            sessionKeyStore.flush();
+        }
+        authStore.deleteAllCachedSessionKeys();
     }
 
     /**
@@ -249,13 +606,14 @@ public class AuthDB {
      * @return Information object of trusted Auth.
      */
     public TrustedAuth getTrustedAuthInfo(int authID) {
-        return trustedAuthMap.get(authID);
+        return registry.getTrustedAuth(authID);
     }
 
     public int[] getAllTrustedAuthIDs() {
-        int[] ret = new int[trustedAuthMap.size()];
+        Set<Integer> trustedAuthIDs = registry.getTrustedAuthIDs();
+        int[] ret = new int[trustedAuthIDs.size()];
         int index = 0;
-        for (int trustedAuthID: trustedAuthMap.keySet()) {
+        for (int trustedAuthID: trustedAuthIDs) {
             ret[index] = trustedAuthID;
             index++;
         }
@@ -271,7 +629,20 @@ public class AuthDB {
     public String sessionKeysToString() throws SQLException, ClassNotFoundException {
         StringBuilder sb = new StringBuilder();
 
-        List<CachedSessionKeyTable> cachedSessionKeyList = sqLiteConnector.selectAllCachedSessionKey();
+        if (sessionKeyStore != null) {
+            boolean init = true;
+            for (SessionKey sessionKey: sessionKeyStore.getAll()) {
+                if (init) {
+                    init = false;
+                }
+                else {
+                    sb.append("\n");
+                }
+                sb.append(sessionKey.toString());
+            }
+            return sb.toString();
+        }
+        List<CachedSessionKeyTable> cachedSessionKeyList = authStore.selectAllCachedSessionKey();
         boolean init = true;
         for (CachedSessionKeyTable cachedSessionKey: cachedSessionKeyList) {
             if (init) {
@@ -288,7 +659,7 @@ public class AuthDB {
     public String registeredEntitiesToString() {
         StringBuilder sb = new StringBuilder();
         boolean init = true;
-        for (RegisteredEntity registeredEntity : registeredEntityMap.values()) {
+        for (RegisteredEntity registeredEntity : registry.getRegisteredEntities()) {
             if (init) {
                 init = false;
             }
@@ -303,7 +674,7 @@ public class AuthDB {
     public String communicationPoliciesToString() {
         StringBuilder sb = new StringBuilder();
         boolean init = true;
-        for (CommunicationPolicy communicationPolicy : communicationPolicyList) {
+        for (CommunicationPolicy communicationPolicy : registry.getCommunicationPolicies()) {
             if (init) {
                 init = false;
             }
@@ -318,7 +689,7 @@ public class AuthDB {
     public String trustedAuthsToString() {
         StringBuilder sb = new StringBuilder();
         boolean init = true;
-        for (TrustedAuth trustedAuth: trustedAuthMap.values()) {
+        for (TrustedAuth trustedAuth: registry.getTrustedAuths()) {
             if (init) {
                 init = false;
             }
@@ -341,47 +712,92 @@ public class AuthDB {
     }
 
     private void loadRegEntityDB() throws SQLException, ClassNotFoundException {
-
-        sqLiteConnector.selectAllRegEntities(authDatabaseDir).forEach(regEntityTable -> {
-            DistributionKey distributionKey = null;
-            if (regEntityTable.getDistKeyVal() != null) {
-                distributionKey = new DistributionKey(
-                    SymmetricKeyCryptoSpec.fromSpecString(regEntityTable.getDistCryptoSpec()),
-                    regEntityTable.getDistKeyExpirationTime(),
-                    new Buffer(regEntityTable.getDistKeyVal())
-                );
-            }
-            RegisteredEntity registeredEntity = new RegisteredEntity(regEntityTable, distributionKey);
-
-            registeredEntityMap.put(registeredEntity.getName(), registeredEntity);
-            logger.debug("registeredEntity: {}", registeredEntity.toString());
-        });
+        long start = System.nanoTime();
+        // Drops public keys and verifiers of registered entities being replaced, before eager loading fills them.
+        EntityKeyCache.invalidateAll();
+        // Index pass, reads names, groups and settings, while keeping public keys and distribution keys encoded.
+        List<RegisteredEntity> registeredEntityList = new ArrayList<>();
+        authStore.selectAllRegEntities(authDatabaseDir).forEach(regEntityTable ->
+                registeredEntityList.add(new RegisteredEntity(regEntityTable)));
+        if (eagerLoadingEnabled) {
+            registeredEntityList.parallelStream().forEach(RegisteredEntity::materializeCryptoObjects);
+        }
+        if (logger.isDebugEnabled()) {
+            registeredEntityList.forEach(registeredEntity -> logger.debug("registeredEntity: {}", registeredEntity));
+        }
+        registryUpdateLock.lock();
+        try {
+            registry = registry.withRegisteredEntities(registeredEntityList);
+        }
+        finally {
+            registryUpdateLock.unlock();
+        }
+        logger.info("Loaded {} registered entities ({}) in {} ms.", registeredEntityList.size(),
+                eagerLoadingEnabled ? "eager" : "lazy", (System.nanoTime() - start) / 1000000);
     }
 
     public boolean deleteRegisteredEntities(List<String> registeredEntityNameList) throws SQLException {
-        return sqLiteConnector.deleteRegisteredEntities(registeredEntityNameList);
+        return authStore.deleteRegisteredEntities(registeredEntityNameList);
     }
 
     public void deleteBackedUpRegisteredEntities() throws SQLException {
-        sqLiteConnector.deleteBackedUpRegisteredEntities();
+        authStore.deleteBackedUpRegisteredEntities();
     }
 
+    /**
+     * Reloads registered entities from the database. The new registered entities replace the current ones at once,
+     * and requests being handled keep seeing the previous ones until then.
+     * @throws SQLException When an error occurs in database
+     * @throws ClassNotFoundException When a specified class is not found
+     */
     public void reloadRegEntityDB() throws SQLException, ClassNotFoundException {
-        registeredEntityMap.clear();
-        loadRegEntityDB();
+        // Reading the database under the lock keeps a slower, older reload from replacing a newer one.
+        registryUpdateLock.lock();
+        try {
+            flushDistributionKeys();
+            loadRegEntityDB();
+        }
+        finally {
+            registryUpdateLock.unlock();
+        }
     }
 
+    /**
+     * Reloads communication policies from the database, replacing the current ones at once.
+     * @throws SQLException When an error occurs in database
+     * @throws ClassNotFoundException When a specified class is not found
+     */
     public void reloadCommunicationPolicyDB() throws SQLException, ClassNotFoundException {
-        communicationPolicyList.clear();
-        loadCommPolicyDB();
+        registryUpdateLock.lock();
+        try {
+            loadCommPolicyDB();
+        }
+        finally {
+            registryUpdateLock.unlock();
+        }
+    }
+
+    public RegistrySnapshot getRegistry() {
+        return registry;
     }
 
     private void loadCommPolicyDB() throws SQLException, ClassNotFoundException {
-        sqLiteConnector.selectAllPolicies().forEach(communicationPolicyTable -> {
+        List<CommunicationPolicy> communicationPolicyList = new ArrayList<>();
+        authStore.selectAllPolicies().forEach(communicationPolicyTable -> {
             CommunicationPolicy communicationPolicy = new CommunicationPolicy(communicationPolicyTable);
             communicationPolicyList.add(communicationPolicy);
+            if (sessionKeyPool != null) {
+                sessionKeyPool.register(communicationPolicy.getSessionCryptoSpec());
+            }
             logger.debug("communicationPolicy: {}", communicationPolicy.toString());
         });
+        registryUpdateLock.lock();
+        try {
+            registry = registry.withCommunicationPolicies(communicationPolicyList, wildcardPolicyMatchingEnabled);
+        }
+        finally {
+            registryUpdateLock.unlock();
+        }
     }
 
     private void loadTrustedAuthDB(String trustStorePassword) throws
@@ -391,50 +807,88 @@ public class AuthDB {
         trustStoreForTrustedAuths = KeyStore.getInstance(KeyStore.getDefaultType());
         trustStoreForTrustedAuths.load(null, trustStorePassword.toCharArray());
 
-        for (TrustedAuthTable t: sqLiteConnector.selectAllTrustedAuth()) {
-            TrustedAuth trustedAuth = new TrustedAuth(t.getId(), t.getHost(), t.getEntityHost(),
-                    t.getPort(),
-                    t.getHeartbeatPeriod(),
-                    t.getFailureThreshold(),
-                    t.getInternetCertificate(),
-                    t.getEntityCertificate(),
-                    t.getBackupCertificate());
-            trustedAuthMap.put(trustedAuth.getID(), trustedAuth);
+        List<TrustedAuth> trustedAuthList = new ArrayList<>();
+        for (TrustedAuthTable t: authStore.selectAllTrustedAuth()) {
+            // Only the Internet certificate is decoded here for the trust store, the others on first use.
+            TrustedAuth trustedAuth = new TrustedAuth(t);
+            trustedAuthList.add(trustedAuth);
             // TODO: Add trust store for trusted auth
             trustStoreForTrustedAuths.setCertificateEntry("" + trustedAuth.getID(), trustedAuth.getInternetCertificate());
 
-            logger.debug("trustedAuth: {}", trustedAuth.toString());
+            logger.debug("trustedAuth: {}", trustedAuth);
+        }
+        registryUpdateLock.lock();
+        try {
+            registry = registry.withTrustedAuths(trustedAuthList);
+        }
+        finally {
+            registryUpdateLock.unlock();
         }
     }
 
-    private static long encodeSessionKeyID(int authID, long keyIndex) {
-        return authID * 100000 + keyIndex;
-    }
     public static int decodeAuthIDFromSessionKeyID(long sessionKeyID) {
-        return (int)(sessionKeyID / 100000);
+        return SessionKeyIDAllocator.decodeAuthID(sessionKeyID);
     }
 
 
     private String authDatabaseDir;
 
-    private Map<String, RegisteredEntity> registeredEntityMap;
-    private List<CommunicationPolicy> communicationPolicyList;
-    private Map<Integer, TrustedAuth> trustedAuthMap;
+    // Replaced as a whole on every change, read without locking.
+    private volatile RegistrySnapshot registry = RegistrySnapshot.EMPTY;
+    // Serializes changes of the registry, so that no change is lost between copying and replacing it.
+    private final ReentrantLock registryUpdateLock = new ReentrantLock();
     private KeyStore trustStoreForTrustedAuths;
 
-    private SQLiteConnector sqLiteConnector;
+    private AuthStore authStore;
+    private String storeBackend = AuthStore.BACKEND_SQLITE;
+    private boolean pragmaTuningEnabled = false;
+    private boolean wildcardPolicyMatchingEnabled = false;
+    private boolean eagerLoadingEnabled = false;
+    private long pragmaMmapSize;
+    private long pragmaCacheSize;
+    private SessionKeyPool sessionKeyPool = null;
+    private volatile SessionKeyIDAllocator sessionKeyIDAllocator = null;
+    private final ReentrantLock sessionKeyIDAllocatorLock = new ReentrantLock();
+    private SessionKeyStore sessionKeyStore = null;
+    private DistributionKeyWriter distributionKeyWriter = null;
+    private ScheduledExecutorService checkpointExecutor = null;
+    private static final long CHECKPOINT_SHUTDOWN_TIMEOUT = 10000;     // milliseconds
 
     public boolean updateBackupCertificate(int backupFromAuthID, X509Certificate backupCertificate)
             throws SQLException, CertificateEncodingException
     {
-        boolean ret = sqLiteConnector.updateBackupCertificate(backupFromAuthID, backupCertificate);
-        TrustedAuth trustedAuth = getTrustedAuthInfo(backupFromAuthID);
-        trustedAuth.setBackupCertificate(backupCertificate);
-        trustedAuthMap.put(backupFromAuthID, trustedAuth);
+        boolean ret = authStore.updateBackupCertificate(backupFromAuthID, backupCertificate);
+        registryUpdateLock.lock();
+        try {
+            TrustedAuth trustedAuth = getTrustedAuthInfo(backupFromAuthID);
+            trustedAuth.setBackupCertificate(backupCertificate);
+            registry = registry.withTrustedAuth(trustedAuth);
+        }
+        finally {
+            registryUpdateLock.unlock();
+        }
         return ret;
     }
 
+    /**
+     * Inserts a new communication policy into the database, and adds it to the index of communication policies
+     * without reloading all of them.
+     * @param newCommunicationPolicyTable The communication policy to be inserted.
+     * @throws SQLException When an error occurs in database
+     * @throws ClassNotFoundException When a specified class is not found
+     */
     public void insertCommunicationPolicy(CommunicationPolicyTable newCommunicationPolicyTable) throws SQLException, ClassNotFoundException {
-        sqLiteConnector.insertRecords(newCommunicationPolicyTable);
+        CommunicationPolicy communicationPolicy = new CommunicationPolicy(newCommunicationPolicyTable);
+        registryUpdateLock.lock();
+        try {
+            authStore.insertRecords(newCommunicationPolicyTable);
+            registry = registry.withCommunicationPolicy(communicationPolicy);
+        }
+        finally {
+            registryUpdateLock.unlock();
+        }
+        if (sessionKeyPool != null) {
+            sessionKeyPool.register(communicationPolicy.getSessionCryptoSpec());
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db;
+
+import java.util.*;
+
+/**
+ * An immutable index of communication policies for looking up the policy of a session key request in constant
+ * time, keyed by requesting group, target type and target. When the same key appears more than once, the
+ * policy that comes first wins, as with a linear scan of the policies.
+ *
+ * If wildcard matching is enabled, a policy whose target ends with {@value #WILDCARD} also applies to every
+ * target starting with the rest of its target, for example, "Ptopic/*" applies to "Ptopic/sensors/temp".
+ * Such policies are kept in a trie per requesting group and target type, and are only looked up when
+ * there is no exact match, in which case the longest matching prefix wins.
+ * @author Hokeun Kim
+ */
+public class CommunicationPolicyIndex {
+    public static final String WILDCARD = "*";
+    public static final CommunicationPolicyIndex EMPTY = new CommunicationPolicyIndex(Collections.emptyList(), false);
+
+    /**
+     * Builds an index of the given communication policies.
+     * @param communicationPolicies Communication policies, in the order of precedence.
+     * @param wildcardMatchingEnabled Whether targets ending with the wildcard match by prefix.
+     */
+    public CommunicationPolicyIndex(List<CommunicationPolicy> communicationPolicies, boolean wildcardMatchingEnabled) {
+        this.communicationPolicyList = Collections.unmodifiableList(new ArrayList<>(communicationPolicies));
+        this.wildcardMatchingEnabled = wildcardMatchingEnabled;
+        this.exactMap = new HashMap<>(communicationPolicies.size() * 2);
+        this.wildcardTrieMap = new HashMap<>();
+        for (CommunicationPolicy communicationPolicy: communicationPolicies) {
+            exactMap.putIfAbsent(new PolicyKey(communicationPolicy.getReqGroup(), communicationPolicy.getTargetType(),
+                    communicationPolicy.getTarget()), communicationPolicy);
+            addToWildcardTrie(communicationPolicy);
+        }
+    }
+
+    private CommunicationPolicyIndex(CommunicationPolicyIndex index, CommunicationPolicy newCommunicationPolicy) {
+        List<CommunicationPolicy> newCommunicationPolicyList = new ArrayList<>(index.communicationPolicyList);
+        newCommunicationPolicyList.add(newCommunicationPolicy);
+        this.communicationPolicyList = Collections.unmodifiableList(newCommunicationPolicyList);
+        this.wildcardMatchingEnabled = index.wildcardMatchingEnabled;
+        this.exactMap = new HashMap<>(index.exactMap);
+        exactMap.putIfAbsent(new PolicyKey(newCommunicationPolicy.getReqGroup(), newCommunicationPolicy.getTargetType(),
+                newCommunicationPolicy.getTarget()), newCommunicationPolicy);
+        if (isWildcardPolicy(newCommunicationPolicy)) {
+            // wildcard policies are few, so the tries are rebuilt rather than copied node by node
+            this.wildcardTrieMap = new HashMap<>();
+            for (CommunicationPolicy communicationPolicy: newCommunicationPolicyList) {
+                addToWildcardTrie(communicationPolicy);
+            }
+        }
+        else {
+            this.wildcardTrieMap = index.wildcardTrieMap;
+            this.numWildcardPolicies = index.numWildcardPolicies;
+        }
+    }
+
+    /**
+     * Creates a new index with the given communication policy added after the existing ones.
+     * @param communicationPolicy The communication policy to be added.
+     * @return The new index.
+     */
+    public CommunicationPolicyIndex withCommunicationPolicy(CommunicationPolicy communicationPolicy) {
+        return new CommunicationPolicyIndex(this, communicationPolicy);
+    }
+
+    /**
+     * Finds the communication policy for the given requesting group, target type and target.
+     * @param reqGroup Group of the requesting entity.
+     * @param targetType Type of the target.
+     * @param target Name of the target.
+     * @return The communication policy, null if there is no matching policy.
+     */
+    public CommunicationPolicy lookup(String reqGroup, CommunicationTargetType targetType, String target) {
+        CommunicationPolicy communicationPolicy = exactMap.get(new PolicyKey(reqGroup, targetType, target));
+        if (communicationPolicy != null || wildcardTrieMap.isEmpty()) {
+            return communicationPolicy;
+        }
+        TrieNode node = wildcardTrieMap.get(new PolicyKey(reqGroup, targetType, ""));
+        if (node == null) {
+            return null;
+        }
+        CommunicationPolicy longestMatch = node.communicationPolicy;
+        for (int i = 0; i < target.length(); i++) {
+            node = node.children.get(target.charAt(i));
+            if (node == null) {
+                break;
+            }
+            if (node.communicationPolicy != null) {
+                longestMatch = node.communicationPolicy;
+            }
+        }
+        return longestMatch;
+    }
+
+    public List<CommunicationPolicy> getCommunicationPolicies() {
+        return communicationPolicyList;
+    }
+
+    public boolean isWildcardMatchingEnabled() {
+        return wildcardMatchingEnabled;
+    }
+
+    public int getNumWildcardPolicies() {
+        return numWildcardPolicies;
+    }
+
+    private boolean isWildcardPolicy(CommunicationPolicy communicationPolicy) {
+        return wildcardMatchingEnabled && communicationPolicy.getTarget().endsWith(WILDCARD);
+    }
+
+    private void addToWildcardTrie(CommunicationPolicy communicationPolicy) {
+        if (!isWildcardPolicy(communicationPolicy)) {
+            return;
+        }
+        String target = communicationPolicy.getTarget();
+        String prefix = target.substring(0, target.length() - WILDCARD.length());
+        TrieNode node = wildcardTrieMap.computeIfAbsent(
+                new PolicyKey(communicationPolicy.getReqGroup(), communicationPolicy.getTargetType(), ""),
+                key -> new TrieNode());
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.children.computeIfAbsent(prefix.charAt(i), c -> new TrieNode());
+        }
+        if (node.communicationPolicy == null) {
+            node.communicationPolicy = communicationPolicy;
+        }
+        numWildcardPolicies++;
+    }
+
+    private static class PolicyKey {
+        PolicyKey(String reqGroup, CommunicationTargetType targetType, String target) {
+            this.reqGroup = reqGroup;
+            this.targetType = targetType;
+            this.target = target;
+            this.hashCode = (reqGroup.hashCode() * 31 + targetType.hashCode()) * 31 + target.hashCode();
+        }
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (!(object instanceof PolicyKey)) {
+                return false;
+            }
+            PolicyKey other = (PolicyKey) object;
+            return hashCode == other.hashCode && targetType == other.targetType &&
+                    reqGroup.equals(other.reqGroup) && target.equals(other.target);
+        }
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+        private final String reqGroup;
+        private final CommunicationTargetType targetType;
+        private final String target;
+        private final int hashCode;
+    }
+
+    private static class TrieNode {
+        private final Map<Character, TrieNode> children = new HashMap<>();
+        private CommunicationPolicy communicationPolicy = null;
+    }
+
+    private final List<CommunicationPolicy> communicationPolicyList;
+    private final boolean wildcardMatchingEnabled;
+    private final Map<PolicyKey, CommunicationPolicy> exactMap;
+    // Tries of wildcard policies, keyed by requesting group and target type with an empty target.
+    private final Map<PolicyKey, TrieNode> wildcardTrieMap;
+    private int numWildcardPolicies = 0;
+}
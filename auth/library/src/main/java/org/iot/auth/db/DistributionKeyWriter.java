@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db;
+
+import org.iot.auth.crypto.DistributionKey;
+import org.iot.auth.db.dao.AuthStore;
+import org.iot.auth.util.ExceptionToString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A class for writing updated distribution keys of registered entities to the database in the background,
+ * so that handshakes updating distribution keys do not wait for the database. Distribution keys updated
+ * more than once within a flush interval are written only once, with the latest value.
+ *
+ * The fsync policy decides whether each flush waits for the database file to be synced (flush), leaves it to
+ * the OS (none), or follows the setting of the connection (default). Distribution keys not flushed yet are
+ * lost on a crash, in which case the entities fall back to their previous distribution keys and do another
+ * public key handshake.
+ * @author Hokeun Kim
+ */
+public class DistributionKeyWriter {
+    private static final Logger logger = LoggerFactory.getLogger(DistributionKeyWriter.class);
+
+    public static final String FSYNC_DEFAULT = "default";
+    public static final String FSYNC_FLUSH = "flush";
+    public static final String FSYNC_NONE = "none";
+
+    /**
+     * Constructor for the distribution key writer.
+     * @param flushInterval Interval in milliseconds between flushes of updated distribution keys.
+     * @param fsyncPolicy Fsync policy of flushes, either default, flush or none.
+     * @param authStore Store of Auth DB where distribution keys are written.
+     */
+    public DistributionKeyWriter(long flushInterval, String fsyncPolicy, AuthStore authStore) {
+        if (flushInterval <= 0) {
+            throw new IllegalArgumentException("Flush interval must be positive: " + flushInterval);
+        }
+        if (fsyncPolicy.equalsIgnoreCase(FSYNC_DEFAULT)) {
+            this.synchronousLevel = null;
+        }
+        else if (fsyncPolicy.equalsIgnoreCase(FSYNC_FLUSH)) {
+            this.synchronousLevel = "FULL";
+        }
+        else if (fsyncPolicy.equalsIgnoreCase(FSYNC_NONE)) {
+            this.synchronousLevel = "OFF";
+        }
+        else {
+            throw new IllegalArgumentException("Unknown fsync policy for distribution keys: " + fsyncPolicy);
+        }
+        this.fsyncPolicy = fsyncPolicy.toLowerCase();
+        this.flushInterval = flushInterval;
+        this.authStore = authStore;
+        this.pendingMap = new ConcurrentHashMap<>();
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "DistributionKeyWriter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.scheduleWithFixedDelay(this::writePending, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedules writing the new distribution key of a registered entity, replacing the one not written yet.
+     * @param entityName Name of the registered entity.
+     * @param distributionKey New distribution key of the registered entity.
+     */
+    public void put(String entityName, DistributionKey distributionKey) {
+        numUpdates.incrementAndGet();
+        if (pendingMap.put(entityName, distributionKey) != null) {
+            numCoalesced.incrementAndGet();
+        }
+    }
+
+    /**
+     * Writes all pending distribution keys, and waits until they are written.
+     * @throws SQLException When an error occurs in database
+     */
+    public void flush() throws SQLException {
+        try {
+            writer.submit(this::writePending).get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for distribution keys to be written.", e);
+        }
+        catch (ExecutionException e) {
+            throw new SQLException("Failed to write distribution keys.", e.getCause());
+        }
+        if (!pendingMap.isEmpty() && lastFailure != null) {
+            throw lastFailure;
+        }
+    }
+
+    /**
+     * Writes the remaining distribution keys and stops the background writer.
+     * @throws InterruptedException When interrupted while waiting for the writer to stop
+     */
+    public void close() throws InterruptedException {
+        try {
+            flush();
+        }
+        catch (SQLException | RejectedExecutionException e) {
+            logger.error("Failed to write distribution keys on close: {}", ExceptionToString.convertExceptionToStackTrace(e));
+        }
+        writer.shutdownNow();
+        writer.awaitTermination(flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public int getNumPending() {
+        return pendingMap.size();
+    }
+
+    public String toString() {
+        return "fsync: " + fsyncPolicy + ", flush interval: " + flushInterval + " ms" +
+                ", pending: " + pendingMap.size() + ", updates: " + numUpdates.get() +
+                ", coalesced: " + numCoalesced.get() + ", written: " + numWritten.get() +
+                ", flushes: " + numFlushes.get() + ", failed flushes: " + numFailedFlushes.get();
+    }
+
+    /**
+     * Writes pending distribution keys in a single transaction, runs only in the background writer.
+     */
+    private void writePending() {
+        if (pendingMap.isEmpty()) {
+            return;
+        }
+        Map<String, DistributionKey> distributionKeyMap = new HashMap<>();
+        for (Map.Entry<String, DistributionKey> entry: pendingMap.entrySet()) {
+            // A distribution key put after this is left for the next flush.
+            if (pendingMap.remove(entry.getKey(), entry.getValue())) {
+                distributionKeyMap.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (distributionKeyMap.isEmpty()) {
+            return;
+        }
+        try {
+            authStore.updateRegEntityDistKeys(distributionKeyMap, synchronousLevel);
+            numWritten.addAndGet(distributionKeyMap.size());
+            numFlushes.incrementAndGet();
+            lastFailure = null;
+        }
+        catch (SQLException | RuntimeException e) {
+            // Retried in the next flush, unless a newer distribution key has been put in the meantime.
+            for (Map.Entry<String, DistributionKey> entry: distributionKeyMap.entrySet()) {
+                pendingMap.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+            numFailedFlushes.incrementAndGet();
+            lastFailure = e instanceof SQLException ? (SQLException) e :
+                    new SQLException("Failed to write distribution keys.", e);
+            logger.error("Failed to write distribution keys: {}", ExceptionToString.convertExceptionToStackTrace(e));
+        }
+    }
+
+    private final String fsyncPolicy;
+    private final String synchronousLevel;
+    private final long flushInterval;
+    private final AuthStore authStore;
+    private final ConcurrentHashMap<String, DistributionKey> pendingMap;
+    private final ScheduledExecutorService writer;
+    private volatile SQLException lastFailure = null;
+
+    private final AtomicLong numUpdates = new AtomicLong(0);
+    private final AtomicLong numCoalesced = new AtomicLong(0);
+    private final AtomicLong numWritten = new AtomicLong(0);
+    private final AtomicLong numFlushes = new AtomicLong(0);
+    private final AtomicLong numFailedFlushes = new AtomicLong(0);
+}
@@ -16,6 +16,7 @@
 package org.iot.auth.db;
 
 import org.iot.auth.crypto.DistributionKey;
+import org.iot.auth.crypto.EntityKeyCache;
 import org.iot.auth.crypto.MigrationToken;
 import org.iot.auth.crypto.PublicKeyCryptoSpec;
 import org.iot.auth.crypto.SymmetricKeyCryptoSpec;
@@ -25,12 +26,13 @@ import org.iot.auth.io.BufferedString;
 import org.iot.auth.io.VariableLengthInt;
 import org.iot.auth.util.DateHelper;
 
-import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.spec.InvalidKeySpecException;
-import java.security.spec.X509EncodedKeySpec;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A class for a registered entity instance.
@@ -48,10 +50,22 @@ public class RegisteredEntity {
     private boolean active;
     private int[] backupToAuthIDs = new int[0];
     private int backupFromAuthID = -1;
-    private DistributionKey distributionKey = null;
-    private PublicKey publicKey;
+    private volatile DistributionKey distributionKey = null;
+    // Serialized distribution key from the database, built into distributionKey on first use.
+    private volatile byte[] distKeyVal = null;
+    private final ReentrantLock distributionKeyLock = new ReentrantLock();
+    private long distKeyExpirationTime = -1;
+    private volatile PublicKey publicKey = null;
+    // Encoded public key, decoded into publicKey on first use.
+    private byte[] publicKeyVal = null;
     private MigrationToken migrationToken = null;
 
+    // Crypto specs and validity periods parsed once for each distinct value, as registered entities share a few of
+    // them, which keeps loading many registered entities from parsing the same strings over and over.
+    private static final Map<String, PublicKeyCryptoSpec> publicKeyCryptoSpecCache = new ConcurrentHashMap<>();
+    private static final Map<String, SymmetricKeyCryptoSpec> distCryptoSpecCache = new ConcurrentHashMap<>();
+    private static final Map<String, Long> distKeyValidityPeriodCache = new ConcurrentHashMap<>();
+
     private static int[] convertStringBackupToAuthIDsToArray(String strBackupToAuthIDs) {
         if (strBackupToAuthIDs == null || strBackupToAuthIDs.length() == 0) {
             return new int[0];
@@ -76,29 +90,55 @@ public class RegisteredEntity {
         return ret;
     }
 
-    public RegisteredEntity(RegisteredEntityTable tableElement, DistributionKey distributionKey)
+    /**
+     * Constructor with a record of the registered entity table. Only names, groups and settings are read here,
+     * the public key and the distribution key are decoded on their first use, or by
+     * {@link #materializeCryptoObjects()}.
+     * @param tableElement Record of the registered entity table.
+     */
+    public RegisteredEntity(RegisteredEntityTable tableElement)
     {
         this.name = tableElement.getName();
         this.group = tableElement.getGroup();
         this.distProtocol = tableElement.getDistProtocol();
         this.usePermanentDistKey = tableElement.getUsePermanentDistKey();
         if (tableElement.getPublicKeyCryptoSpec() != null) {
-            this.publicKeyCryptoSpec = PublicKeyCryptoSpec.fromSpecString(tableElement.getPublicKeyCryptoSpec());
+            this.publicKeyCryptoSpec = publicKeyCryptoSpecCache.computeIfAbsent(
+                    tableElement.getPublicKeyCryptoSpec(), PublicKeyCryptoSpec::fromSpecString);
         }
-        this.distKeyValidityPeriod = DateHelper.parseTimePeriod(tableElement.getDistKeyValidityPeriod());
+        this.distKeyValidityPeriod = distKeyValidityPeriodCache.computeIfAbsent(
+                tableElement.getDistKeyValidityPeriod(), DateHelper::parseTimePeriod);
         this.maxSessionKeysPerRequest = tableElement.getMaxSessionKeysPerRequest();
-        this.distCryptoSpec = SymmetricKeyCryptoSpec.fromSpecString(tableElement.getDistCryptoSpec());
+        this.distCryptoSpec = distCryptoSpecCache.computeIfAbsent(
+                tableElement.getDistCryptoSpec(), SymmetricKeyCryptoSpec::fromSpecString);
         this.active = tableElement.isActive();
         this.backupToAuthIDs = convertStringBackupToAuthIDsToArray(tableElement.getBackupToAuthIDs());
         this.backupFromAuthID = tableElement.getBackupFromAuthID();
-        this.distributionKey = distributionKey; // Decrypted from database
-        this.publicKey = tableElement.getPublicKey();
+        this.distKeyVal = tableElement.getDistKeyVal(); // Decrypted from database
+        this.distKeyExpirationTime = tableElement.getDistKeyExpirationTime();
+        this.publicKeyVal = tableElement.getPublicKeyVal();
         if (tableElement.getMigrationTokenVal() != null) {
             this.migrationToken = new MigrationToken(this.distCryptoSpec.makeMacOnly(),
                     new Buffer(tableElement.getMigrationTokenVal()));
         }
     }
 
+    public RegisteredEntity(RegisteredEntityTable tableElement, DistributionKey distributionKey)
+    {
+        this(tableElement);
+        this.distKeyVal = null;
+        this.distributionKey = distributionKey;
+    }
+
+    /**
+     * Decodes the public key and builds the distribution key, which otherwise happens on their first use.
+     * Used for loading registered entities eagerly.
+     */
+    public void materializeCryptoObjects() {
+        getPublicKey();
+        getDistributionKey();
+    }
+
     public RegisteredEntityTable toRegisteredEntityTable(Buffer serializedDistributionKeyValue,
                                                          long distKeyExpirationTime) {
         RegisteredEntityTable tableElement = new RegisteredEntityTable();
@@ -133,7 +173,7 @@ public class RegisteredEntity {
             }
         }
         else {
-            tableElement.setPublicKey(publicKey);
+            tableElement.setPublicKeyVal(publicKeyVal);
             /*
             if (publicKeyFilePath == null) {
                 throw new RuntimeException("Wrong registered entity information, " +
@@ -165,13 +205,35 @@ public class RegisteredEntity {
         return maxSessionKeysPerRequest;
     }
     public PublicKey getPublicKey() {
-        return publicKey;
+        PublicKey key = publicKey;
+        if (key == null && publicKeyVal != null) {
+            // Concurrent first uses may decode the same public key twice, which is harmless.
+            key = EntityKeyCache.getPublicKey(name, publicKeyVal);
+            publicKey = key;
+        }
+        return key;
     }
     public long getDistKeyValidityPeriod() {
         return distKeyValidityPeriod;
     }
     public DistributionKey getDistributionKey() {
-        return distributionKey;
+        DistributionKey key = distributionKey;
+        if (key == null && distKeyVal != null) {
+            distributionKeyLock.lock();
+            try {
+                // Keeps a distribution key set by setDistributionKey() from being replaced by the stored one.
+                if (distributionKey == null && distKeyVal != null) {
+                    distributionKey = new DistributionKey(distCryptoSpec, distKeyExpirationTime,
+                            new Buffer(distKeyVal));
+                }
+                distKeyVal = null;
+                key = distributionKey;
+            }
+            finally {
+                distributionKeyLock.unlock();
+            }
+        }
+        return key;
     }
     public SymmetricKeyCryptoSpec getDistCryptoSpec() {
         return distCryptoSpec;
@@ -214,19 +276,27 @@ public class RegisteredEntity {
         }
 
         ret += "\tDistKey: ";
-        if (distributionKey == null) {
+        DistributionKey currentDistributionKey = getDistributionKey();
+        if (currentDistributionKey == null) {
             ret += "NULL";
         }
         else {
-            ret += distributionKey.toString();
+            ret += currentDistributionKey.toString();
         }
         if (!usePermanentDistKey) {
-            ret += "\tPublicKey: " + Buffer.toHexString(publicKey.getEncoded());
+            ret += "\tPublicKey: " + Buffer.toHexString(publicKeyVal);
         }
         return ret;
     }
     public void setDistributionKey(DistributionKey distributionKey) {
-        this.distributionKey = distributionKey;
+        distributionKeyLock.lock();
+        try {
+            this.distributionKey = distributionKey;
+            this.distKeyVal = null;
+        }
+        finally {
+            distributionKeyLock.unlock();
+        }
     }
 
     public void setMigrationToken(MigrationToken migrationToken) {
@@ -276,10 +346,10 @@ public class RegisteredEntity {
 
         Buffer keyBuffer;
         if (usePermanentDistKey) {
-            keyBuffer = distributionKey.serialize();
+            keyBuffer = getDistributionKey().serialize();
         }
         else {
-            keyBuffer = new Buffer(publicKey.getEncoded());
+            keyBuffer = new Buffer(publicKeyVal);
         }
         buffer.concat(new VariableLengthInt(keyBuffer.length()).serialize());
         buffer.concat(keyBuffer);
@@ -352,10 +422,8 @@ public class RegisteredEntity {
             //keyBuffer
         }
         else {
-            // decode public key
-            KeyFactory keyFactory = KeyFactory.getInstance("RSA");
-            X509EncodedKeySpec pubSpec = new X509EncodedKeySpec(keyBuffer.getRawBytes());
-            this.publicKey = keyFactory.generatePublic(pubSpec);
+            // public key is decoded on first use, backed up entities may never send requests to this Auth
+            this.publicKeyVal = keyBuffer.getRawBytes();
         }
 
         varLenInt = buffer.getVariableLengthInt(curIndex);
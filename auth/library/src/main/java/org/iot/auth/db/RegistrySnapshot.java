@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db;
+
+import java.util.*;
+
+/**
+ * An immutable snapshot of registered entities, communication policies and trusted Auths loaded from Auth DB.
+ * A snapshot is never modified after it is published. Changes are made by building a new snapshot from the
+ * current one, which replaces the current one at once, so that readers never see a partially loaded registry.
+ * Registered entities are shared between snapshots, and their distribution keys are updated in place.
+ * @author Hokeun Kim
+ */
+public class RegistrySnapshot {
+    public static final RegistrySnapshot EMPTY = new RegistrySnapshot(Collections.emptyMap(),
+            CommunicationPolicyIndex.EMPTY, Collections.emptyMap());
+
+    private RegistrySnapshot(Map<String, RegisteredEntity> registeredEntityMap,
+                             CommunicationPolicyIndex communicationPolicyIndex,
+                             Map<Integer, TrustedAuth> trustedAuthMap)
+    {
+        this.registeredEntityMap = registeredEntityMap;
+        this.communicationPolicyIndex = communicationPolicyIndex;
+        this.trustedAuthMap = trustedAuthMap;
+    }
+
+    /**
+     * Creates a new snapshot whose registered entities are replaced with the given ones.
+     * @param registeredEntities All registered entities of the new snapshot.
+     * @return The new snapshot.
+     */
+    public RegistrySnapshot withRegisteredEntities(Collection<RegisteredEntity> registeredEntities) {
+        Map<String, RegisteredEntity> newRegisteredEntityMap = new HashMap<>(registeredEntities.size() * 2);
+        for (RegisteredEntity registeredEntity: registeredEntities) {
+            newRegisteredEntityMap.put(registeredEntity.getName(), registeredEntity);
+        }
+        return new RegistrySnapshot(Collections.unmodifiableMap(newRegisteredEntityMap),
+                communicationPolicyIndex, trustedAuthMap);
+    }
+
+    /**
+     * Creates a new snapshot whose communication policies are replaced with the given ones.
+     * @param communicationPolicies All communication policies of the new snapshot, in the order of lookup.
+     * @param wildcardMatchingEnabled Whether targets of communication policies ending with the wildcard match
+     *                                by prefix.
+     * @return The new snapshot.
+     */
+    public RegistrySnapshot withCommunicationPolicies(List<CommunicationPolicy> communicationPolicies,
+                                                      boolean wildcardMatchingEnabled)
+    {
+        return new RegistrySnapshot(registeredEntityMap,
+                new CommunicationPolicyIndex(communicationPolicies, wildcardMatchingEnabled), trustedAuthMap);
+    }
+
+    /**
+     * Creates a new snapshot with the given communication policy added after the existing ones.
+     * @param communicationPolicy The communication policy to be added.
+     * @return The new snapshot.
+     */
+    public RegistrySnapshot withCommunicationPolicy(CommunicationPolicy communicationPolicy) {
+        return new RegistrySnapshot(registeredEntityMap,
+                communicationPolicyIndex.withCommunicationPolicy(communicationPolicy), trustedAuthMap);
+    }
+
+    /**
+     * Creates a new snapshot whose trusted Auths are replaced with the given ones.
+     * @param trustedAuths All trusted Auths of the new snapshot.
+     * @return The new snapshot.
+     */
+    public RegistrySnapshot withTrustedAuths(Collection<TrustedAuth> trustedAuths) {
+        Map<Integer, TrustedAuth> newTrustedAuthMap = new HashMap<>(trustedAuths.size() * 2);
+        for (TrustedAuth trustedAuth: trustedAuths) {
+            newTrustedAuthMap.put(trustedAuth.getID(), trustedAuth);
+        }
+        return new RegistrySnapshot(registeredEntityMap, communicationPolicyIndex,
+                Collections.unmodifiableMap(newTrustedAuthMap));
+    }
+
+    /**
+     * Creates a new snapshot with the given trusted Auth added, or replaced if it exists.
+     * @param trustedAuth The trusted Auth to be added or replaced.
+     * @return The new snapshot.
+     */
+    public RegistrySnapshot withTrustedAuth(TrustedAuth trustedAuth) {
+        Map<Integer, TrustedAuth> newTrustedAuthMap = new HashMap<>(trustedAuthMap);
+        newTrustedAuthMap.put(trustedAuth.getID(), trustedAuth);
+        return new RegistrySnapshot(registeredEntityMap, communicationPolicyIndex,
+                Collections.unmodifiableMap(newTrustedAuthMap));
+    }
+
+    public RegisteredEntity getRegisteredEntity(String entityName) {
+        return registeredEntityMap.get(entityName);
+    }
+
+    public Collection<RegisteredEntity> getRegisteredEntities() {
+        return registeredEntityMap.values();
+    }
+
+    public List<CommunicationPolicy> getCommunicationPolicies() {
+        return communicationPolicyIndex.getCommunicationPolicies();
+    }
+
+    public CommunicationPolicy getCommunicationPolicy(String reqGroup, CommunicationTargetType targetType,
+                                                      String target)
+    {
+        return communicationPolicyIndex.lookup(reqGroup, targetType, target);
+    }
+
+    public TrustedAuth getTrustedAuth(int authID) {
+        return trustedAuthMap.get(authID);
+    }
+
+    public Collection<TrustedAuth> getTrustedAuths() {
+        return trustedAuthMap.values();
+    }
+
+    public Set<Integer> getTrustedAuthIDs() {
+        return trustedAuthMap.keySet();
+    }
+
+    public String toString() {
+        return "Registered entities: " + registeredEntityMap.size() +
+                ", Communication policies: " + communicationPolicyIndex.getCommunicationPolicies().size() +
+                " (wildcard: " + communicationPolicyIndex.getNumWildcardPolicies() + ")" +
+                ", Trusted Auths: " + trustedAuthMap.size();
+    }
+
+    private final Map<String, RegisteredEntity> registeredEntityMap;
+    private final CommunicationPolicyIndex communicationPolicyIndex;
+    private final Map<Integer, TrustedAuth> trustedAuthMap;
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db;
+
+import org.iot.auth.db.bean.MetaDataTable;
+import org.iot.auth.db.dao.AuthStore;
+import org.iot.auth.util.ExceptionToString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A class for allocating session key IDs. Session key indices are reserved from the database in blocks,
+ * with a single meta data update per block, and handed out from memory afterwards.
+ * <pre>
+ * Packed layout (48 bits, to stay within 6-byte integers used by entities):
+ *      | 1 (layout flag) | Auth ID (15 bits) | Session key index (32 bits) |
+ * Legacy layout:
+ *      Auth ID * 100000 + Session key index
+ * </pre>
+ * Legacy IDs are always smaller than the layout flag, so IDs of both layouts can be decoded at the same time,
+ * which allows session keys issued before switching to the packed layout to be used until they expire.
+ * Indices in the two layouts are counted under separate meta data keys.
+ * Unused indices of the current block are returned to the database on a clean shutdown. In the legacy layout, blocks
+ * are kept small, so that a crash loses few of the 100000 indices of an Auth, and no index is allocated past them,
+ * as it would be decoded as an index of the next Auth.
+ * @author Hokeun Kim
+ */
+public class SessionKeyIDAllocator {
+    private static final Logger logger = LoggerFactory.getLogger(SessionKeyIDAllocator.class);
+
+    public static final String LAYOUT_PACKED = "packed";
+    public static final String LAYOUT_LEGACY = "legacy";
+    public static final long DEFAULT_BLOCK_SIZE = 10000;
+
+    private static final long PACKED_LAYOUT_FLAG = 1L << 47;
+    private static final int PACKED_AUTH_ID_SHIFT = 32;
+    private static final long PACKED_AUTH_ID_MASK = (1L << 15) - 1;
+    private static final long PACKED_MAX_INDEX = 1L << 32;
+    private static final long LEGACY_MAX_INDEX = 100000;
+    private static final long LEGACY_MAX_BLOCK_SIZE = 100;
+
+    /**
+     * Constructor for the session key ID allocator.
+     * @param authID ID of the Auth issuing session keys.
+     * @param layout Layout of session key IDs, either packed or legacy.
+     * @param blockSize Number of session key indices reserved from the database at once, at most 100 in the legacy
+     *                  layout.
+     * @param authStore Store of Auth DB where reserved indices are recorded.
+     */
+    public SessionKeyIDAllocator(int authID, String layout, long blockSize, AuthStore authStore) {
+        if (layout.equalsIgnoreCase(LAYOUT_PACKED)) {
+            if (authID < 0 || authID > PACKED_AUTH_ID_MASK) {
+                throw new IllegalArgumentException("Auth ID " + authID + " cannot be encoded in packed session key IDs.");
+            }
+            this.isPacked = true;
+            this.metaDataKey = MetaDataTable.key.SessionKeyIDLimit.name();
+        }
+        else if (layout.equalsIgnoreCase(LAYOUT_LEGACY)) {
+            this.isPacked = false;
+            this.metaDataKey = MetaDataTable.key.SessionKeyCount.name();
+        }
+        else {
+            throw new IllegalArgumentException("Unknown session key ID layout: " + layout);
+        }
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size for session key IDs must be positive: " + blockSize);
+        }
+        this.authID = authID;
+        this.blockSize = isPacked ? blockSize : Math.min(blockSize, LEGACY_MAX_BLOCK_SIZE);
+        this.authStore = authStore;
+    }
+
+    /**
+     * Allocates consecutive session key IDs.
+     * @param numKeys Number of session key IDs to be allocated.
+     * @return The first allocated session key ID; the following IDs are the next consecutive numbers.
+     * @throws SQLException When an error occurs in database
+     * @throws ClassNotFoundException When a specified class is not found
+     */
+    public long allocate(int numKeys) throws SQLException, ClassNotFoundException {
+        while (true) {
+            long firstIndex = nextIndex.get();
+            if (firstIndex + numKeys <= indexLimit) {
+                if (nextIndex.compareAndSet(firstIndex, firstIndex + numKeys)) {
+                    return encode(firstIndex);
+                }
+                continue;
+            }
+            lock.lock();
+            try {
+                if (nextIndex.get() + numKeys > indexLimit) {
+                    reserveBlock(numKeys);
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns unused indices of the current block to the database, on a clean shutdown, so that restarts do not use
+     * up the index space. Session key IDs allocated afterwards are taken from a new block. If the database cannot be
+     * updated, the unused indices are lost, as after a crash.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            if (indexLimit == 0) {
+                return;
+            }
+            // Moves the next index past the limit, so that no other thread allocates from the current block.
+            long unusedIndex = nextIndex.getAndSet(Long.MAX_VALUE / 2);
+            indexLimit = 0;
+            nextIndex.set(0);
+            authStore.updateMetaData(metaDataKey, Long.toString(unusedIndex));
+            logger.info("Returned unused session key indices from {}.", unusedIndex);
+        }
+        catch (SQLException | ClassNotFoundException e) {
+            logger.error("Failed to return unused session key indices: {}", ExceptionToString.convertExceptionToStackTrace(e));
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Decodes the ID of the Auth that issued the session key, for both packed and legacy layouts.
+     * @param sessionKeyID ID of the session key.
+     * @return ID of the Auth that issued the session key.
+     */
+    public static int decodeAuthID(long sessionKeyID) {
+        if ((sessionKeyID & PACKED_LAYOUT_FLAG) != 0) {
+            return (int)((sessionKeyID >>> PACKED_AUTH_ID_SHIFT) & PACKED_AUTH_ID_MASK);
+        }
+        return (int)(sessionKeyID / LEGACY_MAX_INDEX);
+    }
+
+    public String toString() {
+        return "layout: " + (isPacked ? LAYOUT_PACKED : LAYOUT_LEGACY) + ", block size: " + blockSize +
+                ", next index: " + nextIndex.get() + ", reserved up to: " + indexLimit +
+                ", blocks reserved: " + numReservedBlocks;
+    }
+
+    private long encode(long index) {
+        if (isPacked) {
+            return PACKED_LAYOUT_FLAG | ((long) authID << PACKED_AUTH_ID_SHIFT) | index;
+        }
+        return authID * LEGACY_MAX_INDEX + index;
+    }
+
+    private void reserveBlock(int numKeys) throws SQLException, ClassNotFoundException {
+        String value = authStore.selectMetaDataValue(metaDataKey);
+        if (value == null) {
+            // Database created before this meta data key existed, start a new index space.
+            logger.info("Meta data {} not found, initializing it.", metaDataKey);
+            MetaDataTable metaData = new MetaDataTable();
+            metaData.setKey(metaDataKey);
+            metaData.setValue("0");
+            authStore.insertRecords(metaData);
+            value = metaData.getValue();
+        }
+        long blockStart = Long.parseLong(value);
+        long blockLimit = blockStart + Math.max(blockSize, numKeys);
+        if (isPacked) {
+            if (blockLimit > PACKED_MAX_INDEX) {
+                throw new IllegalStateException("Session key IDs for Auth " + authID + " are exhausted.");
+            }
+        }
+        else if (blockStart + numKeys > LEGACY_MAX_INDEX) {
+            throw new IllegalStateException("Legacy session key IDs for Auth " + authID +
+                    " are exhausted, the packed layout is needed for more session keys.");
+        }
+        else {
+            blockLimit = Math.min(blockLimit, LEGACY_MAX_INDEX);
+        }
+        authStore.updateMetaData(metaDataKey, Long.toString(blockLimit));
+        // The next index must move into the new block before the limit is raised,
+        // so that no thread allocates past the end of the previous block.
+        nextIndex.set(blockStart);
+        indexLimit = blockLimit;
+        numReservedBlocks++;
+    }
+
+    private final int authID;
+    private final boolean isPacked;
+    private final String metaDataKey;
+    private final long blockSize;
+    private final AuthStore authStore;
+    private final AtomicLong nextIndex = new AtomicLong(0);
+    private volatile long indexLimit = 0;
+    private volatile long numReservedBlocks = 0;
+    // Only taken by the thread that reserves a new block.
+    private final ReentrantLock lock = new ReentrantLock();
+}
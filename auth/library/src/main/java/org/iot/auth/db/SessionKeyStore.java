@@ -0,0 +1,447 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db;
+
+import org.iot.auth.crypto.SessionKey;
+import org.iot.auth.db.bean.CachedSessionKeyTable;
+import org.iot.auth.db.dao.AuthStore;
+import org.iot.auth.util.ExceptionToString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory store of session keys cached by Auth, indexed by session key ID and by purpose, which serves
+ * all reads of session keys. Writes (new session keys and new owners) are applied in memory first and
+ * journaled to the database by a background writer in batches.
+ * <pre>
+ * Durability modes:
+ *      sync: Writers wait until their changes are committed. Changes from concurrent writers are committed together.
+ *      group: Writers return immediately, and changes are committed every group commit interval.
+ *             Changes which fail to be committed are retried in the next commit.
+ * </pre>
+ * Expired session keys are dropped from memory by the background writer; they are no longer returned once expired.
+ * On restart, the store is rebuilt from the session keys in the database.
+ * @author Hokeun Kim
+ */
+public class SessionKeyStore {
+    private static final Logger logger = LoggerFactory.getLogger(SessionKeyStore.class);
+
+    public static final String DURABILITY_SYNC = "sync";
+    public static final String DURABILITY_GROUP = "group";
+    private static final long EXPIRY_PURGE_INTERVAL = 1000;    // milliseconds
+
+    /**
+     * Constructor for the session key store.
+     * @param durabilityMode Durability mode of the journal, either sync or group.
+     * @param groupCommitInterval Interval in milliseconds between commits of the journal, in group mode.
+     * @param authStore Store of Auth DB where session keys are journaled.
+     */
+    public SessionKeyStore(String durabilityMode, long groupCommitInterval, AuthStore authStore) {
+        if (durabilityMode.equalsIgnoreCase(DURABILITY_SYNC)) {
+            this.syncCommit = true;
+        }
+        else if (durabilityMode.equalsIgnoreCase(DURABILITY_GROUP)) {
+            this.syncCommit = false;
+            if (groupCommitInterval <= 0) {
+                throw new IllegalArgumentException("Group commit interval must be positive: " + groupCommitInterval);
+            }
+        }
+        else {
+            throw new IllegalArgumentException("Unknown durability mode for session key store: " + durabilityMode);
+        }
+        this.groupCommitInterval = groupCommitInterval;
+        this.authStore = authStore;
+        this.keyMap = new ConcurrentHashMap<>();
+        this.purposeMap = new ConcurrentHashMap<>();
+        this.expirySet = new ConcurrentSkipListSet<>(
+                Comparator.comparingLong(SessionKey::getRawExpirationTime).thenComparingLong(SessionKey::getID));
+        this.journalQueue = new ConcurrentLinkedQueue<>();
+        this.journalWriter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SessionKeyJournalWriter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (!syncCommit) {
+            journalWriter.scheduleWithFixedDelay(this::commitJournal,
+                    groupCommitInterval, groupCommitInterval, TimeUnit.MILLISECONDS);
+        }
+        journalWriter.scheduleWithFixedDelay(() -> removeExpired(new Date().getTime()),
+                EXPIRY_PURGE_INTERVAL, EXPIRY_PURGE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Rebuilds the store from the session keys in the database, skipping expired ones.
+     * @return The number of session keys loaded.
+     * @throws SQLException When an error occurs in database
+     * @throws ClassNotFoundException When a specified class is not found
+     */
+    public int load() throws SQLException, ClassNotFoundException {
+        long currentTime = new Date().getTime();
+        int numLoaded = 0;
+        for (CachedSessionKeyTable cachedSessionKey: authStore.selectAllCachedSessionKey()) {
+            if (cachedSessionKey.getAbsValidity() <= currentTime) {
+                continue;
+            }
+            putInMemory(cachedSessionKey.toSessionKey());
+            numLoaded++;
+        }
+        logger.info("Loaded {} session keys into the session key store.", numLoaded);
+        return numLoaded;
+    }
+
+    /**
+     * Adds newly generated session keys, and journals them to the database.
+     * @param sessionKeyList Session keys to be added.
+     * @throws SQLException When the session keys cannot be committed, in sync mode
+     */
+    public void put(List<SessionKey> sessionKeyList) throws SQLException {
+        List<CachedSessionKeyTable> cachedSessionKeyList = new ArrayList<>(sessionKeyList.size());
+        for (SessionKey sessionKey: sessionKeyList) {
+            putInMemory(sessionKey);
+            cachedSessionKeyList.add(CachedSessionKeyTable.fromSessionKey(sessionKey));
+        }
+        try {
+            journal(new JournalEntry(cachedSessionKeyList, null, null));
+        }
+        catch (SQLException e) {
+            // Session keys which are not committed must not be handed out, in sync mode.
+            for (SessionKey sessionKey: sessionKeyList) {
+                expirySet.remove(sessionKey);
+                removeFromIndexes(sessionKey);
+            }
+            throw e;
+        }
+    }
+
+    public SessionKey get(long keyID) {
+        SessionKey sessionKey = keyMap.get(keyID);
+        if (sessionKey == null || sessionKey.getRawExpirationTime() <= new Date().getTime()) {
+            return null;
+        }
+        return sessionKey;
+    }
+
+    /**
+     * Finds unexpired session keys for the given purpose which are not owned by the requesting entity yet.
+     * @param requestingEntityName Name of the requesting entity.
+     * @param purpose Purpose of the session keys.
+     * @return A list of session keys, in the order of their IDs.
+     */
+    public List<SessionKey> getByPurpose(String requestingEntityName, String purpose) {
+        List<SessionKey> result = new ArrayList<>();
+        Set<Long> keyIDSet = purposeMap.get(purpose);
+        if (keyIDSet == null) {
+            return result;
+        }
+        long currentTime = new Date().getTime();
+        for (long keyID: keyIDSet) {
+            SessionKey sessionKey = keyMap.get(keyID);
+            if (sessionKey == null || sessionKey.getRawExpirationTime() <= currentTime ||
+                    isOwner(sessionKey, requestingEntityName)) {
+                continue;
+            }
+            result.add(sessionKey);
+        }
+        return result;
+    }
+
+    /**
+     * Adds a new owner to session keys, and journals the new owner to the database.
+     * @param keyIDList IDs of the session keys to be updated.
+     * @param newOwner A new owner (entity) of the session keys.
+     * @return The number of session keys updated.
+     * @throws SQLException When the new owner cannot be committed, in sync mode
+     */
+    public int addOwner(List<Long> keyIDList, String newOwner) throws SQLException {
+        List<Long> updatedKeyIDList = new ArrayList<>(keyIDList.size());
+        List<Long> ownerAddedKeyIDList = new ArrayList<>(keyIDList.size());
+        for (long keyID: keyIDList) {
+            SessionKey updated = keyMap.computeIfPresent(keyID, (id, sessionKey) -> {
+                if (isOwner(sessionKey, newOwner)) {
+                    return sessionKey;
+                }
+                ownerAddedKeyIDList.add(id);
+                return withNewOwner(sessionKey, newOwner);
+            });
+            if (updated != null) {
+                updatedKeyIDList.add(keyID);
+            }
+        }
+        if (!updatedKeyIDList.isEmpty()) {
+            try {
+                journal(new JournalEntry(null, updatedKeyIDList, newOwner));
+            }
+            catch (SQLException e) {
+                // An owner which is not committed must not be seen by later requests, in sync mode.
+                for (long keyID: ownerAddedKeyIDList) {
+                    keyMap.computeIfPresent(keyID, (id, sessionKey) -> withoutOwner(sessionKey, newOwner));
+                }
+                throw e;
+            }
+        }
+        return updatedKeyIDList.size();
+    }
+
+    /**
+     * Drops expired session keys from memory.
+     * @param currentTime Current time in milliseconds.
+     * @return The number of session keys dropped.
+     */
+    public int removeExpired(long currentTime) {
+        int numRemoved = 0;
+        Iterator<SessionKey> iterator = expirySet.iterator();
+        while (iterator.hasNext()) {
+            SessionKey sessionKey = iterator.next();
+            if (sessionKey.getRawExpirationTime() > currentTime) {
+                break;
+            }
+            if (expirySet.remove(sessionKey)) {
+                removeFromIndexes(sessionKey);
+                numRemoved++;
+            }
+        }
+        numExpired.addAndGet(numRemoved);
+        return numRemoved;
+    }
+
+    /**
+     * Drops all session keys from memory. Changes still in the journal are committed as they are.
+     */
+    public void clear() {
+        expirySet.clear();
+        keyMap.clear();
+        purposeMap.clear();
+    }
+
+    /**
+     * Commits all changes in the journal, and waits until they are committed.
+     * @throws SQLException When an error occurs in database
+     */
+    public void flush() throws SQLException {
+        waitFor(journalWriter.submit(this::commitJournal));
+        if (!journalQueue.isEmpty() && lastFailure != null) {
+            throw lastFailure;
+        }
+    }
+
+    /**
+     * Commits the remaining changes in the journal and stops the background writer.
+     * @throws InterruptedException When interrupted while waiting for the writer to stop
+     */
+    public void close() throws InterruptedException {
+        try {
+            flush();
+        }
+        catch (SQLException | RejectedExecutionException e) {
+            logger.error("Failed to flush session key journal on close: {}", ExceptionToString.convertExceptionToStackTrace(e));
+        }
+        journalWriter.shutdownNow();
+        journalWriter.awaitTermination(groupCommitInterval + EXPIRY_PURGE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get all session keys in memory, including expired ones not dropped yet.
+     * @return A list of session keys, in the order of their IDs.
+     */
+    public List<SessionKey> getAll() {
+        List<SessionKey> result = new ArrayList<>(keyMap.values());
+        result.sort(Comparator.comparingLong(SessionKey::getID));
+        return result;
+    }
+
+    public int size() {
+        return keyMap.size();
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("durability: " + (syncCommit ? DURABILITY_SYNC : DURABILITY_GROUP + " (" + groupCommitInterval + " ms)"));
+        sb.append(", keys: " + keyMap.size() + ", purposes: " + purposeMap.size());
+        sb.append(", expired: " + numExpired.get());
+        sb.append("\n  journal pending: " + journalQueue.size() + ", commits: " + numCommits.get());
+        sb.append(", keys journaled: " + numKeysJournaled.get() + ", owners journaled: " + numOwnersJournaled.get());
+        sb.append(", failed commits: " + numFailedCommits.get());
+        return sb.toString();
+    }
+
+    private void putInMemory(SessionKey sessionKey) {
+        keyMap.put(sessionKey.getID(), sessionKey);
+        purposeMap.computeIfAbsent(sessionKey.getPurpose(), purpose -> new ConcurrentSkipListSet<>())
+                .add(sessionKey.getID());
+        expirySet.add(sessionKey);
+    }
+
+    private void removeFromIndexes(SessionKey sessionKey) {
+        keyMap.remove(sessionKey.getID());
+        Set<Long> keyIDSet = purposeMap.get(sessionKey.getPurpose());
+        if (keyIDSet != null) {
+            keyIDSet.remove(sessionKey.getID());
+        }
+    }
+
+    private static boolean isOwner(SessionKey sessionKey, String entityName) {
+        for (String owner: sessionKey.getOwners()) {
+            if (owner.equals(entityName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static SessionKey withNewOwner(SessionKey sessionKey, String newOwner) {
+        String[] owners = Arrays.copyOf(sessionKey.getOwners(), sessionKey.getOwners().length + 1);
+        owners[owners.length - 1] = newOwner;
+        return withOwners(sessionKey, owners);
+    }
+
+    private static SessionKey withoutOwner(SessionKey sessionKey, String owner) {
+        List<String> owners = new ArrayList<>(Arrays.asList(sessionKey.getOwners()));
+        if (!owners.remove(owner)) {
+            return sessionKey;
+        }
+        return withOwners(sessionKey, owners.toArray(new String[0]));
+    }
+
+    private static SessionKey withOwners(SessionKey sessionKey, String[] owners) {
+        // Crypto spec and key value are shared, so nothing is parsed again.
+        return new SessionKey(sessionKey.getID(), owners, sessionKey.getMaxNumOwners(), sessionKey.getPurpose(),
+                sessionKey.getRawExpirationTime(), sessionKey.getRelValidity(), sessionKey.getCryptoSpec(),
+                sessionKey.getSerializedKeyVal());
+    }
+
+    private void journal(JournalEntry journalEntry) throws SQLException {
+        journalQueue.add(journalEntry);
+        if (syncCommit) {
+            // Entries of concurrent writers are drained and committed together by a single commit.
+            journalWriter.execute(this::commitJournal);
+            waitFor(journalEntry.committed);
+        }
+    }
+
+    private static void waitFor(Future<?> future) throws SQLException {
+        try {
+            future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for session key journal commit.", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException("Failed to commit session key journal.", e.getCause());
+        }
+    }
+
+    /**
+     * Drains the journal and commits it to the database, runs only in the background writer.
+     * New session keys are inserted before new owners are appended, so owners of keys in the same batch are kept.
+     */
+    private void commitJournal() {
+        List<JournalEntry> journalEntryList = new ArrayList<>();
+        JournalEntry journalEntry;
+        while ((journalEntry = journalQueue.poll()) != null) {
+            journalEntryList.add(journalEntry);
+        }
+        if (journalEntryList.isEmpty()) {
+            return;
+        }
+        List<CachedSessionKeyTable> cachedSessionKeyList = new ArrayList<>();
+        Map<String, List<Long>> newOwnerMap = new LinkedHashMap<>();
+        for (JournalEntry entry: journalEntryList) {
+            if (entry.cachedSessionKeyList != null) {
+                cachedSessionKeyList.addAll(entry.cachedSessionKeyList);
+            }
+            if (entry.keyIDList != null) {
+                newOwnerMap.computeIfAbsent(entry.newOwner, owner -> new ArrayList<>()).addAll(entry.keyIDList);
+            }
+        }
+        boolean keysInserted = false;
+        try {
+            if (!cachedSessionKeyList.isEmpty()) {
+                authStore.insertCachedSessionKeys(cachedSessionKeyList);
+                numKeysJournaled.addAndGet(cachedSessionKeyList.size());
+            }
+            keysInserted = true;
+            for (Map.Entry<String, List<Long>> entry: newOwnerMap.entrySet()) {
+                authStore.appendSessionKeyOwners(entry.getValue(), entry.getKey());
+                numOwnersJournaled.addAndGet(entry.getValue().size());
+            }
+            numCommits.incrementAndGet();
+            lastFailure = null;
+            for (JournalEntry entry: journalEntryList) {
+                entry.committed.complete(null);
+            }
+        }
+        catch (SQLException | ClassNotFoundException | RuntimeException e) {
+            numFailedCommits.incrementAndGet();
+            logger.error("Failed to commit {} session key journal entries: {}", journalEntryList.size(),
+                    ExceptionToString.convertExceptionToStackTrace(e));
+            if (syncCommit) {
+                // Writers roll back their changes in memory.
+                for (JournalEntry entry: journalEntryList) {
+                    entry.committed.completeExceptionally(e);
+                }
+                return;
+            }
+            // Retried in the next commit. Session keys already inserted are not inserted again, while appending
+            // owners again has no effect on those already appended.
+            for (JournalEntry entry: journalEntryList) {
+                if (!keysInserted) {
+                    journalQueue.add(entry);
+                }
+                else if (entry.keyIDList != null) {
+                    journalQueue.add(new JournalEntry(null, entry.keyIDList, entry.newOwner));
+                }
+            }
+            lastFailure = e instanceof SQLException ? (SQLException) e :
+                    new SQLException("Failed to commit session key journal.", e);
+        }
+    }
+
+    private static class JournalEntry {
+        JournalEntry(List<CachedSessionKeyTable> cachedSessionKeyList, List<Long> keyIDList, String newOwner) {
+            this.cachedSessionKeyList = cachedSessionKeyList;
+            this.keyIDList = keyIDList;
+            this.newOwner = newOwner;
+        }
+        private final List<CachedSessionKeyTable> cachedSessionKeyList;
+        private final List<Long> keyIDList;
+        private final String newOwner;
+        private final CompletableFuture<Void> committed = new CompletableFuture<>();
+    }
+
+    private final boolean syncCommit;
+    private final long groupCommitInterval;
+    private final AuthStore authStore;
+    private final Map<Long, SessionKey> keyMap;
+    private final Map<String, Set<Long>> purposeMap;
+    private final NavigableSet<SessionKey> expirySet;
+    private final Queue<JournalEntry> journalQueue;
+    private final ScheduledExecutorService journalWriter;
+    private volatile SQLException lastFailure = null;
+    private final AtomicLong numExpired = new AtomicLong(0);
+    private final AtomicLong numCommits = new AtomicLong(0);
+    private final AtomicLong numKeysJournaled = new AtomicLong(0);
+    private final AtomicLong numOwnersJournaled = new AtomicLong(0);
+    private final AtomicLong numFailedCommits = new AtomicLong(0);
+}
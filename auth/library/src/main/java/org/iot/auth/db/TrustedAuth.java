@@ -15,7 +15,12 @@
 
 package org.iot.auth.db;
 
+import org.iot.auth.crypto.AuthCrypto;
+import org.iot.auth.db.bean.TrustedAuthTable;
+
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Class for information of a trusted Auth.
@@ -36,6 +41,20 @@ public class TrustedAuth {
         this.backupCertificate = backupCertificate;
     }
 
+    /**
+     * Constructor with a record of the trusted Auth table. The entity and backup certificates are kept encoded,
+     * and decoded on their first use.
+     * @param tableElement Record of the trusted Auth table.
+     * @throws CertificateEncodingException When an error occurs while encoding a certificate of the record
+     */
+    public TrustedAuth(TrustedAuthTable tableElement) throws CertificateEncodingException {
+        this(tableElement.getId(), tableElement.getHost(), tableElement.getEntityHost(), tableElement.getPort(),
+                tableElement.getHeartbeatPeriod(), tableElement.getFailureThreshold(),
+                tableElement.getInternetCertificate(), null, null);
+        this.entityCertificateVal = tableElement.getEntityCertificateVal();
+        this.backupCertificateVal = tableElement.getBackupCertificateVal();
+    }
+
     public int getID() {
         return id;
     }
@@ -65,15 +84,43 @@ public class TrustedAuth {
     }
 
     public X509Certificate getEntityCertificate() {
-        return entityCertificate;
+        X509Certificate certificate = entityCertificate;
+        if (certificate == null && entityCertificateVal != null) {
+            // Concurrent first uses may decode the same certificate twice, which is harmless.
+            certificate = AuthCrypto.loadCertificateFromBytes(entityCertificateVal);
+            entityCertificate = certificate;
+        }
+        return certificate;
     }
 
     public X509Certificate getBackupCertificate() {
-        return backupCertificate;
+        X509Certificate certificate = backupCertificate;
+        if (certificate == null && backupCertificateVal != null) {
+            lock.lock();
+            try {
+                // Keeps a certificate set by setBackupCertificate() from being replaced by the stored one.
+                if (backupCertificate == null && backupCertificateVal != null) {
+                    backupCertificate = AuthCrypto.loadCertificateFromBytes(backupCertificateVal);
+                }
+                backupCertificateVal = null;
+                certificate = backupCertificate;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+        return certificate;
     }
 
     public void setBackupCertificate(X509Certificate backupCertificate) {
-        this.backupCertificate = backupCertificate;
+        lock.lock();
+        try {
+            this.backupCertificate = backupCertificate;
+            this.backupCertificateVal = null;
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
     public String toString() {
@@ -81,8 +128,8 @@ public class TrustedAuth {
                 "\tHeartbeatPeriod: " + heartbeatPeriod +
                 "\tFailureThreshold: " + failureThreshold +
                 "\tInternetCertificate: " + internetCertificate +
-                "\tEntityCertificate: " + entityCertificate +
-                "\tBackupCertificate: " + backupCertificate;
+                "\tEntityCertificate: " + getEntityCertificate() +
+                "\tBackupCertificate: " + getBackupCertificate();
     }
 
     public String toBriefString() {
@@ -90,9 +137,9 @@ public class TrustedAuth {
                 "\tHeartbeatPeriod: " + heartbeatPeriod +
                 "\tFailureThreshold: " + failureThreshold +
                 "\tInternetCertificate: " + internetCertificate.getSubjectDN() +
-                "\tEntityCertificate: " + entityCertificate.getSubjectDN() +
-                "\tBackupCertificate: " + (backupCertificate == null ?
-                    "NULL" : backupCertificate.getSubjectDN().toString());
+                "\tEntityCertificate: " + getEntityCertificate().getSubjectDN() +
+                "\tBackupCertificate: " + (getBackupCertificate() == null ?
+                    "NULL" : getBackupCertificate().getSubjectDN().toString());
     }
 
     private int id;
@@ -102,6 +149,9 @@ public class TrustedAuth {
     private int heartbeatPeriod;
     private int failureThreshold;
     private X509Certificate internetCertificate;
-    private X509Certificate entityCertificate;
-    private X509Certificate backupCertificate;
+    private volatile X509Certificate entityCertificate;
+    private byte[] entityCertificateVal = null;
+    private volatile X509Certificate backupCertificate;
+    private volatile byte[] backupCertificateVal = null;
+    private final ReentrantLock lock = new ReentrantLock();
 }
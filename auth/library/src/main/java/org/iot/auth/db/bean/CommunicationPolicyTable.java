@@ -121,18 +121,10 @@ public class CommunicationPolicyTable {
         return absValidity;
     }
 
-    private void setAbsValidity(long absValidity) {
-        this.absValidity = absValidity;
-    }
-
     public long getRelValidity() {
         return relValidity;
     }
 
-    private void setRelValidity(long relValidity) {
-        this.relValidity = relValidity;
-    }
-
     public String getSessionCryptoSpec() {
         return sessionCryptoSpec;
     }
@@ -161,6 +153,7 @@ public class CommunicationPolicyTable {
 
     public CommunicationPolicyTable setAbsValidityStr(String absValidityStr) {
         this.absValidityStr = absValidityStr;
+        this.absValidity = DateHelper.parseTimePeriod(absValidityStr);
         return this;
     }
 
@@ -170,6 +163,7 @@ public class CommunicationPolicyTable {
 
     public CommunicationPolicyTable setRelValidityStr(String relValidityStr) {
         this.relValidityStr = relValidityStr;
+        this.relValidity = DateHelper.parseTimePeriod(relValidityStr);
         return this;
     }
 
@@ -195,8 +189,8 @@ public class CommunicationPolicyTable {
         policy.setTarget(r.getString(c.Target.name()));
         policy.setMaxNumSessionKeyOwners(r.getInt(c.MaxNumSessionKeyOwners.name()));
         policy.setSessionCryptoSpec(r.getString(c.SessionCryptoSpec.name()));
-        policy.setAbsValidity(DateHelper.parseTimePeriod(r.getString(c.AbsoluteValidity.name())));
-        policy.setRelValidity(DateHelper.parseTimePeriod(r.getString(c.RelativeValidity.name())));
+        policy.setAbsValidityStr(r.getString(c.AbsoluteValidity.name()));
+        policy.setRelValidityStr(r.getString(c.RelativeValidity.name()));
         return policy;
     }
 }
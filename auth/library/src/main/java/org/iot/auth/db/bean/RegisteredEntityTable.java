@@ -52,6 +52,7 @@ public class RegisteredEntityTable {
     private String distProtocol;
     private boolean usePermanentDistKey;
     private PublicKey publicKey = null;
+    private byte[] publicKeyVal = null;
     private String distKeyValidityPeriod;
     private String publicKeyCryptoSpec;
     private String distCryptoSpec;
@@ -96,11 +97,32 @@ public class RegisteredEntityTable {
         return this;
     }
 
+    /**
+     * Returns the public key, which is decoded from its encoded value on the first call.
+     * @return Public key, or null if the registered entity has no public key.
+     */
     public PublicKey getPublicKey() {
+        if (publicKey == null && publicKeyVal != null) {
+            publicKey = AuthCrypto.loadPublicKeyFromBytes(publicKeyVal);
+        }
         return publicKey;
     }
     public RegisteredEntityTable setPublicKey(PublicKey publicKey) {
         this.publicKey = publicKey;
+        this.publicKeyVal = publicKey == null ? null : publicKey.getEncoded();
+        return this;
+    }
+
+    /**
+     * Returns the encoded (X.509) public key, which does not require decoding the public key.
+     * @return Encoded public key, or null if the registered entity has no public key.
+     */
+    public byte[] getPublicKeyVal() {
+        return publicKeyVal;
+    }
+    public RegisteredEntityTable setPublicKeyVal(byte[] publicKeyVal) {
+        this.publicKey = null;
+        this.publicKeyVal = publicKeyVal;
         return this;
     }
 
@@ -202,7 +224,7 @@ public class RegisteredEntityTable {
         object.put(c.UsePermanentDistKey.name(), getUsePermanentDistKey());
         object.put(c.PublicKeyCryptoSpec.name(), getPublicKeyCryptoSpec());
         //object.put(c.PublicKeyValue.name(), getPublicKeyFile().toString());
-        object.put(c.PublicKeyValue.name(), getPublicKey().getEncoded());
+        object.put(c.PublicKeyValue.name(), getPublicKeyVal());
         object.put(c.MaxSessionKeysPerRequest.name(), getMaxSessionKeysPerRequest());
         object.put(c.Active.name(), isActive());
         object.put(c.BackupToAuthIDs.name(), getBackupToAuthIDs());
@@ -219,7 +241,8 @@ public class RegisteredEntityTable {
         entity.setPublicKeyCryptoSpec(resultSet.getString(c.PublicKeyCryptoSpec.name()));
         entity.setDistKeyValidityPeriod(resultSet.getString(c.DistKeyValidityPeriod.name()));
         if (!entity.getUsePermanentDistKey()) {
-            entity.setPublicKey(AuthCrypto.loadPublicKeyFromBytes(resultSet.getBytes(c.PublicKeyValue.name())));
+            // Decoded on first use, so that loading many registered entities does not decode all public keys.
+            entity.setPublicKeyVal(resultSet.getBytes(c.PublicKeyValue.name()));
         }
         entity.setDistCryptoSpec(resultSet.getString(c.DistCryptoSpec.name()));
         byte[] distKeyVal = resultSet.getBytes(c.DistKeyValue.name());
@@ -48,7 +48,9 @@ public class TrustedAuthTable {
     private int port;
     private X509Certificate internetCertificate;
     private X509Certificate entityCertificate;
+    private byte[] entityCertificateVal = null;
     private X509Certificate backupCertificate = null;
+    private byte[] backupCertificateVal = null;
     private int heartbeatPeriod;
     private int failureThreshold;
     public int getId() {
@@ -107,20 +109,60 @@ public class TrustedAuthTable {
         this.internetCertificate = internetCertificate;
     }
 
+    /**
+     * Returns the entity certificate, which is decoded from its encoded value on the first call.
+     * @return Certificate of the trusted Auth for entities.
+     */
     public X509Certificate getEntityCertificate() {
+        if (entityCertificate == null && entityCertificateVal != null) {
+            entityCertificate = AuthCrypto.loadCertificateFromBytes(entityCertificateVal);
+        }
         return entityCertificate;
     }
 
     public void setEntityCertificate(X509Certificate entityCertificate) {
         this.entityCertificate = entityCertificate;
+        this.entityCertificateVal = null;
+    }
+
+    public byte[] getEntityCertificateVal() throws CertificateEncodingException {
+        if (entityCertificateVal == null && entityCertificate != null) {
+            return entityCertificate.getEncoded();
+        }
+        return entityCertificateVal;
     }
 
+    public void setEntityCertificateVal(byte[] entityCertificateVal) {
+        this.entityCertificate = null;
+        this.entityCertificateVal = entityCertificateVal;
+    }
+
+    /**
+     * Returns the backup certificate, which is decoded from its encoded value on the first call.
+     * @return Certificate issued by the trusted Auth for backup, or null if there is none.
+     */
     public X509Certificate getBackupCertificate() {
+        if (backupCertificate == null && backupCertificateVal != null) {
+            backupCertificate = AuthCrypto.loadCertificateFromBytes(backupCertificateVal);
+        }
         return backupCertificate;
     }
 
     public void setBackupCertificate(X509Certificate backupCertificate) {
         this.backupCertificate = backupCertificate;
+        this.backupCertificateVal = null;
+    }
+
+    public byte[] getBackupCertificateVal() throws CertificateEncodingException {
+        if (backupCertificateVal == null && backupCertificate != null) {
+            return backupCertificate.getEncoded();
+        }
+        return backupCertificateVal;
+    }
+
+    public void setBackupCertificateVal(byte[] backupCertificateVal) {
+        this.backupCertificate = null;
+        this.backupCertificateVal = backupCertificateVal;
     }
 
     @SuppressWarnings("unchecked")
@@ -133,8 +175,8 @@ public class TrustedAuthTable {
         object.put(c.HeartbeatPeriod.name(), getHeartbeatPeriod());
         object.put(c.FailureThreshold.name(), getFailureThreshold());
         object.put(c.InternetCertificateValue.name(), getInternetCertificate().getEncoded());
-        object.put(c.EntityCertificateValue.name(), getEntityCertificate().getEncoded());
-        object.put(c.BackupCertificateValue.name(), getEntityCertificate().getEncoded());
+        object.put(c.EntityCertificateValue.name(), getEntityCertificateVal());
+        object.put(c.BackupCertificateValue.name(), getEntityCertificateVal());
         return object;
     }
 
@@ -159,12 +201,9 @@ public class TrustedAuthTable {
         trustedAuth.setFailureThreshold(resultSet.getInt(c.FailureThreshold.name()));
         trustedAuth.setInternetCertificate(
                 AuthCrypto.loadCertificateFromBytes(resultSet.getBytes(c.InternetCertificateValue.name())));
-        trustedAuth.setEntityCertificate(
-                AuthCrypto.loadCertificateFromBytes(resultSet.getBytes(c.EntityCertificateValue.name())));
-        byte[] backupCertificateBytes = resultSet.getBytes(c.BackupCertificateValue.name());
-        if (backupCertificateBytes != null) {
-            trustedAuth.setBackupCertificate(AuthCrypto.loadCertificateFromBytes(backupCertificateBytes));
-        }
+        // Entity and backup certificates are decoded on first use.
+        trustedAuth.setEntityCertificateVal(resultSet.getBytes(c.EntityCertificateValue.name()));
+        trustedAuth.setBackupCertificateVal(resultSet.getBytes(c.BackupCertificateValue.name()));
         return trustedAuth;
     }
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db.dao;
+
+import org.iot.auth.crypto.DistributionKey;
+import org.iot.auth.crypto.SymmetricKey;
+import org.iot.auth.db.bean.*;
+import org.iot.auth.io.Buffer;
+
+import java.io.IOException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage backend of Auth DB, for registered entities, communication policies, trusted Auths, cached session keys
+ * and meta data. {@link SQLiteConnector} is the default backend, and {@link LogStructuredStore} keeps everything in
+ * memory and persists changes to an append-only log, so that concurrent writers do not wait for a database lock.
+ *
+ * Methods follow the semantics of {@link SQLiteConnector}, where boolean results of insertions, updates and
+ * deletions are those of {@link java.sql.PreparedStatement#execute()}, which is false for all of them.
+ * @author Hokeun Kim
+ */
+public interface AuthStore {
+    String BACKEND_SQLITE = "sqlite";
+    String BACKEND_LOG = "log";
+
+    /**
+     * Opens the store with the key for encrypting credentials (or the entire store).
+     * @param databaseKey Symmetric key of Auth DB.
+     * @throws SQLException When an error occurs in the store
+     * @throws IOException When an error occurs in IO
+     * @throws ClassNotFoundException When a specified class is not found
+     */
+    void initialize(SymmetricKey databaseKey) throws SQLException, IOException, ClassNotFoundException;
+    void createTablesIfNotExists() throws SQLException, ClassNotFoundException;
+    /**
+     * Migrates data stored in an older layout, if any.
+     * @return The number of migrated records.
+     * @throws SQLException When an error occurs in the store
+     */
+    int upgradeSchemaIfNeeded() throws SQLException;
+    /**
+     * Persists state which is otherwise persisted only on close, if any.
+     * @return The number of units (chunks or records) written.
+     * @throws SQLException When an error occurs in the store
+     * @throws IOException When an error occurs in IO
+     */
+    int checkpoint() throws SQLException, IOException;
+    boolean isPeriodicCheckpointNeeded();
+    void close() throws SQLException, IOException;
+
+    boolean insertRecords(RegisteredEntityTable regEntity) throws SQLException, ClassNotFoundException;
+    boolean insertRecordsOrUpdateIfExists(RegisteredEntityTable regEntity) throws SQLException, ClassNotFoundException;
+    List<RegisteredEntityTable> selectAllRegEntities(String authDatabaseDir) throws SQLException, ClassNotFoundException;
+    boolean updateRegEntityDistKey(String regEntityName, long distKeyExpirationTime, Buffer distKeyVal)
+            throws SQLException, ClassNotFoundException;
+    /**
+     * Updates distribution keys of multiple registered entities at once.
+     * @param distributionKeyMap New distribution keys, keyed by names of registered entities.
+     * @param synchronousLevel FULL to sync the update to the disk, OFF to leave it to the OS,
+     *                         or null for the default of the store.
+     * @return The number of registered entities updated.
+     * @throws SQLException When an error occurs in the store
+     */
+    int updateRegEntityDistKeys(Map<String, DistributionKey> distributionKeyMap, String synchronousLevel)
+            throws SQLException;
+    boolean deleteRegisteredEntities(List<String> registeredEntityNameList) throws SQLException;
+    boolean deleteBackedUpRegisteredEntities() throws SQLException;
+
+    boolean insertRecords(CommunicationPolicyTable policy) throws SQLException, ClassNotFoundException;
+    List<CommunicationPolicyTable> selectAllPolicies() throws SQLException, ClassNotFoundException;
+
+    boolean insertRecords(TrustedAuthTable auth)
+            throws SQLException, ClassNotFoundException, CertificateEncodingException;
+    List<TrustedAuthTable> selectAllTrustedAuth()
+            throws SQLException, ClassNotFoundException, CertificateEncodingException;
+    boolean updateBackupCertificate(int backupFromAuthID, X509Certificate backupCertificate)
+            throws SQLException, CertificateEncodingException;
+
+    boolean insertRecords(CachedSessionKeyTable cachedSessionKey) throws SQLException, ClassNotFoundException;
+    int insertCachedSessionKeys(List<CachedSessionKeyTable> cachedSessionKeyList)
+            throws SQLException, ClassNotFoundException;
+    List<CachedSessionKeyTable> selectAllCachedSessionKey() throws SQLException, ClassNotFoundException;
+    CachedSessionKeyTable selectCachedSessionKeyByID(long id) throws SQLException, ClassNotFoundException;
+    List<CachedSessionKeyTable> selectCachedSessionKeysByPurpose(String requestingEntityName, String purpose)
+            throws SQLException, ClassNotFoundException;
+    boolean appendSessionKeyOwner(long keyID, String newOwner) throws SQLException, ClassNotFoundException;
+    int appendSessionKeyOwners(List<Long> keyIDList, String newOwner) throws SQLException, ClassNotFoundException;
+    boolean deleteExpiredCahcedSessionKeys() throws SQLException, ClassNotFoundException;
+    int deleteExpiredCachedSessionKeys(long currentTime, int batchSize) throws SQLException;
+    boolean deleteAllCachedSessionKeys() throws SQLException, ClassNotFoundException;
+    /**
+     * Reclaims space of deleted records.
+     * @param maxPages Maximum amount of space to be reclaimed, in pages (or records) of the store.
+     * @return The amount of space reclaimed, in pages (or records) of the store.
+     * @throws SQLException When an error occurs in the store
+     */
+    long vacuum(int maxPages) throws SQLException;
+
+    boolean insertRecords(MetaDataTable metaData) throws SQLException, ClassNotFoundException;
+    String selectMetaDataValue(String key) throws SQLException, ClassNotFoundException;
+    boolean updateMetaData(String key, String value) throws SQLException, ClassNotFoundException;
+
+    String statisticsToString();
+    String checkpointStatisticsToString();
+}
@@ -0,0 +1,510 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * An encrypted file store for the Auth DB kept in memory (ENCRYPT_ENTIRE_DB protection). The DB is split into
+ * fixed-size chunks, each encrypted and authenticated separately with AES-GCM. A checkpoint rewrites only the chunks
+ * changed since the last checkpoint. The DB is passed to and from this store as a serialized image in memory, so its
+ * plaintext is never written to the disk.
+ * <pre>
+ * Data file (DB path):
+ *      | magic (8) | version (4) | chunk size (4) | chunk slot 0 | chunk slot 1 | ... |
+ *      chunk slot: | IV (12) | encrypted chunk (chunk size) | GCM tag (16) |, AAD: chunk index (8) | chunk generation (8)
+ * Manifest (DB path + .manifest), replaced atomically:
+ *      | IV (12) | encrypted {generation (8) | DB length (8) | chunk size (4) | number of chunks (4) |
+ *        chunk generations (8 each)} | GCM tag (16) |
+ * Journal (DB path + .journal), written and synced before chunk slots are overwritten in place:
+ *      | magic (8) | 'C' | chunk index (4) | chunk slot | ... | 'M' | manifest length (4) | manifest | 'E' |
+ *      SHA-256 of all preceding bytes (32) |
+ * </pre>
+ * On open, a complete journal is replayed and an incomplete one is discarded, so the store is always at the state of
+ * the last completed checkpoint. Plaintext copies of the DB left next to the data file by a crash of earlier versions,
+ * which restored and checkpointed the DB through such copies, are deleted. The manifest binds each chunk to the
+ * generation at which it was written, so chunks from older checkpoints cannot be swapped in.
+ * @author Hokeun Kim
+ */
+public class EncryptedChunkStore {
+    private static final Logger logger = LoggerFactory.getLogger(EncryptedChunkStore.class);
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private static final byte[] DATA_MAGIC = "IOTAUTHC".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] JOURNAL_MAGIC = "IOTAUTHJ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MANIFEST_AAD = "manifest".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int DATA_HEADER_SIZE = DATA_MAGIC.length + 4 + 4;
+    private static final String CHUNK_CIPHER = "AES/GCM/NoPadding";
+    private static final int IV_SIZE = 12;
+    private static final int TAG_SIZE = 16;
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final int DIGEST_SIZE = 32;
+    private static final byte RECORD_CHUNK = 'C';
+    private static final byte RECORD_MANIFEST = 'M';
+    private static final byte RECORD_END = 'E';
+    private static final int PLAIN_FILE_SUFFIX_SIZE = 4;
+
+    /**
+     * Constructor for the encrypted chunk store.
+     * @param dataPath Path of the data file, the manifest and the journal are stored next to it.
+     * @param chunkKeyVal AES key value for encrypting chunks and the manifest.
+     * @param chunkSize Size of a chunk in bytes, preferably a multiple of SQLite's page size.
+     */
+    public EncryptedChunkStore(String dataPath, byte[] chunkKeyVal, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        this.dataPath = dataPath;
+        this.manifestPath = dataPath + ".manifest";
+        this.journalPath = dataPath + ".journal";
+        this.chunkKey = new SecretKeySpec(chunkKeyVal, "AES");
+        this.chunkSize = chunkSize;
+        this.slotSize = IV_SIZE + chunkSize + TAG_SIZE;
+    }
+
+    /**
+     * Checks whether the given file is a data file of an encrypted chunk store, rather than a whole-file
+     * encrypted Auth DB.
+     * @param path Path of the file to be checked.
+     * @return <code>true</code> if the file starts with the magic of encrypted chunk stores.
+     * @throws IOException When an error occurs in IO
+     */
+    public static boolean isChunkStore(String path) throws IOException {
+        File file = new File(path);
+        if (!file.isFile() || file.length() < DATA_HEADER_SIZE) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            byte[] magic = new byte[DATA_MAGIC.length];
+            in.readFully(magic);
+            return Arrays.equals(magic, DATA_MAGIC);
+        }
+    }
+
+    /**
+     * Brings the store to the state of the last completed checkpoint, after a crash. A complete journal is
+     * replayed, while an incomplete journal, leftovers of an interrupted first checkpoint and plaintext copies of
+     * the DB left by earlier versions are discarded.
+     * @throws IOException When an error occurs in IO, or the journal fails authentication
+     */
+    public void recover() throws IOException {
+        deletePlainFiles();
+        Files.deleteIfExists(Paths.get(dataPath + ".tmp"));
+        Files.deleteIfExists(Paths.get(manifestPath + ".tmp"));
+        boolean isChunkStore = isChunkStore(dataPath);
+        if (new File(journalPath).exists()) {
+            if (isChunkStore && isJournalComplete()) {
+                logger.info("Replaying Auth DB journal {}", journalPath);
+                applyJournal();
+            }
+            else {
+                logger.warn("Discarding incomplete Auth DB journal {}", journalPath);
+            }
+            Files.delete(Paths.get(journalPath));
+        }
+        if (!isChunkStore) {
+            // The first checkpoint was interrupted before the data file was replaced.
+            Files.deleteIfExists(Paths.get(manifestPath));
+        }
+    }
+
+    /**
+     * Decrypts all chunks into a serialized image of the DB, and remembers the digests of chunks for detecting
+     * dirty chunks at the next checkpoint.
+     * @return The decrypted DB.
+     * @throws IOException When an error occurs in IO, or a chunk fails authentication
+     */
+    public byte[] read() throws IOException {
+        Manifest newManifest = openManifest(Files.readAllBytes(Paths.get(manifestPath)));
+        if (newManifest.dbLength > Integer.MAX_VALUE) {
+            throw new IOException("Auth DB of " + newManifest.dbLength + " bytes cannot be kept in memory.");
+        }
+        byte[] db = new byte[(int) newManifest.dbLength];
+        byte[][] newChunkDigests = new byte[newManifest.chunkGenerations.length][];
+        try (RandomAccessFile dataFile = new RandomAccessFile(dataPath, "r")) {
+            checkDataHeader(dataFile);
+            byte[] slot = new byte[slotSize];
+            for (int i = 0; i < newChunkDigests.length; i++) {
+                dataFile.seek(slotOffset(i));
+                dataFile.readFully(slot);
+                byte[] chunk = openChunk(i, newManifest.chunkGenerations[i], slot);
+                int offset = i * chunkSize;
+                int length = Math.min(chunkSize, db.length - offset);
+                System.arraycopy(chunk, 0, db, offset, length);
+                newChunkDigests[i] = digest(db, offset, length);
+            }
+        }
+        manifest = newManifest;
+        chunkDigests = newChunkDigests;
+        logger.info("Read Auth DB of {} bytes in {} chunks, generation {}", manifest.dbLength,
+                chunkDigests.length, manifest.generation);
+        return db;
+    }
+
+    /**
+     * Writes chunks of the given DB changed since the last checkpoint. The first checkpoint writes a new data file
+     * and replaces the existing file atomically. Later checkpoints write dirty chunks through the journal and
+     * overwrite them in place.
+     * @param db Serialized image of the DB to be checkpointed.
+     * @return The number of chunks written.
+     * @throws IOException When an error occurs in IO
+     */
+    public int checkpoint(byte[] db) throws IOException {
+        long startTime = System.currentTimeMillis();
+        boolean fullWrite = manifest == null;
+        long dbLength = db.length;
+        int numChunks = (int) ((dbLength + chunkSize - 1) / chunkSize);
+        long generation = fullWrite ? 1 : manifest.generation + 1;
+        long[] chunkGenerations = new long[numChunks];
+        byte[][] newChunkDigests = new byte[numChunks][];
+        String targetPath = fullWrite ? dataPath + ".tmp" : journalPath;
+        MessageDigest journalDigest = newMessageDigest();
+        int numWritten = 0;
+        byte[] sealedManifest;
+        try (FileOutputStream fileOut = new FileOutputStream(targetPath)) {
+            DigestOutputStream digestOut = new DigestOutputStream(new BufferedOutputStream(fileOut), journalDigest);
+            DataOutputStream out = new DataOutputStream(digestOut);
+            if (fullWrite) {
+                out.write(DATA_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(chunkSize);
+            }
+            else {
+                out.write(JOURNAL_MAGIC);
+            }
+            byte[] chunk = new byte[chunkSize];
+            for (int i = 0; i < numChunks; i++) {
+                int offset = i * chunkSize;
+                int length = Math.min(chunkSize, db.length - offset);
+                newChunkDigests[i] = digest(db, offset, length);
+                if (!fullWrite && i < chunkDigests.length && Arrays.equals(newChunkDigests[i], chunkDigests[i])) {
+                    chunkGenerations[i] = manifest.chunkGenerations[i];
+                    continue;
+                }
+                // The last chunk is padded with zeros.
+                System.arraycopy(db, offset, chunk, 0, length);
+                Arrays.fill(chunk, length, chunk.length, (byte) 0);
+                chunkGenerations[i] = generation;
+                if (!fullWrite) {
+                    out.writeByte(RECORD_CHUNK);
+                    out.writeInt(i);
+                }
+                out.write(sealChunk(i, generation, chunk));
+                numWritten++;
+            }
+            sealedManifest = sealManifest(new Manifest(generation, dbLength, chunkGenerations));
+            if (!fullWrite) {
+                out.writeByte(RECORD_MANIFEST);
+                out.writeInt(sealedManifest.length);
+                out.write(sealedManifest);
+                out.writeByte(RECORD_END);
+                out.flush();
+                digestOut.on(false);
+                out.write(journalDigest.digest());
+            }
+            out.flush();
+            fileOut.getChannel().force(true);
+        }
+        if (fullWrite) {
+            writeManifest(sealedManifest);
+            Files.move(Paths.get(targetPath), Paths.get(dataPath),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        else if (numWritten == 0 && dbLength == manifest.dbLength) {
+            // Nothing changed, the current manifest stays.
+            Files.delete(Paths.get(journalPath));
+            return 0;
+        }
+        else {
+            applyJournal();
+            Files.delete(Paths.get(journalPath));
+        }
+        manifest = new Manifest(generation, dbLength, chunkGenerations);
+        chunkDigests = newChunkDigests;
+        numCheckpoints++;
+        numChunksWritten += numWritten;
+        lastCheckpointChunks = numWritten;
+        lastCheckpointMillis = System.currentTimeMillis() - startTime;
+        logger.debug("Auth DB checkpoint {} wrote {} of {} chunks in {} ms", generation, numWritten, numChunks,
+                lastCheckpointMillis);
+        return numWritten;
+    }
+
+    public String toString() {
+        return "chunk size: " + chunkSize + ", chunks: " + (chunkDigests == null ? 0 : chunkDigests.length) +
+                ", generation: " + (manifest == null ? 0 : manifest.generation) +
+                "\n  checkpoints: " + numCheckpoints + ", chunks written: " + numChunksWritten +
+                ", last checkpoint: " + lastCheckpointChunks + " chunks in " + lastCheckpointMillis + " ms";
+    }
+
+    private void deletePlainFiles() throws IOException {
+        File dataFile = new File(dataPath).getAbsoluteFile();
+        Pattern plainFileName = Pattern.compile(Pattern.quote(dataFile.getName()) +
+                "[0-9a-f]{" + (PLAIN_FILE_SUFFIX_SIZE * 2) + "}");
+        File[] plainFiles = dataFile.getParentFile().listFiles(
+                (dir, name) -> plainFileName.matcher(name).matches());
+        if (plainFiles == null) {
+            return;
+        }
+        for (File plainFile: plainFiles) {
+            logger.warn("Deleting plaintext Auth DB copy {} left by a crash", plainFile);
+            Files.delete(plainFile.toPath());
+        }
+    }
+
+    private long slotOffset(int index) {
+        return DATA_HEADER_SIZE + (long) index * slotSize;
+    }
+
+    private void checkDataHeader(RandomAccessFile dataFile) throws IOException {
+        byte[] magic = new byte[DATA_MAGIC.length];
+        dataFile.readFully(magic);
+        int version = dataFile.readInt();
+        int dataChunkSize = dataFile.readInt();
+        if (!Arrays.equals(magic, DATA_MAGIC) || version != VERSION || dataChunkSize != chunkSize) {
+            throw new IOException("Unsupported Auth DB data file, version: " + version + ", chunk size: " +
+                    dataChunkSize);
+        }
+    }
+
+    private boolean isJournalComplete() throws IOException {
+        File journalFile = new File(journalPath);
+        long contentLength = journalFile.length() - DIGEST_SIZE;
+        if (contentLength < JOURNAL_MAGIC.length + 1) {
+            return false;
+        }
+        MessageDigest journalDigest = newMessageDigest();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+            DigestInputStream digestIn = new DigestInputStream(in, journalDigest);
+            byte[] buffer = new byte[8192];
+            long remaining = contentLength;
+            int lastByte = -1;
+            while (remaining > 0) {
+                int numRead = digestIn.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (numRead < 0) {
+                    return false;
+                }
+                lastByte = buffer[numRead - 1];
+                remaining -= numRead;
+            }
+            byte[] storedDigest = new byte[DIGEST_SIZE];
+            in.readFully(storedDigest);
+            return lastByte == RECORD_END && MessageDigest.isEqual(storedDigest, journalDigest.digest());
+        }
+    }
+
+    private void applyJournal() throws IOException {
+        byte[] sealedManifest = null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalPath)));
+             RandomAccessFile dataFile = new RandomAccessFile(dataPath, "rw")) {
+            byte[] magic = new byte[JOURNAL_MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, JOURNAL_MAGIC)) {
+                throw new IOException("Wrong magic in Auth DB journal " + journalPath);
+            }
+            byte[] slot = new byte[slotSize];
+            byte recordType;
+            while ((recordType = in.readByte()) != RECORD_END) {
+                if (recordType == RECORD_CHUNK) {
+                    int index = in.readInt();
+                    in.readFully(slot);
+                    dataFile.seek(slotOffset(index));
+                    dataFile.write(slot);
+                }
+                else if (recordType == RECORD_MANIFEST) {
+                    sealedManifest = new byte[in.readInt()];
+                    in.readFully(sealedManifest);
+                }
+                else {
+                    throw new IOException("Unknown record type in Auth DB journal: " + recordType);
+                }
+            }
+            if (sealedManifest == null) {
+                throw new IOException("Missing manifest in Auth DB journal " + journalPath);
+            }
+            dataFile.setLength(slotOffset(openManifest(sealedManifest).chunkGenerations.length));
+            dataFile.getChannel().force(true);
+        }
+        writeManifest(sealedManifest);
+    }
+
+    private void writeManifest(byte[] sealedManifest) throws IOException {
+        String tempPath = manifestPath + ".tmp";
+        try (FileOutputStream out = new FileOutputStream(tempPath)) {
+            out.write(sealedManifest);
+            out.getChannel().force(true);
+        }
+        Files.move(Paths.get(tempPath), Paths.get(manifestPath),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private byte[] sealChunk(int index, long generation, byte[] chunk) {
+        return seal(chunkAAD(index, generation), chunk);
+    }
+
+    private byte[] openChunk(int index, long generation, byte[] slot) throws IOException {
+        try {
+            return open(chunkAAD(index, generation), slot);
+        }
+        catch (AEADBadTagException e) {
+            throw new IOException("Auth DB chunk " + index + " failed authentication.", e);
+        }
+    }
+
+    private byte[] sealManifest(Manifest manifest) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 8 + 4 + 4 + 8 * manifest.chunkGenerations.length);
+        buffer.putLong(manifest.generation);
+        buffer.putLong(manifest.dbLength);
+        buffer.putInt(chunkSize);
+        buffer.putInt(manifest.chunkGenerations.length);
+        for (long chunkGeneration: manifest.chunkGenerations) {
+            buffer.putLong(chunkGeneration);
+        }
+        return seal(MANIFEST_AAD, buffer.array());
+    }
+
+    private Manifest openManifest(byte[] sealedManifest) throws IOException {
+        ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.wrap(open(MANIFEST_AAD, sealedManifest));
+        }
+        catch (AEADBadTagException e) {
+            throw new IOException("Auth DB manifest failed authentication.", e);
+        }
+        long generation = buffer.getLong();
+        long dbLength = buffer.getLong();
+        int manifestChunkSize = buffer.getInt();
+        if (manifestChunkSize != chunkSize) {
+            throw new IOException("Chunk size of Auth DB manifest does not match: " + manifestChunkSize);
+        }
+        long[] chunkGenerations = new long[buffer.getInt()];
+        for (int i = 0; i < chunkGenerations.length; i++) {
+            chunkGenerations[i] = buffer.getLong();
+        }
+        return new Manifest(generation, dbLength, chunkGenerations);
+    }
+
+    private static byte[] chunkAAD(int index, long generation) {
+        return ByteBuffer.allocate(16).putLong(index).putLong(generation).array();
+    }
+
+    /**
+     * Encrypts and authenticates the input with a random IV.
+     * @return | IV | ciphertext | GCM tag |
+     */
+    private byte[] seal(byte[] aad, byte[] input) {
+        try {
+            byte[] output = new byte[IV_SIZE + input.length + TAG_SIZE];
+            random.nextBytes(iv);
+            System.arraycopy(iv, 0, output, 0, IV_SIZE);
+            cipher.init(Cipher.ENCRYPT_MODE, chunkKey, new GCMParameterSpec(TAG_SIZE * 8, iv));
+            cipher.updateAAD(aad);
+            cipher.doFinal(input, 0, input.length, output, IV_SIZE);
+            return output;
+        }
+        catch (GeneralSecurityException e) {
+            throw new RuntimeException("Exception occurred while encrypting Auth DB chunk!", e);
+        }
+    }
+
+    private byte[] open(byte[] aad, byte[] sealed) throws AEADBadTagException {
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, chunkKey, new GCMParameterSpec(TAG_SIZE * 8, sealed, 0, IV_SIZE));
+            cipher.updateAAD(aad);
+            return cipher.doFinal(sealed, IV_SIZE, sealed.length - IV_SIZE);
+        }
+        catch (AEADBadTagException e) {
+            throw e;
+        }
+        catch (GeneralSecurityException e) {
+            throw new RuntimeException("Exception occurred while decrypting Auth DB chunk!", e);
+        }
+    }
+
+    private byte[] digest(byte[] data, int offset, int length) {
+        chunkDigest.reset();
+        chunkDigest.update(data, offset, length);
+        return chunkDigest.digest();
+    }
+
+    private static MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Exception occurred while creating " + DIGEST_ALGORITHM + " digest!", e);
+        }
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance(CHUNK_CIPHER);
+        }
+        catch (GeneralSecurityException e) {
+            throw new RuntimeException("Exception occurred while creating " + CHUNK_CIPHER + " cipher!", e);
+        }
+    }
+
+    private static class Manifest {
+        Manifest(long generation, long dbLength, long[] chunkGenerations) {
+            this.generation = generation;
+            this.dbLength = dbLength;
+            this.chunkGenerations = chunkGenerations;
+        }
+        private final long generation;
+        private final long dbLength;
+        private final long[] chunkGenerations;
+    }
+
+    private final String dataPath;
+    private final String manifestPath;
+    private final String journalPath;
+    private final SecretKeySpec chunkKey;
+    private final int chunkSize;
+    private final int slotSize;
+    private final Cipher cipher = newCipher();
+    private final MessageDigest chunkDigest = newMessageDigest();
+    private final SecureRandom random = new SecureRandom();
+    private final byte[] iv = new byte[IV_SIZE];
+    private Manifest manifest = null;
+    private byte[][] chunkDigests = null;
+    private long numCheckpoints = 0;
+    private long numChunksWritten = 0;
+    private int lastCheckpointChunks = 0;
+    private long lastCheckpointMillis = 0;
+}
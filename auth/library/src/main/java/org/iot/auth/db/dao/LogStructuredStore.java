@@ -0,0 +1,1259 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db.dao;
+
+import org.iot.auth.crypto.AuthCrypto;
+import org.iot.auth.crypto.DistributionKey;
+import org.iot.auth.crypto.SessionKey;
+import org.iot.auth.crypto.SymmetricKey;
+import org.iot.auth.db.AuthDBProtectionMethod;
+import org.iot.auth.db.CommunicationTargetType;
+import org.iot.auth.db.bean.*;
+import org.iot.auth.exception.UseOfExpiredKeyException;
+import org.iot.auth.exception.InvalidSymmetricKeyOperationException;
+import org.iot.auth.io.Buffer;
+import org.iot.auth.util.ExceptionToString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Auth DB backend that keeps all records in memory, indexed by hash maps, and persists every change as a record
+ * appended to a log file. Readers never wait for writers, and a writer holds the log only while appending one
+ * record, instead of holding the database lock for a whole SQLite transaction. A batch (e.g., of session keys)
+ * is a single record, so it is either replayed entirely or not at all.
+ *
+ * The log is replayed on initialization, where a torn record at the end, left by a crash in the middle of an
+ * append, is detected by its CRC and discarded. Records superseded by later ones are dropped by compaction in
+ * {@link #vacuum(int)}, which rewrites the live records to a new log and atomically replaces the old one.
+ *
+ * Every record is written to the OS when appended, so it survives a crash of Auth, and is synced to the disk on
+ * {@link #checkpoint()}, on {@link #close()}, and for distribution key updates with the FULL synchronous level.
+ * Records are encrypted and authenticated with the database key, unless the DEBUG protection method is used.
+ * @author Hokeun Kim
+ */
+public class LogStructuredStore implements AuthStore {
+    private static final Logger logger = LoggerFactory.getLogger(LogStructuredStore.class);
+
+    private static final int FRAME_HEADER_SIZE = 8;     // length and CRC32 of the payload
+    private static final String COMPACTION_FILE_SUFFIX = ".compact";
+
+    private static final byte ENTITY_PUT = 1;
+    private static final byte ENTITIES_DELETE = 2;
+    private static final byte BACKED_UP_ENTITIES_DELETE = 3;
+    private static final byte DIST_KEYS_UPDATE = 4;
+    private static final byte POLICY_INSERT = 5;
+    private static final byte TRUSTED_AUTH_INSERT = 6;
+    private static final byte BACKUP_CERTIFICATE_UPDATE = 7;
+    private static final byte SESSION_KEYS_INSERT = 8;
+    private static final byte SESSION_KEY_OWNERS_APPEND = 9;
+    private static final byte SESSION_KEYS_DELETE = 10;
+    private static final byte ALL_SESSION_KEYS_DELETE = 11;
+    private static final byte META_DATA_INSERT = 12;
+    private static final byte META_DATA_UPDATE = 13;
+
+    /**
+     * Constructor that stores the physical location of the log file.
+     * @param logPath Path for the log file.
+     * @param authDBProtectionMethod Protection level of auth DB.
+     */
+    public LogStructuredStore(String logPath, AuthDBProtectionMethod authDBProtectionMethod) {
+        this.logPath = Paths.get(logPath);
+        this.encryptRecords = authDBProtectionMethod != AuthDBProtectionMethod.DEBUG;
+        logger.info("Auth DB log: {}, record encryption - {}", logPath, encryptRecords ? "ENABLED" : "DISABLED");
+    }
+
+    public void initialize(SymmetricKey databaseKey) throws SQLException, IOException, ClassNotFoundException {
+        this.databaseKey = databaseKey;
+        if (Files.exists(logPath)) {
+            replayLog();
+        }
+        appendChannel = FileChannel.open(logPath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    public void createTablesIfNotExists() {
+        // Nothing to create, the log is created on initialization.
+    }
+
+    public int upgradeSchemaIfNeeded() {
+        return 0;
+    }
+
+    /**
+     * Syncs the records appended since the last checkpoint to the disk.
+     * @return The number of records synced.
+     * @throws IOException When an error occurs in IO
+     */
+    public int checkpoint() throws IOException {
+        appendLock.lock();
+        try {
+            int numRecords = numUnsyncedRecords;
+            if (numRecords > 0) {
+                appendChannel.force(false);
+                numUnsyncedRecords = 0;
+                numSyncedRecords += numRecords;
+            }
+            return numRecords;
+        }
+        finally {
+            appendLock.unlock();
+        }
+    }
+
+    public boolean isPeriodicCheckpointNeeded() {
+        return true;
+    }
+
+    public void close() throws IOException {
+        appendLock.lock();
+        try {
+            checkpoint();
+            appendChannel.close();
+        }
+        finally {
+            appendLock.unlock();
+        }
+    }
+
+    public boolean insertRecords(RegisteredEntityTable regEntity) throws SQLException {
+        byte[] record = encodeEntityPut(regEntity);
+        appendLock.lock();
+        try {
+            if (entities.containsKey(regEntity.getName())) {
+                throw new SQLException("Registered entity already exists: " + regEntity.getName());
+            }
+            append(record);
+            applyEntityPut(copyOf(regEntity));
+        }
+        finally {
+            appendLock.unlock();
+        }
+        return false;
+    }
+
+    public boolean insertRecordsOrUpdateIfExists(RegisteredEntityTable regEntity) throws SQLException {
+        byte[] record = encodeEntityPut(regEntity);
+        appendLock.lock();
+        try {
+            append(record);
+            applyEntityPut(copyOf(regEntity));
+        }
+        finally {
+            appendLock.unlock();
+        }
+        return false;
+    }
+
+    public List<RegisteredEntityTable> selectAllRegEntities(String authDatabaseDir) {
+        List<RegisteredEntityTable> result = new ArrayList<>(entities.size());
+        for (RegisteredEntityTable entity: entities.values()) {
+            result.add(copyOf(entity));
+        }
+        return result;
+    }
+
+    public boolean updateRegEntityDistKey(String regEntityName, long distKeyExpirationTime, Buffer distKeyVal)
+            throws SQLException
+    {
+        List<DistKeyUpdate> updates =
+                Collections.singletonList(new DistKeyUpdate(regEntityName, distKeyExpirationTime, distKeyVal.getRawBytes()));
+        byte[] record = encodeDistKeysUpdate(updates);
+        appendLock.lock();
+        try {
+            append(record);
+            applyDistKeysUpdate(updates);
+        }
+        finally {
+            appendLock.unlock();
+        }
+        return false;
+    }
+
+    public int updateRegEntityDistKeys(Map<String, DistributionKey> distributionKeyMap, String synchronousLevel)
+            throws SQLException
+    {
+        List<DistKeyUpdate> updates = new ArrayList<>(distributionKeyMap.size());
+        for (Map.Entry<String, DistributionKey> entry: distributionKeyMap.entrySet()) {
+            updates.add(new DistKeyUpdate(entry.getKey(), entry.getValue().getRawExpirationTime(),
+                    entry.getValue().getSerializedKeyVal().getRawBytes()));
+        }
+        byte[] record = encodeDistKeysUpdate(updates);
+        appendLock.lock();
+        try {
+            append(record);
+            if ("FULL".equalsIgnoreCase(synchronousLevel)) {
+                sync();
+            }
+            return applyDistKeysUpdate(updates);
+        }
+        finally {
+            appendLock.unlock();
+        }
+    }
+
+    public boolean deleteRegisteredEntities(List<String> registeredEntityNameList) throws SQLException {
+        if (registeredEntityNameList.isEmpty()) {
+            throw new RuntimeException("The list of names of registered entities to be removed is empty!");
+        }
+        RecordBuilder builder = new RecordBuilder(ENTITIES_DELETE);
+        builder.putStringList(registeredEntityNameList);
+        byte[] record = builder.toByteArray();
+        appendLock.lock();
+        try {
+            append(record);
+            applyEntitiesDelete(registeredEntityNameList);
+        }
+        finally {
+            appendLock.unlock();
+        }
+        return false;
+    }
+
+    public boolean deleteBackedUpRegisteredEntities() throws SQLException {
+        byte[] record = new RecordBuilder(BACKED_UP_ENTITIES_DELETE).toByteArray();
+        appendLock.lock();
+        try {
+            append(record);
+            applyBackedUpEntitiesDelete();
+        }
+        finally {
+            appendLock.unlock();
+        }
+        return false;
+    }
+
+    public boolean insertRecords(CommunicationPolicyTable policy) throws SQLException {
+        byte[] record = encodePolicyInsert(policy);
+        appendLock.lock();
+        try {
+            if (policies.containsKey(policyKeyOf(policy))) {
+                throw new SQLException("Communication policy already exists: " + policyKeyOf(policy));
+            }
+            append(record);
+            applyPolicyInsert(copyOf(policy));
+        }
+        finally {
+            appendLock.unlock();
+        }
+        return false;
+    }
+
+    public List<CommunicationPolicyTable> selectAllPolicies() {
+        List<CommunicationPolicyTable> result = new ArrayList<>(policies.size());
+        for (CommunicationPolicyTable policy: policies.values()) {
+            result.add(copyOf(policy));
+        }
+        return result;
+    }
+
+    public boolean insertRecords(TrustedAuthTable auth) throws SQLException, CertificateEncodingException {
+        byte[] record = encodeTrustedAuthInsert(auth);
+        appendLock.lock();
+        try {
+            if (trustedAuths.containsKey(auth.getId())) {
+                throw new SQLException("Trusted Auth already exists: " + auth.getId());
+            }
+            append(record);
+            applyTrustedAuthInsert(copyOf(auth));
+        }
+        finally {
+            appendLock.unlock();
+        }
+        return false;
+    }
+
+    public List<TrustedAuthTable> selectAllTrustedAuth() {
+        List<TrustedAuthTable> result = new ArrayList<>(trustedAuths.size());
+        for (TrustedAuthTable auth: trustedAuths.values()) {
+            result.add(copyOf(auth));
+        }
+        return result;
+    }
+
+    public boolean updateBackupCertificate(int backupFromAuthID, X509Certificate backupCertificate)
+            throws SQLException, CertificateEncodingException
+    {
+        RecordBuilder builder = new RecordBuilder(BACKUP_CERTIFICATE_UPDATE);
+        builder.putInt(backupFromAuthID);
+        builder.putBytes(backupCertificate.getEncoded());
+        byte[] record = builder.toByteArray();
+        appendLock.lock();
+        try {
+            append(record);
+            applyBackupCertificateUpdate(backupFromAuthID, backupCertificate);
+        }
+        finally {
+            appendLock.unlock();
+        }
+        return false;
+    }
+
+    public boolean insertRecords(CachedSessionKeyTable cachedSessionKey) throws SQLException {
+        insertCachedSessionKeys(Collections.singletonList(cachedSessionKey));
+        return false;
+    }
+
+    public int insertCachedSessionKeys(List<CachedSessionKeyTable> cachedSessionKeyList) throws SQLException {
+        if (cachedSessionKeyList.isEmpty()) {
+            return 0;
+        }
+        byte[] record = encodeSessionKeysInsert(cachedSessionKeyList);
+        appendLock.lock();
+        try {
+            for (CachedSessionKeyTable cachedSessionKey: cachedSessionKeyList) {
+                if (sessionKeys.containsKey(cachedSessionKey.getID())) {
+                    throw new SQLException("Cached session key already exists: " + cachedSessionKey.getID());
+                }
+            }
+            append(record);
+            applySessionKeysInsert(cachedSessionKeyList);
+        }
+        finally {
+            appendLock.unlock();
+        }
+        return cachedSessionKeyList.size();
+    }
+
+    public List<CachedSessionKeyTable> selectAllCachedSessionKey() {
+        List<SessionKeyRecord> records = new ArrayList<>(sessionKeys.values());
+        records.sort(Comparator.comparingLong(SessionKeyRecord::getID));
+        List<CachedSessionKeyTable> result = new ArrayList<>(records.size());
+        for (SessionKeyRecord record: records) {
+            result.add(record.toTable());
+        }
+        return result;
+    }
+
+    public CachedSessionKeyTable selectCachedSessionKeyByID(long id) {
+        SessionKeyRecord record = sessionKeys.get(id);
+        return record == null ? null : record.toTable();
+    }
+
+    public List<CachedSessionKeyTable> selectCachedSessionKeysByPurpose(String requestingEntityName, String purpose) {
+        Set<Long> keyIDs = purposeIndex.get(purpose);
+        if (keyIDs == null) {
+            return new ArrayList<>();
+        }
+        long currentTime = new Date().getTime();
+        List<SessionKeyRecord> records = new ArrayList<>();
+        for (long keyID: keyIDs) {
+            SessionKeyRecord record = sessionKeys.get(keyID);
+            if (record != null && record.getExpirationTime() > currentTime && !record.hasOwner(requestingEntityName)) {
+                records.add(record);
+            }
+        }
+        records.sort(EXPIRATION_ORDER);
+        List<CachedSessionKeyTable> result = new ArrayList<>(records.size());
+        for (SessionKeyRecord record: records) {
+            result.add(record.toTable());
+        }
+        return result;
+    }
+
+    public boolean appendSessionKeyOwner(long keyID, String newOwner) throws SQLException {
+        appendSessionKeyOwners(Collections.singletonList(keyID), newOwner);
+        return false;
+    }
+
+    public int appendSessionKeyOwners(List<Long> keyIDList, String newOwner) throws SQLException {
+        if (keyIDList.isEmpty()) {
+            return 0;
+        }
+        RecordBuilder builder = new RecordBuilder(SESSION_KEY_OWNERS_APPEND);
+        builder.putString(newOwner);
+        builder.putLongList(keyIDList);
+        byte[] record = builder.toByteArray();
+        appendLock.lock();
+        try {
+            append(record);
+            return applySessionKeyOwnersAppend(keyIDList, newOwner);
+        }
+        finally {
+            appendLock.unlock();
+        }
+    }
+
+    public boolean deleteExpiredCahcedSessionKeys() throws SQLException {
+        deleteExpiredCachedSessionKeys(new Date().getTime(), Integer.MAX_VALUE);
+        return false;
+    }
+
+    public int deleteExpiredCachedSessionKeys(long currentTime, int batchSize) throws SQLException {
+        appendLock.lock();
+        try {
+            List<Long> keyIDList = new ArrayList<>();
+            for (SessionKeyRecord record: expirationIndex) {
+                if (record.getExpirationTime() >= currentTime || keyIDList.size() >= batchSize) {
+                    break;
+                }
+                keyIDList.add(record.getID());
+            }
+            if (keyIDList.isEmpty()) {
+                return 0;
+            }
+            RecordBuilder builder = new RecordBuilder(SESSION_KEYS_DELETE);
+            builder.putLongList(keyIDList);
+            append(builder.toByteArray());
+            return applySessionKeysDelete(keyIDList);
+        }
+        finally {
+            appendLock.unlock();
+        }
+    }
+
+    public boolean deleteAllCachedSessionKeys() throws SQLException {
+        byte[] record = new RecordBuilder(ALL_SESSION_KEYS_DELETE).toByteArray();
+        appendLock.lock();
+        try {
+            append(record);
+            applyAllSessionKeysDelete();
+        }
+        finally {
+            appendLock.unlock();
+        }
+        return false;
+    }
+
+    /**
+     * Compacts the log by rewriting only the live records, when the log holds at least the given number of
+     * superseded records, or more superseded records than live ones.
+     * @param maxPages Number of superseded records in the log that triggers compaction.
+     * @return The number of superseded records dropped.
+     * @throws SQLException When an error occurs while rewriting the log
+     */
+    public long vacuum(int maxPages) throws SQLException {
+        appendLock.lock();
+        try {
+            long numLiveRecords = getNumLiveRecords();
+            long numDeadRecords = numLogRecords - numLiveRecords;
+            if (numDeadRecords <= 0 || (numDeadRecords < maxPages && numDeadRecords <= numLiveRecords)) {
+                return 0;
+            }
+            try {
+                compact();
+            }
+            catch (IOException | CertificateEncodingException e) {
+                throw new SQLException("Failed to compact Auth DB log.", e);
+            }
+            return numDeadRecords;
+        }
+        finally {
+            appendLock.unlock();
+        }
+    }
+
+    public boolean insertRecords(MetaDataTable metaData) throws SQLException {
+        byte[] record = encodeMetaData(META_DATA_INSERT, metaData.getKey(), metaData.getValue());
+        appendLock.lock();
+        try {
+            if (metaDataMap.containsKey(metaData.getKey())) {
+                throw new SQLException("Meta data already exists: " + metaData.getKey());
+            }
+            append(record);
+            metaDataMap.put(metaData.getKey(), metaData.getValue());
+        }
+        finally {
+            appendLock.unlock();
+        }
+        return false;
+    }
+
+    public String selectMetaDataValue(String key) {
+        return metaDataMap.get(key);
+    }
+
+    public boolean updateMetaData(String key, String value) throws SQLException {
+        byte[] record = encodeMetaData(META_DATA_UPDATE, key, value);
+        appendLock.lock();
+        try {
+            append(record);
+            metaDataMap.replace(key, value);
+        }
+        finally {
+            appendLock.unlock();
+        }
+        return false;
+    }
+
+    public String statisticsToString() {
+        appendLock.lock();
+        try {
+            return "records in log: " + numLogRecords + ", live records: " + getNumLiveRecords() +
+                    ", compactions: " + numCompactions + ", replayed: " + numReplayedRecords +
+                    ", discarded torn bytes: " + numDiscardedBytes;
+        }
+        finally {
+            appendLock.unlock();
+        }
+    }
+
+    public String checkpointStatisticsToString() {
+        appendLock.lock();
+        try {
+            return "synced records: " + numSyncedRecords + ", unsynced records: " + numUnsyncedRecords;
+        }
+        finally {
+            appendLock.unlock();
+        }
+    }
+
+    private long getNumLiveRecords() {
+        return entities.size() + policies.size() + trustedAuths.size() + sessionKeys.size() + metaDataMap.size();
+    }
+
+    /**
+     * Appends a record to the log, encrypting it if needed. Must be called with the append lock held, before
+     * applying the record to memory, so that a failed append leaves memory unchanged.
+     */
+    private void append(byte[] record) throws SQLException {
+        try {
+            writeFrame(appendChannel, protect(record));
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to append to Auth DB log.", e);
+        }
+        numLogRecords++;
+        numUnsyncedRecords++;
+    }
+
+    private void sync() throws SQLException {
+        try {
+            checkpoint();
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to sync Auth DB log.", e);
+        }
+    }
+
+    private byte[] protect(byte[] record) {
+        if (!encryptRecords) {
+            return record;
+        }
+        try {
+            return databaseKey.encryptAuthenticate(new Buffer(record)).getRawBytes();
+        } catch (UseOfExpiredKeyException | InvalidSymmetricKeyOperationException e) {
+            logger.error("Exception {}", ExceptionToString.convertExceptionToStackTrace(e));
+            throw new RuntimeException("Exception occurred while encrypting Auth DB Data!");
+        }
+    }
+
+    private byte[] unprotect(byte[] payload) {
+        if (!encryptRecords) {
+            return payload;
+        }
+        try {
+            return databaseKey.decryptVerify(new Buffer(payload)).getRawBytes();
+        }
+        catch (Exception e) {
+            logger.error("Exception {}", ExceptionToString.convertExceptionToStackTrace(e));
+            throw new RuntimeException("Exception occurred while decrypting Auth DB Data!");
+        }
+    }
+
+    private static void writeFrame(FileChannel channel, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + payload.length);
+        frame.putInt(payload.length);
+        frame.putInt((int) crc.getValue());
+        frame.put(payload);
+        frame.flip();
+        while (frame.hasRemaining()) {
+            channel.write(frame);
+        }
+    }
+
+    /**
+     * Replays all complete records of the log, and truncates the log after the last complete record.
+     */
+    private void replayLog() throws IOException {
+        long validLength = 0;
+        long fileLength = Files.size(logPath);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logPath)))) {
+            while (fileLength - validLength >= FRAME_HEADER_SIZE) {
+                int length = in.readInt();
+                int expectedCrc = in.readInt();
+                if (length < 0 || length > fileLength - validLength - FRAME_HEADER_SIZE) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != expectedCrc) {
+                    break;
+                }
+                applyRecord(unprotect(payload));
+                validLength += FRAME_HEADER_SIZE + length;
+                numReplayedRecords++;
+            }
+        }
+        numLogRecords = numReplayedRecords;
+        if (validLength < fileLength) {
+            numDiscardedBytes = fileLength - validLength;
+            logger.warn("Discarding {} bytes of torn records at the end of Auth DB log.", numDiscardedBytes);
+            try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+                channel.force(true);
+            }
+        }
+        logger.info("Replayed {} records of Auth DB log.", numReplayedRecords);
+    }
+
+    private void applyRecord(byte[] record) {
+        RecordReader reader = new RecordReader(record);
+        switch (reader.getType()) {
+            case ENTITY_PUT:
+                applyEntityPut(readEntity(reader));
+                break;
+            case ENTITIES_DELETE:
+                applyEntitiesDelete(reader.getStringList());
+                break;
+            case BACKED_UP_ENTITIES_DELETE:
+                applyBackedUpEntitiesDelete();
+                break;
+            case DIST_KEYS_UPDATE:
+                int numUpdates = reader.getInt();
+                List<DistKeyUpdate> updates = new ArrayList<>(numUpdates);
+                for (int i = 0; i < numUpdates; i++) {
+                    updates.add(new DistKeyUpdate(reader.getString(), reader.getLong(), reader.getBytes()));
+                }
+                applyDistKeysUpdate(updates);
+                break;
+            case POLICY_INSERT:
+                applyPolicyInsert(readPolicy(reader));
+                break;
+            case TRUSTED_AUTH_INSERT:
+                applyTrustedAuthInsert(readTrustedAuth(reader));
+                break;
+            case BACKUP_CERTIFICATE_UPDATE:
+                int backupFromAuthID = reader.getInt();
+                applyBackupCertificateUpdate(backupFromAuthID, AuthCrypto.loadCertificateFromBytes(reader.getBytes()));
+                break;
+            case SESSION_KEYS_INSERT:
+                int numSessionKeys = reader.getInt();
+                List<CachedSessionKeyTable> cachedSessionKeyList = new ArrayList<>(numSessionKeys);
+                for (int i = 0; i < numSessionKeys; i++) {
+                    cachedSessionKeyList.add(readSessionKey(reader));
+                }
+                applySessionKeysInsert(cachedSessionKeyList);
+                break;
+            case SESSION_KEY_OWNERS_APPEND:
+                String newOwner = reader.getString();
+                applySessionKeyOwnersAppend(reader.getLongList(), newOwner);
+                break;
+            case SESSION_KEYS_DELETE:
+                applySessionKeysDelete(reader.getLongList());
+                break;
+            case ALL_SESSION_KEYS_DELETE:
+                applyAllSessionKeysDelete();
+                break;
+            case META_DATA_INSERT:
+                metaDataMap.put(reader.getString(), reader.getString());
+                break;
+            case META_DATA_UPDATE:
+                String key = reader.getString();
+                metaDataMap.replace(key, reader.getString());
+                break;
+            default:
+                throw new RuntimeException("Unknown record type in Auth DB log: " + reader.getType());
+        }
+    }
+
+    private void applyEntityPut(RegisteredEntityTable regEntity) {
+        entities.put(regEntity.getName(), regEntity);
+    }
+
+    private void applyEntitiesDelete(List<String> registeredEntityNameList) {
+        for (String name: registeredEntityNameList) {
+            entities.remove(name);
+        }
+    }
+
+    private void applyBackedUpEntitiesDelete() {
+        entities.values().removeIf(regEntity -> regEntity.getBackupFromAuthID() >= 0);
+    }
+
+    private int applyDistKeysUpdate(List<DistKeyUpdate> updates) {
+        int numUpdated = 0;
+        for (DistKeyUpdate update: updates) {
+            RegisteredEntityTable regEntity = entities.get(update.name);
+            if (regEntity == null) {
+                continue;
+            }
+            // Stored records are never modified, as they may be copied concurrently.
+            RegisteredEntityTable updated = copyOf(regEntity);
+            updated.setDistKeyExpirationTime(update.expirationTime);
+            updated.setDistKeyVal(update.keyVal);
+            entities.put(update.name, updated);
+            numUpdated++;
+        }
+        return numUpdated;
+    }
+
+    private void applyPolicyInsert(CommunicationPolicyTable policy) {
+        policies.putIfAbsent(policyKeyOf(policy), policy);
+    }
+
+    /**
+     * Key of a communication policy, the same as the primary key of the policy table of SQLite.
+     */
+    private static String policyKeyOf(CommunicationPolicyTable policy) {
+        return policy.getReqGroup() + ":" + policy.getTargetTypeVal() + ":" + policy.getTarget();
+    }
+
+    private void applyTrustedAuthInsert(TrustedAuthTable auth) {
+        trustedAuths.put(auth.getId(), auth);
+    }
+
+    private void applyBackupCertificateUpdate(int backupFromAuthID, X509Certificate backupCertificate) {
+        TrustedAuthTable auth = trustedAuths.get(backupFromAuthID);
+        if (auth == null) {
+            return;
+        }
+        TrustedAuthTable updated = copyOf(auth);
+        updated.setBackupCertificate(backupCertificate);
+        trustedAuths.put(backupFromAuthID, updated);
+    }
+
+    private void applySessionKeysInsert(List<CachedSessionKeyTable> cachedSessionKeyList) {
+        for (CachedSessionKeyTable cachedSessionKey: cachedSessionKeyList) {
+            SessionKeyRecord record = new SessionKeyRecord(cachedSessionKey);
+            sessionKeys.put(record.getID(), record);
+            expirationIndex.add(record);
+            purposeIndex.computeIfAbsent(cachedSessionKey.getPurpose(), purpose -> ConcurrentHashMap.newKeySet())
+                    .add(record.getID());
+        }
+    }
+
+    private int applySessionKeyOwnersAppend(List<Long> keyIDList, String newOwner) {
+        int numUpdated = 0;
+        for (long keyID: keyIDList) {
+            SessionKeyRecord record = sessionKeys.get(keyID);
+            if (record != null && record.addOwner(newOwner)) {
+                numUpdated++;
+            }
+        }
+        return numUpdated;
+    }
+
+    private int applySessionKeysDelete(List<Long> keyIDList) {
+        int numDeleted = 0;
+        for (long keyID: keyIDList) {
+            SessionKeyRecord record = sessionKeys.remove(keyID);
+            if (record == null) {
+                continue;
+            }
+            expirationIndex.remove(record);
+            Set<Long> keyIDs = purposeIndex.get(record.getPurpose());
+            if (keyIDs != null) {
+                keyIDs.remove(keyID);
+            }
+            numDeleted++;
+        }
+        return numDeleted;
+    }
+
+    private void applyAllSessionKeysDelete() {
+        sessionKeys.clear();
+        expirationIndex.clear();
+        purposeIndex.clear();
+    }
+
+    /**
+     * Rewrites the live records to a new log, which atomically replaces the current log.
+     * Must be called with the append lock held.
+     */
+    private void compact() throws IOException, CertificateEncodingException {
+        Path compactionPath = Paths.get(logPath.toString() + COMPACTION_FILE_SUFFIX);
+        long numRecords = 0;
+        try (FileChannel channel = FileChannel.open(compactionPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (RegisteredEntityTable regEntity: entities.values()) {
+                writeFrame(channel, protect(encodeEntityPut(regEntity)));
+                numRecords++;
+            }
+            for (CommunicationPolicyTable policy: policies.values()) {
+                writeFrame(channel, protect(encodePolicyInsert(policy)));
+                numRecords++;
+            }
+            for (TrustedAuthTable auth: trustedAuths.values()) {
+                writeFrame(channel, protect(encodeTrustedAuthInsert(auth)));
+                numRecords++;
+            }
+            for (SessionKeyRecord record: sessionKeys.values()) {
+                writeFrame(channel, protect(encodeSessionKeysInsert(Collections.singletonList(record.toTable()))));
+                numRecords++;
+            }
+            for (Map.Entry<String, String> entry: metaDataMap.entrySet()) {
+                writeFrame(channel, protect(encodeMetaData(META_DATA_INSERT, entry.getKey(), entry.getValue())));
+                numRecords++;
+            }
+            channel.force(true);
+        }
+        appendChannel.close();
+        Files.move(compactionPath, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        appendChannel = FileChannel.open(logPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        numSyncedRecords += numUnsyncedRecords;
+        numUnsyncedRecords = 0;
+        numLogRecords = numRecords;
+        numCompactions++;
+        logger.info("Compacted Auth DB log into {} records.", numRecords);
+    }
+
+    private static byte[] encodeEntityPut(RegisteredEntityTable regEntity) {
+        RecordBuilder builder = new RecordBuilder(ENTITY_PUT);
+        writeEntity(builder, regEntity);
+        return builder.toByteArray();
+    }
+
+    private static byte[] encodeDistKeysUpdate(List<DistKeyUpdate> updates) {
+        RecordBuilder builder = new RecordBuilder(DIST_KEYS_UPDATE);
+        builder.putInt(updates.size());
+        for (DistKeyUpdate update: updates) {
+            builder.putString(update.name);
+            builder.putLong(update.expirationTime);
+            builder.putBytes(update.keyVal);
+        }
+        return builder.toByteArray();
+    }
+
+    private static byte[] encodePolicyInsert(CommunicationPolicyTable policy) {
+        RecordBuilder builder = new RecordBuilder(POLICY_INSERT);
+        writePolicy(builder, policy);
+        return builder.toByteArray();
+    }
+
+    private static byte[] encodeTrustedAuthInsert(TrustedAuthTable auth) throws CertificateEncodingException {
+        RecordBuilder builder = new RecordBuilder(TRUSTED_AUTH_INSERT);
+        writeTrustedAuth(builder, auth);
+        return builder.toByteArray();
+    }
+
+    private static byte[] encodeSessionKeysInsert(List<CachedSessionKeyTable> cachedSessionKeyList) {
+        RecordBuilder builder = new RecordBuilder(SESSION_KEYS_INSERT);
+        builder.putInt(cachedSessionKeyList.size());
+        for (CachedSessionKeyTable cachedSessionKey: cachedSessionKeyList) {
+            writeSessionKey(builder, cachedSessionKey);
+        }
+        return builder.toByteArray();
+    }
+
+    private static byte[] encodeMetaData(byte type, String key, String value) {
+        RecordBuilder builder = new RecordBuilder(type);
+        builder.putString(key);
+        builder.putString(value);
+        return builder.toByteArray();
+    }
+
+    private static void writeEntity(RecordBuilder builder, RegisteredEntityTable regEntity) {
+        builder.putString(regEntity.getName());
+        builder.putString(regEntity.getGroup());
+        builder.putString(regEntity.getDistProtocol());
+        builder.putBoolean(regEntity.getUsePermanentDistKey());
+        builder.putInt(regEntity.getMaxSessionKeysPerRequest());
+        builder.putString(regEntity.getPublicKeyCryptoSpec());
+        builder.putBytes(regEntity.getPublicKeyVal());
+        builder.putString(regEntity.getDistKeyValidityPeriod());
+        builder.putString(regEntity.getDistCryptoSpec());
+        builder.putLong(regEntity.getDistKeyExpirationTime());
+        builder.putBytes(regEntity.getDistKeyVal());
+        builder.putBoolean(regEntity.isActive());
+        builder.putString(regEntity.getBackupToAuthIDs());
+        builder.putInt(regEntity.getBackupFromAuthID());
+        builder.putBytes(regEntity.getMigrationTokenVal());
+    }
+
+    private static RegisteredEntityTable readEntity(RecordReader reader) {
+        RegisteredEntityTable regEntity = new RegisteredEntityTable();
+        regEntity.setName(reader.getString());
+        regEntity.setGroup(reader.getString());
+        regEntity.setDistProtocol(reader.getString());
+        regEntity.setUsePermanentDistKey(reader.getBoolean());
+        regEntity.setMaxSessionKeysPerRequest(reader.getInt());
+        regEntity.setPublicKeyCryptoSpec(reader.getString());
+        regEntity.setPublicKeyVal(reader.getBytes());
+        regEntity.setDistKeyValidityPeriod(reader.getString());
+        regEntity.setDistCryptoSpec(reader.getString());
+        long distKeyExpirationTime = reader.getLong();
+        byte[] distKeyVal = reader.getBytes();
+        if (distKeyVal != null) {
+            regEntity.setDistKeyVal(distKeyVal);
+            regEntity.setDistKeyExpirationTime(distKeyExpirationTime);
+        }
+        regEntity.setActive(reader.getBoolean());
+        regEntity.setBackupToAuthIDs(reader.getString());
+        regEntity.setBackupFromAuthID(reader.getInt());
+        regEntity.setMigrationTokenVal(reader.getBytes());
+        return regEntity;
+    }
+
+    private static void writePolicy(RecordBuilder builder, CommunicationPolicyTable policy) {
+        builder.putString(policy.getReqGroup());
+        builder.putString(policy.getTargetTypeVal());
+        builder.putString(policy.getTarget());
+        builder.putInt(policy.getMaxNumSessionKeyOwners());
+        builder.putString(policy.getSessionCryptoSpec());
+        builder.putString(policy.getAbsValidityStr());
+        builder.putString(policy.getRelValidityStr());
+    }
+
+    private static CommunicationPolicyTable readPolicy(RecordReader reader) {
+        CommunicationPolicyTable policy = new CommunicationPolicyTable();
+        policy.setReqGroup(reader.getString());
+        String targetTypeVal = reader.getString();
+        policy.setTargetTypeVal(targetTypeVal);
+        policy.setTargetType(CommunicationTargetType.fromStringValue(targetTypeVal));
+        policy.setTarget(reader.getString());
+        policy.setMaxNumSessionKeyOwners(reader.getInt());
+        policy.setSessionCryptoSpec(reader.getString());
+        policy.setAbsValidityStr(reader.getString());
+        policy.setRelValidityStr(reader.getString());
+        return policy;
+    }
+
+    private static void writeTrustedAuth(RecordBuilder builder, TrustedAuthTable auth)
+            throws CertificateEncodingException
+    {
+        builder.putInt(auth.getId());
+        builder.putString(auth.getHost());
+        builder.putString(auth.getEntityHost());
+        builder.putInt(auth.getPort());
+        builder.putInt(auth.getHeartbeatPeriod());
+        builder.putInt(auth.getFailureThreshold());
+        builder.putBytes(auth.getInternetCertificate().getEncoded());
+        builder.putBytes(auth.getEntityCertificateVal());
+        builder.putBytes(auth.getBackupCertificateVal());
+    }
+
+    private static TrustedAuthTable readTrustedAuth(RecordReader reader) {
+        TrustedAuthTable auth = new TrustedAuthTable();
+        auth.setId(reader.getInt());
+        auth.setHost(reader.getString());
+        auth.setEntityHost(reader.getString());
+        auth.setPort(reader.getInt());
+        auth.setHeartbeatPeriod(reader.getInt());
+        auth.setFailureThreshold(reader.getInt());
+        auth.setInternetCertificate(AuthCrypto.loadCertificateFromBytes(reader.getBytes()));
+        auth.setEntityCertificateVal(reader.getBytes());
+        auth.setBackupCertificateVal(reader.getBytes());
+        return auth;
+    }
+
+    private static void writeSessionKey(RecordBuilder builder, CachedSessionKeyTable cachedSessionKey) {
+        builder.putLong(cachedSessionKey.getID());
+        builder.putString(cachedSessionKey.getOwner());
+        builder.putInt(cachedSessionKey.getMaxNumOwners());
+        builder.putString(cachedSessionKey.getPurpose());
+        builder.putLong(cachedSessionKey.getAbsValidity());
+        builder.putLong(cachedSessionKey.getRelValidity());
+        builder.putString(cachedSessionKey.getSessionCryptoSpec());
+        builder.putBytes(cachedSessionKey.getKeyVal());
+    }
+
+    private static CachedSessionKeyTable readSessionKey(RecordReader reader) {
+        CachedSessionKeyTable cachedSessionKey = new CachedSessionKeyTable();
+        cachedSessionKey.setID(reader.getLong());
+        cachedSessionKey.setOwner(reader.getString());
+        cachedSessionKey.setMaxNumOwners(reader.getInt());
+        cachedSessionKey.setPurpose(reader.getString());
+        cachedSessionKey.setAbsValidity(reader.getLong());
+        cachedSessionKey.setRelValidity(reader.getLong());
+        cachedSessionKey.setSessionCryptoSpec(reader.getString());
+        cachedSessionKey.setKeyVal(reader.getBytes());
+        return cachedSessionKey;
+    }
+
+    private static RegisteredEntityTable copyOf(RegisteredEntityTable regEntity) {
+        RecordBuilder builder = new RecordBuilder(ENTITY_PUT);
+        writeEntity(builder, regEntity);
+        return readEntity(new RecordReader(builder.toByteArray()));
+    }
+
+    private static CommunicationPolicyTable copyOf(CommunicationPolicyTable policy) {
+        RecordBuilder builder = new RecordBuilder(POLICY_INSERT);
+        writePolicy(builder, policy);
+        return readPolicy(new RecordReader(builder.toByteArray()));
+    }
+
+    private static TrustedAuthTable copyOf(TrustedAuthTable auth) {
+        TrustedAuthTable copy = new TrustedAuthTable();
+        copy.setId(auth.getId());
+        copy.setHost(auth.getHost());
+        copy.setEntityHost(auth.getEntityHost());
+        copy.setPort(auth.getPort());
+        copy.setHeartbeatPeriod(auth.getHeartbeatPeriod());
+        copy.setFailureThreshold(auth.getFailureThreshold());
+        copy.setInternetCertificate(auth.getInternetCertificate());
+        try {
+            // Copies encoded entity and backup certificates, which are decoded only on first use.
+            copy.setEntityCertificateVal(auth.getEntityCertificateVal());
+            copy.setBackupCertificateVal(auth.getBackupCertificateVal());
+        }
+        catch (CertificateEncodingException e) {
+            throw new IllegalArgumentException("Problem encoding certificate of trusted Auth " + auth.getId() +
+                    "\n" + e.getMessage());
+        }
+        return copy;
+    }
+
+    /**
+     * Serializes fields of a record, nullable strings and byte arrays are prefixed with their length, -1 for null.
+     */
+    private static class RecordBuilder {
+        RecordBuilder(byte type) {
+            putByte(type);
+        }
+        void putByte(byte value) {
+            try {
+                out.writeByte(value);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        void putBoolean(boolean value) {
+            putByte((byte) (value ? 1 : 0));
+        }
+        void putInt(int value) {
+            try {
+                out.writeInt(value);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        void putLong(long value) {
+            try {
+                out.writeLong(value);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        void putBytes(byte[] value) {
+            if (value == null) {
+                putInt(-1);
+                return;
+            }
+            putInt(value.length);
+            try {
+                out.write(value);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        void putString(String value) {
+            putBytes(value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+        }
+        void putStringList(List<String> values) {
+            putInt(values.size());
+            for (String value: values) {
+                putString(value);
+            }
+        }
+        void putLongList(List<Long> values) {
+            putInt(values.size());
+            for (long value: values) {
+                putLong(value);
+            }
+        }
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+    }
+
+    private static class RecordReader {
+        RecordReader(byte[] record) {
+            this.in = new DataInputStream(new ByteArrayInputStream(record));
+            this.type = getByte();
+        }
+        byte getType() {
+            return type;
+        }
+        byte getByte() {
+            try {
+                return in.readByte();
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Corrupted record in Auth DB log!", e);
+            }
+        }
+        boolean getBoolean() {
+            return getByte() != 0;
+        }
+        int getInt() {
+            try {
+                return in.readInt();
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Corrupted record in Auth DB log!", e);
+            }
+        }
+        long getLong() {
+            try {
+                return in.readLong();
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Corrupted record in Auth DB log!", e);
+            }
+        }
+        byte[] getBytes() {
+            int length = getInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] value = new byte[length];
+            try {
+                in.readFully(value);
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Corrupted record in Auth DB log!", e);
+            }
+            return value;
+        }
+        String getString() {
+            byte[] value = getBytes();
+            return value == null ? null : new String(value, StandardCharsets.UTF_8);
+        }
+        List<String> getStringList() {
+            int size = getInt();
+            List<String> values = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                values.add(getString());
+            }
+            return values;
+        }
+        List<Long> getLongList() {
+            int size = getInt();
+            List<Long> values = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                values.add(getLong());
+            }
+            return values;
+        }
+        private final DataInputStream in;
+        private final byte type;
+    }
+
+    private static class DistKeyUpdate {
+        DistKeyUpdate(String name, long expirationTime, byte[] keyVal) {
+            this.name = name;
+            this.expirationTime = expirationTime;
+            this.keyVal = keyVal;
+        }
+        private final String name;
+        private final long expirationTime;
+        private final byte[] keyVal;
+    }
+
+    /**
+     * A cached session key in memory, with its owners as a set, as the owner table of SQLite.
+     */
+    private static class SessionKeyRecord {
+        SessionKeyRecord(CachedSessionKeyTable cachedSessionKey) {
+            this.id = cachedSessionKey.getID();
+            this.maxNumOwners = cachedSessionKey.getMaxNumOwners();
+            this.purpose = cachedSessionKey.getPurpose();
+            this.expirationTime = cachedSessionKey.getAbsValidity();
+            this.relValidity = cachedSessionKey.getRelValidity();
+            this.sessionCryptoSpec = cachedSessionKey.getSessionCryptoSpec();
+            this.keyVal = cachedSessionKey.getKeyVal().clone();
+            this.owners.addAll(Arrays.asList(cachedSessionKey.getOwner().split(SessionKey.SESSION_KEY_OWNER_NAME_DELIM)));
+        }
+        long getID() {
+            return id;
+        }
+        long getExpirationTime() {
+            return expirationTime;
+        }
+        String getPurpose() {
+            return purpose;
+        }
+        synchronized boolean hasOwner(String owner) {
+            return owners.contains(owner);
+        }
+        synchronized boolean addOwner(String owner) {
+            return owners.add(owner);
+        }
+        synchronized CachedSessionKeyTable toTable() {
+            CachedSessionKeyTable cachedSessionKey = new CachedSessionKeyTable();
+            cachedSessionKey.setID(id);
+            cachedSessionKey.setOwner(String.join(SessionKey.SESSION_KEY_OWNER_NAME_DELIM, owners));
+            cachedSessionKey.setMaxNumOwners(maxNumOwners);
+            cachedSessionKey.setPurpose(purpose);
+            cachedSessionKey.setAbsValidity(expirationTime);
+            cachedSessionKey.setRelValidity(relValidity);
+            cachedSessionKey.setSessionCryptoSpec(sessionCryptoSpec);
+            cachedSessionKey.setKeyVal(keyVal.clone());
+            return cachedSessionKey;
+        }
+        private final long id;
+        private final int maxNumOwners;
+        private final String purpose;
+        private final long expirationTime;
+        private final long relValidity;
+        private final String sessionCryptoSpec;
+        private final byte[] keyVal;
+        private final Set<String> owners = new LinkedHashSet<>();
+    }
+
+    private static final Comparator<SessionKeyRecord> EXPIRATION_ORDER =
+            Comparator.comparingLong(SessionKeyRecord::getExpirationTime).thenComparingLong(SessionKeyRecord::getID);
+
+    private final Path logPath;
+    private final boolean encryptRecords;
+    private SymmetricKey databaseKey;
+    // Serializes appends to the log, together with applying them to memory, so that both are in the same order.
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private FileChannel appendChannel;
+
+    private final Map<String, RegisteredEntityTable> entities = new ConcurrentHashMap<>();
+    private final Map<String, CommunicationPolicyTable> policies = new ConcurrentHashMap<>();
+    private final Map<Integer, TrustedAuthTable> trustedAuths = new ConcurrentHashMap<>();
+    private final Map<Long, SessionKeyRecord> sessionKeys = new ConcurrentHashMap<>();
+    private final Map<String, Set<Long>> purposeIndex = new ConcurrentHashMap<>();
+    private final NavigableSet<SessionKeyRecord> expirationIndex = new ConcurrentSkipListSet<>(EXPIRATION_ORDER);
+    private final Map<String, String> metaDataMap = new ConcurrentHashMap<>();
+
+    private long numLogRecords = 0;
+    private long numReplayedRecords = 0;
+    private long numDiscardedBytes = 0;
+    private int numUnsyncedRecords = 0;
+    private long numSyncedRecords = 0;
+    private long numCompactions = 0;
+}
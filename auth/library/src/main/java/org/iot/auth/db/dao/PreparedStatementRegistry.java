@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A registry of prepared statements for a single database connection. Each SQL query is prepared once,
+ * with bind parameters, and the prepared statement is reused by later executions of the same query.
+ * Statements in the registry must not be closed by their users, and must be used by one thread at a time.
+ * @author Hokeun Kim
+ */
+public class PreparedStatementRegistry {
+    public PreparedStatementRegistry(Connection connection) {
+        this.connection = connection;
+        this.statementMap = new HashMap<>();
+    }
+
+    /**
+     * Returns the prepared statement for the given SQL query, preparing it if this is the first use.
+     * Parameters bound in previous executions are cleared.
+     * @param sql SQL query with bind parameters.
+     * @return The prepared statement for the query.
+     * @throws SQLException If a database access error occurs.
+     */
+    public synchronized PreparedStatement get(String sql) throws SQLException {
+        PreparedStatement preparedStatement = statementMap.get(sql);
+        if (preparedStatement == null || preparedStatement.isClosed()) {
+            preparedStatement = connection.prepareStatement(sql);
+            statementMap.put(sql, preparedStatement);
+            numPrepared++;
+        }
+        else {
+            preparedStatement.clearParameters();
+            numReused++;
+        }
+        return preparedStatement;
+    }
+
+    /**
+     * Closes all prepared statements in the registry.
+     * @throws SQLException If a database access error occurs.
+     */
+    public synchronized void closeAll() throws SQLException {
+        for (PreparedStatement preparedStatement : statementMap.values()) {
+            preparedStatement.close();
+        }
+        statementMap.clear();
+    }
+
+    public synchronized String toString() {
+        return "statements: " + statementMap.size() + ", prepared: " + numPrepared + ", reused: " + numReused;
+    }
+
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statementMap;
+    private long numPrepared = 0;
+    private long numReused = 0;
+}
@@ -16,20 +16,30 @@
 package org.iot.auth.db.dao;
 
 import org.iot.auth.crypto.AuthCrypto;
+import org.iot.auth.crypto.CryptoPrimitivePool;
+import org.iot.auth.crypto.DistributionKey;
+import org.iot.auth.crypto.SessionKey;
 import org.iot.auth.crypto.SymmetricKey;
 import org.iot.auth.crypto.SymmetricKeyCryptoSpec;
 import org.iot.auth.db.AuthDBProtectionMethod;
 import org.iot.auth.db.bean.*;
+import org.iot.auth.exception.InvalidMacException;
 import org.iot.auth.exception.InvalidSymmetricKeyOperationException;
+import org.iot.auth.exception.MessageIntegrityException;
 import org.iot.auth.exception.UseOfExpiredKeyException;
 import org.iot.auth.io.Buffer;
-import org.iot.auth.io.FileIOHelper;
 import org.iot.auth.util.DateHelper;
 import org.iot.auth.util.ExceptionToString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sqlite.SQLiteConnection;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.security.*;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
@@ -37,13 +47,14 @@ import java.security.cert.X509Certificate;
 import java.sql.*;
 import java.util.*;
 import java.util.Date;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * A SQLite connector Class for CRUD operations on Auth database.
+ * A SQLite connector Class for CRUD operations on Auth database, the default {@link AuthStore} backend.
  *
  * @author Salomon Lee, Hokeun Kim
  */
-public class SQLiteConnector {
+public class SQLiteConnector implements AuthStore {
     public boolean DEBUG;
     private static final Logger logger = LoggerFactory.getLogger(SQLiteConnector.class);
     private Connection connection;
@@ -57,7 +68,122 @@ public class SQLiteConnector {
     public static final SymmetricKeyCryptoSpec AUTH_DB_CRYPTO_SPEC =
             new SymmetricKeyCryptoSpec("AES/CBC/PKCS5Padding", 16, "HmacSHA256");
     public static final String AUTH_DB_PUBLIC_CIPHER = "RSA/ECB/PKCS1PADDING";
+    private static final String CHUNK_KEY_LABEL = "Auth DB chunk key";
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // Queries prepared once by the statement registry, with bind parameters.
+    private static final String INSERT_CACHED_SESSION_KEY_SQL =
+            "INSERT INTO " + CachedSessionKeyTable.T_CACHED_SESSION_KEY + "(" +
+            CachedSessionKeyTable.c.ID.name() + "," +
+            CachedSessionKeyTable.c.Owners.name() + "," +
+            CachedSessionKeyTable.c.MaxNumOwners.name() + "," +
+            CachedSessionKeyTable.c.Purpose.name() + "," +
+            CachedSessionKeyTable.c.ExpirationTime.name() + "," +
+            CachedSessionKeyTable.c.RelValidity.name() + "," +
+            CachedSessionKeyTable.c.CryptoSpec.name() + "," +
+            CachedSessionKeyTable.c.KeyVal.name() + ")" +
+            " VALUES(?,?,?,?,?,?,?,?)";
+    // Owners are read from the session key owner table, the Owners column keeps only the initial owners.
+    private static final String SELECT_CACHED_SESSION_KEYS_SQL =
+            "SELECT k." + CachedSessionKeyTable.c.ID.name() + " AS " + CachedSessionKeyTable.c.ID.name() + "," +
+            " COALESCE((SELECT group_concat(o." + SessionKeyOwnerTable.c.Owner.name() + ")" +
+            " FROM " + SessionKeyOwnerTable.T_SESSION_KEY_OWNER + " o" +
+            " WHERE o." + SessionKeyOwnerTable.c.KeyID.name() + " = k." + CachedSessionKeyTable.c.ID.name() + ")," +
+            " k." + CachedSessionKeyTable.c.Owners.name() + ") AS " + CachedSessionKeyTable.c.Owners.name() + "," +
+            " k." + CachedSessionKeyTable.c.MaxNumOwners.name() + " AS " + CachedSessionKeyTable.c.MaxNumOwners.name() + "," +
+            " k." + CachedSessionKeyTable.c.Purpose.name() + " AS " + CachedSessionKeyTable.c.Purpose.name() + "," +
+            " k." + CachedSessionKeyTable.c.ExpirationTime.name() + " AS " + CachedSessionKeyTable.c.ExpirationTime.name() + "," +
+            " k." + CachedSessionKeyTable.c.RelValidity.name() + " AS " + CachedSessionKeyTable.c.RelValidity.name() + "," +
+            " k." + CachedSessionKeyTable.c.CryptoSpec.name() + " AS " + CachedSessionKeyTable.c.CryptoSpec.name() + "," +
+            " k." + CachedSessionKeyTable.c.KeyVal.name() + " AS " + CachedSessionKeyTable.c.KeyVal.name() +
+            " FROM " + CachedSessionKeyTable.T_CACHED_SESSION_KEY + " k";
+    private static final String SELECT_CACHED_SESSION_KEY_BY_ID_SQL =
+            SELECT_CACHED_SESSION_KEYS_SQL +
+            " WHERE k." + CachedSessionKeyTable.c.ID.name() + " = ?";
+    // Uses the (Purpose, ExpirationTime) index, and the primary key of the owner table for exact owner matches.
+    private static final String SELECT_CACHED_SESSION_KEYS_BY_PURPOSE_SQL =
+            SELECT_CACHED_SESSION_KEYS_SQL +
+            " WHERE k." + CachedSessionKeyTable.c.Purpose.name() + " = ?" +
+            " AND k." + CachedSessionKeyTable.c.ExpirationTime.name() + " > ?" +
+            " AND NOT EXISTS (SELECT 1 FROM " + SessionKeyOwnerTable.T_SESSION_KEY_OWNER + " o" +
+            " WHERE o." + SessionKeyOwnerTable.c.KeyID.name() + " = k." + CachedSessionKeyTable.c.ID.name() +
+            " AND o." + SessionKeyOwnerTable.c.Owner.name() + " = ?)";
+    private static final String INSERT_SESSION_KEY_OWNER_SQL =
+            "INSERT OR IGNORE INTO " + SessionKeyOwnerTable.T_SESSION_KEY_OWNER + "(" +
+            SessionKeyOwnerTable.c.KeyID.name() + "," +
+            SessionKeyOwnerTable.c.Owner.name() + ")" +
+            " VALUES(?,?)";
+    private static final String DELETE_EXPIRED_SESSION_KEY_OWNERS_SQL =
+            "DELETE FROM " + SessionKeyOwnerTable.T_SESSION_KEY_OWNER +
+            " WHERE " + SessionKeyOwnerTable.c.KeyID.name() + " IN (SELECT " + CachedSessionKeyTable.c.ID.name() +
+            " FROM " + CachedSessionKeyTable.T_CACHED_SESSION_KEY +
+            " WHERE " + CachedSessionKeyTable.c.ExpirationTime.name() + " < ?)";
+    private static final String DELETE_EXPIRED_CACHED_SESSION_KEYS_SQL =
+            "DELETE FROM " + CachedSessionKeyTable.T_CACHED_SESSION_KEY +
+            " WHERE " + CachedSessionKeyTable.c.ExpirationTime.name() + " < ?";
+    // Bounded batch of expired session keys, oldest first, found through the expiration time index.
+    private static final String SELECT_EXPIRED_CACHED_SESSION_KEY_ROWIDS_SQL =
+            "SELECT rowid FROM " + CachedSessionKeyTable.T_CACHED_SESSION_KEY +
+            " WHERE " + CachedSessionKeyTable.c.ExpirationTime.name() + " < ?" +
+            " ORDER BY " + CachedSessionKeyTable.c.ExpirationTime.name() + ", rowid LIMIT ?";
+    private static final String DELETE_EXPIRED_SESSION_KEY_OWNERS_BATCH_SQL =
+            "DELETE FROM " + SessionKeyOwnerTable.T_SESSION_KEY_OWNER +
+            " WHERE " + SessionKeyOwnerTable.c.KeyID.name() + " IN (SELECT " + CachedSessionKeyTable.c.ID.name() +
+            " FROM " + CachedSessionKeyTable.T_CACHED_SESSION_KEY +
+            " WHERE rowid IN (" + SELECT_EXPIRED_CACHED_SESSION_KEY_ROWIDS_SQL + "))";
+    private static final String DELETE_EXPIRED_CACHED_SESSION_KEYS_BATCH_SQL =
+            "DELETE FROM " + CachedSessionKeyTable.T_CACHED_SESSION_KEY +
+            " WHERE rowid IN (" + SELECT_EXPIRED_CACHED_SESSION_KEY_ROWIDS_SQL + ")";
+    private static final String DELETE_ALL_SESSION_KEY_OWNERS_SQL =
+            "DELETE FROM " + SessionKeyOwnerTable.T_SESSION_KEY_OWNER;
+    private static final String DELETE_ALL_CACHED_SESSION_KEYS_SQL =
+            "DELETE FROM " + CachedSessionKeyTable.T_CACHED_SESSION_KEY;
+    private static final String UPDATE_REG_ENTITY_DIST_KEY_SQL =
+            "UPDATE " + RegisteredEntityTable.T_REGISTERED_ENTITY +
+            " SET " + RegisteredEntityTable.c.DistKeyExpirationTime.name() + " = ?" +
+            ", " + RegisteredEntityTable.c.DistKeyValue.name() + " = ?" +
+            " WHERE " + RegisteredEntityTable.c.Name.name() + " = ?";
+    private static final String INSERT_META_DATA_SQL =
+            "INSERT INTO " + MetaDataTable.T_META_DATA + "(" +
+            MetaDataTable.c.Key.name() + "," +
+            MetaDataTable.c.Value.name() + ")" +
+            " VALUES(?,?)";
+    private static final String SELECT_META_DATA_SQL =
+            "SELECT * FROM " + MetaDataTable.T_META_DATA +
+            " WHERE " + MetaDataTable.c.Key.name() + " = ?";
+    private static final String UPDATE_META_DATA_SQL =
+            "UPDATE " + MetaDataTable.T_META_DATA +
+            " SET " + MetaDataTable.c.Value.name() + " = ?" +
+            " WHERE " + MetaDataTable.c.Key.name() + " = ?";
+
+    private static final String CREATE_SESSION_KEY_OWNER_TABLE_SQL =
+            "CREATE TABLE IF NOT EXISTS " + SessionKeyOwnerTable.T_SESSION_KEY_OWNER + "(" +
+            SessionKeyOwnerTable.c.KeyID.name() + " INT NOT NULL," +
+            SessionKeyOwnerTable.c.Owner.name() + " TEXT NOT NULL," +
+            "PRIMARY KEY (" + SessionKeyOwnerTable.c.KeyID.name() + "," +
+            SessionKeyOwnerTable.c.Owner.name() + ")) WITHOUT ROWID";
+    private static final String CREATE_CACHED_SESSION_KEY_PURPOSE_INDEX_SQL =
+            "CREATE INDEX IF NOT EXISTS " + CachedSessionKeyTable.T_CACHED_SESSION_KEY + "_purpose_expiration" +
+            " ON " + CachedSessionKeyTable.T_CACHED_SESSION_KEY + "(" +
+            CachedSessionKeyTable.c.Purpose.name() + "," + CachedSessionKeyTable.c.ExpirationTime.name() + ")";
+    private static final String CREATE_CACHED_SESSION_KEY_EXPIRATION_INDEX_SQL =
+            "CREATE INDEX IF NOT EXISTS " + CachedSessionKeyTable.T_CACHED_SESSION_KEY + "_expiration" +
+            " ON " + CachedSessionKeyTable.T_CACHED_SESSION_KEY + "(" +
+            CachedSessionKeyTable.c.ExpirationTime.name() + ")";
+
     private AuthDBProtectionMethod authDBProtectionMethod;
+    private PreparedStatementRegistry statementRegistry;
+    private EncryptedChunkStore chunkStore = null;
+    private boolean pragmaTuningEnabled = false;
+    private long pragmaMmapSize;
+    private long pragmaCacheSize;
+    // ReentrantLock instead of synchronized, not to pin carrier threads when called from virtual threads
+    private final ReentrantLock lock = new ReentrantLock();
+    // Taken before the lock above, only one checkpoint writes to the chunk store at a time.
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+    // Total changes and schema version of the connection at the last checkpoint, -1 if nothing is checkpointed yet.
+    private long checkpointedTotalChanges = -1;
+    private long checkpointedSchemaVersion = -1;
 
     /**
      * Constructor that stores the physical location of the database file.
@@ -104,6 +230,27 @@ public class SQLiteConnector {
     public void initialize(String databaseKeystorePath, String authKeyStorePassword, String databaseEncryptionKeyPath)
             throws CertificateException, NoSuchAlgorithmException, KeyStoreException, IOException, SQLException,
             ClassNotFoundException, UnrecoverableEntryException
+    {
+        initialize(loadDatabaseKey(databaseKeystorePath, authKeyStorePassword, databaseEncryptionKeyPath));
+    }
+
+    /**
+     * Load the symmetric key of Auth DB, by decrypting it with the private key in the database keystore.
+     * Shared by all {@link AuthStore} backends.
+     * @param databaseKeystorePath File path for database keystore (public, private key pair)
+     * @param authKeyStorePassword Password for key stores and trust store for storing certificates of trusted Auths
+     * @param databaseEncryptionKeyPath File path for database encryption key (symmetric), ecrypted with public key
+     * @return The symmetric key of Auth DB.
+     * @throws CertificateException When CertificateException occurs.
+     * @throws NoSuchAlgorithmException When NoSuchAlgorithmException occurs.
+     * @throws KeyStoreException When KeyStoreException occurs.
+     * @throws IOException When IOException occurs.
+     * @throws UnrecoverableEntryException When UnrecoverableEntryException occurs.
+     */
+    public static SymmetricKey loadDatabaseKey(String databaseKeystorePath, String authKeyStorePassword,
+                                               String databaseEncryptionKeyPath)
+            throws CertificateException, NoSuchAlgorithmException, KeyStoreException, IOException,
+            UnrecoverableEntryException
     {
         KeyStore databaseKeyStore = AuthCrypto.loadKeyStore(databaseKeystorePath, authKeyStorePassword);
         if (databaseKeyStore.size() != 1) {
@@ -127,15 +274,47 @@ public class SQLiteConnector {
 
         Buffer encryptedDatabaseKey = new Buffer(AuthCrypto.readBinaryFile(databaseEncryptionKeyPath));
 
-        initialize(new SymmetricKey(
+        return new SymmetricKey(
                 AUTH_DB_CRYPTO_SPEC,
                 new Date().getTime() + DateHelper.parseTimePeriod(AUTH_DB_KEY_ABSOLUTE_VALIDITY),
-                AuthCrypto.privateDecrypt(encryptedDatabaseKey, databasePrivateKey, AUTH_DB_PUBLIC_CIPHER)));
+                AuthCrypto.privateDecrypt(encryptedDatabaseKey, databasePrivateKey, AUTH_DB_PUBLIC_CIPHER));
     }
 
     public void initialize(SymmetricKey databaseKey) throws SQLException, IOException, ClassNotFoundException {
         this.databaseKey = databaseKey;
         setConnection();
+        if (pragmaTuningEnabled) {
+            applyPragmaTuning();
+        }
+    }
+
+    /**
+     * Enables PRAGMA tuning of the SQLite connection, which is applied when the connector is initialized.
+     * The tuning uses WAL journal mode with synchronous=NORMAL, so that a commit does not wait for fsync
+     * until a checkpoint. WAL mode and memory mapping are not used when the entire DB is kept in memory.
+     * @param mmapSize Maximum number of bytes of the database file to be memory mapped, 0 disables mmap.
+     * @param cacheSize Page cache size, in pages if positive, or in KiB if negative, as in SQLite's cache_size.
+     */
+    public void enablePragmaTuning(long mmapSize, long cacheSize) {
+        this.pragmaTuningEnabled = true;
+        this.pragmaMmapSize = mmapSize;
+        this.pragmaCacheSize = cacheSize;
+    }
+
+    private void applyPragmaTuning() throws SQLException {
+        Statement stat = connection.createStatement();
+        if (!useInMemoryProtection) {
+            ResultSet resultSet = stat.executeQuery("PRAGMA journal_mode=WAL");
+            if (resultSet.next()) {
+                logger.info("Auth DB journal mode: {}", resultSet.getString(1));
+            }
+            resultSet.close();
+            stat.executeUpdate("PRAGMA synchronous=NORMAL");
+            stat.executeUpdate("PRAGMA mmap_size=" + pragmaMmapSize);
+        }
+        stat.executeUpdate("PRAGMA cache_size=" + pragmaCacheSize);
+        stat.close();
+        logger.info("Auth DB PRAGMA tuning applied, mmap_size: {}, cache_size: {}", pragmaMmapSize, pragmaCacheSize);
     }
 
     private Buffer encryptAuthDBData(Buffer input) {
@@ -159,22 +338,44 @@ public class SQLiteConnector {
         }
     }
 
+    /**
+     * Decrypts a whole-file encrypted Auth DB with constant memory, verifying its MAC before writing any plaintext.
+     */
+    private void decryptAuthDBData(FileChannel input, OutputStream output) throws IOException {
+        try {
+            databaseKey.decryptVerify(input, output);
+        }
+        catch (InvalidMacException | MessageIntegrityException | UseOfExpiredKeyException |
+                InvalidSymmetricKeyOperationException e) {
+            logger.error("Exception {}", ExceptionToString.convertExceptionToStackTrace(e));
+            throw new RuntimeException("Exception occurred while decrypting Auth DB Data!");
+        }
+    }
+
     private void setConnection() throws ClassNotFoundException, SQLException, IOException {
         Class.forName("org.sqlite.JDBC");
         if (useInMemoryProtection) {
             if (connection == null || connection.isClosed()) {
                 connection = DriverManager.getConnection("jdbc:sqlite:");
+                chunkStore = new EncryptedChunkStore(dbPath, deriveChunkKeyVal(), EncryptedChunkStore.DEFAULT_CHUNK_SIZE);
+                chunkStore.recover();
+                checkpointedTotalChanges = -1;
+                checkpointedSchemaVersion = -1;
+                // The decrypted DB is only kept in memory, it is never written to a plaintext file.
                 File dbFile = new File(dbPath);
-                if (dbFile.exists() && !dbFile.isDirectory()) {
-                    byte[] encryptedDBBytes = FileIOHelper.readFully(dbPath);
-                    Buffer encryptedDBBuffer = new Buffer(encryptedDBBytes);
-                    Buffer decryptedDBBuffer = decryptAuthDBData(encryptedDBBuffer);
-                    String tempFilePath = dbPath + AuthCrypto.getRandomBytes(4).toConsecutiveHexString();
-                    File tempFile = new File(tempFilePath);
-                    FileIOHelper.writeFully(tempFilePath, decryptedDBBuffer.getRawBytes());
-                    Statement stat = connection.createStatement();
-                    stat.executeUpdate("restore from " + tempFilePath);
-                    tempFile.delete();
+                if (EncryptedChunkStore.isChunkStore(dbPath)) {
+                    connection.unwrap(SQLiteConnection.class).deserialize("main", chunkStore.read());
+                    checkpointedTotalChanges = selectTotalChanges();
+                    checkpointedSchemaVersion = selectPragmaValue("schema_version");
+                }
+                else if (dbFile.exists() && !dbFile.isDirectory()) {
+                    // Whole-file encrypted Auth DB, converted into the chunk store at the first checkpoint.
+                    ByteArrayOutputStream decryptedDBStream = new ByteArrayOutputStream((int) Math.min(
+                            dbFile.length(), Integer.MAX_VALUE - 8));
+                    try (FileChannel encryptedDBChannel = FileChannel.open(dbFile.toPath(), StandardOpenOption.READ)) {
+                        decryptAuthDBData(encryptedDBChannel, decryptedDBStream);
+                    }
+                    connection.unwrap(SQLiteConnection.class).deserialize("main", decryptedDBStream.toByteArray());
                 }
             }
         }
@@ -183,21 +384,125 @@ public class SQLiteConnector {
                 connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
             }
         }
+        if (statementRegistry == null) {
+            statementRegistry = new PreparedStatementRegistry(connection);
+        }
     }
     public void close() throws SQLException, IOException {
-        if (useInMemoryProtection) {
-            String tempFilePath = dbPath + AuthCrypto.getRandomBytes(4).toConsecutiveHexString();
-            Statement stat = connection.createStatement();
-            stat.executeUpdate("backup to " + tempFilePath );
-            File tempFile = new File(tempFilePath);
-            byte[] decryptedDBBytes = FileIOHelper.readFully(tempFilePath);
-            tempFile.delete();
-            Buffer decryptedDBBuffer = new Buffer(decryptedDBBytes);
-            Buffer encryptedDBBuffer = encryptAuthDBData(decryptedDBBuffer);
-            FileIOHelper.writeFully(dbPath, encryptedDBBuffer.getRawBytes());
+        // Same order as checkpoint(), so that nothing is written between the last checkpoint and closing.
+        checkpointLock.lock();
+        try {
+            lock.lock();
+            try {
+                if (useInMemoryProtection) {
+                    checkpoint();
+                }
+                statementRegistry.closeAll();
+                statementRegistry = null;
+                connection.close();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+        finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    /**
+     * Persists the Auth DB kept in memory (ENCRYPT_ENTIRE_DB protection) by writing only the chunks changed since
+     * the last checkpoint to the encrypted chunk store. Does nothing for other protection methods, where every
+     * commit is persisted by SQLite.
+     * The lock of this connector is held only while the DB is serialized into memory; chunks of the serialized DB
+     * are hashed and written while other methods use the connection. Nothing is serialized when no row or schema
+     * has changed since the last checkpoint.
+     * @return The number of chunks written.
+     * @throws SQLException When an error occurs in database
+     * @throws IOException When an error occurs in IO
+     */
+    public int checkpoint() throws SQLException, IOException {
+        if (!useInMemoryProtection) {
+            return 0;
+        }
+        checkpointLock.lock();
+        try {
+            long totalChanges;
+            long schemaVersion;
+            byte[] db;
+            lock.lock();
+            try {
+                totalChanges = selectTotalChanges();
+                schemaVersion = selectPragmaValue("schema_version");
+                if (totalChanges == checkpointedTotalChanges && schemaVersion == checkpointedSchemaVersion) {
+                    return 0;
+                }
+                db = connection.unwrap(SQLiteConnection.class).serialize("main");
+            }
+            finally {
+                lock.unlock();
+            }
+            int numWritten = chunkStore.checkpoint(db);
+            checkpointedTotalChanges = totalChanges;
+            checkpointedSchemaVersion = schemaVersion;
+            return numWritten;
+        }
+        finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    /**
+     * Counts rows changed on the connection since it was opened, including changes rolled back later.
+     */
+    private long selectTotalChanges() throws SQLException {
+        Statement stat = connection.createStatement();
+        ResultSet resultSet = stat.executeQuery("SELECT total_changes()");
+        long value = resultSet.next() ? resultSet.getLong(1) : 0;
+        stat.close();
+        return value;
+    }
+
+    public boolean isInMemoryProtectionUsed() {
+        return useInMemoryProtection;
+    }
+
+    public boolean isPeriodicCheckpointNeeded() {
+        return useInMemoryProtection;
+    }
+
+    public String chunkStoreToString() {
+        return chunkStore == null ? "disabled" : chunkStore.toString();
+    }
+
+    public String checkpointStatisticsToString() {
+        return chunkStoreToString();
+    }
+
+    /**
+     * Derives the key of the encrypted chunk store from the database key, so that chunks are not encrypted with
+     * the same key used by whole-file encryption.
+     */
+    private byte[] deriveChunkKeyVal() {
+        String macAlgorithm = AUTH_DB_CRYPTO_SPEC.getMacAlgorithm();
+        Mac mac = null;
+        try {
+            mac = CryptoPrimitivePool.MACS.borrow(macAlgorithm);
+            mac.init(new SecretKeySpec(databaseKey.getMacKeyVal().getRawBytes(), macAlgorithm));
+            byte[] derived = mac.doFinal(CHUNK_KEY_LABEL.getBytes(StandardCharsets.US_ASCII));
+            return Arrays.copyOf(derived, AUTH_DB_CRYPTO_SPEC.getCipherKeySize());
+        }
+        catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            logger.error("Exception {}", ExceptionToString.convertExceptionToStackTrace(e));
+            throw new RuntimeException("Exception occurred while deriving Auth DB chunk key!");
+        }
+        finally {
+            if (mac != null) {
+                CryptoPrimitivePool.MACS.release(macAlgorithm, mac);
+            }
         }
-        connection.close();
     }
+
     /**
      * On cold start it will be needed to create a database and the related tables.
      * @throws SQLException if a database access error occurs;
@@ -206,99 +511,188 @@ public class SQLiteConnector {
      * @throws ClassNotFoundException if the class cannot be located
      */
     public void createTablesIfNotExists() throws SQLException, ClassNotFoundException {
-        //setConnection();
-        String sql = "CREATE TABLE IF NOT EXISTS " + CommunicationPolicyTable.T_COMMUNICATION_POLICY + "(";
-        sql += CommunicationPolicyTable.c.RequestingGroup.name() + " TEXT NOT NULL,";
-        sql += CommunicationPolicyTable.c.TargetType.name() + " TEXT NOT NULL,";
-        sql += CommunicationPolicyTable.c.Target.name() + " TEXT NOT NULL,";
-        // MaxNumSessionKeyOwners should be greater than or equal to 2
-        sql += CommunicationPolicyTable.c.MaxNumSessionKeyOwners.name() + " INT NOT NULL CHECK(" +
-                CommunicationPolicyTable.c.MaxNumSessionKeyOwners.name() + " >= 2),";
-        sql += CommunicationPolicyTable.c.SessionCryptoSpec.name() + " TEXT NOT NULL,";
-        sql += CommunicationPolicyTable.c.AbsoluteValidity.name() + " TEXT NOT NULL,";
-        sql += CommunicationPolicyTable.c.RelativeValidity.name() + " TEXT NOT NULL,";
-        sql += "PRIMARY KEY (" + CommunicationPolicyTable.c.RequestingGroup.name() + ",";
-        sql += CommunicationPolicyTable.c.TargetType.name() + ",";
-        sql += CommunicationPolicyTable.c.Target.name() + "))";
-        statement = connection.createStatement();
-        if (DEBUG) logger.info(sql);
-        if (statement.executeUpdate(sql) == 0)
-            logger.info("Table {} created", CommunicationPolicyTable.T_COMMUNICATION_POLICY);
-        else
-            logger.info("Table {} already exists", CommunicationPolicyTable.T_COMMUNICATION_POLICY);
-        closeStatement();
-
-        statement = connection.createStatement();
-        sql = "CREATE TABLE IF NOT EXISTS " + RegisteredEntityTable.T_REGISTERED_ENTITY + "(";
-        sql += RegisteredEntityTable.c.Name.name() + " TEXT NOT NULL PRIMARY KEY,";
-        sql += "'" + RegisteredEntityTable.c.Group.name() + "' TEXT NOT NULL,";
-        sql += RegisteredEntityTable.c.DistProtocol.name() + " TEXT NOT NULL,";
-        sql += RegisteredEntityTable.c.UsePermanentDistKey.name() + " BOOLEAN NOT NULL,";
-        sql += RegisteredEntityTable.c.MaxSessionKeysPerRequest.name() + " INT NOT NULL,";
-        sql += RegisteredEntityTable.c.PublicKeyValue.name() + " BLOB,";
-        sql += RegisteredEntityTable.c.DistKeyValidityPeriod.name() + " TEXT NOT NULL,";
-        sql += RegisteredEntityTable.c.PublicKeyCryptoSpec.name() + " TEXT,";
-        sql += RegisteredEntityTable.c.DistCryptoSpec.name() + " TEXT NOT NULL,";
-        sql += RegisteredEntityTable.c.DistKeyExpirationTime.name() + " INT,";
-        sql += RegisteredEntityTable.c.DistKeyValue.name() + " BLOB,";
-        sql += RegisteredEntityTable.c.Active.name() + " BOOLEAN NOT NULL,";
-        sql += RegisteredEntityTable.c.BackupToAuthIDs.name() + " TEXT,";
-        sql += RegisteredEntityTable.c.BackupFromAuthID.name() + " INT,";
-        sql += RegisteredEntityTable.c.MigrationToken.name() + " BLOB)";
-        if (DEBUG) logger.info(sql);
-        if (statement.executeUpdate(sql) == 0)
-            logger.info("Table {} created", RegisteredEntityTable.T_REGISTERED_ENTITY);
-        else
-            logger.info("Table {} already exists", RegisteredEntityTable.T_REGISTERED_ENTITY);
-        closeStatement();
-
-        statement = connection.createStatement();
-        sql = "CREATE TABLE IF NOT EXISTS " + TrustedAuthTable.T_TRUSTED_AUTH + "(";
-        sql += TrustedAuthTable.c.ID.name() + " INT NOT NULL PRIMARY KEY,";
-        sql += TrustedAuthTable.c.Host.name() + " TEXT NOT NULL,";
-        sql += TrustedAuthTable.c.EntityHost.name() + " TEXT NOT NULL,";
-        sql += TrustedAuthTable.c.Port.name() + " INT NOT NULL,";
-        sql += TrustedAuthTable.c.HeartbeatPeriod.name() + " INT NOT NULL,";
-        sql += TrustedAuthTable.c.FailureThreshold.name() + " INT NOT NULL,";
-        sql += TrustedAuthTable.c.InternetCertificateValue.name() + " BLOB NOT NULL,";
-        sql += TrustedAuthTable.c.EntityCertificateValue.name() + " BLOB NOT NULL,";
-        sql += TrustedAuthTable.c.BackupCertificateValue.name() + " BLOB)";
-        if (DEBUG) logger.info(sql);
-        if (statement.executeUpdate(sql) == 0)
-            logger.info("Table {} created", TrustedAuthTable.T_TRUSTED_AUTH);
-        else
-            logger.info("Table {} already exists", TrustedAuthTable.T_TRUSTED_AUTH);
-        closeStatement();
-
-        statement = connection.createStatement();
-        sql = "CREATE TABLE IF NOT EXISTS " + CachedSessionKeyTable.T_CACHED_SESSION_KEY + "(";
-        sql += CachedSessionKeyTable.c.ID.name() + " INT NOT NULL PRIMARY KEY,";
-        sql += CachedSessionKeyTable.c.Owners.name() + " TEXT NOT NULL,";
-        sql += CachedSessionKeyTable.c.MaxNumOwners.name() + " INT NOT NULL,";
-        sql += CachedSessionKeyTable.c.Purpose.name() + " TEXT NOT NULL,";
-        sql += CachedSessionKeyTable.c.ExpirationTime.name() + " INT NOT NULL,";
-        sql += CachedSessionKeyTable.c.RelValidity.name() + " INT NOT NULL,";
-        sql += CachedSessionKeyTable.c.CryptoSpec.name() + " TEXT NOT NULL,";
-        sql += CachedSessionKeyTable.c.KeyVal.name() + " BLOB NOT NULL)";
-        if (DEBUG) logger.info(sql);
-        if (statement.executeUpdate(sql) == 0)
-            logger.info("Table {} created", CachedSessionKeyTable.T_CACHED_SESSION_KEY);
-        else
-            logger.info("Table {} already exists", CachedSessionKeyTable.T_CACHED_SESSION_KEY);
-        closeStatement();
-
-        statement = connection.createStatement();
-        sql = "CREATE TABLE IF NOT EXISTS " + MetaDataTable.T_META_DATA + "(";
-        sql += MetaDataTable.c.Key.name() + " INT NOT NULL PRIMARY KEY,";
-        sql += MetaDataTable.c.Value.name() + " TEXT NOT NULL)";
-        if (DEBUG) logger.info(sql);
-        if (statement.executeUpdate(sql) == 0)
-            logger.info("Table {} created", MetaDataTable.T_META_DATA);
-        else
-            logger.info("Table {} already exists", MetaDataTable.T_META_DATA);
-        closeStatement();
-
-        closeConnection();
+        lock.lock();
+        try {
+            //setConnection();
+            // Only takes effect before the first table is created, lets freed pages be reclaimed incrementally.
+            statement = connection.createStatement();
+            statement.executeUpdate("PRAGMA auto_vacuum=INCREMENTAL");
+            closeStatement();
+            String sql = "CREATE TABLE IF NOT EXISTS " + CommunicationPolicyTable.T_COMMUNICATION_POLICY + "(";
+            sql += CommunicationPolicyTable.c.RequestingGroup.name() + " TEXT NOT NULL,";
+            sql += CommunicationPolicyTable.c.TargetType.name() + " TEXT NOT NULL,";
+            sql += CommunicationPolicyTable.c.Target.name() + " TEXT NOT NULL,";
+            // MaxNumSessionKeyOwners should be greater than or equal to 2
+            sql += CommunicationPolicyTable.c.MaxNumSessionKeyOwners.name() + " INT NOT NULL CHECK(" +
+                    CommunicationPolicyTable.c.MaxNumSessionKeyOwners.name() + " >= 2),";
+            sql += CommunicationPolicyTable.c.SessionCryptoSpec.name() + " TEXT NOT NULL,";
+            sql += CommunicationPolicyTable.c.AbsoluteValidity.name() + " TEXT NOT NULL,";
+            sql += CommunicationPolicyTable.c.RelativeValidity.name() + " TEXT NOT NULL,";
+            sql += "PRIMARY KEY (" + CommunicationPolicyTable.c.RequestingGroup.name() + ",";
+            sql += CommunicationPolicyTable.c.TargetType.name() + ",";
+            sql += CommunicationPolicyTable.c.Target.name() + "))";
+            statement = connection.createStatement();
+            if (DEBUG) logger.info(sql);
+            if (statement.executeUpdate(sql) == 0)
+                logger.info("Table {} created", CommunicationPolicyTable.T_COMMUNICATION_POLICY);
+            else
+                logger.info("Table {} already exists", CommunicationPolicyTable.T_COMMUNICATION_POLICY);
+            closeStatement();
+
+            statement = connection.createStatement();
+            sql = "CREATE TABLE IF NOT EXISTS " + RegisteredEntityTable.T_REGISTERED_ENTITY + "(";
+            sql += RegisteredEntityTable.c.Name.name() + " TEXT NOT NULL PRIMARY KEY,";
+            sql += "'" + RegisteredEntityTable.c.Group.name() + "' TEXT NOT NULL,";
+            sql += RegisteredEntityTable.c.DistProtocol.name() + " TEXT NOT NULL,";
+            sql += RegisteredEntityTable.c.UsePermanentDistKey.name() + " BOOLEAN NOT NULL,";
+            sql += RegisteredEntityTable.c.MaxSessionKeysPerRequest.name() + " INT NOT NULL,";
+            sql += RegisteredEntityTable.c.PublicKeyValue.name() + " BLOB,";
+            sql += RegisteredEntityTable.c.DistKeyValidityPeriod.name() + " TEXT NOT NULL,";
+            sql += RegisteredEntityTable.c.PublicKeyCryptoSpec.name() + " TEXT,";
+            sql += RegisteredEntityTable.c.DistCryptoSpec.name() + " TEXT NOT NULL,";
+            sql += RegisteredEntityTable.c.DistKeyExpirationTime.name() + " INT,";
+            sql += RegisteredEntityTable.c.DistKeyValue.name() + " BLOB,";
+            sql += RegisteredEntityTable.c.Active.name() + " BOOLEAN NOT NULL,";
+            sql += RegisteredEntityTable.c.BackupToAuthIDs.name() + " TEXT,";
+            sql += RegisteredEntityTable.c.BackupFromAuthID.name() + " INT,";
+            sql += RegisteredEntityTable.c.MigrationToken.name() + " BLOB)";
+            if (DEBUG) logger.info(sql);
+            if (statement.executeUpdate(sql) == 0)
+                logger.info("Table {} created", RegisteredEntityTable.T_REGISTERED_ENTITY);
+            else
+                logger.info("Table {} already exists", RegisteredEntityTable.T_REGISTERED_ENTITY);
+            closeStatement();
+
+            statement = connection.createStatement();
+            sql = "CREATE TABLE IF NOT EXISTS " + TrustedAuthTable.T_TRUSTED_AUTH + "(";
+            sql += TrustedAuthTable.c.ID.name() + " INT NOT NULL PRIMARY KEY,";
+            sql += TrustedAuthTable.c.Host.name() + " TEXT NOT NULL,";
+            sql += TrustedAuthTable.c.EntityHost.name() + " TEXT NOT NULL,";
+            sql += TrustedAuthTable.c.Port.name() + " INT NOT NULL,";
+            sql += TrustedAuthTable.c.HeartbeatPeriod.name() + " INT NOT NULL,";
+            sql += TrustedAuthTable.c.FailureThreshold.name() + " INT NOT NULL,";
+            sql += TrustedAuthTable.c.InternetCertificateValue.name() + " BLOB NOT NULL,";
+            sql += TrustedAuthTable.c.EntityCertificateValue.name() + " BLOB NOT NULL,";
+            sql += TrustedAuthTable.c.BackupCertificateValue.name() + " BLOB)";
+            if (DEBUG) logger.info(sql);
+            if (statement.executeUpdate(sql) == 0)
+                logger.info("Table {} created", TrustedAuthTable.T_TRUSTED_AUTH);
+            else
+                logger.info("Table {} already exists", TrustedAuthTable.T_TRUSTED_AUTH);
+            closeStatement();
+
+            statement = connection.createStatement();
+            sql = "CREATE TABLE IF NOT EXISTS " + CachedSessionKeyTable.T_CACHED_SESSION_KEY + "(";
+            sql += CachedSessionKeyTable.c.ID.name() + " INT NOT NULL PRIMARY KEY,";
+            sql += CachedSessionKeyTable.c.Owners.name() + " TEXT NOT NULL,";
+            sql += CachedSessionKeyTable.c.MaxNumOwners.name() + " INT NOT NULL,";
+            sql += CachedSessionKeyTable.c.Purpose.name() + " TEXT NOT NULL,";
+            sql += CachedSessionKeyTable.c.ExpirationTime.name() + " INT NOT NULL,";
+            sql += CachedSessionKeyTable.c.RelValidity.name() + " INT NOT NULL,";
+            sql += CachedSessionKeyTable.c.CryptoSpec.name() + " TEXT NOT NULL,";
+            sql += CachedSessionKeyTable.c.KeyVal.name() + " BLOB NOT NULL)";
+            if (DEBUG) logger.info(sql);
+            if (statement.executeUpdate(sql) == 0)
+                logger.info("Table {} created", CachedSessionKeyTable.T_CACHED_SESSION_KEY);
+            else
+                logger.info("Table {} already exists", CachedSessionKeyTable.T_CACHED_SESSION_KEY);
+            closeStatement();
+
+            statement = connection.createStatement();
+            if (DEBUG) logger.info(CREATE_SESSION_KEY_OWNER_TABLE_SQL);
+            statement.executeUpdate(CREATE_SESSION_KEY_OWNER_TABLE_SQL);
+            if (DEBUG) logger.info(CREATE_CACHED_SESSION_KEY_PURPOSE_INDEX_SQL);
+            statement.executeUpdate(CREATE_CACHED_SESSION_KEY_PURPOSE_INDEX_SQL);
+            if (DEBUG) logger.info(CREATE_CACHED_SESSION_KEY_EXPIRATION_INDEX_SQL);
+            statement.executeUpdate(CREATE_CACHED_SESSION_KEY_EXPIRATION_INDEX_SQL);
+            logger.info("Table {} and session key indexes created if not existing", SessionKeyOwnerTable.T_SESSION_KEY_OWNER);
+            closeStatement();
+
+            statement = connection.createStatement();
+            sql = "CREATE TABLE IF NOT EXISTS " + MetaDataTable.T_META_DATA + "(";
+            sql += MetaDataTable.c.Key.name() + " INT NOT NULL PRIMARY KEY,";
+            sql += MetaDataTable.c.Value.name() + " TEXT NOT NULL)";
+            if (DEBUG) logger.info(sql);
+            if (statement.executeUpdate(sql) == 0)
+                logger.info("Table {} created", MetaDataTable.T_META_DATA);
+            else
+                logger.info("Table {} already exists", MetaDataTable.T_META_DATA);
+            closeStatement();
+
+            closeConnection();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Upgrades an auth DB created before session key owners were stored in their own table.
+     * If the session key owner table does not exist, it is created and populated from the comma-separated
+     * Owners column of the cached session keys, in a single transaction. Indexes on session keys are
+     * created if not existing. A database without incremental auto vacuum is converted once, by a full VACUUM,
+     * so this is called at start before requests are served.
+     * @return the number of session key owners migrated, 0 if the schema was already up to date
+     * @throws SQLException if a database access error occurs
+     */
+    public int upgradeSchemaIfNeeded() throws SQLException {
+        lock.lock();
+        try {
+            enableIncrementalVacuumIfNeeded();
+            PreparedStatement tableStatement = connection.prepareStatement(
+                    "SELECT name FROM sqlite_master WHERE type = 'table' AND name = ?");
+            tableStatement.setString(1, SessionKeyOwnerTable.T_SESSION_KEY_OWNER);
+            ResultSet tableResultSet = tableStatement.executeQuery();
+            boolean ownerTableExists = tableResultSet.next();
+            tableStatement.close();
+
+            statement = connection.createStatement();
+            if (ownerTableExists) {
+                statement.executeUpdate(CREATE_CACHED_SESSION_KEY_PURPOSE_INDEX_SQL);
+                statement.executeUpdate(CREATE_CACHED_SESSION_KEY_EXPIRATION_INDEX_SQL);
+                closeStatement();
+                return 0;
+            }
+            logger.info("Migrating session key owners into table {}", SessionKeyOwnerTable.T_SESSION_KEY_OWNER);
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                statement.executeUpdate(CREATE_SESSION_KEY_OWNER_TABLE_SQL);
+                statement.executeUpdate(CREATE_CACHED_SESSION_KEY_PURPOSE_INDEX_SQL);
+                statement.executeUpdate(CREATE_CACHED_SESSION_KEY_EXPIRATION_INDEX_SQL);
+                PreparedStatement ownerStatement = statementRegistry.get(INSERT_SESSION_KEY_OWNER_SQL);
+                ResultSet resultSet = statement.executeQuery("SELECT " + CachedSessionKeyTable.c.ID.name() + "," +
+                        CachedSessionKeyTable.c.Owners.name() + " FROM " + CachedSessionKeyTable.T_CACHED_SESSION_KEY);
+                int numOwners = 0;
+                while (resultSet.next()) {
+                    long keyID = resultSet.getLong(CachedSessionKeyTable.c.ID.name());
+                    for (String owner: resultSet.getString(CachedSessionKeyTable.c.Owners.name())
+                            .split(SessionKey.SESSION_KEY_OWNER_NAME_DELIM)) {
+                        ownerStatement.setLong(1, keyID);
+                        ownerStatement.setString(2, owner);
+                        ownerStatement.addBatch();
+                        numOwners++;
+                    }
+                }
+                resultSet.close();
+                ownerStatement.executeBatch();
+                connection.commit();
+                logger.info("Migrated {} session key owners", numOwners);
+                return numOwners;
+            }
+            catch (SQLException e) {
+                connection.rollback();
+                statementRegistry.get(INSERT_SESSION_KEY_OWNER_SQL).clearBatch();
+                throw e;
+            }
+            finally {
+                connection.setAutoCommit(autoCommit);
+                closeStatement();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -314,30 +708,35 @@ public class SQLiteConnector {
      * @see CommunicationPolicyTable
      */
     public boolean insertRecords(CommunicationPolicyTable policy) throws SQLException, ClassNotFoundException {
-        //setConnection();
-        String sql = "INSERT INTO " + CommunicationPolicyTable.T_COMMUNICATION_POLICY + "(";
-        sql += CommunicationPolicyTable.c.RequestingGroup.name() + ",";
-        sql += CommunicationPolicyTable.c.TargetType.name() + ",";
-        sql += CommunicationPolicyTable.c.Target.name() + ",";
-        sql += CommunicationPolicyTable.c.MaxNumSessionKeyOwners.name() + ",";
-        sql += CommunicationPolicyTable.c.SessionCryptoSpec.name() + ",";
-        sql += CommunicationPolicyTable.c.AbsoluteValidity.name() + ",";
-        sql += CommunicationPolicyTable.c.RelativeValidity.name() + ")";
-        sql += " VALUES (?,?,?,?,?,?,?)";
-        int index = 1;
-        PreparedStatement preparedStatement = connection.prepareStatement(sql);
-        preparedStatement.setString(index++,policy.getReqGroup());
-        preparedStatement.setString(index++,policy.getTargetTypeVal());
-        preparedStatement.setString(index++,policy.getTarget());
-        preparedStatement.setInt(index++,policy.getMaxNumSessionKeyOwners());
-        preparedStatement.setString(index++,policy.getSessionCryptoSpec());
-        preparedStatement.setString(index++,policy.getAbsValidityStr());
-        preparedStatement.setString(index++,policy.getRelValidityStr());
-        if (DEBUG) logger.info(preparedStatement.toString());
-        boolean result = preparedStatement.execute();
-        preparedStatement.close();
-        closeConnection();
-        return result;
+        lock.lock();
+        try {
+            //setConnection();
+            String sql = "INSERT INTO " + CommunicationPolicyTable.T_COMMUNICATION_POLICY + "(";
+            sql += CommunicationPolicyTable.c.RequestingGroup.name() + ",";
+            sql += CommunicationPolicyTable.c.TargetType.name() + ",";
+            sql += CommunicationPolicyTable.c.Target.name() + ",";
+            sql += CommunicationPolicyTable.c.MaxNumSessionKeyOwners.name() + ",";
+            sql += CommunicationPolicyTable.c.SessionCryptoSpec.name() + ",";
+            sql += CommunicationPolicyTable.c.AbsoluteValidity.name() + ",";
+            sql += CommunicationPolicyTable.c.RelativeValidity.name() + ")";
+            sql += " VALUES (?,?,?,?,?,?,?)";
+            int index = 1;
+            PreparedStatement preparedStatement = statementRegistry.get(sql);
+            preparedStatement.setString(index++,policy.getReqGroup());
+            preparedStatement.setString(index++,policy.getTargetTypeVal());
+            preparedStatement.setString(index++,policy.getTarget());
+            preparedStatement.setInt(index++,policy.getMaxNumSessionKeyOwners());
+            preparedStatement.setString(index++,policy.getSessionCryptoSpec());
+            preparedStatement.setString(index++,policy.getAbsValidityStr());
+            preparedStatement.setString(index++,policy.getRelValidityStr());
+            if (DEBUG) logger.info(preparedStatement.toString());
+            boolean result = preparedStatement.execute();
+            closeConnection();
+            return result;
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
     public RegisteredEntityTable encryptRecords(RegisteredEntityTable regEntity) {
@@ -362,69 +761,74 @@ public class SQLiteConnector {
     private boolean insertOrReplaceRecordsHelper(String sqlCommand, RegisteredEntityTable regEntity)
             throws SQLException, ClassNotFoundException
     {
-        //setConnection();
-        String sql = sqlCommand + " INTO " + RegisteredEntityTable.T_REGISTERED_ENTITY + "(";
-        sql += RegisteredEntityTable.c.Name.name() + ",";
-        sql += "'"+ RegisteredEntityTable.c.Group.name() + "',";
-        sql += RegisteredEntityTable.c.DistProtocol.name() + ",";
-        sql += RegisteredEntityTable.c.UsePermanentDistKey.name() + ",";
-        sql += RegisteredEntityTable.c.MaxSessionKeysPerRequest.name() + ",";
-        sql += RegisteredEntityTable.c.PublicKeyCryptoSpec.name() + ",";
-        sql += RegisteredEntityTable.c.PublicKeyValue.name() + ",";
-        sql += RegisteredEntityTable.c.DistKeyValidityPeriod.name() + ",";
-        sql += RegisteredEntityTable.c.DistCryptoSpec.name() + ",";
-        sql += RegisteredEntityTable.c.DistKeyExpirationTime.name() + ",";
-        sql += RegisteredEntityTable.c.DistKeyValue.name() + ",";
-        sql += RegisteredEntityTable.c.Active.name() + ",";
-        sql += RegisteredEntityTable.c.BackupToAuthIDs.name() + ",";
-        sql += RegisteredEntityTable.c.BackupFromAuthID.name() + ",";
-        sql += RegisteredEntityTable.c.MigrationToken.name() + ")";
-        sql += " VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
-        PreparedStatement preparedStatement = connection.prepareStatement(sql);
-        regEntity = encryptRecords(regEntity);
-        int index = 1;
-        preparedStatement.setString(index++,regEntity.getName());
-        preparedStatement.setString(index++,regEntity.getGroup());
-        preparedStatement.setString(index++,regEntity.getDistProtocol());
-        preparedStatement.setBoolean(index++,regEntity.getUsePermanentDistKey());
-        preparedStatement.setInt(index++,regEntity.getMaxSessionKeysPerRequest());
-        preparedStatement.setString(index++,regEntity.getPublicKeyCryptoSpec());
-        PublicKey publicKey = regEntity.getPublicKey();
-        if (publicKey != null) {
-            preparedStatement.setBytes(index++,publicKey.getEncoded());
-        }
-        else {
-            preparedStatement.setNull(index++, Types.BLOB);
-        }
-        preparedStatement.setString(index++,regEntity.getDistKeyValidityPeriod());
-        preparedStatement.setString(index++,regEntity.getDistCryptoSpec());
-        byte[] distKeyVal = regEntity.getDistKeyVal();
-        if (distKeyVal != null) {
-            preparedStatement.setLong(index++, regEntity.getDistKeyExpirationTime());
-            preparedStatement.setBytes(index++,distKeyVal);
-        }
-        else {
-            preparedStatement.setNull(index++, Types.INTEGER);
-            preparedStatement.setNull(index++, Types.BLOB);
-        }
+        lock.lock();
+        try {
+            //setConnection();
+            String sql = sqlCommand + " INTO " + RegisteredEntityTable.T_REGISTERED_ENTITY + "(";
+            sql += RegisteredEntityTable.c.Name.name() + ",";
+            sql += "'"+ RegisteredEntityTable.c.Group.name() + "',";
+            sql += RegisteredEntityTable.c.DistProtocol.name() + ",";
+            sql += RegisteredEntityTable.c.UsePermanentDistKey.name() + ",";
+            sql += RegisteredEntityTable.c.MaxSessionKeysPerRequest.name() + ",";
+            sql += RegisteredEntityTable.c.PublicKeyCryptoSpec.name() + ",";
+            sql += RegisteredEntityTable.c.PublicKeyValue.name() + ",";
+            sql += RegisteredEntityTable.c.DistKeyValidityPeriod.name() + ",";
+            sql += RegisteredEntityTable.c.DistCryptoSpec.name() + ",";
+            sql += RegisteredEntityTable.c.DistKeyExpirationTime.name() + ",";
+            sql += RegisteredEntityTable.c.DistKeyValue.name() + ",";
+            sql += RegisteredEntityTable.c.Active.name() + ",";
+            sql += RegisteredEntityTable.c.BackupToAuthIDs.name() + ",";
+            sql += RegisteredEntityTable.c.BackupFromAuthID.name() + ",";
+            sql += RegisteredEntityTable.c.MigrationToken.name() + ")";
+            sql += " VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+            PreparedStatement preparedStatement = statementRegistry.get(sql);
+            regEntity = encryptRecords(regEntity);
+            int index = 1;
+            preparedStatement.setString(index++,regEntity.getName());
+            preparedStatement.setString(index++,regEntity.getGroup());
+            preparedStatement.setString(index++,regEntity.getDistProtocol());
+            preparedStatement.setBoolean(index++,regEntity.getUsePermanentDistKey());
+            preparedStatement.setInt(index++,regEntity.getMaxSessionKeysPerRequest());
+            preparedStatement.setString(index++,regEntity.getPublicKeyCryptoSpec());
+            byte[] publicKeyVal = regEntity.getPublicKeyVal();
+            if (publicKeyVal != null) {
+                preparedStatement.setBytes(index++,publicKeyVal);
+            }
+            else {
+                preparedStatement.setNull(index++, Types.BLOB);
+            }
+            preparedStatement.setString(index++,regEntity.getDistKeyValidityPeriod());
+            preparedStatement.setString(index++,regEntity.getDistCryptoSpec());
+            byte[] distKeyVal = regEntity.getDistKeyVal();
+            if (distKeyVal != null) {
+                preparedStatement.setLong(index++, regEntity.getDistKeyExpirationTime());
+                preparedStatement.setBytes(index++,distKeyVal);
+            }
+            else {
+                preparedStatement.setNull(index++, Types.INTEGER);
+                preparedStatement.setNull(index++, Types.BLOB);
+            }
 
-        preparedStatement.setBoolean(index++, regEntity.isActive());
-        preparedStatement.setString(index++, regEntity.getBackupToAuthIDs());
-        preparedStatement.setInt(index++, regEntity.getBackupFromAuthID());
-        byte[] migrationTokenVal = regEntity.getMigrationTokenVal();
-        if (migrationTokenVal != null) {
-            preparedStatement.setBytes(index++, migrationTokenVal);
+            preparedStatement.setBoolean(index++, regEntity.isActive());
+            preparedStatement.setString(index++, regEntity.getBackupToAuthIDs());
+            preparedStatement.setInt(index++, regEntity.getBackupFromAuthID());
+            byte[] migrationTokenVal = regEntity.getMigrationTokenVal();
+            if (migrationTokenVal != null) {
+                preparedStatement.setBytes(index++, migrationTokenVal);
+            }
+            else {
+                preparedStatement.setNull(index++, Types.BLOB);
+            }
+
+            preparedStatement.toString();
+            if (DEBUG) logger.info("{}",preparedStatement);
+            boolean result = preparedStatement.execute();
+            closeConnection();
+            return result;
         }
-        else {
-            preparedStatement.setNull(index++, Types.BLOB);
+        finally {
+            lock.unlock();
         }
-
-        preparedStatement.toString();
-        if (DEBUG) logger.info("{}",preparedStatement);
-        boolean result = preparedStatement.execute();
-        preparedStatement.close();
-        closeConnection();
-        return result;
     }
 
     /**
@@ -441,11 +845,23 @@ public class SQLiteConnector {
      * @see RegisteredEntityTable
      */
     public boolean insertRecords(RegisteredEntityTable regEntity) throws SQLException, ClassNotFoundException {
-        return insertOrReplaceRecordsHelper("INSERT", regEntity);
+        lock.lock();
+        try {
+            return insertOrReplaceRecordsHelper("INSERT", regEntity);
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
     public boolean insertRecordsOrUpdateIfExists(RegisteredEntityTable regEntity) throws SQLException, ClassNotFoundException {
-        return insertOrReplaceRecordsHelper("INSERT OR REPLACE", regEntity);
+        lock.lock();
+        try {
+            return insertOrReplaceRecordsHelper("INSERT OR REPLACE", regEntity);
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -462,40 +878,45 @@ public class SQLiteConnector {
      * @see TrustedAuthTable
      */
     public boolean insertRecords(TrustedAuthTable auth) throws SQLException, ClassNotFoundException, CertificateEncodingException {
-        //setConnection();
-        String sql = "INSERT INTO " + TrustedAuthTable.T_TRUSTED_AUTH + "(";
-        sql += TrustedAuthTable.c.ID.name() + ",";
-        sql += TrustedAuthTable.c.Host.name() + ",";
-        sql += TrustedAuthTable.c.EntityHost.name() + ",";
-        sql += TrustedAuthTable.c.Port.name() + ",";
-        sql += TrustedAuthTable.c.HeartbeatPeriod.name() + ",";
-        sql += TrustedAuthTable.c.FailureThreshold.name() + ",";
-        sql += TrustedAuthTable.c.InternetCertificateValue.name() + ",";
-        sql += TrustedAuthTable.c.EntityCertificateValue.name() + ",";
-        sql += TrustedAuthTable.c.BackupCertificateValue.name() + ")";
-        sql += " VALUES(?,?,?,?,?,?,?,?,?)";
-        PreparedStatement preparedStatement = connection.prepareStatement(sql);
-        int index = 1;
-        preparedStatement.setInt(index++,auth.getId());
-        preparedStatement.setString(index++,auth.getHost());
-        preparedStatement.setString(index++,auth.getEntityHost());
-        preparedStatement.setInt(index++,auth.getPort());
-        preparedStatement.setInt(index++,auth.getHeartbeatPeriod());
-        preparedStatement.setInt(index++,auth.getFailureThreshold());
-        preparedStatement.setBytes(index++,auth.getInternetCertificate().getEncoded());
-        preparedStatement.setBytes(index++,auth.getEntityCertificate().getEncoded());
-        X509Certificate backupCertificate = auth.getBackupCertificate();
-        if (backupCertificate != null) {
-            preparedStatement.setBytes(index++,backupCertificate.getEncoded());
+        lock.lock();
+        try {
+            //setConnection();
+            String sql = "INSERT INTO " + TrustedAuthTable.T_TRUSTED_AUTH + "(";
+            sql += TrustedAuthTable.c.ID.name() + ",";
+            sql += TrustedAuthTable.c.Host.name() + ",";
+            sql += TrustedAuthTable.c.EntityHost.name() + ",";
+            sql += TrustedAuthTable.c.Port.name() + ",";
+            sql += TrustedAuthTable.c.HeartbeatPeriod.name() + ",";
+            sql += TrustedAuthTable.c.FailureThreshold.name() + ",";
+            sql += TrustedAuthTable.c.InternetCertificateValue.name() + ",";
+            sql += TrustedAuthTable.c.EntityCertificateValue.name() + ",";
+            sql += TrustedAuthTable.c.BackupCertificateValue.name() + ")";
+            sql += " VALUES(?,?,?,?,?,?,?,?,?)";
+            PreparedStatement preparedStatement = statementRegistry.get(sql);
+            int index = 1;
+            preparedStatement.setInt(index++,auth.getId());
+            preparedStatement.setString(index++,auth.getHost());
+            preparedStatement.setString(index++,auth.getEntityHost());
+            preparedStatement.setInt(index++,auth.getPort());
+            preparedStatement.setInt(index++,auth.getHeartbeatPeriod());
+            preparedStatement.setInt(index++,auth.getFailureThreshold());
+            preparedStatement.setBytes(index++,auth.getInternetCertificate().getEncoded());
+            preparedStatement.setBytes(index++,auth.getEntityCertificateVal());
+            byte[] backupCertificateVal = auth.getBackupCertificateVal();
+            if (backupCertificateVal != null) {
+                preparedStatement.setBytes(index++,backupCertificateVal);
+            }
+            else {
+                preparedStatement.setNull(index++, Types.BLOB);
+            }
+            if (DEBUG) logger.info("{}",preparedStatement);
+            boolean result = preparedStatement.execute();
+            closeConnection();
+            return result;
         }
-        else {
-            preparedStatement.setNull(index++, Types.BLOB);
+        finally {
+            lock.unlock();
         }
-        if (DEBUG) logger.info("{}",preparedStatement);
-        boolean result = preparedStatement.execute();
-        preparedStatement.close();
-        closeConnection();
-        return result;
     }
 
 
@@ -525,20 +946,66 @@ public class SQLiteConnector {
      * @throws ClassNotFoundException if the class cannot be located
      * @see CachedSessionKeyTable
      */
-    public boolean insertRecords(CachedSessionKeyTable cachedSessionKey) throws SQLException, ClassNotFoundException {
-        encryptRecords(cachedSessionKey);
-        //setConnection();
-        String sql = "INSERT INTO " + CachedSessionKeyTable.T_CACHED_SESSION_KEY + "(";
-        sql += CachedSessionKeyTable.c.ID.name() + ",";
-        sql += CachedSessionKeyTable.c.Owners.name() + ",";
-        sql += CachedSessionKeyTable.c.MaxNumOwners.name() + ",";
-        sql += CachedSessionKeyTable.c.Purpose.name() + ",";
-        sql += CachedSessionKeyTable.c.ExpirationTime.name() + ",";
-        sql += CachedSessionKeyTable.c.RelValidity.name() + ",";
-        sql += CachedSessionKeyTable.c.CryptoSpec.name() + ",";
-        sql += CachedSessionKeyTable.c.KeyVal.name() + ")";
-        sql += " VALUES(?,?,?,?,?,?,?,?)";
-        PreparedStatement preparedStatement = connection.prepareStatement(sql);
+    public boolean insertRecords(CachedSessionKeyTable cachedSessionKey)
+            throws SQLException, ClassNotFoundException
+    {
+        lock.lock();
+        try {
+            //setConnection();
+            insertCachedSessionKeys(Collections.singletonList(cachedSessionKey));
+            closeConnection();
+            // Same as PreparedStatement.execute() for an insertion
+            return false;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Insert records of multiple cached session keys as a batch, in a single transaction.
+     *
+     * @param cachedSessionKeyList the list of records of session keys to be cached
+     * @return the number of inserted records
+     * @throws SQLException  if a database access error occurs, in which case no record is inserted
+     * @throws ClassNotFoundException if the class cannot be located
+     * @see CachedSessionKeyTable
+     */
+    public int insertCachedSessionKeys(List<CachedSessionKeyTable> cachedSessionKeyList)
+            throws SQLException, ClassNotFoundException
+    {
+        lock.lock();
+        try {
+            if (cachedSessionKeyList.isEmpty()) {
+                return 0;
+            }
+            PreparedStatement preparedStatement = statementRegistry.get(INSERT_CACHED_SESSION_KEY_SQL);
+            PreparedStatement ownerStatement = statementRegistry.get(INSERT_SESSION_KEY_OWNER_SQL);
+            for (CachedSessionKeyTable cachedSessionKey: cachedSessionKeyList) {
+                // The record is not encrypted in place, so that a caller can retry the insertion with it.
+                byte[] keyVal = encryptCredentials ?
+                        encryptAuthDBData(new Buffer(cachedSessionKey.getKeyVal())).getRawBytes() :
+                        cachedSessionKey.getKeyVal();
+                setCachedSessionKeyParameters(preparedStatement, cachedSessionKey, keyVal);
+                preparedStatement.addBatch();
+                for (String owner: cachedSessionKey.getOwner().split(SessionKey.SESSION_KEY_OWNER_NAME_DELIM)) {
+                    ownerStatement.setLong(1, cachedSessionKey.getID());
+                    ownerStatement.setString(2, owner);
+                    ownerStatement.addBatch();
+                }
+            }
+            if (DEBUG) logger.info("Inserting {} cached session keys as a batch", cachedSessionKeyList.size());
+            return executeBatchesInTransaction(preparedStatement, ownerStatement)[0];
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private static void setCachedSessionKeyParameters(PreparedStatement preparedStatement,
+                                                      CachedSessionKeyTable cachedSessionKey, byte[] keyVal)
+            throws SQLException
+    {
         int index = 1;
         preparedStatement.setLong(index++,cachedSessionKey.getID());
         preparedStatement.setString(index++,cachedSessionKey.getOwner());
@@ -547,12 +1014,44 @@ public class SQLiteConnector {
         preparedStatement.setLong(index++,cachedSessionKey.getAbsValidity());
         preparedStatement.setLong(index++,cachedSessionKey.getRelValidity());
         preparedStatement.setString(index++,cachedSessionKey.getSessionCryptoSpec());
-        preparedStatement.setBytes(index++,cachedSessionKey.getKeyVal());
-        if (DEBUG) logger.info("{}",preparedStatement);
-        boolean result = preparedStatement.execute();
-        preparedStatement.close();
-        closeConnection();
-        return result;
+        preparedStatement.setBytes(index++,keyVal);
+    }
+
+    /**
+     * Executes the batches of the given statements in order, in a single transaction.
+     * The transaction is rolled back if any statement in the batches fails.
+     * Every method using the connection holds the lock of this connector, so no other statement runs inside, or is
+     * rolled back with, the transaction.
+     * @param preparedStatements the statements with batches of parameters added
+     * @return the total number of updated rows, for each statement
+     * @throws SQLException If a database access error occurs
+     */
+    private int[] executeBatchesInTransaction(PreparedStatement... preparedStatements) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            int[] numUpdatedRows = new int[preparedStatements.length];
+            for (int i = 0; i < preparedStatements.length; i++) {
+                for (int result: preparedStatements[i].executeBatch()) {
+                    if (result > 0) {
+                        numUpdatedRows[i] += result;
+                    }
+                }
+            }
+            connection.commit();
+            return numUpdatedRows;
+        }
+        catch (SQLException e) {
+            connection.rollback();
+            // Batches not yet executed stay on the cached statements and would run with the next batch.
+            for (PreparedStatement preparedStatement: preparedStatements) {
+                preparedStatement.clearBatch();
+            }
+            throw e;
+        }
+        finally {
+            connection.setAutoCommit(autoCommit);
+        }
     }
 
     /**
@@ -568,21 +1067,21 @@ public class SQLiteConnector {
      * @see MetaDataTable
      */
     public boolean insertRecords(MetaDataTable metaData) throws SQLException, ClassNotFoundException {
-        //setConnection();
-
-        String sql = "INSERT INTO " + MetaDataTable.T_META_DATA + "(";
-        sql += MetaDataTable.c.Key.name() + ",";
-        sql += MetaDataTable.c.Value.name() + ")";
-        sql += " VALUES(?,?)";
-        PreparedStatement preparedStatement = connection.prepareStatement(sql);
-        int index = 1;
-        preparedStatement.setString(index++, metaData.getKey());
-        preparedStatement.setString(index++, metaData.getValue());
-        if (DEBUG) logger.info("{}",preparedStatement);
-        boolean result = preparedStatement.execute();
-        preparedStatement.close();
-        closeConnection();
-        return result;
+        lock.lock();
+        try {
+            //setConnection();
+            PreparedStatement preparedStatement = statementRegistry.get(INSERT_META_DATA_SQL);
+            int index = 1;
+            preparedStatement.setString(index++, metaData.getKey());
+            preparedStatement.setString(index++, metaData.getValue());
+            if (DEBUG) logger.info("{}",preparedStatement);
+            boolean result = preparedStatement.execute();
+            closeConnection();
+            return result;
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -594,20 +1093,26 @@ public class SQLiteConnector {
      * @throws ClassNotFoundException if the class cannot be located
      */
     public List<CommunicationPolicyTable> selectAllPolicies() throws SQLException, ClassNotFoundException {
-        //setConnection();
-        statement = connection.createStatement();
-        String sql = "SELECT * FROM " + CommunicationPolicyTable.T_COMMUNICATION_POLICY;
-        if (DEBUG) logger.info(sql);
-        ResultSet resultSet = statement.executeQuery(sql);
-        List<CommunicationPolicyTable> policies = new LinkedList<>();
-        while(resultSet.next()){
-            CommunicationPolicyTable policy = CommunicationPolicyTable.createRecord(resultSet);
-            policies.add(policy);
-            if (DEBUG) logger.info(policy.toJSONObject().toJSONString());
+        lock.lock();
+        try {
+            //setConnection();
+            statement = connection.createStatement();
+            String sql = "SELECT * FROM " + CommunicationPolicyTable.T_COMMUNICATION_POLICY;
+            if (DEBUG) logger.info(sql);
+            ResultSet resultSet = statement.executeQuery(sql);
+            List<CommunicationPolicyTable> policies = new LinkedList<>();
+            while(resultSet.next()){
+                CommunicationPolicyTable policy = CommunicationPolicyTable.createRecord(resultSet);
+                policies.add(policy);
+                if (DEBUG) logger.info(policy.toJSONObject().toJSONString());
+            }
+            closeStatement();
+            closeConnection();
+            return policies;
+        }
+        finally {
+            lock.unlock();
         }
-        closeStatement();
-        closeConnection();
-        return policies;
     }
 
     /**
@@ -620,18 +1125,24 @@ public class SQLiteConnector {
      * @throws ClassNotFoundException if the class cannot be located
      */
     public List<RegisteredEntityTable> selectAllRegEntities(String authDatabaseDir) throws SQLException, ClassNotFoundException {
-        //setConnection();
-        statement = connection.createStatement();
-        String sql = "SELECT * FROM " + RegisteredEntityTable.T_REGISTERED_ENTITY;
-        if (DEBUG) logger.info(sql);
-        ResultSet resultSet = statement.executeQuery(sql);
-        List<RegisteredEntityTable> entities = new LinkedList<>();
-        while(resultSet.next()) {
-            RegisteredEntityTable entity = RegisteredEntityTable.createRecord(resultSet);
-            entities.add(decryptRecords(entity));
-            if (DEBUG) logger.info(entity.toJSONObject().toJSONString());
+        lock.lock();
+        try {
+            //setConnection();
+            statement = connection.createStatement();
+            String sql = "SELECT * FROM " + RegisteredEntityTable.T_REGISTERED_ENTITY;
+            if (DEBUG) logger.info(sql);
+            ResultSet resultSet = statement.executeQuery(sql);
+            List<RegisteredEntityTable> entities = new LinkedList<>();
+            while(resultSet.next()) {
+                RegisteredEntityTable entity = RegisteredEntityTable.createRecord(resultSet);
+                entities.add(decryptRecords(entity));
+                if (DEBUG) logger.info(entity.toJSONObject().toJSONString());
+            }
+            return entities;
+        }
+        finally {
+            lock.unlock();
         }
-        return entities;
     }
 
     /**
@@ -645,24 +1156,76 @@ public class SQLiteConnector {
      * or an argument is supplied to this method
      * @throws ClassNotFoundException if the class cannot be located
      */
-    public boolean updateRegEntityDistKey(String regEntityName, long distKeyExpirationTime, Buffer distKeyVal)
+    public boolean updateRegEntityDistKey(String regEntityName, long distKeyExpirationTime,
+                                                       Buffer distKeyVal)
             throws SQLException, ClassNotFoundException
     {
-        if (encryptCredentials) {
-            distKeyVal = encryptAuthDBData(distKeyVal);
+        lock.lock();
+        try {
+            if (encryptCredentials) {
+                distKeyVal = encryptAuthDBData(distKeyVal);
+            }
+            //setConnection();
+            if (DEBUG) logger.info(UPDATE_REG_ENTITY_DIST_KEY_SQL);
+            PreparedStatement preparedStatement = statementRegistry.get(UPDATE_REG_ENTITY_DIST_KEY_SQL);
+            int index = 1;
+            preparedStatement.setLong(index++, distKeyExpirationTime);
+            preparedStatement.setBytes(index++, distKeyVal.getRawBytes());
+            preparedStatement.setString(index++, regEntityName);
+            boolean result = preparedStatement.execute();
+            // It's in auto-commit mode no need for explicit commit
+            //_commit();
+            return result;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Updates distribution keys of multiple registered entities in a single transaction.
+     * @param distributionKeyMap New distribution keys, keyed by names of registered entities.
+     * @param synchronousLevel Level of PRAGMA synchronous for this transaction, such as FULL or OFF,
+     *                         or null to keep the level of the connection.
+     * @return The number of registered entities updated.
+     * @throws SQLException if a database access error occurs
+     */
+    public int updateRegEntityDistKeys(Map<String, DistributionKey> distributionKeyMap,
+                                                    String synchronousLevel)
+            throws SQLException
+    {
+        lock.lock();
+        try {
+            PreparedStatement preparedStatement = statementRegistry.get(UPDATE_REG_ENTITY_DIST_KEY_SQL);
+            for (Map.Entry<String, DistributionKey> entry: distributionKeyMap.entrySet()) {
+                Buffer distKeyVal = entry.getValue().getSerializedKeyVal();
+                if (encryptCredentials) {
+                    distKeyVal = encryptAuthDBData(distKeyVal);
+                }
+                int index = 1;
+                preparedStatement.setLong(index++, entry.getValue().getRawExpirationTime());
+                preparedStatement.setBytes(index++, distKeyVal.getRawBytes());
+                preparedStatement.setString(index++, entry.getKey());
+                preparedStatement.addBatch();
+            }
+            if (synchronousLevel == null) {
+                return executeBatchesInTransaction(preparedStatement)[0];
+            }
+            // PRAGMA synchronous cannot be changed inside a transaction, so it is changed around it.
+            long previousLevel = selectPragmaValue("synchronous");
+            Statement stat = connection.createStatement();
+            stat.executeUpdate("PRAGMA synchronous=" + synchronousLevel);
+            try {
+                return executeBatchesInTransaction(preparedStatement)[0];
+            }
+            finally {
+                stat.executeUpdate("PRAGMA synchronous=" + previousLevel);
+                stat.close();
+            }
+        }
+        finally {
+            lock.unlock();
         }
-        //setConnection();
-        String sql = "UPDATE " + RegisteredEntityTable.T_REGISTERED_ENTITY;
-        sql += " SET " + RegisteredEntityTable.c.DistKeyExpirationTime.name() + " = " + distKeyExpirationTime;
-        sql += ", " + RegisteredEntityTable.c.DistKeyValue.name() + " = :DistKeyValue";
-        sql += " WHERE " + RegisteredEntityTable.c.Name.name() + " = '" + regEntityName + "'";
-        if (DEBUG) logger.info(sql);
-        PreparedStatement preparedStatement  = connection.prepareStatement(sql);
-        preparedStatement.setBytes(1, distKeyVal.getRawBytes());
-        boolean result = preparedStatement.execute();
-        // It's in auto-commit mode no need for explicit commit
-        //_commit();
-        return result;
     }
 
     /**
@@ -676,18 +1239,24 @@ public class SQLiteConnector {
      * @throws CertificateEncodingException If there is a problem in certificate encoding.
      */
     public List<TrustedAuthTable> selectAllTrustedAuth() throws SQLException, ClassNotFoundException, CertificateEncodingException {
-        //setConnection();
-        statement = connection.createStatement();
-        String sql = "SELECT * FROM " + TrustedAuthTable.T_TRUSTED_AUTH;
-        if (DEBUG) logger.info(sql);
-        ResultSet resultSet = statement.executeQuery(sql);
-        List<TrustedAuthTable> authList = new LinkedList<>();
-        while (resultSet.next()) {
-            TrustedAuthTable auth = TrustedAuthTable.createRecord(resultSet);
-            if (DEBUG) logger.info(auth.toJSONObject().toJSONString());
-            authList.add(auth);
+        lock.lock();
+        try {
+            //setConnection();
+            statement = connection.createStatement();
+            String sql = "SELECT * FROM " + TrustedAuthTable.T_TRUSTED_AUTH;
+            if (DEBUG) logger.info(sql);
+            ResultSet resultSet = statement.executeQuery(sql);
+            List<TrustedAuthTable> authList = new LinkedList<>();
+            while (resultSet.next()) {
+                TrustedAuthTable auth = TrustedAuthTable.createRecord(resultSet);
+                if (DEBUG) logger.info(auth.toJSONObject().toJSONString());
+                authList.add(auth);
+            }
+            return authList;
+        }
+        finally {
+            lock.unlock();
         }
-        return authList;
     }
 
     /**
@@ -700,42 +1269,57 @@ public class SQLiteConnector {
      * @throws ClassNotFoundException if the class cannot be located
      */
     public List<CachedSessionKeyTable> selectAllCachedSessionKey() throws SQLException, ClassNotFoundException {
-        //setConnection();
-        statement = connection.createStatement();
-        String sql = "SELECT * FROM " + CachedSessionKeyTable.T_CACHED_SESSION_KEY;
-        if (DEBUG) logger.info(sql);
-        ResultSet resultSet = statement.executeQuery(sql);
-        List<CachedSessionKeyTable> cachedSessionKeyList = new LinkedList<>();
-        while (resultSet.next()) {
-            CachedSessionKeyTable cachedSessionKey = CachedSessionKeyTable.createRecord(resultSet);
-            if (DEBUG) logger.info(cachedSessionKey.toJSONObject().toJSONString());
-            cachedSessionKeyList.add(decryptRecords(cachedSessionKey));
+        lock.lock();
+        try {
+            //setConnection();
+            statement = connection.createStatement();
+            String sql = SELECT_CACHED_SESSION_KEYS_SQL;
+            if (DEBUG) logger.info(sql);
+            ResultSet resultSet = statement.executeQuery(sql);
+            List<CachedSessionKeyTable> cachedSessionKeyList = new LinkedList<>();
+            while (resultSet.next()) {
+                CachedSessionKeyTable cachedSessionKey = CachedSessionKeyTable.createRecord(resultSet);
+                if (DEBUG) logger.info(cachedSessionKey.toJSONObject().toJSONString());
+                cachedSessionKeyList.add(decryptRecords(cachedSessionKey));
+            }
+            return cachedSessionKeyList;
+        }
+        finally {
+            lock.unlock();
         }
-        return cachedSessionKeyList;
     }
 
     /**
      * Select a specific cached key by its ID
      * @param id the id used to store this cached session key.
-     * @return returns the Object container ${@link CachedSessionKeyTable}
+     * @return returns the Object container ${@link CachedSessionKeyTable}, or <code>null</code> if not found,
+     * as in the other {@link AuthStore} backends
      * @throws SQLException  if a database access error occurs;
      * this method is called on a closed <code>PreparedStatement</code>
      * or an argument is supplied to this method
      * @throws ClassNotFoundException if the class cannot be located
      */
-    public CachedSessionKeyTable selectCachedSessionKeyByID(long id) throws SQLException, ClassNotFoundException {
-        //setConnection();
-        statement = connection.createStatement();
-        String sql = "SELECT * FROM " + CachedSessionKeyTable.T_CACHED_SESSION_KEY;
-        sql += " WHERE " + CachedSessionKeyTable.c.ID.name() + " = " + id;
-        if (DEBUG) logger.info(sql);
-        ResultSet resultSet = statement.executeQuery(sql);
-        CachedSessionKeyTable cachedSessionKey = null;
-        while (resultSet.next()) {
-            cachedSessionKey = CachedSessionKeyTable.createRecord(resultSet);
-            if (DEBUG) logger.info(cachedSessionKey.toJSONObject().toJSONString());
+    public CachedSessionKeyTable selectCachedSessionKeyByID(long id)
+            throws SQLException, ClassNotFoundException
+    {
+        lock.lock();
+        try {
+            //setConnection();
+            if (DEBUG) logger.info(SELECT_CACHED_SESSION_KEY_BY_ID_SQL);
+            PreparedStatement preparedStatement = statementRegistry.get(SELECT_CACHED_SESSION_KEY_BY_ID_SQL);
+            preparedStatement.setLong(1, id);
+            CachedSessionKeyTable cachedSessionKey = null;
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    cachedSessionKey = CachedSessionKeyTable.createRecord(resultSet);
+                    if (DEBUG) logger.info(cachedSessionKey.toJSONObject().toJSONString());
+                }
+            }
+            return cachedSessionKey == null ? null : decryptRecords(cachedSessionKey);
+        }
+        finally {
+            lock.unlock();
         }
-        return decryptRecords(cachedSessionKey);
     }
 
     /**
@@ -749,24 +1333,32 @@ public class SQLiteConnector {
      * or an argument is supplied to this method
      * @throws ClassNotFoundException if the class cannot be located
      */
-    public List<CachedSessionKeyTable> selectCachedSessionKeysByPurpose(String requestingEntityName, String purpose)
+    public List<CachedSessionKeyTable> selectCachedSessionKeysByPurpose(String requestingEntityName,
+                                                                                     String purpose)
             throws SQLException, ClassNotFoundException {
-        //setConnection();
-        statement = connection.createStatement();
-        String sql = "SELECT * FROM " + CachedSessionKeyTable.T_CACHED_SESSION_KEY;
-        sql += " WHERE " + CachedSessionKeyTable.c.Purpose.name() + " = " + "'" + purpose + "'";
-        sql += " AND " + CachedSessionKeyTable.c.Owners.name() + " NOT LIKE " + "'%" + requestingEntityName + "%'";
-        long currentTime = new java.util.Date().getTime();
-        sql += " AND " + CachedSessionKeyTable.c.ExpirationTime.name() + " > " + currentTime;
-        if (DEBUG) logger.info(sql);
-        ResultSet resultSet = statement.executeQuery(sql);
-        List<CachedSessionKeyTable> result = new LinkedList<>();
-        while (resultSet.next()) {
-            CachedSessionKeyTable cachedSessionKey = CachedSessionKeyTable.createRecord(resultSet);
-            if (DEBUG) logger.info(cachedSessionKey.toJSONObject().toJSONString());
-            result.add(decryptRecords(cachedSessionKey));
+        lock.lock();
+        try {
+            //setConnection();
+            if (DEBUG) logger.info(SELECT_CACHED_SESSION_KEYS_BY_PURPOSE_SQL);
+            PreparedStatement preparedStatement = statementRegistry.get(SELECT_CACHED_SESSION_KEYS_BY_PURPOSE_SQL);
+            long currentTime = new java.util.Date().getTime();
+            int index = 1;
+            preparedStatement.setString(index++, purpose);
+            preparedStatement.setLong(index++, currentTime);
+            preparedStatement.setString(index++, requestingEntityName);
+            List<CachedSessionKeyTable> result = new LinkedList<>();
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    CachedSessionKeyTable cachedSessionKey = CachedSessionKeyTable.createRecord(resultSet);
+                    if (DEBUG) logger.info(cachedSessionKey.toJSONObject().toJSONString());
+                    result.add(decryptRecords(cachedSessionKey));
+                }
+            }
+            return result;
+        }
+        finally {
+            lock.unlock();
         }
-        return result;
     }
 
     /**
@@ -778,16 +1370,99 @@ public class SQLiteConnector {
      * @throws ClassNotFoundException if the class cannot be located
      */
     public boolean deleteExpiredCahcedSessionKeys() throws SQLException, ClassNotFoundException {
-        //setConnection();
-        String sql = "DELETE FROM " + CachedSessionKeyTable.T_CACHED_SESSION_KEY;
-        long currentTime = new java.util.Date().getTime();
-        sql += " WHERE " + CachedSessionKeyTable.c.ExpirationTime.name() + " < " + currentTime;
-        if (DEBUG) logger.info(sql);
-        PreparedStatement preparedStatement  = connection.prepareStatement(sql);
-        boolean result = preparedStatement.execute();
-        // It's in auto-commit mode no need for explicit commit
-        //_commit();
-        return result;
+        lock.lock();
+        try {
+            //setConnection();
+            long currentTime = new java.util.Date().getTime();
+            if (DEBUG) logger.info(DELETE_EXPIRED_CACHED_SESSION_KEYS_SQL);
+            PreparedStatement ownerStatement = statementRegistry.get(DELETE_EXPIRED_SESSION_KEY_OWNERS_SQL);
+            ownerStatement.setLong(1, currentTime);
+            ownerStatement.addBatch();
+            PreparedStatement preparedStatement = statementRegistry.get(DELETE_EXPIRED_CACHED_SESSION_KEYS_SQL);
+            preparedStatement.setLong(1, currentTime);
+            preparedStatement.addBatch();
+            executeBatchesInTransaction(ownerStatement, preparedStatement);
+            // Same as PreparedStatement.execute() for a deletion
+            return false;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes a bounded batch of expired cached session keys and their owners, oldest first, in a single transaction,
+     * so that the connection is held only briefly.
+     * @param currentTime Current time in milliseconds.
+     * @param batchSize Maximum number of session keys to be deleted.
+     * @return The number of session keys deleted.
+     * @throws SQLException if a database access error occurs
+     */
+    public int deleteExpiredCachedSessionKeys(long currentTime, int batchSize) throws SQLException {
+        lock.lock();
+        try {
+            PreparedStatement ownerStatement = statementRegistry.get(DELETE_EXPIRED_SESSION_KEY_OWNERS_BATCH_SQL);
+            ownerStatement.setLong(1, currentTime);
+            ownerStatement.setInt(2, batchSize);
+            ownerStatement.addBatch();
+            PreparedStatement preparedStatement = statementRegistry.get(DELETE_EXPIRED_CACHED_SESSION_KEYS_BATCH_SQL);
+            preparedStatement.setLong(1, currentTime);
+            preparedStatement.setInt(2, batchSize);
+            preparedStatement.addBatch();
+            return executeBatchesInTransaction(ownerStatement, preparedStatement)[1];
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reclaims at most the given number of free pages of the database file with an incremental vacuum.
+     * Nothing is reclaimed from a database without incremental auto vacuum, until it is converted by
+     * {@link #upgradeSchemaIfNeeded()} at the next start.
+     * @param maxPages Maximum number of pages to be reclaimed, all free pages if zero or negative.
+     * @return The number of pages reclaimed.
+     * @throws SQLException if a database access error occurs
+     */
+    public long vacuum(int maxPages) throws SQLException {
+        lock.lock();
+        try {
+            long numFreePages = selectPragmaValue("freelist_count");
+            if (numFreePages == 0 || selectPragmaValue("auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+                return 0;
+            }
+            Statement stat = connection.createStatement();
+            // Each step of the pragma reclaims one page; executeUpdate() steps it to completion, unlike execute().
+            stat.executeUpdate("PRAGMA incremental_vacuum(" + maxPages + ")");
+            stat.close();
+            return numFreePages - selectPragmaValue("freelist_count");
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Converts a database created before incremental auto vacuum was enabled, with a full VACUUM which rewrites
+     * the whole database.
+     */
+    private void enableIncrementalVacuumIfNeeded() throws SQLException {
+        if (selectPragmaValue("auto_vacuum") == AUTO_VACUUM_INCREMENTAL) {
+            return;
+        }
+        logger.info("Converting Auth DB to incremental auto vacuum with a full VACUUM");
+        Statement stat = connection.createStatement();
+        stat.executeUpdate("PRAGMA auto_vacuum=INCREMENTAL");
+        stat.executeUpdate("VACUUM");
+        stat.close();
+    }
+
+    private long selectPragmaValue(String pragma) throws SQLException {
+        Statement stat = connection.createStatement();
+        ResultSet resultSet = stat.executeQuery("PRAGMA " + pragma);
+        long value = resultSet.next() ? resultSet.getLong(1) : 0;
+        stat.close();
+        return value;
     }
 
     /**
@@ -797,11 +1472,21 @@ public class SQLiteConnector {
      * @throws ClassNotFoundException if the class cannot be located
      */
     public boolean deleteAllCachedSessionKeys() throws SQLException, ClassNotFoundException {
-        //setConnection();
-        String sql = "DELETE FROM " + CachedSessionKeyTable.T_CACHED_SESSION_KEY;
-        if (DEBUG) logger.info(sql);
-        PreparedStatement preparedStatement  = connection.prepareStatement(sql);
-        return preparedStatement.execute();
+        lock.lock();
+        try {
+            //setConnection();
+            if (DEBUG) logger.info(DELETE_ALL_CACHED_SESSION_KEYS_SQL);
+            PreparedStatement ownerStatement = statementRegistry.get(DELETE_ALL_SESSION_KEY_OWNERS_SQL);
+            ownerStatement.addBatch();
+            PreparedStatement preparedStatement = statementRegistry.get(DELETE_ALL_CACHED_SESSION_KEYS_SQL);
+            preparedStatement.addBatch();
+            executeBatchesInTransaction(ownerStatement, preparedStatement);
+            // Same as PreparedStatement.execute() for a deletion
+            return false;
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -814,43 +1499,87 @@ public class SQLiteConnector {
      * or an argument is supplied to this method
      * @throws ClassNotFoundException if the class cannot be located
      */
-    public boolean appendSessionKeyOwner(long keyID, String newOwner) throws SQLException, ClassNotFoundException {
-        //setConnection();
-        String sql = "UPDATE " + CachedSessionKeyTable.T_CACHED_SESSION_KEY;
-        sql += " SET " + CachedSessionKeyTable.c.Owners.name() + " = ";
-        sql += CachedSessionKeyTable.c.Owners.name() + "|| ',' || " + "'" + newOwner + "'";
-        sql += " WHERE " + CachedSessionKeyTable.c.ID.name() + " = " + keyID;
-        if (DEBUG) logger.info(sql);
-        PreparedStatement preparedStatement  = connection.prepareStatement(sql);
-        boolean result = preparedStatement.execute();
-        // It's in auto-commit mode no need for explicit commit
-        //_commit();
-        return result;
+    public boolean appendSessionKeyOwner(long keyID, String newOwner)
+            throws SQLException, ClassNotFoundException
+    {
+        lock.lock();
+        try {
+            //setConnection();
+            if (DEBUG) logger.info(INSERT_SESSION_KEY_OWNER_SQL);
+            PreparedStatement preparedStatement = statementRegistry.get(INSERT_SESSION_KEY_OWNER_SQL);
+            preparedStatement.setLong(1, keyID);
+            preparedStatement.setString(2, newOwner);
+            boolean result = preparedStatement.execute();
+            // It's in auto-commit mode no need for explicit commit
+            //_commit();
+            return result;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Append a owner to multiple session keys as a batch, in a single transaction.
+     * @param keyIDList the ids of the session keys
+     * @param newOwner the owner to the session keys
+     * @return the number of updated session keys
+     * @throws SQLException  if a database access error occurs, in which case no session key is updated
+     * @throws ClassNotFoundException if the class cannot be located
+     */
+    public int appendSessionKeyOwners(List<Long> keyIDList, String newOwner)
+            throws SQLException, ClassNotFoundException
+    {
+        lock.lock();
+        try {
+            if (keyIDList.isEmpty()) {
+                return 0;
+            }
+            if (DEBUG) logger.info(INSERT_SESSION_KEY_OWNER_SQL);
+            PreparedStatement preparedStatement = statementRegistry.get(INSERT_SESSION_KEY_OWNER_SQL);
+            for (long keyID: keyIDList) {
+                preparedStatement.setLong(1, keyID);
+                preparedStatement.setString(2, newOwner);
+                preparedStatement.addBatch();
+            }
+            return executeBatchesInTransaction(preparedStatement)[0];
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
     /**
      * Select the value of a meta data by its key
      * @param key the key to be selected
-     * @return the string representation of the metadata's value
+     * @return the string representation of the metadata's value, or <code>null</code> if the key does not exist
      * @throws SQLException  if a database access error occurs;
      * this method is called on a closed <code>PreparedStatement</code>
      * or an argument is supplied to this method
      * @throws ClassNotFoundException if the class cannot be located
      */
     public String selectMetaDataValue(String key) throws SQLException, ClassNotFoundException {
-        //setConnection();
-        statement = connection.createStatement();
-        String sql = "SELECT * FROM " + MetaDataTable.T_META_DATA;
-        sql += " WHERE " + MetaDataTable.c.Key.name() + " = '" + key + "'";
-        if (DEBUG) logger.info(sql);
-        ResultSet resultSet = statement.executeQuery(sql);
-        MetaDataTable metaData = null;
-        while (resultSet.next()) {
-            metaData = MetaDataTable.createRecord(resultSet);
-            if (DEBUG) logger.info(metaData.toJSONObject().toJSONString());
+        lock.lock();
+        try {
+            //setConnection();
+            if (DEBUG) logger.info(SELECT_META_DATA_SQL);
+            PreparedStatement preparedStatement = statementRegistry.get(SELECT_META_DATA_SQL);
+            preparedStatement.setString(1, key);
+            MetaDataTable metaData = null;
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    metaData = MetaDataTable.createRecord(resultSet);
+                    if (DEBUG) logger.info(metaData.toJSONObject().toJSONString());
+                }
+            }
+            if (metaData == null) {
+                return null;
+            }
+            return metaData.getValue();
+        }
+        finally {
+            lock.unlock();
         }
-        closeStatement();
-        return metaData.getValue();
     }
 
     /**
@@ -865,18 +1594,30 @@ public class SQLiteConnector {
      */
     public boolean updateMetaData(String key, String value) throws SQLException, ClassNotFoundException
     {
-        //setConnection();
-        String sql = "UPDATE " + MetaDataTable.T_META_DATA;
-        sql += " SET " + MetaDataTable.c.Value.name() + " = '" + value + "'";
-        sql += " WHERE " + MetaDataTable.c.Key.name() + " = '" + key + "'";
-        if (DEBUG) logger.info(sql);
-        PreparedStatement preparedStatement  = connection.prepareStatement(sql);
-        boolean result = preparedStatement.execute();
-        // It's in auto-commit mode no need for explicit commit
-        //_commit();
-        preparedStatement.close();
-        return result;
+        lock.lock();
+        try {
+            //setConnection();
+            if (DEBUG) logger.info(UPDATE_META_DATA_SQL);
+            PreparedStatement preparedStatement = statementRegistry.get(UPDATE_META_DATA_SQL);
+            preparedStatement.setString(1, value);
+            preparedStatement.setString(2, key);
+            boolean result = preparedStatement.execute();
+            // It's in auto-commit mode no need for explicit commit
+            //_commit();
+            return result;
 
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public String statementRegistryToString() {
+        return statementRegistry == null ? "not connected" : statementRegistry.toString();
+    }
+
+    public String statisticsToString() {
+        return statementRegistryToString();
     }
 
     /**
@@ -887,7 +1628,13 @@ public class SQLiteConnector {
      * @throws SQLException If a database access error occurs
      */
     public void closeStatement() throws SQLException {
-        statement.close();
+        lock.lock();
+        try {
+            statement.close();
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -905,42 +1652,63 @@ public class SQLiteConnector {
      * @throws SQLException If a database access error occurs
      */
     public boolean deleteBackedUpRegisteredEntities() throws SQLException {
-        String sql = "DELETE FROM " + RegisteredEntityTable.T_REGISTERED_ENTITY;
-        sql += " WHERE " + RegisteredEntityTable.c.BackupFromAuthID.name() + " >= 0";
-        if (DEBUG) logger.info(sql);
-        PreparedStatement preparedStatement  = connection.prepareStatement(sql);
-        boolean result = preparedStatement.execute();
-        return result;
+        lock.lock();
+        try {
+            String sql = "DELETE FROM " + RegisteredEntityTable.T_REGISTERED_ENTITY;
+            sql += " WHERE " + RegisteredEntityTable.c.BackupFromAuthID.name() + " >= 0";
+            if (DEBUG) logger.info(sql);
+            PreparedStatement preparedStatement  = statementRegistry.get(sql);
+            boolean result = preparedStatement.execute();
+            return result;
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
     public boolean deleteRegisteredEntities(List<String> registeredEntityNameList) throws SQLException {
-        if (registeredEntityNameList.isEmpty()) {
-            throw new RuntimeException("The list of names of registered entities to be removed is empty!");
+        lock.lock();
+        try {
+            if (registeredEntityNameList.isEmpty()) {
+                throw new RuntimeException("The list of names of registered entities to be removed is empty!");
+            }
+            String sql = "DELETE FROM " + RegisteredEntityTable.T_REGISTERED_ENTITY;
+            sql += " WHERE " + RegisteredEntityTable.c.Name.name() + " = ?";
+            for (int i = 1; i < registeredEntityNameList.size(); i++) {
+                sql += " OR " + RegisteredEntityTable.c.Name.name() + " = ?";
+            }
+            if (DEBUG) logger.info(sql);
+            PreparedStatement preparedStatement  = connection.prepareStatement(sql);
+            for (int i = 0; i < registeredEntityNameList.size(); i++) {
+                preparedStatement.setString(i + 1, registeredEntityNameList.get(i));
+            }
+            boolean result = preparedStatement.execute();
+            preparedStatement.close();
+            return result;
         }
-        String sql = "DELETE FROM " + RegisteredEntityTable.T_REGISTERED_ENTITY;
-        sql += " WHERE " + RegisteredEntityTable.c.Name.name() + " = '" + registeredEntityNameList.get(0) + "'";
-        for (int i = 1; i < registeredEntityNameList.size(); i++) {
-            sql += " OR " + RegisteredEntityTable.c.Name.name() + " = '" + registeredEntityNameList.get(i) + "'";
+        finally {
+            lock.unlock();
         }
-        if (DEBUG) logger.info(sql);
-        PreparedStatement preparedStatement  = connection.prepareStatement(sql);
-        boolean result = preparedStatement.execute();
-        return result;
     }
 
     public boolean updateBackupCertificate(int backupFromAuthID, X509Certificate backupCertificate)
             throws SQLException, CertificateEncodingException
     {
-        //setConnection();
-        String sql = "UPDATE " + TrustedAuthTable.T_TRUSTED_AUTH;
-        sql += " SET " + TrustedAuthTable.c.BackupCertificateValue.name() + " = :BackupCertificateValue";
-        sql += " WHERE " + TrustedAuthTable.c.ID.name() + " = '" + backupFromAuthID + "'";
-        if (DEBUG) logger.info(sql);
-        PreparedStatement preparedStatement  = connection.prepareStatement(sql);
-        preparedStatement.setBytes(1, backupCertificate.getEncoded());
-        boolean result = preparedStatement.execute();
-        ResultSet resultSet = preparedStatement.getResultSet();
-        preparedStatement.close();
-        return result;
+        lock.lock();
+        try {
+            //setConnection();
+            String sql = "UPDATE " + TrustedAuthTable.T_TRUSTED_AUTH;
+            sql += " SET " + TrustedAuthTable.c.BackupCertificateValue.name() + " = ?";
+            sql += " WHERE " + TrustedAuthTable.c.ID.name() + " = ?";
+            if (DEBUG) logger.info(sql);
+            PreparedStatement preparedStatement  = statementRegistry.get(sql);
+            preparedStatement.setBytes(1, backupCertificate.getEncoded());
+            preparedStatement.setInt(2, backupFromAuthID);
+            boolean result = preparedStatement.execute();
+            return result;
+        }
+        finally {
+            lock.unlock();
+        }
     }
 }
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.message;
+
+import org.iot.auth.io.Buffer;
+import org.iot.auth.io.VariableLengthInt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A class for decoding length-framed IoTSP messages from a byte stream or datagrams, regardless of transport.
+ * Bytes are accumulated into a buffer that is reused across messages, until exactly one full message
+ * (msgType, payloadLen and payload of payloadLen bytes) is received, possibly from several reads.
+ * Only bytes that belong to the current message are consumed.
+ * <pre>
+ * IoTSPMessageDecoder decoder = new IoTSPMessageDecoder();
+ * if (decoder.readMessage(inputStream)) {
+ *     byte[] message = decoder.getMessage();
+ *     decoder.reset();
+ * }</pre>
+ * @author Hokeun Kim
+ */
+public class IoTSPMessageDecoder {
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 64 * 1024;
+
+    public IoTSPMessageDecoder() {
+        this(DEFAULT_MAX_MESSAGE_SIZE);
+    }
+
+    /**
+     * Constructor for the decoder
+     * @param maxMessageSize Maximum size of a message in bytes including its header, larger messages are rejected.
+     */
+    public IoTSPMessageDecoder(int maxMessageSize) {
+        this.maxMessageSize = maxMessageSize;
+        this.buf = new byte[Math.min(INITIAL_BUFFER_SIZE, maxMessageSize)];
+        reset();
+    }
+
+    /**
+     * Discard the current (complete or partial) message, to start decoding the next message.
+     */
+    public void reset() {
+        position = 0;
+        messageLength = -1;
+    }
+
+    /**
+     * Whether a full message is accumulated.
+     * @return True if the current message is complete.
+     */
+    public boolean isMessageComplete() {
+        return messageLength >= 0 && position == messageLength;
+    }
+
+    /**
+     * Whether any byte of the current message has been received.
+     * @return True if no byte is accumulated yet.
+     */
+    public boolean isEmpty() {
+        return position == 0;
+    }
+
+    /**
+     * The number of bytes that can be consumed without reading beyond the current message. While the header
+     * is being received, header bytes are consumed one by one.
+     * @return The number of bytes needed, 0 if the current message is complete.
+     */
+    public int getNumBytesNeeded() {
+        if (messageLength < 0) {
+            return 1;
+        }
+        return messageLength - position;
+    }
+
+    /**
+     * Consume bytes from a byte array, up to the end of the current message.
+     * @param src Source byte array.
+     * @param offset Offset of the first byte to be consumed in src.
+     * @param length The number of bytes available in src.
+     * @return The number of bytes consumed.
+     * @throws IOException If the message header is malformed or the message is too large.
+     */
+    public int append(byte[] src, int offset, int length) throws IOException {
+        int consumed = 0;
+        while (consumed < length && !isMessageComplete()) {
+            int numBytes = Math.min(getNumBytesNeeded(), length - consumed);
+            ensureCapacity(position + numBytes);
+            System.arraycopy(src, offset + consumed, buf, position, numBytes);
+            position += numBytes;
+            consumed += numBytes;
+            if (messageLength < 0) {
+                parseHeader();
+            }
+        }
+        return consumed;
+    }
+
+    /**
+     * Consume bytes from a ByteBuffer (in read mode), up to the end of the current message. Remaining bytes
+     * stay in src.
+     * @param src Source ByteBuffer.
+     * @return The number of bytes consumed.
+     * @throws IOException If the message header is malformed or the message is too large.
+     */
+    public int append(ByteBuffer src) throws IOException {
+        int consumed = 0;
+        while (src.hasRemaining() && !isMessageComplete()) {
+            int numBytes = Math.min(getNumBytesNeeded(), src.remaining());
+            ensureCapacity(position + numBytes);
+            src.get(buf, position, numBytes);
+            position += numBytes;
+            consumed += numBytes;
+            if (messageLength < 0) {
+                parseHeader();
+            }
+        }
+        return consumed;
+    }
+
+    /**
+     * Read from a (blocking) input stream until a full message is accumulated. Blocks only in read(), so a read
+     * timeout of the underlying socket applies to each read.
+     * @param is Input stream to read from.
+     * @return True if a full message is read, false if the stream ended before that.
+     * @throws IOException If IO fails, the message header is malformed or the message is too large.
+     */
+    public boolean readMessage(InputStream is) throws IOException {
+        while (!isMessageComplete()) {
+            if (read(is) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read once from a (blocking) input stream, without reading beyond the current message. Callers that need
+     * a deadline for the whole message can adjust the read timeout of the underlying socket between calls.
+     * @param is Input stream to read from.
+     * @return The number of bytes read, or -1 if the stream ended.
+     * @throws IOException If IO fails, the message header is malformed or the message is too large.
+     */
+    public int read(InputStream is) throws IOException {
+        int numBytes = getNumBytesNeeded();
+        if (numBytes == 0) {
+            return 0;
+        }
+        ensureCapacity(position + numBytes);
+        int length = is.read(buf, position, numBytes);
+        if (length < 0) {
+            return -1;
+        }
+        position += length;
+        if (messageLength < 0) {
+            parseHeader();
+        }
+        return length;
+    }
+
+    /**
+     * Get the message type of the current message.
+     * @return Message type, or null if no byte is received yet or the type is unknown.
+     */
+    public MessageType getMessageType() {
+        if (position == 0) {
+            return null;
+        }
+        return MessageType.fromByte(buf[0]);
+    }
+
+    /**
+     * Get a copy of the complete message including its header.
+     * @return Raw bytes of the message.
+     */
+    public byte[] getMessage() {
+        if (!isMessageComplete()) {
+            throw new IllegalStateException("IoTSP message is not complete yet.");
+        }
+        return Arrays.copyOf(buf, messageLength);
+    }
+
+    /**
+     * Get a copy of the complete message including its header, as a Buffer.
+     * @return Buffer with the message.
+     */
+    public Buffer getMessageBuffer() {
+        if (!isMessageComplete()) {
+            throw new IllegalStateException("IoTSP message is not complete yet.");
+        }
+        return new Buffer(buf, messageLength);
+    }
+
+    private void parseHeader() throws IOException {
+        int headerLength = position - IoTSPMessage.MSG_TYPE_SIZE;
+        if (headerLength <= 0) {
+            return;
+        }
+        // The most significant bit of each byte of a variable length int indicates more bytes follow.
+        if ((buf[position - 1] & 128) != 0) {
+            if (headerLength >= MAX_VARIABLE_LENGTH_INT_SIZE) {
+                throw new IOException("Malformed payload length in IoTSP message header.");
+            }
+            return;
+        }
+        int payloadLength = new VariableLengthInt(buf, IoTSPMessage.MSG_TYPE_SIZE).getNum();
+        if (payloadLength < 0 || payloadLength > maxMessageSize - position) {
+            throw new IOException("IoTSP message is too large, payload length: " + payloadLength);
+        }
+        messageLength = position + payloadLength;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buf.length) {
+            buf = Arrays.copyOf(buf, Math.min(Math.max(buf.length * 2, capacity), maxMessageSize));
+        }
+    }
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    private static final int MAX_VARIABLE_LENGTH_INT_SIZE = 5;
+    private final int maxMessageSize;
+    private byte[] buf;
+    private int position;
+    private int messageLength;
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A hashed timing wheel for expiring TTL state of Auth (e.g., UDP Auth nonces and cached UDP responses) with O(1)
+ * schedule and cancel. A single thread advances the wheel every tick, so expiry is accurate to the tick duration,
+ * and expired tasks run on that thread, thus they must be short (e.g., removing a map entry).
+ * @author Hokeun Kim
+ */
+public class HashedTimingWheel {
+    /**
+     * A handle for a scheduled task, which can be used for cancelling the task.
+     */
+    public static class Timeout {
+        private Timeout(HashedTimingWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel the task, if it has not expired yet.
+         * @return True if the task is cancelled by this call.
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(STATE_INIT, STATE_CANCELLED)) {
+                return false;
+            }
+            // unlinked from its bucket by the wheel thread
+            wheel.cancelledTimeouts.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == STATE_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == STATE_EXPIRED;
+        }
+
+        private boolean expire() {
+            if (!state.compareAndSet(STATE_INIT, STATE_EXPIRED)) {
+                return false;
+            }
+            try {
+                task.run();
+            }
+            catch (RuntimeException e) {
+                logger.error("Exception in expired task {}", ExceptionToString.convertExceptionToStackTrace(e));
+            }
+            return true;
+        }
+
+        private static final int STATE_INIT = 0;
+        private static final int STATE_CANCELLED = 1;
+        private static final int STATE_EXPIRED = 2;
+        private final AtomicInteger state = new AtomicInteger(STATE_INIT);
+        private final HashedTimingWheel wheel;
+        private final Runnable task;
+        private final long deadline;
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout next;
+        private Timeout prev;
+    }
+
+    /**
+     * A doubly linked list of timeouts in a slot of the wheel, accessed only by the wheel thread.
+     */
+    private static class Bucket {
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            }
+            else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        private void remove(Timeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            }
+            else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            else {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        private Timeout head;
+        private Timeout tail;
+    }
+
+    /**
+     * Constructor for the timing wheel
+     * @param name Name of the wheel thread.
+     * @param tickDuration Duration of a tick in milliseconds.
+     * @param ticksPerWheel The number of slots in the wheel, rounded up to a power of two.
+     */
+    public HashedTimingWheel(String name, long tickDuration, int ticksPerWheel) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be positive: " + tickDuration);
+        }
+        int numBuckets = 1;
+        while (numBuckets < ticksPerWheel) {
+            numBuckets <<= 1;
+        }
+        this.wheel = new Bucket[numBuckets];
+        for (int i = 0; i < numBuckets; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = numBuckets - 1;
+        this.tickDuration = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+        this.workerThread = new Thread(new Worker(), name);
+        this.workerThread.setDaemon(true);
+    }
+
+    /**
+     * Start the wheel thread. Tasks can be scheduled before this, but they do not expire until it is started.
+     */
+    public void start() {
+        startTime = System.nanoTime();
+        workerThread.start();
+    }
+
+    /**
+     * Stop the wheel thread, pending tasks are not run.
+     */
+    public void stop() {
+        isRunning = false;
+        workerThread.interrupt();
+    }
+
+    /**
+     * Schedule a task to be run once after the given delay.
+     * @param task Task to be run, it must be short as it runs on the wheel thread.
+     * @param delay Delay in milliseconds.
+     * @return Handle of the scheduled task, for cancelling it.
+     */
+    public Timeout schedule(Runnable task, long delay) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        Timeout timeout = new Timeout(this, task, deadline);
+        numPendingTimeouts.incrementAndGet();
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Get the number of tasks that are scheduled and neither expired nor cancelled yet.
+     * @return The number of pending timeouts.
+     */
+    public long getNumPendingTimeouts() {
+        return numPendingTimeouts.get();
+    }
+
+    public long getNumExpiredTimeouts() {
+        return numExpiredTimeouts.get();
+    }
+
+    public long getNumCancelledTimeouts() {
+        return numCancelledTimeouts.get();
+    }
+
+    public String toString() {
+        return "Pending timeouts: " + getNumPendingTimeouts() +
+                ", Expired: " + getNumExpiredTimeouts() +
+                ", Cancelled: " + getNumCancelledTimeouts() +
+                ", Tick: " + TimeUnit.NANOSECONDS.toMillis(tickDuration) + "ms" +
+                ", Wheel size: " + wheel.length;
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            long tick = 0;
+            while (isRunning) {
+                long deadline = waitForNextTick(tick);
+                if (deadline < 0) {
+                    break;
+                }
+                processCancelledTimeouts();
+                transferNewTimeoutsToBuckets(tick);
+                expireTimeouts(wheel[(int) (tick & mask)], deadline);
+                tick++;
+            }
+        }
+
+        /**
+         * Sleep until the end of the given tick.
+         * @param tick Current tick.
+         * @return Elapsed time since the start, in nanoseconds, or -1 if the wheel is stopped.
+         */
+        private long waitForNextTick(long tick) {
+            long deadline = tickDuration * (tick + 1);
+            for (;;) {
+                long currentTime = System.nanoTime() - startTime;
+                long sleepTimeMillis = TimeUnit.NANOSECONDS.toMillis(deadline - currentTime + 999999);
+                if (sleepTimeMillis <= 0) {
+                    return currentTime;
+                }
+                try {
+                    Thread.sleep(sleepTimeMillis);
+                }
+                catch (InterruptedException e) {
+                    if (!isRunning) {
+                        return -1;
+                    }
+                }
+            }
+        }
+
+        private void processCancelledTimeouts() {
+            Timeout timeout;
+            while ((timeout = cancelledTimeouts.poll()) != null) {
+                if (timeout.bucket != null) {
+                    timeout.bucket.remove(timeout);
+                }
+                numPendingTimeouts.decrementAndGet();
+                numCancelledTimeouts.incrementAndGet();
+            }
+        }
+
+        private void transferNewTimeoutsToBuckets(long tick) {
+            Timeout timeout;
+            while ((timeout = newTimeouts.poll()) != null) {
+                if (timeout.isCancelled()) {
+                    // counted when its cancellation is processed
+                    continue;
+                }
+                long calculated = (timeout.deadline - startTime) / tickDuration;
+                timeout.remainingRounds = (calculated - tick) / wheel.length;
+                // a timeout already in the past is expired in the current tick
+                long ticks = Math.max(calculated, tick);
+                wheel[(int) (ticks & mask)].add(timeout);
+            }
+        }
+
+        private void expireTimeouts(Bucket bucket, long deadline) {
+            Timeout timeout = bucket.head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.isCancelled()) {
+                    // removed when its cancellation is processed
+                }
+                else if (timeout.remainingRounds <= 0) {
+                    bucket.remove(timeout);
+                    if (timeout.deadline - startTime <= deadline) {
+                        // a timeout cancelled concurrently is counted when its cancellation is processed
+                        if (timeout.expire()) {
+                            numPendingTimeouts.decrementAndGet();
+                            numExpiredTimeouts.incrementAndGet();
+                        }
+                    }
+                    else {
+                        // should not happen, put it back for the next round
+                        timeout.remainingRounds = 0;
+                        newTimeouts.add(timeout);
+                    }
+                }
+                else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(HashedTimingWheel.class);
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long tickDuration;
+    private final Thread workerThread;
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicLong numPendingTimeouts = new AtomicLong(0);
+    private final AtomicLong numExpiredTimeouts = new AtomicLong(0);
+    private final AtomicLong numCancelledTimeouts = new AtomicLong(0);
+    private volatile long startTime;
+    private volatile boolean isRunning = true;
+}
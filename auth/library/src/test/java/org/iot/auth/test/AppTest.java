@@ -15,55 +15,112 @@
 
 package org.iot.auth.test;
 
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.iot.auth.config.AuthServerProperties;
 import org.iot.auth.config.constants.C;
 import org.iot.auth.config.constants.ConstantType;
+import org.iot.auth.crypto.AsymmetricCryptoExecutor;
 import org.iot.auth.crypto.AuthCrypto;
+import org.iot.auth.crypto.AuthRandom;
+import org.iot.auth.crypto.DistributionDiffieHellman;
+import org.iot.auth.crypto.DistributionKey;
+import org.iot.auth.crypto.EntityKeyCache;
+import org.iot.auth.crypto.EphemeralKeyPairPool;
+import org.iot.auth.crypto.SessionKey;
 import org.iot.auth.crypto.SymmetricKey;
+import org.iot.auth.crypto.SymmetricKeyCryptoSpec;
 import org.iot.auth.db.AuthDBProtectionMethod;
+import org.iot.auth.db.RegisteredEntity;
+import org.iot.auth.db.SessionKeyIDAllocator;
+import org.iot.auth.db.SessionKeyStore;
+import org.iot.auth.db.bean.CachedSessionKeyTable;
 import org.iot.auth.db.bean.CommunicationPolicyTable;
+import org.iot.auth.db.bean.MetaDataTable;
 import org.iot.auth.db.bean.RegisteredEntityTable;
 import org.iot.auth.db.bean.TrustedAuthTable;
+import org.iot.auth.db.dao.AuthStore;
+import org.iot.auth.db.dao.EncryptedChunkStore;
 import org.iot.auth.db.dao.SQLiteConnector;
+import org.iot.auth.exception.InvalidMacException;
 import org.iot.auth.io.Buffer;
+import org.iot.auth.io.VariableLengthInt;
+import org.iot.auth.message.IoTSPMessageDecoder;
 import org.iot.auth.message.MessageType;
 import org.iot.auth.message.impl.AuthHello;
 import org.iot.auth.util.DateHelper;
+import org.iot.auth.util.HashedTimingWheel;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.IOException;
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
 import java.security.cert.CertificateEncodingException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 /**
  * @author Salomon Lee
  */
 public class AppTest {
     private static final Logger logger = LoggerFactory.getLogger(AppTest.class);
-    private static final String dbPath = "auth.db"; //"databases/auth101/auth.db";
+    // A fresh path for each test, as JUnit creates an instance per test method and test methods run in parallel.
+    private final String dbPath = new File(System.getProperty("java.io.tmpdir"),
+            "auth_" + UUID.randomUUID() + ".db").getPath(); //"databases/auth101/auth.db";
     private boolean dbCreated = false;
     private boolean regEntityInserted = false;
     private boolean commPolicyInserted = false;
     private boolean trustedAuthInserted = false;
     SymmetricKey databaseKey;
     private String authDBDir = "../databases/auth101/";
-    private AuthDBProtectionMethod authDBProtectionMethod =
+    protected AuthDBProtectionMethod authDBProtectionMethod =
             AuthDBProtectionMethod.ENCRYPT_CREDENTIALS;
     @Test
     @Category(org.iot.auth.config.constants.C.class)
     public void testConstant(){
+        assumeDefaultStore();
         logger.info("{}, {}",ConstantType.AUTH_NONCE_SIZE, C.AUTH_NONCE_SIZE);
     }
 
     @Test
     @Category(org.iot.auth.message.MessageType.class)
     public void testMessageType(){
+        assumeDefaultStore();
         logger.info("{} {}", MessageType.AUTH_HELLO.toString(), MessageType.AUTH_HELLO.getValue());
         logger.info("{} {}", MessageType.AUTH_SESSION_KEY_REQ.toString(), MessageType.AUTH_SESSION_KEY_REQ.getValue());
         logger.info("{} {}", MessageType.AUTH_SESSION_KEY_RESP.toString(), MessageType.AUTH_SESSION_KEY_RESP.getValue());
@@ -82,6 +139,7 @@ public class AppTest {
     @Test
     @Category(org.iot.auth.message.impl.AuthHello.class)
     public void testAuthHello(){
+        assumeDefaultStore();
         AuthHello authHello = new AuthHello();
         authHello.setMessageType(MessageType.AUTH_HELLO);
         authHello.setAuthId(UUID.randomUUID().toString().getBytes());
@@ -103,19 +161,139 @@ public class AppTest {
         logger.info("PayLoadLength, {}", authHello.getPayLoadLength());
     }
 
+    /**
+     * Expires tasks after their delays, including a delay longer than one round of the wheel, and never runs
+     * cancelled tasks or tasks left when the wheel is stopped.
+     */
+    @Test
+    @Category(org.iot.auth.util.HashedTimingWheel.class)
+    public void testHashedTimingWheel() throws InterruptedException {
+        assumeDefaultStore();
+        // 8 slots of 10 ms, so a delay of 200 ms takes more than two rounds.
+        HashedTimingWheel wheel = new HashedTimingWheel("TestTimingWheel", 10, 8);
+        wheel.start();
+        try {
+            CountDownLatch expired = new CountDownLatch(3);
+            long startTime = System.nanoTime();
+            long[] expiredTimes = new long[3];
+            // Scheduled first, so that it is due before the 30 ms timeout however slowly this thread runs.
+            wheel.schedule(() -> {
+                expiredTimes[2] = System.nanoTime() - startTime;
+                expired.countDown();
+            }, 0);
+            HashedTimingWheel.Timeout shortTimeout = wheel.schedule(() -> {
+                expiredTimes[0] = System.nanoTime() - startTime;
+                expired.countDown();
+            }, 30);
+            wheel.schedule(() -> {
+                expiredTimes[1] = System.nanoTime() - startTime;
+                expired.countDown();
+            }, 200);
+            HashedTimingWheel.Timeout cancelledTimeout = wheel.schedule(() -> Assert.fail("Cancelled task must not run."), 50);
+            Assert.assertTrue(cancelledTimeout.cancel());
+            Assert.assertFalse(cancelledTimeout.cancel());
+            Assert.assertTrue(cancelledTimeout.isCancelled());
+
+            Assert.assertTrue(expired.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(expiredTimes[0] >= TimeUnit.MILLISECONDS.toNanos(30));
+            Assert.assertTrue(expiredTimes[1] >= TimeUnit.MILLISECONDS.toNanos(200));
+            Assert.assertTrue(expiredTimes[2] < expiredTimes[0]);
+            Assert.assertTrue(shortTimeout.isExpired());
+            Assert.assertFalse(shortTimeout.cancel());
+
+            long waitDeadline = System.currentTimeMillis() + 5000;
+            while (wheel.getNumPendingTimeouts() > 0 && System.currentTimeMillis() < waitDeadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(0, wheel.getNumPendingTimeouts());
+            Assert.assertEquals(3, wheel.getNumExpiredTimeouts());
+            Assert.assertEquals(1, wheel.getNumCancelledTimeouts());
+        }
+        finally {
+            wheel.stop();
+        }
+        HashedTimingWheel.Timeout timeoutAfterStop = wheel.schedule(() -> Assert.fail("Wheel is stopped."), 0);
+        Thread.sleep(50);
+        Assert.assertFalse(timeoutAfterStop.isExpired());
+    }
+
+    /**
+     * Decodes messages that arrive a byte at a time or in chunks spanning two messages, and rejects a message
+     * larger than the maximum size as soon as its header is read.
+     */
+    @Test
+    @Category(org.iot.auth.message.IoTSPMessageDecoder.class)
+    public void testIoTSPMessageDecoder() throws IOException {
+        assumeDefaultStore();
+        byte[] first = createIoTSPMessage(MessageType.SESSION_KEY_REQ, 300);
+        byte[] second = createIoTSPMessage(MessageType.SESSION_KEY_REQ_IN_PUB_ENC, 5);
+        byte[] stream = new byte[first.length + second.length];
+        System.arraycopy(first, 0, stream, 0, first.length);
+        System.arraycopy(second, 0, stream, first.length, second.length);
+
+        // One byte per read, as from a slow client.
+        InputStream slowStream = new FilterInputStream(new ByteArrayInputStream(stream)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+        IoTSPMessageDecoder decoder = new IoTSPMessageDecoder();
+        int numReads = 0;
+        while (!decoder.isMessageComplete()) {
+            Assert.assertEquals(1, decoder.read(slowStream));
+            numReads++;
+        }
+        Assert.assertEquals(first.length, numReads);
+        Assert.assertEquals(0, decoder.read(slowStream));
+        Assert.assertArrayEquals(first, decoder.getMessage());
+        decoder.reset();
+        Assert.assertTrue(decoder.readMessage(slowStream));
+        Assert.assertEquals(MessageType.SESSION_KEY_REQ_IN_PUB_ENC, decoder.getMessageType());
+        Assert.assertArrayEquals(second, decoder.getMessage());
+        decoder.reset();
+        Assert.assertFalse(decoder.readMessage(slowStream));
+
+        // Chunks that split the header of the first message and span both messages.
+        decoder.reset();
+        int consumed = decoder.append(stream, 0, 2);
+        Assert.assertEquals(2, consumed);
+        Assert.assertFalse(decoder.isMessageComplete());
+        consumed += decoder.append(stream, consumed, stream.length - consumed);
+        Assert.assertEquals(first.length, consumed);
+        Assert.assertArrayEquals(first, decoder.getMessage());
+        decoder.reset();
+        Assert.assertEquals(second.length, decoder.append(stream, consumed, stream.length - consumed));
+        Assert.assertArrayEquals(second, decoder.getMessage());
+
+        decoder = new IoTSPMessageDecoder(first.length - 1);
+        ByteArrayInputStream oversizeStream = new ByteArrayInputStream(first);
+        try {
+            decoder.readMessage(oversizeStream);
+            Assert.fail("A message larger than the maximum message size must be rejected.");
+        }
+        catch (IOException e) {
+            // Rejected from the header, before any of the payload is read.
+            Assert.assertEquals(300, oversizeStream.available());
+        }
+    }
+
+    @After
+    public void deleteDB() {
+        deleteStoreFiles(dbPath);
+    }
+
     public void testDBCreateion() throws SQLException, ClassNotFoundException, IOException {
-        File file = new File(dbPath);
-        file.delete();
-        SQLiteConnector sqLiteConnector = new SQLiteConnector(dbPath, authDBProtectionMethod);
+        deleteStoreFiles(dbPath);
+        AuthStore authStore = createAuthStore(dbPath);
         databaseKey = new SymmetricKey(
                 SQLiteConnector.AUTH_DB_CRYPTO_SPEC,
                 new Date().getTime() +
                         DateHelper.parseTimePeriod(SQLiteConnector.AUTH_DB_KEY_ABSOLUTE_VALIDITY)
         );
-        sqLiteConnector.initialize(databaseKey);
-        sqLiteConnector.DEBUG = true;
-        sqLiteConnector.createTablesIfNotExists();
-        sqLiteConnector.close();
+        authStore.initialize(databaseKey);
+        authStore.createTablesIfNotExists();
+        authStore.close();
         dbCreated = true;
     }
 
@@ -123,9 +301,8 @@ public class AppTest {
         if (!dbCreated) {
             testDBCreateion();
         }
-        SQLiteConnector sqLiteConnector = new SQLiteConnector(dbPath, authDBProtectionMethod);
-        sqLiteConnector.initialize(databaseKey);
-        sqLiteConnector.DEBUG = true;
+        AuthStore authStore = createAuthStore(dbPath);
+        authStore.initialize(databaseKey);
         RegisteredEntityTable regEntity = new RegisteredEntityTable();
         regEntity.setName("net1.client");
         regEntity.setGroup("Clients");
@@ -140,7 +317,7 @@ public class AppTest {
         regEntity.setActive(true);
         regEntity.setBackupToAuthIDs("102,103");
         regEntity.setBackupFromAuthID(-1);
-        sqLiteConnector.insertRecords(regEntity);
+        authStore.insertRecords(regEntity);
 
         regEntity.setName("net1.ptClient");
         regEntity.setGroup("PtClients");
@@ -155,7 +332,7 @@ public class AppTest {
         regEntity.setActive(true);
         regEntity.setBackupToAuthIDs("102");
         regEntity.setBackupFromAuthID(-1);
-        sqLiteConnector.insertRecords(regEntity);
+        authStore.insertRecords(regEntity);
 
         regEntity.setName("net1.server");
         regEntity.setGroup("Servers");
@@ -170,7 +347,7 @@ public class AppTest {
         regEntity.setActive(true);
         regEntity.setBackupToAuthIDs("102,103");
         regEntity.setBackupFromAuthID(-1);
-        sqLiteConnector.insertRecords(regEntity);
+        authStore.insertRecords(regEntity);
 
         regEntity.setName("net1.ptServer");
         regEntity.setGroup("PtServers");
@@ -185,9 +362,9 @@ public class AppTest {
         regEntity.setActive(true);
         regEntity.setBackupToAuthIDs("102");
         regEntity.setBackupFromAuthID(-1);
-        sqLiteConnector.insertRecords(regEntity);
+        authStore.insertRecords(regEntity);
 
-        sqLiteConnector.close();
+        authStore.close();
         regEntityInserted = true;
     }
 
@@ -195,9 +372,8 @@ public class AppTest {
         if (!dbCreated) {
             testDBCreateion();
         }
-        SQLiteConnector sqLiteConnector = new SQLiteConnector(dbPath, authDBProtectionMethod);
-        sqLiteConnector.initialize(databaseKey);
-        sqLiteConnector.DEBUG = true;
+        AuthStore authStore = createAuthStore(dbPath);
+        authStore.initialize(databaseKey);
         CommunicationPolicyTable communicationPolicyTable = new CommunicationPolicyTable();
 
         communicationPolicyTable.setReqGroup("Clients");
@@ -207,7 +383,7 @@ public class AppTest {
         communicationPolicyTable.setSessionCryptoSpec("AES-128-CBC:SHA256");
         communicationPolicyTable.setAbsValidityStr("1*day");
         communicationPolicyTable.setRelValidityStr("20*sec");
-        sqLiteConnector.insertRecords(communicationPolicyTable);
+        authStore.insertRecords(communicationPolicyTable);
 
         communicationPolicyTable.setReqGroup("Clients");
         communicationPolicyTable.setTargetTypeVal("Group");
@@ -216,7 +392,7 @@ public class AppTest {
         communicationPolicyTable.setSessionCryptoSpec("AES-128-CBC:SHA256");
         communicationPolicyTable.setAbsValidityStr("1*hour");
         communicationPolicyTable.setRelValidityStr("20*sec");
-        sqLiteConnector.insertRecords(communicationPolicyTable);
+        authStore.insertRecords(communicationPolicyTable);
 
         communicationPolicyTable.setReqGroup("PtClients");
         communicationPolicyTable.setTargetTypeVal("Group");
@@ -225,7 +401,7 @@ public class AppTest {
         communicationPolicyTable.setSessionCryptoSpec("AES-128-CBC:SHA256");
         communicationPolicyTable.setAbsValidityStr("1*day");
         communicationPolicyTable.setRelValidityStr("2*hour");
-        sqLiteConnector.insertRecords(communicationPolicyTable);
+        authStore.insertRecords(communicationPolicyTable);
 
         communicationPolicyTable.setReqGroup("PtClients");
         communicationPolicyTable.setTargetTypeVal("Group");
@@ -234,7 +410,7 @@ public class AppTest {
         communicationPolicyTable.setSessionCryptoSpec("AES-128-CBC:SHA256");
         communicationPolicyTable.setAbsValidityStr("2*hour");
         communicationPolicyTable.setRelValidityStr("20*sec");
-        sqLiteConnector.insertRecords(communicationPolicyTable);
+        authStore.insertRecords(communicationPolicyTable);
 
         communicationPolicyTable.setReqGroup("Clients");
         communicationPolicyTable.setTargetTypeVal("PubTopic");
@@ -243,7 +419,7 @@ public class AppTest {
         communicationPolicyTable.setSessionCryptoSpec("AES-128-CBC:SHA256");
         communicationPolicyTable.setAbsValidityStr("6*hour");
         communicationPolicyTable.setRelValidityStr("3*hour");
-        sqLiteConnector.insertRecords(communicationPolicyTable);
+        authStore.insertRecords(communicationPolicyTable);
 
         communicationPolicyTable.setReqGroup("Servers");
         communicationPolicyTable.setTargetTypeVal("SubTopic");
@@ -252,7 +428,7 @@ public class AppTest {
         communicationPolicyTable.setSessionCryptoSpec("AES-128-CBC:SHA256");
         communicationPolicyTable.setAbsValidityStr("6*hour");
         communicationPolicyTable.setRelValidityStr("3*hour");
-        sqLiteConnector.insertRecords(communicationPolicyTable);
+        authStore.insertRecords(communicationPolicyTable);
 
         communicationPolicyTable.setReqGroup("Clients");
         communicationPolicyTable.setTargetTypeVal("SubTopic");
@@ -261,7 +437,7 @@ public class AppTest {
         communicationPolicyTable.setSessionCryptoSpec("AES-128-CBC:SHA256");
         communicationPolicyTable.setAbsValidityStr("6*hour");
         communicationPolicyTable.setRelValidityStr("3*hour");
-        sqLiteConnector.insertRecords(communicationPolicyTable);
+        authStore.insertRecords(communicationPolicyTable);
 
         communicationPolicyTable.setReqGroup("Servers");
         communicationPolicyTable.setTargetTypeVal("PubTopic");
@@ -270,8 +446,8 @@ public class AppTest {
         communicationPolicyTable.setSessionCryptoSpec("AES-128-CBC:SHA256");
         communicationPolicyTable.setAbsValidityStr("6*hour");
         communicationPolicyTable.setRelValidityStr("3*hour");
-        sqLiteConnector.insertRecords(communicationPolicyTable);
-        sqLiteConnector.close();
+        authStore.insertRecords(communicationPolicyTable);
+        authStore.close();
         commPolicyInserted = true;
     }
 
@@ -281,9 +457,8 @@ public class AppTest {
         if (!dbCreated) {
             testDBCreateion();
         }
-        SQLiteConnector sqLiteConnector = new SQLiteConnector(dbPath, authDBProtectionMethod);
-        sqLiteConnector.initialize(databaseKey);
-        sqLiteConnector.DEBUG = true;
+        AuthStore authStore = createAuthStore(dbPath);
+        authStore.initialize(databaseKey);
         TrustedAuthTable trustedAuth = new TrustedAuthTable();
         trustedAuth.setId(102);
         trustedAuth.setHost("localhost");
@@ -294,50 +469,1145 @@ public class AppTest {
                 AuthCrypto.loadCertificateFromFile(authDBDir + "trusted_auth_certs/Auth102EntityCert.pem"));
         trustedAuth.setHeartbeatPeriod(3);
         trustedAuth.setFailureThreshold(4);
-        sqLiteConnector.insertRecords(trustedAuth);
-        sqLiteConnector.close();
+        authStore.insertRecords(trustedAuth);
+        authStore.close();
         trustedAuthInserted = true;
     }
 
     @Test
-    @Category(org.iot.auth.db.dao.SQLiteConnector.class)
+    @Category(org.iot.auth.db.dao.AuthStore.class)
     public void testSelectAllCommPolicies() throws SQLException, ClassNotFoundException, IOException {
         if (!commPolicyInserted) {
             testCommPolicyInsertion();
         }
-        SQLiteConnector sqLiteConnector = new SQLiteConnector(dbPath, authDBProtectionMethod);
-        sqLiteConnector.initialize(databaseKey);
-        sqLiteConnector.DEBUG = true;
-        sqLiteConnector.selectAllPolicies();
-        sqLiteConnector.close();
+        AuthStore authStore = createAuthStore(dbPath);
+        authStore.initialize(databaseKey);
+        authStore.selectAllPolicies();
+        authStore.close();
     }
 
     @Test
-    @Category(org.iot.auth.db.dao.SQLiteConnector.class)
+    @Category(org.iot.auth.db.dao.AuthStore.class)
     public void testSelectAllRegEntities() throws SQLException, ClassNotFoundException, IOException {
         if (!regEntityInserted) {
             testRegEntityInsertion();
         }
-        SQLiteConnector sqLiteConnector = new SQLiteConnector(dbPath, authDBProtectionMethod);
-        sqLiteConnector.initialize(databaseKey);
-        sqLiteConnector.DEBUG = true;
+        AuthStore authStore = createAuthStore(dbPath);
+        authStore.initialize(databaseKey);
         C.PROPERTIES = new AuthServerProperties("../properties/exampleAuth101.properties", null);
-        sqLiteConnector.selectAllRegEntities("../databases/auth101");
-        sqLiteConnector.close();
+        authStore.selectAllRegEntities("../databases/auth101");
+        authStore.close();
     }
 
     @Test
-    @Category(org.iot.auth.db.dao.SQLiteConnector.class)
+    @Category(org.iot.auth.db.dao.AuthStore.class)
     public void testSelectAllTrustedAuth() throws SQLException, ClassNotFoundException, CertificateEncodingException,
             IOException
     {
         if (!trustedAuthInserted) {
             testTrustedAuthInsertion();
         }
-        SQLiteConnector sqLiteConnector = new SQLiteConnector(dbPath, authDBProtectionMethod);
-        sqLiteConnector.initialize(databaseKey);
+        AuthStore authStore = createAuthStore(dbPath);
+        authStore.initialize(databaseKey);
+        authStore.selectAllTrustedAuth();
+        authStore.close();
+    }
+
+    @Test
+    @Category(org.iot.auth.crypto.SymmetricKey.class)
+    public void testStreamingEncryptDecryptCompatibility() throws Exception {
+        assumeDefaultStore();
+        SymmetricKey key = new SymmetricKey(SQLiteConnector.AUTH_DB_CRYPTO_SPEC,
+                new Date().getTime() + DateHelper.parseTimePeriod(SQLiteConnector.AUTH_DB_KEY_ABSOLUTE_VALIDITY));
+        Buffer plain = AuthCrypto.getRandomBytes(100000);
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        key.encryptAuthenticate(new ByteArrayInputStream(plain.getRawBytes()), encrypted);
+        Assert.assertArrayEquals(plain.getRawBytes(), key.decryptVerify(new Buffer(encrypted.toByteArray())).getRawBytes());
+
+        File encryptedFile = File.createTempFile("auth_db", ".enc");
+        try {
+            Files.write(encryptedFile.toPath(), key.encryptAuthenticate(plain).getRawBytes());
+            ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+            try (FileChannel in = FileChannel.open(encryptedFile.toPath(), StandardOpenOption.READ)) {
+                key.decryptVerify(in, decrypted);
+            }
+            Assert.assertArrayEquals(plain.getRawBytes(), decrypted.toByteArray());
+
+            byte[] tampered = encrypted.toByteArray();
+            tampered[tampered.length / 2] ^= 1;
+            Files.write(encryptedFile.toPath(), tampered);
+            decrypted.reset();
+            try (FileChannel in = FileChannel.open(encryptedFile.toPath(), StandardOpenOption.READ)) {
+                key.decryptVerify(in, decrypted);
+                Assert.fail("Tampered input must not be decrypted.");
+            }
+            catch (InvalidMacException e) {
+                Assert.assertEquals(0, decrypted.size());
+            }
+        }
+        finally {
+            encryptedFile.delete();
+        }
+    }
+
+    /**
+     * Round-trips a 1 GB synthetic Auth DB through streaming encryption and decryption, which must succeed under
+     * the small heap given by the large-db-tests profile (see pom.xml).
+     */
+    @Test
+    @Category({org.iot.auth.crypto.SymmetricKey.class, LargeAuthDBTests.class})
+    public void testStreamingEncryptDecryptLargeDB() throws Exception {
+        assumeDefaultStore();
+        SymmetricKey key = new SymmetricKey(SQLiteConnector.AUTH_DB_CRYPTO_SPEC,
+                new Date().getTime() + DateHelper.parseTimePeriod(SQLiteConnector.AUTH_DB_KEY_ABSOLUTE_VALIDITY));
+        File plainFile = File.createTempFile("synthetic_auth", ".db");
+        File encryptedFile = File.createTempFile("synthetic_auth", ".db.enc");
+        try {
+            MessageDigest plainDigest = MessageDigest.getInstance("SHA-256");
+            try (OutputStream out = new DigestOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(plainFile)), plainDigest)) {
+                Random random = new Random(STREAMING_DB_SIZE);
+                byte[] block = new byte[64 * 1024];
+                for (long written = 0; written < STREAMING_DB_SIZE; written += block.length) {
+                    random.nextBytes(block);
+                    out.write(block);
+                }
+            }
+            try (InputStream in = new BufferedInputStream(new FileInputStream(plainFile));
+                 OutputStream out = new BufferedOutputStream(new FileOutputStream(encryptedFile))) {
+                key.encryptAuthenticate(in, out);
+            }
+            plainFile.delete();
+            logger.info("Encrypted synthetic Auth DB of {} bytes into {} bytes", STREAMING_DB_SIZE,
+                    encryptedFile.length());
+
+            MessageDigest decryptedDigest = MessageDigest.getInstance("SHA-256");
+            OutputStream discard = new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+                @Override
+                public void write(byte[] b, int off, int len) {
+                }
+            };
+            try (FileChannel in = FileChannel.open(encryptedFile.toPath(), StandardOpenOption.READ);
+                 OutputStream out = new DigestOutputStream(discard, decryptedDigest)) {
+                key.decryptVerify(in, out);
+            }
+            Assert.assertArrayEquals(plainDigest.digest(), decryptedDigest.digest());
+        }
+        finally {
+            plainFile.delete();
+            encryptedFile.delete();
+        }
+    }
+
+    /**
+     * Checkpoints an Auth DB kept in memory while another thread keeps writing to it, then reopens it from the
+     * encrypted chunk store.
+     */
+    @Test
+    @Category(org.iot.auth.db.dao.SQLiteConnector.class)
+    public void testInMemoryAuthDBCheckpoint() throws Exception {
+        assumeDefaultStore();
+        String path = createStorePath();
+        SymmetricKey databaseKey = new SymmetricKey(SQLiteConnector.AUTH_DB_CRYPTO_SPEC,
+                new Date().getTime() + DateHelper.parseTimePeriod(SQLiteConnector.AUTH_DB_KEY_ABSOLUTE_VALIDITY));
+        try {
+            SQLiteConnector sqLiteConnector = new SQLiteConnector(path, AuthDBProtectionMethod.ENCRYPT_ENTIRE_DB);
+            sqLiteConnector.initialize(databaseKey);
+            sqLiteConnector.createTablesIfNotExists();
+            sqLiteConnector.upgradeSchemaIfNeeded();
+            Assert.assertTrue(sqLiteConnector.checkpoint() > 0);
+            String key = MetaDataTable.key.SessionKeyIDLimit.name();
+            MetaDataTable metaData = new MetaDataTable();
+            metaData.setKey(key);
+            metaData.setValue("0");
+            sqLiteConnector.insertRecords(metaData);
+            CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+                try {
+                    for (int i = 1; i <= 200; i++) {
+                        sqLiteConnector.updateMetaData(key, Integer.toString(i));
+                    }
+                }
+                catch (SQLException | ClassNotFoundException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            while (!writer.isDone()) {
+                sqLiteConnector.checkpoint();
+            }
+            writer.get();
+            sqLiteConnector.close();
+            File[] plainFiles = new File(path).getAbsoluteFile().getParentFile().listFiles(
+                    (dir, name) -> name.matches(Pattern.quote(new File(path).getName()) + "[0-9a-f]{8}"));
+            Assert.assertEquals(0, plainFiles.length);
+
+            SQLiteConnector reopened = new SQLiteConnector(path, AuthDBProtectionMethod.ENCRYPT_ENTIRE_DB);
+            reopened.initialize(databaseKey);
+            Assert.assertEquals("200", reopened.selectMetaDataValue(key));
+            // Nothing is written until a row changes.
+            Assert.assertEquals(0, reopened.checkpoint());
+            reopened.updateMetaData(key, "201");
+            Assert.assertTrue(reopened.checkpoint() > 0);
+            Assert.assertEquals(0, reopened.checkpoint());
+            reopened.close();
+        }
+        finally {
+            for (String suffix: Arrays.asList("", ".manifest", ".journal")) {
+                new File(path + suffix).delete();
+            }
+        }
+    }
+
+    /**
+     * Leaves a complete journal behind by failing a checkpoint after the journal is synced, and checks that recovery
+     * replays it, that a torn journal is discarded, and that plaintext copies of the DB left by a crash of earlier
+     * versions are deleted.
+     */
+    @Test
+    @Category(org.iot.auth.db.dao.EncryptedChunkStore.class)
+    public void testEncryptedChunkStoreRecovery() throws Exception {
+        assumeDefaultStore();
+        String path = createStorePath();
+        File manifestTempFile = new File(path + ".manifest.tmp");
+        byte[] chunkKeyVal = AuthCrypto.getRandomBytes(16).getRawBytes();
+        int chunkSize = 1024;
+        Random random = new Random(0);
+        try {
+            byte[] oldDB = new byte[chunkSize * 4 + 100];
+            random.nextBytes(oldDB);
+            EncryptedChunkStore chunkStore = new EncryptedChunkStore(path, chunkKeyVal, chunkSize);
+            chunkStore.recover();
+            Assert.assertEquals(5, chunkStore.checkpoint(oldDB));
+            byte[] oldData = Files.readAllBytes(new File(path).toPath());
+            byte[] oldManifest = Files.readAllBytes(new File(path + ".manifest").toPath());
+
+            byte[] newDB = Arrays.copyOf(oldDB, chunkSize * 5 + 10);
+            newDB[chunkSize + 1] ^= 1;
+            Assert.assertTrue(manifestTempFile.mkdir());
+            try {
+                chunkStore.checkpoint(newDB);
+                Assert.fail("Checkpoint must fail when the manifest cannot be written.");
+            }
+            catch (IOException e) {
+                Assert.assertTrue(new File(path + ".journal").exists());
+            }
+            byte[] journal = Files.readAllBytes(new File(path + ".journal").toPath());
+            File strayPlainFile = new File(path + "0123abcd");
+            Files.write(strayPlainFile.toPath(), newDB);
+
+            // A complete journal is replayed, over chunks already overwritten in place.
+            chunkStore = new EncryptedChunkStore(path, chunkKeyVal, chunkSize);
+            chunkStore.recover();
+            Assert.assertFalse(new File(path + ".journal").exists());
+            Assert.assertFalse(manifestTempFile.exists());
+            Assert.assertFalse(strayPlainFile.exists());
+            Assert.assertArrayEquals(newDB, chunkStore.read());
+            Assert.assertEquals(0, chunkStore.checkpoint(newDB));
+
+            // A journal torn by a crash while it was written is discarded, leaving the last completed checkpoint.
+            Files.write(new File(path).toPath(), oldData);
+            Files.write(new File(path + ".manifest").toPath(), oldManifest);
+            Files.write(new File(path + ".journal").toPath(), Arrays.copyOf(journal, journal.length - 1));
+            chunkStore = new EncryptedChunkStore(path, chunkKeyVal, chunkSize);
+            chunkStore.recover();
+            Assert.assertFalse(new File(path + ".journal").exists());
+            Assert.assertArrayEquals(oldDB, chunkStore.read());
+        }
+        finally {
+            for (String suffix: Arrays.asList("", ".manifest", ".manifest.tmp", ".journal", ".tmp", "0123abcd")) {
+                new File(path + suffix).delete();
+            }
+        }
+    }
+
+    /**
+     * Uses two symmetric keys from many threads at once, which share pooled Cipher and Mac instances, so that a
+     * primitive initialized with one key must never be used for the other key or by two threads at once.
+     */
+    @Test
+    @Category(org.iot.auth.crypto.CryptoPrimitivePool.class)
+    public void testConcurrentSymmetricKeyCrypto() throws Exception {
+        assumeDefaultStore();
+        long expirationTime = new Date().getTime() +
+                DateHelper.parseTimePeriod(SQLiteConnector.AUTH_DB_KEY_ABSOLUTE_VALIDITY);
+        SymmetricKey[] keys = {
+                new SymmetricKey(SQLiteConnector.AUTH_DB_CRYPTO_SPEC, expirationTime),
+                new SymmetricKey(SQLiteConnector.AUTH_DB_CRYPTO_SPEC, expirationTime)
+        };
+        List<Thread> threadList = new ArrayList<>();
+        List<Throwable> failureList = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int j = 0; j < 500; j++) {
+                        SymmetricKey key = keys[j % 2];
+                        Buffer plain = AuthCrypto.getRandomBytes(1 + j % 100);
+                        Buffer encrypted = key.encryptAuthenticate(plain);
+                        Assert.assertArrayEquals(plain.getRawBytes(), key.decryptVerify(encrypted).getRawBytes());
+                        Buffer authenticated = key.authenticateAttachMac(plain);
+                        Assert.assertArrayEquals(plain.getRawBytes(), key.verifyMacExtractData(authenticated).getRawBytes());
+                        try {
+                            keys[(j + 1) % 2].decryptVerify(encrypted);
+                            Assert.fail("Data encrypted with one key must not be verified with the other key.");
+                        }
+                        catch (InvalidMacException e) {
+                            // expected
+                        }
+                    }
+                }
+                catch (Throwable e) {
+                    failureList.add(e);
+                }
+            });
+            thread.start();
+            threadList.add(thread);
+        }
+        for (Thread thread : threadList) {
+            thread.join();
+        }
+        Assert.assertEquals(failureList.toString(), 0, failureList.size());
+    }
+
+    /**
+     * Takes nonces from the ring buffer of random bytes while it is refilled in the background, and falls back to
+     * DRBG instances when the ring buffer runs out, without giving out the same bytes twice.
+     */
+    @Test
+    @Category(org.iot.auth.crypto.AuthRandom.class)
+    public void testRandomBuffer() throws Exception {
+        assumeDefaultStore();
+        AuthRandom.enableBuffer(256);
+        try {
+            Set<String> nonceSet = new HashSet<>();
+            for (int i = 0; i < 10000; i++) {
+                Buffer nonce = AuthCrypto.getRandomBytes(16);
+                Assert.assertEquals(16, nonce.length());
+                Assert.assertTrue("Duplicate nonce " + nonce, nonceSet.add(nonce.toConsecutiveHexString()));
+            }
+            // larger than the ring buffer serves
+            Assert.assertEquals(1024, AuthRandom.getRandomBytes(1024).length());
+        }
+        finally {
+            AuthRandom.disableBuffer();
+        }
+    }
+
+    /**
+     * Generates key values as random bytes of the key sizes of crypto specs, and rejects specs whose keys cannot be
+     * generated, before any key is used.
+     */
+    @Test
+    @Category(org.iot.auth.crypto.SymmetricKey.class)
+    public void testSymmetricKeyGeneration() throws Exception {
+        assumeDefaultStore();
+        long expirationTime = new Date().getTime() + 3600000;
+        for (String specString: Arrays.asList("AES-128-CBC:SHA256", "AES-192-CBC:SHA256", "AES-256-CBC:SHA256")) {
+            SymmetricKeyCryptoSpec cryptoSpec = SymmetricKeyCryptoSpec.fromSpecString(specString);
+            SymmetricKey key = new SymmetricKey(cryptoSpec, expirationTime);
+            Assert.assertEquals(cryptoSpec.getCipherKeySize(), key.getCipherKeyVal().length());
+            Assert.assertEquals(cryptoSpec.getMacKeySize(), key.getMacKeyVal().length());
+            Buffer plain = AuthCrypto.getRandomBytes(100);
+            Assert.assertArrayEquals(plain.getRawBytes(), key.decryptVerify(key.encryptAuthenticate(plain)).getRawBytes());
+        }
+        for (SymmetricKeyCryptoSpec cryptoSpec: Arrays.asList(
+                new SymmetricKeyCryptoSpec("AES/CBC/PKCS5Padding", 20, "HmacSHA256"),
+                new SymmetricKeyCryptoSpec("NoSuchCipher/CBC/PKCS5Padding", 16, "HmacSHA256"))) {
+            try {
+                new SymmetricKey(cryptoSpec, expirationTime);
+                Assert.fail("Key of unsupported crypto spec must not be generated: " + cryptoSpec);
+            }
+            catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Derives distribution keys with ephemeral key pairs taken from the pool, where each key pair is given out once
+     * and the derived key matches the one derived on the entity's side.
+     */
+    @Test
+    @Category(org.iot.auth.crypto.EphemeralKeyPairPool.class)
+    public void testEphemeralKeyPairPool() throws Exception {
+        assumeDefaultStore();
+        SymmetricKeyCryptoSpec distCryptoSpec = SymmetricKeyCryptoSpec.fromSpecString("AES-128-CBC:SHA256");
+        EphemeralKeyPairPool ephemeralKeyPairPool = new EphemeralKeyPairPool(2, 8);
+        try {
+            Set<String> publicKeySet = new HashSet<>();
+            for (int i = 0; i < 10; i++) {
+                KeyPair authKeyPair = ephemeralKeyPairPool.take(DistributionDiffieHellman.KEY_PAIR_ALGORITHM,
+                        DistributionDiffieHellman.KEY_SIZE);
+                Assert.assertTrue("Key pair given out twice",
+                        publicKeySet.add(new Buffer(authKeyPair.getPublic().getEncoded()).toConsecutiveHexString()));
+
+                KeyPair entityKeyPair = DistributionDiffieHellman.generateKeyPair(
+                        DistributionDiffieHellman.KEY_PAIR_ALGORITHM, DistributionDiffieHellman.KEY_SIZE);
+                Buffer entityParam = new Buffer(SubjectPublicKeyInfo.getInstance(
+                        entityKeyPair.getPublic().getEncoded()).getPublicKeyData().getOctets());
+                DistributionKey distributionKey = new DistributionDiffieHellman(distCryptoSpec,
+                        DistributionDiffieHellman.KEY_AGREEMENT_ALGORITHM, authKeyPair, 60000)
+                        .deriveDistributionKey(entityParam);
+
+                KeyAgreement keyAgreement = KeyAgreement.getInstance(DistributionDiffieHellman.KEY_AGREEMENT_ALGORITHM);
+                keyAgreement.init(entityKeyPair.getPrivate());
+                keyAgreement.doPhase(authKeyPair.getPublic(), true);
+                Buffer sharedSecret = new Buffer(keyAgreement.generateSecret());
+                Assert.assertArrayEquals(sharedSecret.slice(0, distCryptoSpec.getCipherKeySize()).getRawBytes(),
+                        distributionKey.getCipherKeyVal().getRawBytes());
+            }
+        }
+        finally {
+            ephemeralKeyPairPool.shutdown();
+        }
+    }
+
+    /**
+     * Verifies signatures of a registered entity with its cached public key and verifier, where a changed public key
+     * of the entity and a reload of registered entities are never served from the cache.
+     */
+    @Test
+    @Category(org.iot.auth.crypto.EntityKeyCache.class)
+    public void testEntityKeyCache() throws Exception {
+        assumeDefaultStore();
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(1024);
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        KeyPair newKeyPair = keyPairGenerator.generateKeyPair();
+        Buffer data = AuthCrypto.getRandomBytes(100);
+        Signature signer = Signature.getInstance("SHA256withRSA");
+        signer.initSign(keyPair.getPrivate());
+        signer.update(data.getRawBytes());
+        Buffer signature = new Buffer(signer.sign());
+
+        String entityName = "net1.cachedEntity";
+        RegisteredEntityTable regEntity = createRegisteredEntity(entityName, -1)
+                .setUsePermanentDistKey(false)
+                .setPublicKeyCryptoSpec("RSA-SHA256")
+                .setPublicKey(keyPair.getPublic());
+        PublicKey publicKey = new RegisteredEntity(regEntity).getPublicKey();
+        long publicKeyHits = EntityKeyCache.getNumPublicKeyHits();
+        Assert.assertSame(publicKey, new RegisteredEntity(regEntity).getPublicKey());
+        Assert.assertEquals(publicKeyHits + 1, EntityKeyCache.getNumPublicKeyHits());
+
+        long verifierHits = EntityKeyCache.getNumVerifierHits();
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(EntityKeyCache.verify(entityName, publicKey, "SHA256withRSA", data, signature));
+            Buffer tampered = data.slice(0, data.length() - 1);
+            Assert.assertFalse(EntityKeyCache.verify(entityName, publicKey, "SHA256withRSA", tampered, signature));
+        }
+        Assert.assertEquals(verifierHits + 5, EntityKeyCache.getNumVerifierHits());
+
+        // The entity registered again with a new public key.
+        regEntity.setPublicKey(newKeyPair.getPublic());
+        PublicKey newPublicKey = new RegisteredEntity(regEntity).getPublicKey();
+        Assert.assertEquals(newKeyPair.getPublic(), newPublicKey);
+        Assert.assertFalse(EntityKeyCache.verify(entityName, newPublicKey, "SHA256withRSA", data, signature));
+
+        EntityKeyCache.invalidateAll();
+        long publicKeyMisses = EntityKeyCache.getNumPublicKeyMisses();
+        new RegisteredEntity(regEntity).getPublicKey();
+        Assert.assertEquals(publicKeyMisses + 1, EntityKeyCache.getNumPublicKeyMisses());
+    }
+
+    /**
+     * Executes asymmetric crypto operations by a single worker, where queued operations of later steps of handshakes
+     * run first, and failures are reported through the futures.
+     */
+    @Test
+    @Category(org.iot.auth.crypto.AsymmetricCryptoExecutor.class)
+    public void testAsymmetricCryptoExecutor() throws Exception {
+        assumeDefaultStore();
+        AsymmetricCryptoExecutor executor = new AsymmetricCryptoExecutor(1,
+                AsymmetricCryptoExecutor.getProvider("BC"));
+        try {
+            CountDownLatch workerBlocked = new CountDownLatch(1);
+            CountDownLatch workerReleased = new CountDownLatch(1);
+            executor.submit(AsymmetricCryptoExecutor.Operation.PRIVATE_DECRYPT, () -> {
+                workerBlocked.countDown();
+                return workerReleased.await(10, TimeUnit.SECONDS);
+            });
+            workerBlocked.await();
+            List<String> executionOrder = Collections.synchronizedList(new ArrayList<String>());
+            List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+            AsymmetricCryptoExecutor.Operation[] operations = {
+                    AsymmetricCryptoExecutor.Operation.PRIVATE_DECRYPT, AsymmetricCryptoExecutor.Operation.VERIFY,
+                    AsymmetricCryptoExecutor.Operation.PRIVATE_DECRYPT, AsymmetricCryptoExecutor.Operation.SIGN,
+                    AsymmetricCryptoExecutor.Operation.PUBLIC_ENCRYPT};
+            for (int i = 0; i < operations.length; i++) {
+                String name = operations[i] + " " + i;
+                futures.add(executor.submit(operations[i], () -> executionOrder.add(name)));
+            }
+            workerReleased.countDown();
+            for (CompletableFuture<Boolean> future : futures) {
+                Assert.assertTrue(future.get(10, TimeUnit.SECONDS));
+            }
+            Assert.assertEquals(Arrays.asList("SIGN 3", "PUBLIC_ENCRYPT 4", "VERIFY 1", "PRIVATE_DECRYPT 0",
+                    "PRIVATE_DECRYPT 2"), executionOrder);
+
+            KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+            keyPairGenerator.initialize(1024);
+            KeyPair keyPair = keyPairGenerator.generateKeyPair();
+            Buffer plainText = AuthCrypto.getRandomBytes(32);
+            Buffer cipherText = executor.submit(AsymmetricCryptoExecutor.Operation.PUBLIC_ENCRYPT, () -> {
+                Cipher cipher = executor.getCiphers().borrow("RSA/ECB/PKCS1PADDING");
+                try {
+                    cipher.init(Cipher.ENCRYPT_MODE, keyPair.getPublic());
+                    return new Buffer(cipher.doFinal(plainText.getRawBytes()));
+                }
+                finally {
+                    executor.getCiphers().release("RSA/ECB/PKCS1PADDING", cipher);
+                }
+            }).get(10, TimeUnit.SECONDS);
+            Assert.assertArrayEquals(plainText.getRawBytes(),
+                    AuthCrypto.privateDecrypt(cipherText, keyPair.getPrivate(), "RSA/ECB/PKCS1PADDING").getRawBytes());
+
+            try {
+                executor.submit(AsymmetricCryptoExecutor.Operation.PRIVATE_DECRYPT, () ->
+                        AuthCrypto.privateDecrypt(plainText, keyPair.getPrivate(), "RSA/ECB/PKCS1PADDING"))
+                        .get(10, TimeUnit.SECONDS);
+                Assert.fail("Decryption of a plain text must fail.");
+            }
+            catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+            }
+            Assert.assertEquals(1, executor.getNumFailed(AsymmetricCryptoExecutor.Operation.PRIVATE_DECRYPT));
+            Assert.assertEquals(3, executor.getNumCompleted(AsymmetricCryptoExecutor.Operation.PRIVATE_DECRYPT));
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @Category(org.iot.auth.db.dao.AuthStore.class)
+    public void testCachedSessionKeys() throws Exception {
+        String path = createStorePath();
+        try {
+            AuthStore authStore = openAuthStore(path);
+            long currentTime = new Date().getTime();
+            authStore.insertCachedSessionKeys(Arrays.asList(
+                    createCachedSessionKey(1, "net1.client", currentTime + 3600000),
+                    createCachedSessionKey(2, "net1.server", currentTime + 7200000),
+                    createCachedSessionKey(3, "net1.client", currentTime - 1000)));
+            try {
+                authStore.insertRecords(createCachedSessionKey(1, "net1.server", currentTime));
+                Assert.fail("Session key with an existing ID must not be inserted.");
+            }
+            catch (SQLException e) {
+                Assert.assertEquals(3, authStore.selectAllCachedSessionKey().size());
+            }
+            Assert.assertEquals("net1.client", authStore.selectCachedSessionKeyByID(1).getOwner());
+            Assert.assertNull(authStore.selectCachedSessionKeyByID(4));
+
+            // Expired keys and keys already owned by the requester are excluded.
+            List<CachedSessionKeyTable> candidates =
+                    authStore.selectCachedSessionKeysByPurpose("net1.client", SESSION_KEY_PURPOSE);
+            Assert.assertEquals(1, candidates.size());
+            Assert.assertEquals(2, candidates.get(0).getID());
+            Assert.assertEquals(2, authStore.appendSessionKeyOwners(Arrays.asList(1L, 2L), "net1.ptClient"));
+            Assert.assertEquals(0, authStore.appendSessionKeyOwners(Arrays.asList(1L, 2L), "net1.ptClient"));
+            Assert.assertTrue(authStore.selectCachedSessionKeysByPurpose("net1.ptClient", SESSION_KEY_PURPOSE).isEmpty());
+            authStore.close();
+
+            authStore = openAuthStore(path);
+            List<String> owners = Arrays.asList(authStore.selectCachedSessionKeyByID(2).getOwner().split(","));
+            Assert.assertEquals(2, owners.size());
+            Assert.assertTrue(owners.containsAll(Arrays.asList("net1.server", "net1.ptClient")));
+            Assert.assertArrayEquals(createCachedSessionKey(2, "", 0).getKeyVal(),
+                    authStore.selectCachedSessionKeyByID(2).getKeyVal());
+            Assert.assertEquals(1, authStore.deleteExpiredCachedSessionKeys(currentTime, 10));
+            Assert.assertNull(authStore.selectCachedSessionKeyByID(3));
+            authStore.vacuum(0);
+            authStore.deleteAllCachedSessionKeys();
+            Assert.assertTrue(authStore.selectAllCachedSessionKey().isEmpty());
+            authStore.close();
+
+            authStore = openAuthStore(path);
+            Assert.assertTrue(authStore.selectAllCachedSessionKey().isEmpty());
+            authStore.close();
+        }
+        finally {
+            deleteStoreFiles(path);
+        }
+    }
+
+    @Test
+    @Category(org.iot.auth.db.dao.AuthStore.class)
+    public void testMetaData() throws Exception {
+        String path = createStorePath();
+        try {
+            AuthStore authStore = openAuthStore(path);
+            String key = MetaDataTable.key.SessionKeyIDLimit.name();
+            Assert.assertNull(authStore.selectMetaDataValue(key));
+            MetaDataTable metaData = new MetaDataTable();
+            metaData.setKey(key);
+            metaData.setValue("10000");
+            authStore.insertRecords(metaData);
+            authStore.updateMetaData(key, "20000");
+            authStore.updateMetaData(MetaDataTable.key.SessionKeyCount.name(), "1");
+            authStore.close();
+
+            authStore = openAuthStore(path);
+            Assert.assertEquals("20000", authStore.selectMetaDataValue(key));
+            Assert.assertNull(authStore.selectMetaDataValue(MetaDataTable.key.SessionKeyCount.name()));
+            authStore.close();
+        }
+        finally {
+            deleteStoreFiles(path);
+        }
+    }
+
+    @Test
+    @Category(org.iot.auth.db.dao.SQLiteConnector.class)
+    public void testIncrementalVacuum() throws Exception {
+        assumeDefaultStore();
+        String path = createStorePath();
+        try {
+            long expirationTime = new Date().getTime() + 3600000;
+            List<CachedSessionKeyTable> cachedSessionKeyList = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                cachedSessionKeyList.add(createCachedSessionKey(i, "net1.client", expirationTime));
+            }
+            AuthStore authStore = openAuthStore(path);
+            authStore.insertCachedSessionKeys(cachedSessionKeyList);
+            authStore.deleteAllCachedSessionKeys();
+            Assert.assertEquals(10, authStore.vacuum(10));
+            Assert.assertTrue(authStore.vacuum(0) > 10);
+            Assert.assertEquals(0, authStore.vacuum(0));
+            authStore.close();
+
+            // A database without incremental auto vacuum is converted when it is opened.
+            try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + path);
+                 Statement statement = connection.createStatement()) {
+                statement.executeUpdate("PRAGMA auto_vacuum=NONE");
+                statement.executeUpdate("VACUUM");
+            }
+            Assert.assertEquals(0, selectAutoVacuum(path));
+            authStore = createAuthStore(path);
+            authStore.initialize(databaseKey);
+            authStore.insertCachedSessionKeys(cachedSessionKeyList);
+            authStore.deleteAllCachedSessionKeys();
+            Assert.assertEquals(0, authStore.vacuum(0));
+            authStore.close();
+            authStore = openAuthStore(path);
+            authStore.close();
+            Assert.assertEquals(2, selectAutoVacuum(path));
+            authStore = openAuthStore(path);
+            authStore.insertCachedSessionKeys(cachedSessionKeyList);
+            authStore.deleteAllCachedSessionKeys();
+            Assert.assertTrue(authStore.vacuum(0) > 10);
+            authStore.close();
+        }
+        finally {
+            deleteStoreFiles(path);
+        }
+    }
+
+    @Test
+    @Category(org.iot.auth.db.SessionKeyIDAllocator.class)
+    public void testSessionKeyIDAllocator() throws Exception {
+        String path = createStorePath();
+        try {
+            AuthStore authStore = openAuthStore(path);
+            // Legacy IDs keep the Auth ID in the decimal digits above the index.
+            SessionKeyIDAllocator legacyAllocator = new SessionKeyIDAllocator(101, SessionKeyIDAllocator.LAYOUT_LEGACY,
+                    100, authStore);
+            Assert.assertEquals(10100000L, legacyAllocator.allocate(1));
+            Assert.assertEquals(10100001L, legacyAllocator.allocate(5));
+            Assert.assertEquals(10100006L, legacyAllocator.allocate(1));
+            Assert.assertEquals(101, SessionKeyIDAllocator.decodeAuthID(10100006L));
+            Assert.assertEquals("100", authStore.selectMetaDataValue(MetaDataTable.key.SessionKeyCount.name()));
+
+            // Packed IDs set the layout flag and keep the Auth ID above the 32-bit index.
+            SessionKeyIDAllocator packedAllocator = new SessionKeyIDAllocator(32767, SessionKeyIDAllocator.LAYOUT_PACKED,
+                    100, authStore);
+            long packedID = packedAllocator.allocate(1);
+            Assert.assertEquals((1L << 47) | (32767L << 32), packedID);
+            Assert.assertTrue(packedID < (1L << 48));
+            Assert.assertEquals(32767, SessionKeyIDAllocator.decodeAuthID(packedID));
+            Assert.assertEquals(32767, SessionKeyIDAllocator.decodeAuthID(packedAllocator.allocate(1)));
+            Assert.assertEquals(0, SessionKeyIDAllocator.decodeAuthID(
+                    new SessionKeyIDAllocator(0, SessionKeyIDAllocator.LAYOUT_PACKED, 100, authStore).allocate(1)));
+            try {
+                new SessionKeyIDAllocator(32768, SessionKeyIDAllocator.LAYOUT_PACKED, 100, authStore);
+                Assert.fail("Auth ID beyond 15 bits must not be accepted for the packed layout.");
+            }
+            catch (IllegalArgumentException e) {
+                // expected
+            }
+
+            // Requests larger than a block reserve a block of their size.
+            SessionKeyIDAllocator largeRequestAllocator = new SessionKeyIDAllocator(101,
+                    SessionKeyIDAllocator.LAYOUT_LEGACY, 100, authStore);
+            Assert.assertEquals(10100100L, largeRequestAllocator.allocate(250));
+            Assert.assertEquals("350", authStore.selectMetaDataValue(MetaDataTable.key.SessionKeyCount.name()));
+
+            // Legacy blocks are small, unused indices are returned on close, and no legacy index is allocated past
+            // those of the Auth.
+            SessionKeyIDAllocator closingAllocator = new SessionKeyIDAllocator(101,
+                    SessionKeyIDAllocator.LAYOUT_LEGACY, 10000, authStore);
+            Assert.assertEquals(10100350L, closingAllocator.allocate(1));
+            Assert.assertEquals("450", authStore.selectMetaDataValue(MetaDataTable.key.SessionKeyCount.name()));
+            closingAllocator.close();
+            Assert.assertEquals("351", authStore.selectMetaDataValue(MetaDataTable.key.SessionKeyCount.name()));
+            Assert.assertEquals(10100351L, closingAllocator.allocate(1));
+            closingAllocator.close();
+            authStore.updateMetaData(MetaDataTable.key.SessionKeyCount.name(), "99990");
+            Assert.assertEquals(10199990L, closingAllocator.allocate(8));
+            Assert.assertEquals("100000", authStore.selectMetaDataValue(MetaDataTable.key.SessionKeyCount.name()));
+            Assert.assertEquals(10199998L, closingAllocator.allocate(2));
+            try {
+                closingAllocator.allocate(1);
+                Assert.fail("Legacy session key IDs must not be allocated from the index space of the next Auth.");
+            }
+            catch (IllegalStateException e) {
+                Assert.assertEquals(101, SessionKeyIDAllocator.decodeAuthID(10199999L));
+            }
+
+            // Allocations from concurrent threads never overlap, across block boundaries.
+            final SessionKeyIDAllocator concurrentAllocator = new SessionKeyIDAllocator(102,
+                    SessionKeyIDAllocator.LAYOUT_PACKED, 10, authStore);
+            final int numThreads = 4;
+            final int numAllocationsPerThread = 200;
+            final Set<Long> allocatedIDs = Collections.synchronizedSet(new HashSet<>());
+            List<Thread> threadList = new ArrayList<>();
+            List<Throwable> failureList = Collections.synchronizedList(new ArrayList<>());
+            for (int i = 0; i < numThreads; i++) {
+                final int numKeys = i + 1;
+                Thread thread = new Thread(() -> {
+                    try {
+                        for (int j = 0; j < numAllocationsPerThread; j++) {
+                            long firstID = concurrentAllocator.allocate(numKeys);
+                            for (int k = 0; k < numKeys; k++) {
+                                Assert.assertTrue(allocatedIDs.add(firstID + k));
+                            }
+                        }
+                    }
+                    catch (Throwable e) {
+                        failureList.add(e);
+                    }
+                });
+                thread.start();
+                threadList.add(thread);
+            }
+            for (Thread thread : threadList) {
+                thread.join();
+            }
+            Assert.assertEquals(failureList.toString(), 0, failureList.size());
+            int numAllocatedKeys = numAllocationsPerThread * (1 + 2 + 3 + 4);
+            Assert.assertEquals(numAllocatedKeys, allocatedIDs.size());
+            for (long id: allocatedIDs) {
+                Assert.assertEquals(102, SessionKeyIDAllocator.decodeAuthID(id));
+            }
+            long indexLimit = Long.parseLong(authStore.selectMetaDataValue(MetaDataTable.key.SessionKeyIDLimit.name()));
+            Assert.assertTrue(indexLimit >= numAllocatedKeys);
+            authStore.close();
+        }
+        finally {
+            deleteStoreFiles(path);
+        }
+    }
+
+    /**
+     * Opens a database from before the session key owner table, where owners were kept only as comma separated
+     * names, and checks that owners are migrated so that an owner name never matches another one it is a prefix of.
+     */
+    @Test
+    @Category(org.iot.auth.db.dao.SQLiteConnector.class)
+    public void testSessionKeyOwnerMigration() throws Exception {
+        assumeDefaultStore();
+        String path = createStorePath();
+        try {
+            long expirationTime = new Date().getTime() + 3600000;
+            AuthStore authStore = openAuthStore(path);
+            authStore.insertCachedSessionKeys(Arrays.asList(
+                    createCachedSessionKey(1, "net1.client2", expirationTime),
+                    createCachedSessionKey(2, "net1.client,net1.server", expirationTime),
+                    createCachedSessionKey(3, "net1.server,net1.client2", expirationTime)));
+            authStore.close();
+            try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + path);
+                 Statement statement = connection.createStatement()) {
+                statement.executeUpdate("DROP TABLE session_key_owner");
+            }
+
+            authStore = createAuthStore(path);
+            authStore.initialize(databaseKey);
+            Assert.assertEquals(5, authStore.upgradeSchemaIfNeeded());
+            Assert.assertEquals(0, authStore.upgradeSchemaIfNeeded());
+
+            Set<Long> keyIDs = new HashSet<>();
+            for (CachedSessionKeyTable cachedSessionKey:
+                    authStore.selectCachedSessionKeysByPurpose("net1.client", SESSION_KEY_PURPOSE)) {
+                keyIDs.add(cachedSessionKey.getID());
+            }
+            Assert.assertEquals(new HashSet<>(Arrays.asList(1L, 3L)), keyIDs);
+            keyIDs.clear();
+            for (CachedSessionKeyTable cachedSessionKey:
+                    authStore.selectCachedSessionKeysByPurpose("net1.client2", SESSION_KEY_PURPOSE)) {
+                keyIDs.add(cachedSessionKey.getID());
+            }
+            Assert.assertEquals(new HashSet<>(Arrays.asList(2L)), keyIDs);
+
+            // Owners appended after the migration are found as well.
+            authStore.appendSessionKeyOwner(1, "net1.client");
+            Assert.assertEquals(new HashSet<>(Arrays.asList("net1.client2", "net1.client")),
+                    new HashSet<>(Arrays.asList(authStore.selectCachedSessionKeyByID(1).getOwner().split(","))));
+            Assert.assertEquals(1, authStore.selectCachedSessionKeysByPurpose("net1.client", SESSION_KEY_PURPOSE).size());
+            authStore.close();
+        }
+        finally {
+            deleteStoreFiles(path);
+        }
+    }
+
+    /**
+     * Fails commits of the session key journal, and checks that group mode retries them while sync mode leaves no
+     * uncommitted owner in memory.
+     */
+    @Test
+    @Category(org.iot.auth.db.SessionKeyStore.class)
+    public void testSessionKeyStoreCommitFailures() throws Exception {
+        assumeDefaultStore();
+        String path = createStorePath();
+        try {
+            long expirationTime = new Date().getTime() + 3600000;
+            AuthStore authStore = openAuthStore(path);
+            Set<String> failingMethods = Collections.synchronizedSet(new HashSet<>());
+            AuthStore failingAuthStore = (AuthStore) Proxy.newProxyInstance(AuthStore.class.getClassLoader(),
+                    new Class<?>[] {AuthStore.class}, (proxy, method, args) -> {
+                        if (failingMethods.contains(method.getName())) {
+                            throw new SQLException("Failure of " + method.getName() + " for testing.");
+                        }
+                        try {
+                            return method.invoke(authStore, args);
+                        }
+                        catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+
+            SessionKeyStore groupStore = new SessionKeyStore(SessionKeyStore.DURABILITY_GROUP, 3600000, failingAuthStore);
+            failingMethods.add("insertCachedSessionKeys");
+            groupStore.put(Arrays.asList(createSessionKey(1, "net1.client", expirationTime)));
+            try {
+                groupStore.flush();
+                Assert.fail("Flush must fail while the journal cannot be committed.");
+            }
+            catch (SQLException e) {
+                Assert.assertNull(authStore.selectCachedSessionKeyByID(1));
+            }
+            failingMethods.clear();
+            groupStore.flush();
+            Assert.assertEquals("net1.client", authStore.selectCachedSessionKeyByID(1).getOwner());
+
+            // Only owners are retried when session keys of the same commit are already inserted.
+            failingMethods.add("appendSessionKeyOwners");
+            groupStore.put(Arrays.asList(createSessionKey(2, "net1.client", expirationTime)));
+            Assert.assertEquals(2, groupStore.addOwner(Arrays.asList(1L, 2L), "net1.server"));
+            try {
+                groupStore.flush();
+                Assert.fail("Flush must fail while the journal cannot be committed.");
+            }
+            catch (SQLException e) {
+                Assert.assertNotNull(authStore.selectCachedSessionKeyByID(2));
+            }
+            failingMethods.clear();
+            groupStore.flush();
+            for (long keyID = 1; keyID <= 2; keyID++) {
+                Assert.assertEquals(new HashSet<>(Arrays.asList("net1.client", "net1.server")), new HashSet<>(
+                        Arrays.asList(authStore.selectCachedSessionKeyByID(keyID).getOwner().split(","))));
+            }
+            groupStore.close();
+
+            SessionKeyStore syncStore = new SessionKeyStore(SessionKeyStore.DURABILITY_SYNC, 0, failingAuthStore);
+            Assert.assertEquals(2, syncStore.load());
+            failingMethods.add("appendSessionKeyOwners");
+            try {
+                syncStore.addOwner(Arrays.asList(1L, 2L), "net2.client");
+                Assert.fail("Owner must not be added while it cannot be committed.");
+            }
+            catch (SQLException e) {
+                for (long keyID = 1; keyID <= 2; keyID++) {
+                    Assert.assertEquals(new HashSet<>(Arrays.asList("net1.client", "net1.server")),
+                            new HashSet<>(Arrays.asList(syncStore.get(keyID).getOwners())));
+                }
+                Assert.assertEquals(2, syncStore.getByPurpose("net2.client", SESSION_KEY_PURPOSE).size());
+            }
+            failingMethods.clear();
+            Assert.assertEquals(2, syncStore.addOwner(Arrays.asList(1L, 2L), "net2.client"));
+            Assert.assertEquals(0, syncStore.getByPurpose("net2.client", SESSION_KEY_PURPOSE).size());
+            syncStore.close();
+            authStore.close();
+        }
+        finally {
+            deleteStoreFiles(path);
+        }
+    }
+
+    /**
+     * Test that session keys retried after a failed insertion into the database are not encrypted twice.
+     */
+    @Test
+    @Category(org.iot.auth.db.SessionKeyStore.class)
+    public void testSessionKeyStoreRetryWithEncryptedCredentials() throws Exception {
+        assumeDefaultStore();
+        String path = createStorePath();
+        try {
+            long expirationTime = new Date().getTime() + 3600000;
+            openAuthStore(path).close();
+            SQLiteConnector sqLiteConnector = new SQLiteConnector(path, AuthDBProtectionMethod.ENCRYPT_CREDENTIALS);
+            sqLiteConnector.initialize(databaseKey);
+            // The insertion fails in the database, after the session key is encrypted.
+            sqLiteConnector.insertRecords(createCachedSessionKey(1, "net1.server", expirationTime));
+            SessionKeyStore groupStore = new SessionKeyStore(SessionKeyStore.DURABILITY_GROUP, 3600000, sqLiteConnector);
+            SessionKey sessionKey = createSessionKey(1, "net1.client", expirationTime);
+            groupStore.put(Arrays.asList(sessionKey));
+            try {
+                groupStore.flush();
+                Assert.fail("Flush must fail while a session key with the same ID exists.");
+            }
+            catch (SQLException e) {
+                Assert.assertEquals("net1.server", sqLiteConnector.selectCachedSessionKeyByID(1).getOwner());
+            }
+            sqLiteConnector.deleteAllCachedSessionKeys();
+            groupStore.flush();
+            groupStore.close();
+            sqLiteConnector.close();
+
+            sqLiteConnector = new SQLiteConnector(path, AuthDBProtectionMethod.ENCRYPT_CREDENTIALS);
+            sqLiteConnector.initialize(databaseKey);
+            SessionKeyStore syncStore = new SessionKeyStore(SessionKeyStore.DURABILITY_SYNC, 0, sqLiteConnector);
+            Assert.assertEquals(1, syncStore.load());
+            Assert.assertEquals("net1.client", syncStore.get(1).getOwners()[0]);
+            Assert.assertArrayEquals(sessionKey.getSerializedKeyVal().getRawBytes(),
+                    syncStore.get(1).getSerializedKeyVal().getRawBytes());
+            syncStore.close();
+            sqLiteConnector.close();
+        }
+        finally {
+            deleteStoreFiles(path);
+        }
+    }
+
+    @Test
+    @Category(org.iot.auth.db.dao.AuthStore.class)
+    public void testRegisteredEntityUpdates() throws Exception {
+        String path = createStorePath();
+        try {
+            AuthStore authStore = openAuthStore(path);
+            authStore.insertRecords(createRegisteredEntity("net1.client", -1));
+            authStore.insertRecords(createRegisteredEntity("net1.server", -1));
+            authStore.insertRecords(createRegisteredEntity("net2.client", 102));
+            try {
+                authStore.insertRecords(createRegisteredEntity("net1.client", -1));
+                Assert.fail("Registered entity with an existing name must not be inserted.");
+            }
+            catch (SQLException e) {
+                Assert.assertEquals(3, authStore.selectAllRegEntities(authDBDir).size());
+            }
+            DistributionKey distributionKey = new DistributionKey(
+                    SymmetricKeyCryptoSpec.fromSpecString("AES-128-CBC:SHA256"), 3600000);
+            long expirationTime = distributionKey.getRawExpirationTime();
+            authStore.updateRegEntityDistKey("net1.client", expirationTime, distributionKey.getSerializedKeyVal());
+            Map<String, DistributionKey> distributionKeyMap = new HashMap<>();
+            distributionKeyMap.put("net1.server", distributionKey);
+            distributionKeyMap.put("net3.unknown", distributionKey);
+            Assert.assertEquals(1, authStore.updateRegEntityDistKeys(distributionKeyMap, "FULL"));
+            authStore.close();
+
+            authStore = openAuthStore(path);
+            for (RegisteredEntityTable regEntity: authStore.selectAllRegEntities(authDBDir)) {
+                if (regEntity.getName().startsWith("net1.")) {
+                    Assert.assertEquals(expirationTime, regEntity.getDistKeyExpirationTime());
+                    Assert.assertArrayEquals(distributionKey.getSerializedKeyVal().getRawBytes(), regEntity.getDistKeyVal());
+                }
+            }
+            authStore.deleteBackedUpRegisteredEntities();
+            authStore.deleteRegisteredEntities(Arrays.asList("net1.server"));
+            authStore.close();
+
+            authStore = openAuthStore(path);
+            List<RegisteredEntityTable> regEntities = authStore.selectAllRegEntities(authDBDir);
+            Assert.assertEquals(1, regEntities.size());
+            Assert.assertEquals("net1.client", regEntities.get(0).getName());
+            authStore.close();
+        }
+        finally {
+            deleteStoreFiles(path);
+        }
+    }
+
+    @Test
+    @Category(org.iot.auth.db.RegisteredEntity.class)
+    public void testLazyRegisteredEntityLoading() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(1024);
+        PublicKey publicKey = keyPairGenerator.generateKeyPair().getPublic();
+        DistributionKey distributionKey = new DistributionKey(
+                SymmetricKeyCryptoSpec.fromSpecString("AES-128-CBC:SHA256"), 3600000);
+        String path = createStorePath();
+        try {
+            AuthStore authStore = openAuthStore(path);
+            authStore.insertRecords(createRegisteredEntity("net1.client", -1)
+                    .setDistKeyVal(distributionKey.getSerializedKeyVal().getRawBytes())
+                    .setDistKeyExpirationTime(distributionKey.getRawExpirationTime()));
+            authStore.insertRecords(createRegisteredEntity("net1.server", -1)
+                    .setUsePermanentDistKey(false)
+                    .setPublicKeyCryptoSpec("RSA-SHA256")
+                    .setPublicKey(publicKey));
+            authStore.close();
+
+            authStore = openAuthStore(path);
+            List<RegisteredEntityTable> regEntities = authStore.selectAllRegEntities(authDBDir);
+            authStore.close();
+            Assert.assertEquals(2, regEntities.size());
+            List<RegisteredEntity> lazyEntities = new ArrayList<>();
+            List<RegisteredEntity> eagerEntities = new ArrayList<>();
+            for (RegisteredEntityTable regEntity: regEntities) {
+                if (regEntity.getName().equals("net1.server")) {
+                    Assert.assertArrayEquals(publicKey.getEncoded(), regEntity.getPublicKeyVal());
+                }
+                lazyEntities.add(new RegisteredEntity(regEntity));
+                eagerEntities.add(new RegisteredEntity(regEntity));
+            }
+            eagerEntities.parallelStream().forEach(RegisteredEntity::materializeCryptoObjects);
+            for (List<RegisteredEntity> entities: Arrays.asList(lazyEntities, eagerEntities)) {
+                for (RegisteredEntity registeredEntity: entities) {
+                    if (registeredEntity.getName().equals("net1.client")) {
+                        Assert.assertNull(registeredEntity.getPublicKey());
+                        Assert.assertArrayEquals(distributionKey.getSerializedKeyVal().getRawBytes(),
+                                registeredEntity.getDistributionKey().getSerializedKeyVal().getRawBytes());
+                        Assert.assertEquals(distributionKey.getRawExpirationTime(),
+                                registeredEntity.getDistributionKey().getRawExpirationTime());
+                    }
+                    else {
+                        Assert.assertNull(registeredEntity.getDistributionKey());
+                        Assert.assertEquals(publicKey, registeredEntity.getPublicKey());
+                        Assert.assertArrayEquals(publicKey.getEncoded(),
+                                registeredEntity.toRegisteredEntityTable(null, -1).getPublicKeyVal());
+                    }
+                }
+            }
+
+            // A distribution key set before the first use replaces the one loaded from the database.
+            RegisteredEntity registeredEntity = null;
+            for (RegisteredEntityTable regEntity: regEntities) {
+                if (regEntity.getName().equals("net1.client")) {
+                    registeredEntity = new RegisteredEntity(regEntity);
+                }
+            }
+            DistributionKey newDistributionKey = new DistributionKey(
+                    SymmetricKeyCryptoSpec.fromSpecString("AES-128-CBC:SHA256"), 7200000);
+            registeredEntity.setDistributionKey(newDistributionKey);
+            Assert.assertSame(newDistributionKey, registeredEntity.getDistributionKey());
+        }
+        finally {
+            deleteStoreFiles(path);
+        }
+    }
+
+    /**
+     * Creates the Auth DB store under test, overridden by tests of other storage backends.
+     * @param path Path of the store, files of other backends are derived from it.
+     * @return The store, not initialized yet.
+     */
+    protected AuthStore createAuthStore(String path) {
+        SQLiteConnector sqLiteConnector = new SQLiteConnector(path, authDBProtectionMethod);
         sqLiteConnector.DEBUG = true;
-        sqLiteConnector.selectAllTrustedAuth();
-        sqLiteConnector.close();
+        return sqLiteConnector;
+    }
+
+    /**
+     * Whether the store under test is the default one, so that tests not involving the store run only once.
+     */
+    protected boolean isDefaultStore() {
+        return true;
     }
-}
\ No newline at end of file
+
+    protected void deleteStoreFiles(String path) {
+        new File(path).delete();
+    }
+
+    private void assumeDefaultStore() {
+        Assume.assumeTrue(isDefaultStore());
+    }
+
+    /**
+     * A fresh path for each test, as test methods run in parallel.
+     */
+    private String createStorePath() throws IOException {
+        File file = File.createTempFile("auth_store", ".db");
+        file.delete();
+        return file.getPath();
+    }
+
+    private AuthStore openAuthStore(String path) throws Exception {
+        if (databaseKey == null) {
+            databaseKey = new SymmetricKey(SQLiteConnector.AUTH_DB_CRYPTO_SPEC,
+                    new Date().getTime() + DateHelper.parseTimePeriod(SQLiteConnector.AUTH_DB_KEY_ABSOLUTE_VALIDITY));
+        }
+        AuthStore authStore = createAuthStore(path);
+        authStore.initialize(databaseKey);
+        authStore.createTablesIfNotExists();
+        authStore.upgradeSchemaIfNeeded();
+        return authStore;
+    }
+
+    private static int selectAutoVacuum(String path) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + path);
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("PRAGMA auto_vacuum")) {
+            return resultSet.getInt(1);
+        }
+    }
+
+    private static byte[] createIoTSPMessage(MessageType messageType, int payloadLength) {
+        byte[] payloadLengthBytes = new VariableLengthInt(payloadLength).getRawBytes();
+        byte[] message = new byte[1 + payloadLengthBytes.length + payloadLength];
+        message[0] = messageType.getValue();
+        System.arraycopy(payloadLengthBytes, 0, message, 1, payloadLengthBytes.length);
+        for (int i = 1 + payloadLengthBytes.length; i < message.length; i++) {
+            message[i] = (byte) i;
+        }
+        return message;
+    }
+
+    private static CachedSessionKeyTable createCachedSessionKey(long id, String owner, long expirationTime) {
+        CachedSessionKeyTable cachedSessionKey = new CachedSessionKeyTable();
+        cachedSessionKey.setID(id);
+        cachedSessionKey.setOwner(owner);
+        cachedSessionKey.setMaxNumOwners(4);
+        cachedSessionKey.setPurpose(SESSION_KEY_PURPOSE);
+        cachedSessionKey.setAbsValidity(expirationTime);
+        cachedSessionKey.setRelValidity(3600000);
+        cachedSessionKey.setSessionCryptoSpec("AES-128-CBC:SHA256");
+        byte[] keyVal = new byte[48];
+        Arrays.fill(keyVal, (byte) id);
+        cachedSessionKey.setKeyVal(keyVal);
+        return cachedSessionKey;
+    }
+
+    private static SessionKey createSessionKey(long id, String owner, long expirationTime) {
+        return new SessionKey(id, new String[] {owner}, 4, SESSION_KEY_PURPOSE, expirationTime, 3600000,
+                SymmetricKeyCryptoSpec.fromSpecString("AES-128-CBC:SHA256"));
+    }
+
+    private static RegisteredEntityTable createRegisteredEntity(String name, int backupFromAuthID) {
+        return new RegisteredEntityTable()
+                .setName(name)
+                .setGroup("Clients")
+                .setDistProtocol("TCP")
+                .setUsePermanentDistKey(true)
+                .setMaxSessionKeysPerRequest(5)
+                .setDistKeyValidityPeriod("1*hour")
+                .setDistCryptoSpec("AES-128-CBC:SHA256")
+                .setActive(true)
+                .setBackupToAuthIDs("")
+                .setBackupFromAuthID(backupFromAuthID);
+    }
+
+    private static final String SESSION_KEY_PURPOSE = "Group:Servers";
+    private static final long STREAMING_DB_SIZE = 1024L * 1024 * 1024;
+}
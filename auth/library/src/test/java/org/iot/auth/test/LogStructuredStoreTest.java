@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.test;
+
+import org.iot.auth.db.dao.AuthStore;
+import org.iot.auth.db.dao.LogStructuredStore;
+
+import java.io.File;
+
+/**
+ * Runs the Auth DB tests of {@link AppTest} against the log-structured backend.
+ * @author Hokeun Kim
+ */
+public class LogStructuredStoreTest extends AppTest {
+    @Override
+    protected AuthStore createAuthStore(String path) {
+        return new LogStructuredStore(path + LOG_FILE_SUFFIX, authDBProtectionMethod);
+    }
+
+    @Override
+    protected boolean isDefaultStore() {
+        return false;
+    }
+
+    @Override
+    protected void deleteStoreFiles(String path) {
+        new File(path + LOG_FILE_SUFFIX).delete();
+    }
+
+    private static final String LOG_FILE_SUFFIX = ".log";
+}
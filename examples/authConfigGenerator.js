@@ -186,8 +186,19 @@ function generatePropertiesFiles() {
             'host_name': '0.0.0.0',
             'entity_tcp_port': auth.tcpPort,
             'entity_tcp_port_timeout': 20000,
+            // 'blocking' (thread per connection) or 'nio' (selector threads)
+            'entity_tcp_io_mode': 'blocking',
+            'entity_tcp_selector_threads': 2,
             'entity_udp_port': auth.udpPort, 
             'entity_udp_port_timeout': 20000,
+            'entity_udp_receiver_threads': 1,
+            'entity_udp_state_shards': 16,
+            // 'fixed' (worker threads) or 'virtual' (virtual threads, newer JDK only)
+            'entity_request_executor': 'fixed',
+            'entity_request_worker_threads': 64,
+            'entity_request_queue_capacity': 1024,
+            // requires running Auth on JDK 21 or later
+            'virtual_threads_enabled': false,
             'trusted_auth_port': auth.authPort,
             'trusted_auth_port_idle_timeout': 600000,
             'contextual_callback_port': auth.callbackPort,
@@ -200,8 +211,56 @@ function generatePropertiesFiles() {
             'trusted_ca_cert_paths': '../credentials/ca/CACert.pem',
             'auth_database_dir': authDBDir,
             'auth_db_protection_method': auth.dbProtectionMethod,
+            // sqlite, or log for an in-memory index with an append-only log (imports auth.db on first start)
+            'auth_db_backend': 'sqlite',
+            // decodes keys of all registered entities at startup in parallel instead of on first use, default is false
+            'auth_db_eager_loading_enabled': false,
+            // WAL journal, synchronous=NORMAL, mmap and page cache tuning for Auth DB, default is false
+            'auth_db_pragma_tuning_enabled': false,
+            'auth_db_mmap_size': 268435456,
+            // negative value is in KiB
+            'auth_db_cache_size': -16384,
+            // for encrypting entire DB, writes changed chunks of in-memory Auth DB every interval in milliseconds, 0 disables
+            'auth_db_checkpoint_interval': 60000,
             // currently default is true, set false only when this is given by the graph file
             'backup_enabled': (auth.backupEnabled != null && !auth.backupEnabled) ? false : true,
+            // pre-generated session keys per communication policy crypto spec, default is false
+            'session_key_pool_enabled': false,
+            'session_key_pool_low_watermark': 64,
+            'session_key_pool_high_watermark': 256,
+            // pre-generated ephemeral key pairs for Diffie-Hellman distribution keys, sized by handshake rate, default is false
+            'ecdh_key_pair_pool_enabled': false,
+            'ecdh_key_pair_pool_min_size': 4,
+            'ecdh_key_pair_pool_max_size': 256,
+            // 'legacy' (auth ID * 100000 + index, default) or 'packed' (auth ID in high bits, opt-in)
+            'session_key_id_layout': 'legacy',
+            'session_key_id_block_size': 10000,
+            // in-memory session key store journaled to Auth DB, default is false
+            'session_key_store_enabled': false,
+            // 'sync' (wait for commit) or 'group' (commit every interval in milliseconds)
+            'session_key_store_durability': 'group',
+            'session_key_store_group_commit_interval': 50,
+            // writes updated distribution keys to Auth DB every interval in milliseconds, default is false
+            'distribution_key_write_behind_enabled': false,
+            'distribution_key_flush_interval': 100,
+            // 'default' (as the Auth DB connection), 'flush' (fsync every flush) or 'none' (left to the OS)
+            'distribution_key_fsync': 'default',
+            // deletes expired session keys every interval in milliseconds, in batches within the budget in milliseconds
+            'session_key_sweeper_enabled': true,
+            'session_key_sweeper_interval': 60000,
+            'session_key_sweeper_batch_size': 500,
+            'session_key_sweeper_budget': 200,
+            // reclaims free pages of Auth DB when Auth is idle
+            'session_key_sweeper_vacuum_enabled': true,
+            // communication policies with a target ending with '*' apply to all targets with the prefix, default is false
+            'communication_policy_wildcard_enabled': false,
+            // ring buffer of random bytes for nonces and keys, refilled in background, in bytes, 0 disables
+            'random_buffer_size': 0,
+            // dedicated workers for RSA operations of handshakes, 0 threads is one per core, default is false
+            'asymmetric_crypto_executor_enabled': false,
+            'asymmetric_crypto_threads': 0,
+            // security provider name for RSA operations, for example 'BC', empty is the default provider
+            'asymmetric_crypto_provider': '',
             // currently default is false
             'qps_throttling_enabled': auth.capacityQpsLimit == null ? false : true,
             'qps_limit': auth.capacityQpsLimit == null ? 10 : auth.capacityQpsLimit/60.0,